@@ -3,6 +3,7 @@ package de.embl.cba.morphometry;
 import de.embl.cba.morphometry.geometry.CoordinateToValue;
 import de.embl.cba.morphometry.geometry.CoordinatesAndValues;
 import de.embl.cba.morphometry.regions.Regions;
+import de.embl.cba.morphometry.splitting.SeededWatershed;
 import de.embl.cba.transforms.utils.Transforms;
 import ij.IJ;
 import ij.ImagePlus;
@@ -13,12 +14,11 @@ import net.imagej.ops.threshold.yen.ComputeYenThreshold;
 import net.imglib2.*;
 import net.imglib2.RandomAccess;
 import net.imglib2.algorithm.labeling.ConnectedComponents;
-import net.imglib2.algorithm.morphology.Closing;
 import net.imglib2.algorithm.morphology.Dilation;
 import net.imglib2.algorithm.morphology.Erosion;
-import net.imglib2.algorithm.morphology.Opening;
 import net.imglib2.algorithm.morphology.distance.DistanceTransform;
 import net.imglib2.algorithm.neighborhood.HyperSphereShape;
+import net.imglib2.algorithm.neighborhood.RectangleShape;
 import net.imglib2.algorithm.neighborhood.Neighborhood;
 import net.imglib2.algorithm.neighborhood.Shape;
 import net.imglib2.converter.Converters;
@@ -28,7 +28,6 @@ import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
-import net.imglib2.loops.LoopBuilder;
 import net.imglib2.realtransform.RealViews;
 import net.imglib2.realtransform.Scale;
 import net.imglib2.roi.labeling.*;
@@ -42,11 +41,13 @@ import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Intervals;
 import net.imglib2.util.LinAlgHelpers;
 import net.imglib2.util.Pair;
+import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
 import java.util.*;
+import java.util.function.Function;
 
 import static de.embl.cba.transforms.utils.ImageCreators.copyAsArrayImg;
 import static de.embl.cba.transforms.utils.Transforms.createTransformedInterval;
@@ -156,21 +157,54 @@ public class Algorithms
 	public static < T extends RealType< T > & NativeType< T > >
 	List< RealPoint > findLocalMaximumValues( RandomAccessibleInterval< T > rai, Shape shape )
 	{
+		final int n = rai.numDimensions();
+		final long[] positions = findLocalMaximumPositions( rai, shape, 1 );
+
 		List< RealPoint > points = new ArrayList<>();
+		for ( int i = 0; i < positions.length; i += n )
+		{
+			final RealPoint point = new RealPoint( n );
+			for ( int d = 0; d < n; ++d )
+				point.setPosition( positions[ i + d ], d );
+			points.add( point );
+		}
 
-		RandomAccessible<Neighborhood<T>> neighborhoods = shape.neighborhoodsRandomAccessible( Views.extendBorder( rai ) );
-		RandomAccessibleInterval<Neighborhood<T>> neighborhoodsInterval = Views.interval( neighborhoods, rai );
+		return points;
+	}
 
-		LoopBuilder.setImages( neighborhoodsInterval, rai ).forEachPixel(
-				(neighborhood, center) -> {
-					if( isCenterLargest( center, neighborhood ) )
-					{
-						points.add( new RealPoint( neighborhood ) );
-					}
-				}
-		);
+	/**
+	 * @return the positions of the local maxima in the order of the pixels of rai,
+	 * packed as [ x0, y0, ..., x1, y1, ... ], i.e. numDimensions coordinates per maximum.
+	 */
+	public static < T extends RealType< T > & NativeType< T > >
+	long[] findLocalMaximumPositions( RandomAccessibleInterval< T > rai, Shape shape, int numThreads )
+	{
+		final PeakDetector< T > peakDetector = createPeakDetector( rai, shape );
+		peakDetector.setNumThreads( numThreads );
+		peakDetector.run();
 
-		return points;
+		return peakDetector.getMaximaPositions();
+	}
+
+	/**
+	 * @param shape
+	 * 			a {@link HyperSphereShape} or a {@link RectangleShape} without skipping the center
+	 */
+	private static < T extends RealType< T > > PeakDetector< T > createPeakDetector(
+			RandomAccessibleInterval< T > rai,
+			Shape shape )
+	{
+		if ( shape instanceof HyperSphereShape )
+			return new PeakDetector<>( rai, ( ( HyperSphereShape ) shape ).getRadius() );
+
+		if ( shape instanceof RectangleShape && ! ( ( RectangleShape ) shape ).isSkippingCenter() )
+		{
+			final PeakDetector< T > peakDetector = new PeakDetector<>( rai, ( ( RectangleShape ) shape ).getSpan() );
+			peakDetector.setRectangular( true );
+			return peakDetector;
+		}
+
+		throw new IllegalArgumentException( "Local maxima cannot be found for shape: " + shape );
 	}
 
 	public static Set< Integer > getCentralLabels(
@@ -277,11 +311,8 @@ public class Algorithms
 			double threshold )
 	{
 		Logger.log( "Computing mask..." );
-		RandomAccessibleInterval< BitType > mask =
-				Converters.convert( rai, ( i, o )
-						-> o.set( i.getRealDouble() > threshold ? true : false ), new BitType() );
 
-		return Utils.copyAsArrayImg( mask );
+		return BitMasks.threshold( rai, threshold );
 	}
 
 	public static < T extends RealType< T > & NativeType< T > >
@@ -310,6 +341,14 @@ public class Algorithms
 
 	}
 
+	/**
+	 * Fills the holes that are enclosed in all dimensions, see {@link HoleFilling}.
+	 */
+	public static RandomAccessibleInterval< BitType > fillHoles( RandomAccessibleInterval< BitType > mask )
+	{
+		return HoleFilling.fillHoles( mask, Runtime.getRuntime().availableProcessors() );
+	}
+
 	public static < T extends RealType< T > & NativeType< T > >
 	RandomAccessibleInterval< BitType > createWatershedSeeds(
 			RandomAccessibleInterval< T > distance,
@@ -317,44 +356,35 @@ public class Algorithms
 			double globalThreshold,
 			double localThreshold )
 	{
+		final PeakDetector< T > peakDetector = createPeakDetector( distance, shape );
+		peakDetector.setThreshold( localThreshold );
+		peakDetector.run();
 
-		RandomAccessibleInterval< BitType > seeds = ArrayImgs.bits( Intervals.dimensionsAsLongArray( distance ) );
-		seeds = Transforms.getWithAdjustedOrigin( distance, seeds );
+		final RandomAccessibleInterval< BitType > seeds = peakDetector.getMaximaMask();
 
-		RandomAccessible< Neighborhood< T > > neighborhoods = shape.neighborhoodsRandomAccessible( Views.extendPeriodic( distance ) );
+		RandomAccessible< Neighborhood< T > > neighborhoods = shape.neighborhoodsRandomAccessible( distance );
 		RandomAccessibleInterval< Neighborhood< T > > neighborhoodsInterval = Views.interval( neighborhoods, distance );
 
-		final Cursor< Neighborhood< T > > neighborhoodCursor = Views.iterable( neighborhoodsInterval ).cursor();
+		final Cursor< Neighborhood< T > > neighborhoodCursor = Views.iterable( neighborhoodsInterval ).localizingCursor();
 		final RandomAccess< T > distanceRandomAccess = distance.randomAccess();
 		final RandomAccess< BitType > seedsRandomAccess = seeds.randomAccess();
 
-		double[] currentPosition = new double[ distance.numDimensions() ];
-
 		while ( neighborhoodCursor.hasNext() )
 		{
-			final Neighborhood< T > neighborhood = neighborhoodCursor.next();
-			neighborhood.localize( currentPosition );
-			seedsRandomAccess.setPosition( neighborhood );
-			distanceRandomAccess.setPosition( neighborhood );
+			neighborhoodCursor.fwd();
+			seedsRandomAccess.setPosition( neighborhoodCursor );
+			distanceRandomAccess.setPosition( neighborhoodCursor );
 
-			T centerValue = distanceRandomAccess.get();
+			final double centerValue = distanceRandomAccess.get().getRealDouble();
 
-			if ( centerValue.getRealDouble() > globalThreshold )
+			if ( centerValue > globalThreshold )
 			{
 				seedsRandomAccess.get().set( true );
 			}
-			else if ( Utils.isLateralBoundaryPixel( neighborhood, distance ) && distanceRandomAccess.get().getRealDouble() >  0 )
+			else if ( centerValue > 0 && Utils.isLateralBoundaryPixel( neighborhoodCursor.get(), distance ) )
 			{
 				seedsRandomAccess.get().set( true );
 			}
-			else if ( isCenterLargestOrEqual( centerValue, neighborhood ) )
-			{
-				if ( centerValue.getRealDouble() > localThreshold )
-				{
-					seedsRandomAccess.get().set( true );
-				}
-			}
-
 		}
 
 		return seeds;
@@ -367,40 +397,11 @@ public class Algorithms
 			Shape shape,
 			double minimumValue )
 	{
+		final PeakDetector< T > peakDetector = createPeakDetector( input, shape );
+		peakDetector.setThreshold( minimumValue );
+		peakDetector.run();
 
-		RandomAccessibleInterval< BitType > localMaxima = ArrayImgs.bits( Intervals.dimensionsAsLongArray( input ) );
-		localMaxima = Transforms.getWithAdjustedOrigin( input, localMaxima );
-
-		RandomAccessible< Neighborhood< T > > neighborhoods = shape.neighborhoodsRandomAccessible( Views.extendPeriodic( input ) );
-		RandomAccessibleInterval< Neighborhood< T > > neighborhoodsInterval = Views.interval( neighborhoods, input );
-
-		final Cursor< Neighborhood< T > > neighborhoodCursor = Views.iterable( neighborhoodsInterval ).cursor();
-		final RandomAccess< T > inputAccess = input.randomAccess();
-		final RandomAccess< BitType > maximaAccess = localMaxima.randomAccess();
-
-		while ( neighborhoodCursor.hasNext() )
-		{
-			final Neighborhood< T > neighborhood = neighborhoodCursor.next();
-			maximaAccess.setPosition( neighborhood );
-			inputAccess.setPosition( neighborhood );
-
-			T centerValue = inputAccess.get();
-
-			if ( isCenterLargestOrEqual( centerValue, neighborhood ) )
-			{
-				if ( centerValue.getRealDouble() > minimumValue )
-				{
-					maximaAccess.get().set( true );
-				}
-			}
-			else
-			{
-				maximaAccess.get().set( false );
-			}
-
-		}
-
-		return localMaxima;
+		return peakDetector.getMaximaMask();
 	}
 
 	public static < R extends RealType< R > & NativeType< R > >
@@ -500,66 +501,12 @@ public class Algorithms
 			double minimalDistanceBetweenMaxima,
 			double threshold )
 	{
-		Shape shape = new HyperSphereShape( (long) minimalDistanceBetweenMaxima );
-		RandomAccessible< Neighborhood< T > > neighborhoods = shape.neighborhoodsRandomAccessible( Views.extendPeriodic( rai ) );
-		final Cursor< Neighborhood< T > > neighborhoodCursor = Views.iterable( Views.interval( neighborhoods, rai ) ).cursor();
-		final RandomAccess< T > randomAccess = rai.randomAccess();
+		final PeakDetector< T > peakDetector = new PeakDetector<>( rai, ( long ) minimalDistanceBetweenMaxima );
+		peakDetector.setThreshold( threshold );
+		peakDetector.setMinimalDistance( minimalDistanceBetweenMaxima );
+		peakDetector.run();
 
-		final ArrayList< PositionAndValue > maxima = new ArrayList<>();
-
-		while ( neighborhoodCursor.hasNext() )
-		{
-			final Neighborhood< T > neighborhood = neighborhoodCursor.next();
-			randomAccess.setPosition( neighborhood );
-
-			T centerValue = randomAccess.get();
-
-			if ( isCenterLargestOrEqual( centerValue, neighborhood ) )
-			{
-				if ( centerValue.getRealDouble() > threshold )
-				{
-					final PositionAndValue positionAndValue = new PositionAndValue();
-					positionAndValue.position = new double[ rai.numDimensions() ];
-					neighborhood.localize( positionAndValue.position );
-					positionAndValue.value = centerValue.getRealDouble();
-
-					boolean isMaximumFarEnoughAwayFromOtherMaxima = true;
-
-					for ( int i = 0; i < maxima.size(); ++i )
-					{
-						double distance = LinAlgHelpers.distance( maxima.get( i ).position, positionAndValue.position );
-						if ( distance < minimalDistanceBetweenMaxima )
-						{
-							isMaximumFarEnoughAwayFromOtherMaxima = false;
-							break;
-						}
-					}
-
-					if ( isMaximumFarEnoughAwayFromOtherMaxima )
-					{
-						maxima.add( positionAndValue );
-					}
-
-				}
-			}
-		}
-
-		maxima.sort( Comparator.comparing( PositionAndValue::getValue ).reversed() );
-
-		return maxima;
-	}
-
-	private static < T extends RealType< T > & NativeType< T > >
-	boolean isCenterLargestOrEqual( T center, Neighborhood< T > neighborhood )
-	{
-		for( T neighbor : neighborhood )
-		{
-			if( neighbor.compareTo( center ) > 0 )
-			{
-				return false;
-			}
-		}
-		return true;
+		return peakDetector.getPeaks();
 	}
 
 	private static < T extends RealType< T > & NativeType< T > >
@@ -590,98 +537,165 @@ public class Algorithms
 			OpService opService,
 			boolean showSplits )
 	{
+		splitCurrentObjectsBasedOnOverlapWithPreviousObjects(
+				outputMask,
+				overlappingObjectsLabelsMap,
+				currentImgLabeling,
+				currentIntensities,
+				previousLabeling,
+				minimalObjectSize,
+				minimalObjectWidth,
+				opService,
+				showSplits,
+				1 );
+	}
+
+	/**
+	 * The objects are split concurrently, each on its own crop. The watersheds are drawn into the
+	 * output mask afterwards, in the order of the object labels, such that the output does not
+	 * depend on the number of threads.
+	 */
+	public static < T extends RealType< T > & NativeType< T > >
+	void splitCurrentObjectsBasedOnOverlapWithPreviousObjects(
+			RandomAccessibleInterval< BitType > outputMask,
+			HashMap< Integer, ArrayList< Integer > > overlappingObjectsLabelsMap,
+			ImgLabeling< Integer, IntType > currentImgLabeling,
+			RandomAccessibleInterval< T > currentIntensities,
+			RandomAccessibleInterval< IntType > previousLabeling,
+			long minimalObjectSize,
+			long minimalObjectWidth,
+			OpService opService,
+			boolean showSplits,
+			int numThreads )
+	{
 
 		final LabelRegions currentRegions = new LabelRegions( currentImgLabeling );
 
+		final ArrayList< Integer > labels = new ArrayList<>();
 		for ( int currentObjectLabel : overlappingObjectsLabelsMap.keySet() )
+			if ( overlappingObjectsLabelsMap.get( currentObjectLabel ).size() > 1 )
+				labels.add( currentObjectLabel );
+
+		final List< RegionSplit > splits = mapRegions( currentRegions, labels, numThreads, region ->
 		{
+			final int currentObjectLabel = ( int ) region.getLabel();
+
 			final ArrayList< Integer > overlappingPreviousObjectLabels
 					= overlappingObjectsLabelsMap.get( currentObjectLabel );
 
-			if ( overlappingPreviousObjectLabels.size() > 1 )
-			{
-				RandomAccessibleInterval< BitType > currentObjectMask = Regions.asMask( currentRegions.getLabelRegion( currentObjectLabel ) );
-				RandomAccessibleInterval< IntType > previousLabelingCrop =  Views.interval( previousLabeling, currentObjectMask );
+			RandomAccessibleInterval< BitType > currentObjectMask = Regions.asMask( region );
+			RandomAccessibleInterval< IntType > previousLabelingCrop =  Views.interval( previousLabeling, currentObjectMask );
 
-				currentObjectMask = Views.zeroMin( currentObjectMask );
-				previousLabelingCrop = Views.zeroMin( previousLabelingCrop );
+			currentObjectMask = Views.zeroMin( currentObjectMask );
+			previousLabelingCrop = Views.zeroMin( previousLabelingCrop );
 
-				final RandomAccessibleInterval< T > maskedAndCroppedIntensities = Views.zeroMin( Regions.getMaskedAndCropped( currentIntensities, currentRegions.getLabelRegion( currentObjectLabel ) ) );
+			final RandomAccessibleInterval< T > maskedAndCroppedIntensities = Views.zeroMin( Regions.getMaskedAndCropped( currentIntensities, region ) );
 
-				final RandomAccessibleInterval< IntType > overlapLabeling =
-						createOverlapLabeling(
-								currentObjectMask,
-								previousLabelingCrop,
-								overlappingPreviousObjectLabels );
+			final RandomAccessibleInterval< IntType > overlapLabeling =
+					createOverlapLabeling(
+							currentObjectMask,
+							previousLabelingCrop,
+							overlappingPreviousObjectLabels );
 
-				final Set< Long > uniqueValues = Utils.computeUniqueValues( overlapLabeling );
+			final Set< Long > uniqueValues = Utils.computeUniqueValues( overlapLabeling );
 
-				if ( uniqueValues.size() <= 2 )
-				{
-					// "<=2" because it includes 0, thus for two objects there should be at least 3 unique values
-					// Normally a split should always be found, but
-					// due to a bug in the watershed algorithm, seed
-					// points cannot be at the border of objects.
-					// Thus, in createOverlapLabelling, the overlapping objects are eroded,
-					// such that it can happen that there are less than two seed points left
-					// such that no splitting will happen..
-
-					continue;
-				}
+			if ( uniqueValues.size() <= 2 )
+			{
+				// "<=2" because it includes 0, thus for two objects there should be at least 3 unique values.
+				// The seeds may touch the border of the object, thus this only happens if the
+				// overlapping objects do not overlap with the object's mask at all.
+				return null;
+			}
 
+			final SeededWatershed< T, IntType > watershed =
+					new SeededWatershed<>( Utils.invertedView( maskedAndCroppedIntensities ), overlapLabeling );
+			watershed.setMask( currentObjectMask );
+			watershed.setDrawWatersheds( true );
+			watershed.setEightConnected( true );
+			watershed.run();
 
-//				final ArrayList< PositionAndValue > localMaxima =
-//						computeSortedLocalIntensityMaxima(
-//								2 * minimalObjectWidth,
-//								maskedAndCroppedIntensities,
-//								false );
-//
-//
-//				final RandomAccessibleInterval< BitType > seeds =
-//						positionsAsBinaryImage( overlappingPreviousObjectLabels.size(),
-//								maskedAndCroppedIntensities,
-//								localMaxima );
+			final RegionSplit split = new RegionSplit( currentObjectLabel, watershed.getLabeling() );
+			split.overlapLabeling = overlapLabeling;
+			split.previousLabelingCrop = previousLabelingCrop;
 
-				final ImgLabeling< Integer, IntType > watershedImgLabeling = createEmptyImgLabeling( currentObjectMask );
+			if ( watershed.getNumWatershedPixels() == 0 )
+				split.error = "\n\nERROR DURING OBJECT SPLITTING: No watershed found for object: " + currentObjectLabel + "\n\n";
+			else
+				split.isValid = true;
 
-				final ImgLabeling< Integer, IntType > seedsImgLabeling = createImgLabelingFromLabeling( overlappingPreviousObjectLabels, overlapLabeling );
+			return split;
+		} );
 
-				final RandomAccessibleInterval< T > invertedView = Utils.invertedView( maskedAndCroppedIntensities );
+		boolean isMaskChanged = false;
 
-				opService.image().watershed(
-						watershedImgLabeling,
-						invertedView,
-						seedsImgLabeling,
-						true,
-						true,
-						currentObjectMask );
+		for ( RegionSplit split : splits )
+		{
+			if ( split == null ) continue;
 
+			if ( split.error != null )
+			{
+				Logger.log( split.error );
+				ImageJFunctions.show( split.overlapLabeling ).setTitle( split.label+"overlap" );
+				ImageJFunctions.show( split.watershedLabeling ).setTitle( split.label+"watershed" );
+				ImageJFunctions.show( split.previousLabelingCrop ).setTitle( split.label+"previousLabeling" );
+				continue; // TODO: examine these cases
+			}
 
-				LabelRegions< Integer > splitObjects = new LabelRegions( watershedImgLabeling );
+			drawWatershedIntoMask( outputMask, currentRegions, split.label, split.watershedLabeling );
+			isMaskChanged = true;
+			if ( showSplits )
+			{
+				ImageJFunctions.show( split.watershedLabeling, "" + split.label );
+			}
+		}
 
+		// sometimes the watershed is weirdly placed such that very small (single pixel) objects can occur
+		// (removing them once after all splits gives the same result as removing them after each split)
+		if ( isMaskChanged ) Regions.removeSmallRegionsInMask( outputMask, minimalObjectSize, 1 );
 
-				if ( splitObjects.getExistingLabels().contains( -1 ) )
-				{
-					// a watershed was found
-					drawWatershedIntoMask( outputMask, currentRegions, currentObjectLabel, splitObjects );
-					// sometimes the watershed is weirdly placed such that very small (single pixel) objects can occur
-					Regions.removeSmallRegionsInMask( outputMask, minimalObjectSize, 1 );
-					if ( showSplits )
-					{
-						ImageJFunctions.show( watershedImgLabeling.getSource(), "" + currentObjectLabel );
-					}
-				}
-				else
-				{
-					Logger.log( "\n\nERROR DURING OBJECT SPLITTING\n\n" );
-					ImageJFunctions.show( overlapLabeling ).setTitle( currentObjectLabel+"overlap" );
-					ImageJFunctions.show( watershedImgLabeling.getIndexImg() ).setTitle( currentObjectLabel+"watershed" );
-					ImageJFunctions.show( previousLabelingCrop ).setTitle( currentObjectLabel+"previousLabeling" );
-					// TODO: examine these cases
-				}
-			}
+	}
+
+	/**
+	 * Result of splitting one region, computed on a crop of the region.
+	 */
+	private static class RegionSplit
+	{
+		final int label;
+		final RandomAccessibleInterval< IntType > watershedLabeling; // zero min
+		boolean isValid;
+		String error;
+		RandomAccessibleInterval< IntType > overlapLabeling;
+		RandomAccessibleInterval< IntType > previousLabelingCrop;
+
+		RegionSplit( int label, RandomAccessibleInterval< IntType > watershedLabeling )
+		{
+			this.label = label;
+			this.watershedLabeling = watershedLabeling;
+		}
+	}
+
+	/**
+	 * Applies the function to the regions of the given labels, in ascending label order,
+	 * using numThreads threads.
+	 */
+	private static List< RegionSplit > mapRegions(
+			LabelRegions< ? > labelRegions,
+			ArrayList< Integer > labels,
+			int numThreads,
+			Function< LabelRegion< ? >, RegionSplit > function )
+	{
+		Collections.sort( labels );
+
+		// LabelRegions creates and updates the regions lazily, which is not thread safe
+		final ArrayList< LabelRegion< ? > > regions = new ArrayList<>();
+		for ( int label : labels )
+		{
+			final LabelRegion< ? > region = ( ( LabelRegions ) labelRegions ).getLabelRegion( label );
+			region.size();
+			regions.add( region );
 		}
 
+		return ParallelExecutor.shared( numThreads ).map( regions, function );
 	}
 
 	public static ImgLabeling< Integer, IntType > createImgLabelingFromLabeling( ArrayList< Integer > overlappingPreviousObjectLabels, RandomAccessibleInterval< IntType > seeds )
@@ -719,90 +733,139 @@ public class Algorithms
 			boolean forceSplit,
 			boolean showSplittingAttempts )
 	{
+		splitTouchingObjects(
+				imgLabeling,
+				intensity,
+				mask,
+				numObjectsPerRegion,
+				minimalObjectWidth,
+				minimalObjectSize,
+				maximalWatershedBoundaryLength,
+				opService,
+				forceSplit,
+				showSplittingAttempts,
+				1 );
+	}
+
+	/**
+	 * The regions are split concurrently, each on its own crop. The valid watersheds are drawn into
+	 * the mask afterwards, in the order of the region labels, such that the output does not
+	 * depend on the number of threads.
+	 */
+	public static < T extends RealType< T > & NativeType< T > >
+	void splitTouchingObjects(
+			ImgLabeling< Integer, IntType > imgLabeling,
+			RandomAccessibleInterval< T > intensity,
+			RandomAccessibleInterval< BitType > mask, // This will be changed, i.e. the split(s) will be drawn into it
+			HashMap< Integer, Integer > numObjectsPerRegion,
+			long minimalObjectWidth,
+			long minimalObjectSize,
+			long maximalWatershedBoundaryLength,
+			OpService opService,
+			boolean forceSplit,
+			boolean showSplittingAttempts,
+			int numThreads )
+	{
 
 		final LabelRegions labelRegions = new LabelRegions( imgLabeling );
 
+		final ArrayList< Integer > labels = new ArrayList<>();
 		for ( int label : numObjectsPerRegion.keySet() )
-		{
 			if ( numObjectsPerRegion.get( label ) > 1 )
-			{
+				labels.add( label );
 
-				final RandomAccessibleInterval< T > maskedAndCroppedIntensities = Views.zeroMin( Regions.getMaskedAndCropped( intensity, labelRegions.getLabelRegion( label ) ) );
-				final RandomAccessibleInterval< BitType > labelRegionMask = Views.zeroMin( Regions.asMask( labelRegions.getLabelRegion( label ) ) );
+		final List< RegionSplit > splits = mapRegions( labelRegions, labels, numThreads, region ->
+		{
+			final int label = ( int ) region.getLabel();
 
-				final ArrayList< PositionAndValue > localMaxima =
-						computeSortedLocalIntensityMaxima(
-								2 * minimalObjectWidth,
-								maskedAndCroppedIntensities,
-								showSplittingAttempts );
+			final RandomAccessibleInterval< T > maskedAndCroppedIntensities = Views.zeroMin( Regions.getMaskedAndCropped( intensity, region ) );
+			final RandomAccessibleInterval< BitType > labelRegionMask = Views.zeroMin( Regions.asMask( region ) );
 
-				if ( localMaxima.size() < numObjectsPerRegion.get( label ) )
-				{
-					Logger.log( "\n\nERROR: Not enough local maxima found for object: " + label + "\n\n");
-					continue; // TODO: check these cases
-				}
+			// no windows from the worker threads; the splitting attempts are shown after the merge
+			final ArrayList< PositionAndValue > localMaxima =
+					computeSortedLocalIntensityMaxima(
+							2 * minimalObjectWidth,
+							maskedAndCroppedIntensities,
+							false );
 
-				final RandomAccessibleInterval< BitType > seeds =
-						positionsAsBinaryImage( numObjectsPerRegion.get( label ),
-									maskedAndCroppedIntensities,
-									localMaxima );
+			if ( localMaxima.size() < numObjectsPerRegion.get( label ) )
+			{
+				final RegionSplit split = new RegionSplit( label, null );
+				split.error = "\n\nERROR: Not enough local maxima found for object: " + label + "\n\n";
+				return split; // TODO: check these cases
+			}
 
-				final ImgLabeling< Integer, IntType > watershedImgLabeling = createEmptyImgLabeling( labelRegionMask );
-				final ImgLabeling< Integer, IntType > seedsImgLabeling = Regions.asImgLabeling( seeds, ConnectedComponents.StructuringElement.FOUR_CONNECTED );
+			final RandomAccessibleInterval< BitType > seeds =
+					positionsAsBinaryImage( numObjectsPerRegion.get( label ),
+								maskedAndCroppedIntensities,
+								localMaxima );
 
-				opService.image().watershed(
-						watershedImgLabeling,
-						Utils.invertedView( maskedAndCroppedIntensities ),
-						seedsImgLabeling,
-						true,
-						true,
-						labelRegionMask );
+			final RandomAccessibleInterval< IntType > seedsLabeling =
+					Regions.asImgLabeling( seeds, ConnectedComponents.StructuringElement.FOUR_CONNECTED ).getIndexImg();
 
+			final SeededWatershed< T, IntType > watershed =
+					new SeededWatershed<>( Utils.invertedView( maskedAndCroppedIntensities ), seedsLabeling );
+			watershed.setMask( labelRegionMask );
+			watershed.setDrawWatersheds( true );
+			watershed.setEightConnected( true );
+			watershed.run();
 
-				LabelRegions< Integer > splitObjects = new LabelRegions( watershedImgLabeling );
+			final RegionSplit split = new RegionSplit( label, watershed.getLabeling() );
 
-				if ( ! splitObjects.getExistingLabels().contains( -1 ) )
-				{
-					Logger.log( "\n\nERROR DURING OBJECT SPLITTING\n\n" );
-					continue; // TODO: examine these cases
-				}
+			if ( watershed.getNumWatershedPixels() == 0 )
+			{
+				split.error = "\n\nERROR DURING OBJECT SPLITTING\n\n";
+				return split; // TODO: examine these cases
+			}
 
+			if ( forceSplit )
+			{
+				split.isValid = true;
+			}
+			else
+			{
+				// TODO: add integrated intensity along watershed as criterium
+				split.isValid = checkSplittingValidity(
+						split.watershedLabeling,
+						minimalObjectSize,
+						maximalWatershedBoundaryLength );
+			}
 
-				boolean isValidSplit;
+			return split;
+		} );
 
-				if ( forceSplit )
-				{
-					isValidSplit = true;
-				}
-				else
-				{
-					// TODO: add integrated intensity along watershed as criterium
-					isValidSplit = checkSplittingValidity(
-							splitObjects,
-							minimalObjectSize,
-							maximalWatershedBoundaryLength );
-				}
+		boolean isMaskChanged = false;
 
-				//Utils.log( "Valid split found: " + isValidSplit );
+		for ( RegionSplit split : splits )
+		{
+			if ( split.error != null )
+			{
+				Logger.log( split.error );
+				continue;
+			}
 
-				if ( showSplittingAttempts )
-				{
-					ImageJFunctions.show( watershedImgLabeling.getSource(), "" + label + "-" + isValidSplit );
-				}
+			//Utils.log( "Valid split found: " + isValidSplit );
 
-				if ( isValidSplit )
-				{
-					drawWatershedIntoMask( mask, labelRegions, label, splitObjects );
-					// sometimes the watershed is weirdly placed such that very small (single pixel) objects can occur
-					Regions.removeSmallRegionsInMask( mask, minimalObjectSize, 1 );
-				}
+			if ( showSplittingAttempts )
+			{
+				ImageJFunctions.show( split.watershedLabeling, "" + split.label + "-" + split.isValid );
+			}
 
+			if ( split.isValid )
+			{
+				drawWatershedIntoMask( mask, labelRegions, split.label, split.watershedLabeling );
+				isMaskChanged = true;
 			}
 		}
 
+		// sometimes the watershed is weirdly placed such that very small (single pixel) objects can occur
+		// (removing them once after all splits gives the same result as removing them after each split)
+		if ( isMaskChanged ) Regions.removeSmallRegionsInMask( mask, minimalObjectSize, 1 );
+
 	}
 
 
+
 	public static < T extends RealType< T > & NativeType< T > >
 	RandomAccessibleInterval< BitType > createObjectSkeletons(
 			ImgLabeling< Integer, IntType > imgLabeling,
@@ -890,9 +953,6 @@ public class Algorithms
 //		ImageJFunctions.show( previousLabeling, "previous labeling" );
 //		ImageJFunctions.show( overlapLabeling, "overlap labeling" );
 
-		// below is necessary because watershed seeds are not allowed to touch the mask boundary
-		Utils.applyMask( overlapLabeling, Algorithms.erode( currentObjectMask, 2 ) );
-
 		return overlapLabeling;
 	}
 
@@ -946,6 +1006,49 @@ public class Algorithms
 		return true;
 	}
 
+	/**
+	 * Same as {@link #checkSplittingValidity(LabelRegions, long, long)}, for a watershed labeling
+	 * as computed by {@link SeededWatershed}; the watershed pixels are counted as one region.
+	 */
+	public static boolean checkSplittingValidity(
+			RandomAccessibleInterval< IntType > watershedLabeling,
+			long minimumObjectSize,
+			long maximalWatershedLength )
+	{
+		final RandomAccessibleInterval< BitType > watersheds =
+				Converters.convert( watershedLabeling, ( i, o ) -> o.set( i.get() == WATERSHED ), new BitType() );
+
+		final LabelRegions< Integer > watershedRegions = new LabelRegions<>(
+				Regions.asImgLabeling( watersheds, ConnectedComponents.StructuringElement.FOUR_CONNECTED ) );
+
+		long numWatershedPixels = 0;
+		for ( LabelRegion watershedRegion : watershedRegions )
+		{
+			if ( watershedRegion.size() > maximalWatershedLength ) return false;
+			numWatershedPixels += watershedRegion.size();
+		}
+
+		final HashMap< Integer, Long > regionSizes = new HashMap<>();
+		for ( IntType label : Views.iterable( watershedLabeling ) )
+			if ( label.get() > 0 ) regionSizes.merge( label.get(), 1L, Long::sum );
+
+		final ArrayList< Long > sizes = new ArrayList<>( regionSizes.values() );
+		if ( numWatershedPixels > 0 ) sizes.add( numWatershedPixels );
+
+		if ( sizes.size() >= 2 )
+		{
+			sizes.sort( Collections.reverseOrder() );
+
+			if ( sizes.get( 1 ) < minimumObjectSize )
+			{
+				// 2nd largest object too small
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	public static boolean isWatershedValid( LabelRegions< Integer > splitObjects, long maximalWatershedLength )
 	{
 		boolean isValidSplit = true;
@@ -1028,34 +1131,39 @@ public class Algorithms
 		}
 	}
 
+	/**
+	 * @param watershedLabeling
+	 * 			zero min crop of the region, containing {@link #WATERSHED} for watershed pixels
+	 */
+	public static void drawWatershedIntoMask( RandomAccessibleInterval< BitType > mask,
+											  LabelRegions labelRegions,
+											  int label,
+											  RandomAccessibleInterval< IntType > watershedLabeling )
+	{
+		final long[] regionOffset = Intervals.minAsLongArray( labelRegions.getLabelRegion( label ) );
+		final Cursor< IntType > cursor = Views.iterable( watershedLabeling ).localizingCursor();
+		final RandomAccess< BitType > maskRandomAccess = mask.randomAccess();
+		long[] position = new long[ watershedLabeling.numDimensions() ];
+		while( cursor.hasNext() )
+		{
+			if ( cursor.next().get() != WATERSHED ) continue;
+			cursor.localize( position );
+			addOffset( regionOffset, position );
+			maskRandomAccess.setPosition( position );
+			maskRandomAccess.get().set( false );
+		}
+	}
+
+	/**
+	 * Closing with a hyper-sphere, see {@link BinaryMorphology#close}.
+	 */
 	public static RandomAccessibleInterval< BitType > close(
 			RandomAccessibleInterval< BitType > mask,
 			int closingRadius )
 	{
 		if ( closingRadius <= 0 ) return mask;
 
-		// TODO: Bug(?!) in imglib2 Closing.close makes enlargement necessary, otherwise one gets weird results at boundaries
-
-		RandomAccessibleInterval< BitType > morphed =
-				ArrayImgs.bits( Intervals.dimensionsAsLongArray( mask ) );
-
-		morphed = Views.translate( morphed, Intervals.minAsLongArray( mask ) );
-
-		final RandomAccessibleInterval< BitType > enlargedMask =
-				Utils.getEnlargedRai( mask, closingRadius );
-		final RandomAccessibleInterval< BitType > enlargedMorphed =
-				Utils.getEnlargedRai( morphed, closingRadius );
-
-		Shape closingShape = new HyperSphereShape( closingRadius );
-
-		Closing.close(
-				Views.extendZero( enlargedMask ),
-				Views.iterable( enlargedMorphed ),
-				closingShape,
-				1 );
-
-
-		return Views.interval( enlargedMorphed, mask );
+		return BinaryMorphology.close( mask, closingRadius );
 	}
 
 
@@ -1090,12 +1198,7 @@ public class Algorithms
 	}
 
 	/**
-	 *
-	 * very slow...
-	 *
-	 * @param mask
-	 * @param radius
-	 * @return
+	 * Opening with a hyper-sphere, see {@link BinaryMorphology#open}.
 	 */
 	public static RandomAccessibleInterval< BitType > open(
 			RandomAccessibleInterval< BitType > mask,
@@ -1103,28 +1206,7 @@ public class Algorithms
 	{
 		if ( radius <= 0 ) return mask;
 
-		// TODO: Bug(?!) in imglib2 makes enlargement necessary,
-		//  otherwise one gets weird results at boundaries
-
-		RandomAccessibleInterval< BitType > morphed =
-				ArrayImgs.bits( Intervals.dimensionsAsLongArray( mask ) );
-
-		morphed = Views.translate( morphed, Intervals.minAsLongArray( mask ) );
-
-		final RandomAccessibleInterval< BitType > enlargedMask =
-				Utils.getEnlargedRai( mask, radius );
-		final RandomAccessibleInterval< BitType > enlargedMorphed =
-				Utils.getEnlargedRai( morphed, radius );
-
-		Shape shape = new HyperSphereShape( radius );
-
-		Opening.open(
-				Views.extendZero( enlargedMask ),
-				Views.iterable( enlargedMorphed ),
-				shape,
-				4 );
-
-		return Views.interval( enlargedMorphed, mask );
+		return BinaryMorphology.open( mask, radius );
 	}
 
 
@@ -1173,6 +1255,9 @@ public class Algorithms
 			RandomAccessibleInterval< R > image,
 			int radiusPixels )
 	{
+		if ( radiusPixels > 0 && Util.getTypeFromInterval( image ) instanceof BitType )
+			return ( RandomAccessibleInterval ) BinaryMorphology.erode( ( RandomAccessibleInterval ) image, radiusPixels );
+
 		final RandomAccessibleInterval< R > morphed = Utils.createEmptyCopy( image );
 
 		if ( radiusPixels > 0 )
@@ -1189,6 +1274,9 @@ public class Algorithms
 			RandomAccessibleInterval< R > image,
 			int radius )
 	{
+		if ( radius > 0 && Util.getTypeFromInterval( image ) instanceof BitType )
+			return ( RandomAccessibleInterval ) BinaryMorphology.dilate( ( RandomAccessibleInterval ) image, radius );
+
 		final RandomAccessibleInterval< R > morphed = Utils.createEmptyCopy( image );
 
 		if ( radius > 0 )
@@ -1200,12 +1288,24 @@ public class Algorithms
 		return morphed;
 	}
 
+	/**
+	 * Median filter with a hyper-sphere. Integer images with at most 2^16 values, e.g. 8- and 16-bit images,
+	 * are filtered by the {@link HistogramMedianFilter}, on all available processors.
+	 */
 	public static < R extends RealType< R > & NativeType< R > >
 	RandomAccessibleInterval< R > median(
 			RandomAccessibleInterval< R > intensity,
 			int radius,
 			OpService opService )
 	{
+		if ( HistogramMedianFilter.isSupported( Util.getTypeFromInterval( intensity ) ) )
+		{
+			final HistogramMedianFilter< R > filter = new HistogramMedianFilter<>( intensity, radius );
+			filter.setNumThreads( Runtime.getRuntime().availableProcessors() );
+			filter.run();
+			return filter.getFiltered();
+		}
+
 		RandomAccessibleInterval< R > median = Utils.createEmptyCopy( intensity );
 
 		opService.filter().median(
@@ -0,0 +1,255 @@
+package de.embl.cba.morphometry;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Edge preserving smoothing of 2D images by the trace based diffusion PDE of Tschumperle and Deriche,
+ * with the parameters and defaults of the Fiji plugin "Anisotropic Diffusion 2D".
+ *
+ * In each iteration, the diffusion tensor of each pixel is computed from its gradient:
+ * along the edge, the diffusion is limited by ( 1 + |gradient|^2 / edge^2 )^-a1,
+ * across the edge by ( 1 + |gradient|^2 / edge^2 )^-a2, where edge is the edge threshold
+ * in percent of the intensity range. The time step is adapted such that the largest update
+ * of an iteration equals the time step, and the intensities are clamped to the initial range.
+ *
+ * The intensities are accumulated in float arrays. Pixels outside of the image are replaced
+ * by the closest border pixel, and the rows are distributed over the threads in tiles.
+ */
+public class AnisotropicDiffusion2D< T extends RealType< T > >
+{
+	private final RandomAccessibleInterval< T > image;
+	private int numIterations;
+	private double timeStep;
+	private double a1;
+	private double a2;
+	private double edgeThreshold;
+	private int numThreads;
+
+	private int width;
+	private int height;
+	private float[] intensities;
+	private float[] velocities;
+
+	private RandomAccessibleInterval< FloatType > smoothed;
+
+	public AnisotropicDiffusion2D( RandomAccessibleInterval< T > image )
+	{
+		if ( image.numDimensions() != 2 )
+			throw new IllegalArgumentException( "Anisotropic diffusion needs a 2D image: "
+					+ Arrays.toString( Intervals.dimensionsAsLongArray( image ) ) );
+
+		if ( Intervals.numElements( image ) > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Image is too large for the anisotropic diffusion: "
+					+ Arrays.toString( Intervals.dimensionsAsLongArray( image ) ) );
+
+		this.image = image;
+		this.numIterations = 20;
+		this.timeStep = 20.0;
+		this.a1 = 0.5;
+		this.a2 = 0.9;
+		this.edgeThreshold = 5.0;
+		this.numThreads = 1;
+	}
+
+	public void setNumIterations( int numIterations )
+	{
+		this.numIterations = numIterations;
+	}
+
+	public void setTimeStep( double timeStep )
+	{
+		this.timeStep = timeStep;
+	}
+
+	/**
+	 * @param a1 diffusion limiter along minimal variations, i.e. along the edges
+	 */
+	public void setA1( double a1 )
+	{
+		this.a1 = a1;
+	}
+
+	/**
+	 * @param a2 diffusion limiter along maximal variations, i.e. across the edges
+	 */
+	public void setA2( double a2 )
+	{
+		this.a2 = a2;
+	}
+
+	/**
+	 * @param edgeThreshold in percent of the intensity range of the image
+	 */
+	public void setEdgeThreshold( double edgeThreshold )
+	{
+		if ( edgeThreshold <= 0 )
+			throw new IllegalArgumentException( "Edge threshold must be positive: " + edgeThreshold );
+
+		this.edgeThreshold = edgeThreshold;
+	}
+
+	public void setNumThreads( int numThreads )
+	{
+		if ( numThreads < 1 )
+			throw new IllegalArgumentException( "Number of threads must be at least 1: " + numThreads );
+
+		this.numThreads = numThreads;
+	}
+
+	public void run()
+	{
+		width = ( int ) image.dimension( 0 );
+		height = ( int ) image.dimension( 1 );
+
+		intensities = new float[ width * height ];
+		final Cursor< T > cursor = Views.flatIterable( image ).cursor();
+		for ( int i = 0; i < intensities.length; ++i )
+			intensities[ i ] = cursor.next().getRealFloat();
+
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		for ( float intensity : intensities )
+		{
+			min = Math.min( min, intensity );
+			max = Math.max( max, intensity );
+		}
+
+		final double edge = edgeThreshold * ( max - min ) / 100.0;
+
+		if ( edge > 0 )
+		{
+			velocities = new float[ intensities.length ];
+
+			iterate( ParallelExecutor.shared( numThreads ), ( float ) ( 1.0 / ( edge * edge ) ), min, max );
+
+			velocities = null;
+		}
+
+		smoothed = Views.translate( ArrayImgs.floats( intensities, width, height ), Intervals.minAsLongArray( image ) );
+		intensities = null;
+	}
+
+	private void iterate( ParallelExecutor executor, float inverseSquaredEdge, float min, float max )
+	{
+		final List< int[] > tiles = tiles();
+
+		for ( int iteration = 0; iteration < numIterations; ++iteration )
+		{
+			float maxVelocity = 0;
+			for ( float tileMaxVelocity : executor.map( tiles,
+					tile -> computeVelocities( tile[ 0 ], tile[ 1 ], inverseSquaredEdge ) ) )
+				maxVelocity = Math.max( maxVelocity, tileMaxVelocity );
+
+			if ( maxVelocity == 0 ) return; // steady state
+
+			final float adaptedTimeStep = ( float ) ( timeStep / maxVelocity );
+			executor.map( tiles, tile -> update( tile[ 0 ], tile[ 1 ], adaptedTimeStep, min, max ) );
+		}
+	}
+
+	private List< int[] > tiles()
+	{
+		final int numTiles = Math.max( 1, Math.min( numThreads, height ) );
+		final ArrayList< int[] > tiles = new ArrayList<>( numTiles );
+		for ( int i = 0; i < numTiles; ++i )
+			tiles.add( new int[]{ ( int ) ( ( long ) height * i / numTiles ), ( int ) ( ( long ) height * ( i + 1 ) / numTiles ) } );
+		return tiles;
+	}
+
+	/**
+	 * Computes trace( T H ), with the diffusion tensor T and the Hessian H of the intensities,
+	 * for the rows from firstRow to lastRow (exclusive).
+	 *
+	 * @return the maximal absolute velocity within the rows
+	 */
+	private float computeVelocities( int firstRow, int lastRow, float inverseSquaredEdge )
+	{
+		final float[] intensities = this.intensities;
+		float maxVelocity = 0;
+
+		for ( int y = firstRow; y < lastRow; ++y )
+		{
+			final int previousRow = Math.max( y - 1, 0 ) * width;
+			final int row = y * width;
+			final int nextRow = Math.min( y + 1, height - 1 ) * width;
+
+			for ( int x = 0; x < width; ++x )
+			{
+				final int px = Math.max( x - 1, 0 );
+				final int nx = Math.min( x + 1, width - 1 );
+
+				final float ipp = intensities[ previousRow + px ];
+				final float icp = intensities[ previousRow + x ];
+				final float inp = intensities[ previousRow + nx ];
+				final float ipc = intensities[ row + px ];
+				final float icc = intensities[ row + x ];
+				final float inc = intensities[ row + nx ];
+				final float ipn = intensities[ nextRow + px ];
+				final float icn = intensities[ nextRow + x ];
+				final float inn = intensities[ nextRow + nx ];
+
+				final float fx = 0.5f * ( inc - ipc );
+				final float fy = 0.5f * ( icn - icp );
+				final float squaredGradient = fx * fx + fy * fy;
+
+				// diffusion tensor: f1 along the edge, i.e. perpendicular to the gradient, f2 across the edge
+				float t00 = 1;
+				float t01 = 0;
+				float t11 = 1;
+
+				if ( squaredGradient > 0 )
+				{
+					final double variation = 1.0 + squaredGradient * inverseSquaredEdge;
+					final float f1 = ( float ) ( a1 == 0.5 ? 1.0 / Math.sqrt( variation ) : Math.pow( variation, -a1 ) );
+					final float f2 = ( float ) Math.pow( variation, -a2 );
+					final float xx = fx * fx / squaredGradient;
+					final float xy = fx * fy / squaredGradient;
+					final float yy = fy * fy / squaredGradient;
+
+					t00 = f1 * yy + f2 * xx;
+					t01 = ( f2 - f1 ) * xy;
+					t11 = f1 * xx + f2 * yy;
+				}
+
+				final float ixx = inc + ipc - 2 * icc;
+				final float iyy = icn + icp - 2 * icc;
+				final float ixy = 0.25f * ( ipp + inn - ipn - inp );
+
+				final float velocity = t00 * ixx + 2 * t01 * ixy + t11 * iyy;
+				velocities[ row + x ] = velocity;
+				maxVelocity = Math.max( maxVelocity, Math.abs( velocity ) );
+			}
+		}
+
+		return maxVelocity;
+	}
+
+	private Void update( int firstRow, int lastRow, float adaptedTimeStep, float min, float max )
+	{
+		for ( int i = firstRow * width; i < lastRow * width; ++i )
+		{
+			final float intensity = intensities[ i ] + adaptedTimeStep * velocities[ i ];
+			intensities[ i ] = intensity < min ? min : ( intensity > max ? max : intensity );
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the smoothed image, with the interval of the input image.
+	 */
+	public RandomAccessibleInterval< FloatType > getSmoothed()
+	{
+		return smoothed;
+	}
+}
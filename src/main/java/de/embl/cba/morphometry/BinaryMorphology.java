@@ -0,0 +1,260 @@
+package de.embl.cba.morphometry;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.util.Arrays;
+
+/**
+ * Erosion, dilation, opening and closing of binary masks with a hyper-sphere
+ * (as {@link net.imglib2.algorithm.neighborhood.HyperSphereShape}) of given radius.
+ *
+ * The operations threshold squared Euclidean distance transforms (Felzenszwalb and Huttenlocher),
+ * which take linear time in the number of pixels, independent of the radius.
+ * The distances are capped at radius^2 + 1, such that they fit into an int array.
+ *
+ * Erosion and dilation only consider the pixels within the mask, as with a border extension.
+ * Opening and closing consider the pixels outside of the mask as background, as with a zero extension:
+ * objects at the border are eroded by the opening, and the closing joins objects across the border.
+ */
+public class BinaryMorphology
+{
+	public static RandomAccessibleInterval< BitType > erode( RandomAccessibleInterval< BitType > mask, long radius )
+	{
+		final Grid grid = new Grid( mask, 0 );
+		final boolean[] foreground = grid.read( mask );
+
+		return grid.write( erode( grid, foreground, radius ), mask );
+	}
+
+	public static RandomAccessibleInterval< BitType > dilate( RandomAccessibleInterval< BitType > mask, long radius )
+	{
+		final Grid grid = new Grid( mask, 0 );
+		final boolean[] foreground = grid.read( mask );
+
+		return grid.write( dilate( grid, foreground, radius ), mask );
+	}
+
+	public static RandomAccessibleInterval< BitType > open( RandomAccessibleInterval< BitType > mask, long radius )
+	{
+		final Grid grid = new Grid( mask, 1 ); // the background border erodes the objects at the mask border
+		final boolean[] foreground = grid.read( mask );
+
+		return grid.write( dilate( grid, erode( grid, foreground, radius ), radius ), mask );
+	}
+
+	public static RandomAccessibleInterval< BitType > close( RandomAccessibleInterval< BitType > mask, long radius )
+	{
+		final Grid grid = new Grid( mask, radius ); // the dilation may reach beyond the mask border
+		final boolean[] foreground = grid.read( mask );
+
+		return grid.write( erode( grid, dilate( grid, foreground, radius ), radius ), mask );
+	}
+
+	private static boolean[] erode( Grid grid, boolean[] foreground, long radius )
+	{
+		final boolean[] background = new boolean[ foreground.length ];
+		for ( int i = 0; i < foreground.length; ++i )
+			background[ i ] = ! foreground[ i ];
+
+		final long squaredRadius = squaredRadius( radius );
+		final int[] squaredDistances = grid.squaredDistances( background, squaredRadius + 1 );
+
+		final boolean[] eroded = new boolean[ foreground.length ];
+		for ( int i = 0; i < foreground.length; ++i )
+			eroded[ i ] = squaredDistances[ i ] > squaredRadius;
+
+		return eroded;
+	}
+
+	private static boolean[] dilate( Grid grid, boolean[] foreground, long radius )
+	{
+		final long squaredRadius = squaredRadius( radius );
+		final int[] squaredDistances = grid.squaredDistances( foreground, squaredRadius + 1 );
+
+		final boolean[] dilated = new boolean[ foreground.length ];
+		for ( int i = 0; i < foreground.length; ++i )
+			dilated[ i ] = squaredDistances[ i ] <= squaredRadius;
+
+		return dilated;
+	}
+
+	private static long squaredRadius( long radius )
+	{
+		if ( radius < 0 || radius * radius >= Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Radius must be within [0, 46340]: " + radius );
+
+		return radius * radius;
+	}
+
+	/**
+	 * The pixels of the mask, with a border of the given width, as flat array.
+	 */
+	private static class Grid
+	{
+		private final int[] dimensions;
+		private final int[] strides;
+		private final int padding;
+		private final int numElements;
+
+		Grid( RandomAccessibleInterval< BitType > mask, long padding )
+		{
+			final int n = mask.numDimensions();
+			this.dimensions = new int[ n ];
+			this.strides = new int[ n ];
+			this.padding = ( int ) padding;
+
+			long numElements = 1;
+			for ( int d = 0; d < n; ++d )
+			{
+				final long dimension = mask.dimension( d ) + 2 * padding;
+				dimensions[ d ] = ( int ) dimension;
+				strides[ d ] = ( int ) numElements;
+				numElements *= dimension;
+				if ( numElements > Integer.MAX_VALUE )
+					throw new IllegalArgumentException( "Mask is too large for the binary morphology: "
+							+ Arrays.toString( Intervals.dimensionsAsLongArray( mask ) ) );
+			}
+
+			this.numElements = ( int ) numElements;
+		}
+
+		boolean[] read( RandomAccessibleInterval< BitType > mask )
+		{
+			final boolean[] pixels = new boolean[ numElements ];
+			final Cursor< BitType > cursor = Views.flatIterable( mask ).cursor();
+			final int[] position = new int[ dimensions.length ];
+
+			while ( cursor.hasNext() )
+			{
+				pixels[ index( position ) ] = cursor.next().get();
+				increment( position );
+			}
+
+			return pixels;
+		}
+
+		RandomAccessibleInterval< BitType > write( boolean[] pixels, RandomAccessibleInterval< BitType > mask )
+		{
+			final RandomAccessibleInterval< BitType > output = Views.translate(
+					ArrayImgs.bits( Intervals.dimensionsAsLongArray( mask ) ),
+					Intervals.minAsLongArray( mask ) );
+
+			final Cursor< BitType > cursor = Views.flatIterable( output ).cursor();
+			final int[] position = new int[ dimensions.length ];
+
+			while ( cursor.hasNext() )
+			{
+				cursor.next().set( pixels[ index( position ) ] );
+				increment( position );
+			}
+
+			return output;
+		}
+
+		/**
+		 * @param position within the mask, i.e. without the border
+		 */
+		private int index( int[] position )
+		{
+			int index = 0;
+			for ( int d = 0; d < position.length; ++d )
+				index += ( position[ d ] + padding ) * strides[ d ];
+			return index;
+		}
+
+		private void increment( int[] position )
+		{
+			for ( int d = 0; d < position.length; ++d )
+			{
+				if ( ++position[ d ] < dimensions[ d ] - 2 * padding ) return;
+				position[ d ] = 0;
+			}
+		}
+
+		/**
+		 * @return for each pixel the squared distance to the closest feature pixel, or the cap, whichever is smaller
+		 */
+		int[] squaredDistances( boolean[] isFeature, long cap )
+		{
+			final int[] squaredDistances = new int[ numElements ];
+			for ( int i = 0; i < numElements; ++i )
+				squaredDistances[ i ] = isFeature[ i ] ? 0 : ( int ) cap;
+
+			int maxLength = 0;
+			for ( int dimension : dimensions )
+				maxLength = Math.max( maxLength, dimension );
+
+			final long[] line = new long[ maxLength ];
+			final long[] transformed = new long[ maxLength ];
+			final int[] parabolas = new int[ maxLength ];
+			final double[] boundaries = new double[ maxLength + 1 ];
+
+			for ( int d = 0; d < dimensions.length; ++d )
+			{
+				final int length = dimensions[ d ];
+				final int stride = strides[ d ];
+				final int numLines = numElements / length;
+
+				for ( int l = 0; l < numLines; ++l )
+				{
+					final int start = ( l / stride ) * stride * length + l % stride;
+
+					for ( int i = 0; i < length; ++i )
+						line[ i ] = squaredDistances[ start + i * stride ];
+
+					transformLine( line, length, transformed, parabolas, boundaries );
+
+					for ( int i = 0; i < length; ++i )
+						squaredDistances[ start + i * stride ] = ( int ) Math.min( transformed[ i ], cap );
+				}
+			}
+
+			return squaredDistances;
+		}
+
+		/**
+		 * One dimensional squared distance transform: the lower envelope of the parabolas
+		 * rooted at each position q, with height f( q ).
+		 */
+		private static void transformLine( long[] f, int length, long[] transformed, int[] parabolas, double[] boundaries )
+		{
+			int k = 0;
+			parabolas[ 0 ] = 0;
+			boundaries[ 0 ] = Double.NEGATIVE_INFINITY;
+			boundaries[ 1 ] = Double.POSITIVE_INFINITY;
+
+			for ( int q = 1; q < length; ++q )
+			{
+				double s = intersection( f, parabolas[ k ], q );
+				while ( s <= boundaries[ k ] )
+				{
+					k--;
+					s = intersection( f, parabolas[ k ], q );
+				}
+
+				k++;
+				parabolas[ k ] = q;
+				boundaries[ k ] = s;
+				boundaries[ k + 1 ] = Double.POSITIVE_INFINITY;
+			}
+
+			k = 0;
+			for ( int q = 0; q < length; ++q )
+			{
+				while ( boundaries[ k + 1 ] < q ) k++;
+				final long distance = q - parabolas[ k ];
+				transformed[ q ] = distance * distance + f[ parabolas[ k ] ];
+			}
+		}
+
+		private static double intersection( long[] f, int p, int q )
+		{
+			return ( ( f[ q ] + ( double ) q * q ) - ( f[ p ] + ( double ) p * p ) ) / ( 2.0 * q - 2.0 * p );
+		}
+	}
+}
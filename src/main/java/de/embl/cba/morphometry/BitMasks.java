@@ -0,0 +1,301 @@
+package de.embl.cba.morphometry;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.transform.integer.MixedTransform;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.MixedTransformView;
+import net.imglib2.view.Views;
+
+import java.util.Arrays;
+
+/**
+ * Logic operations on binary masks, which work on 64 pixels at once if the masks are
+ * {@link ArrayImgs#bits} images, possibly translated with {@link Views#translate}.
+ * Otherwise, they fall back to cursors.
+ *
+ * As with {@link net.imglib2.loops.LoopBuilder}, the pixels of two masks are paired
+ * in flat iteration order, such that the masks must have the same dimensions.
+ */
+public class BitMasks
+{
+	private static final int BITS_PER_WORD = 64;
+
+	/**
+	 * @return the number of foreground pixels
+	 */
+	public static long count( RandomAccessibleInterval< BitType > mask )
+	{
+		final long[] words = words( mask );
+
+		long count = 0;
+
+		if ( words != null )
+		{
+			final int numWords = numWords( mask );
+			for ( int i = 0; i < numWords - 1; ++i )
+				count += Long.bitCount( words[ i ] );
+			if ( numWords > 0 )
+				count += Long.bitCount( words[ numWords - 1 ] & lastWordBits( mask ) );
+			return count;
+		}
+
+		for ( BitType pixel : Views.iterable( mask ) )
+			if ( pixel.get() ) count++;
+
+		return count;
+	}
+
+	/**
+	 * mask = mask AND other
+	 */
+	public static void and( RandomAccessibleInterval< BitType > mask, RandomAccessibleInterval< BitType > other )
+	{
+		checkDimensions( mask, other );
+
+		final long[] words = words( mask );
+		final long[] otherWords = words( other );
+
+		if ( words != null && otherWords != null )
+		{
+			final int numWords = numWords( mask );
+			for ( int i = 0; i < numWords; ++i )
+				words[ i ] &= otherWords[ i ];
+			return;
+		}
+
+		final Cursor< BitType > cursor = Views.flatIterable( mask ).cursor();
+		final Cursor< BitType > otherCursor = Views.flatIterable( other ).cursor();
+		while ( cursor.hasNext() )
+			cursor.next().and( otherCursor.next() );
+	}
+
+	/**
+	 * mask = mask OR other
+	 */
+	public static void or( RandomAccessibleInterval< BitType > mask, RandomAccessibleInterval< BitType > other )
+	{
+		checkDimensions( mask, other );
+
+		final long[] words = words( mask );
+		final long[] otherWords = words( other );
+
+		if ( words != null && otherWords != null )
+		{
+			final int numWords = numWords( mask );
+			for ( int i = 0; i < numWords; ++i )
+				words[ i ] |= otherWords[ i ];
+			return;
+		}
+
+		final Cursor< BitType > cursor = Views.flatIterable( mask ).cursor();
+		final Cursor< BitType > otherCursor = Views.flatIterable( other ).cursor();
+		while ( cursor.hasNext() )
+			cursor.next().or( otherCursor.next() );
+	}
+
+	/**
+	 * mask = mask AND NOT other, e.g. to remove the branch points from a skeleton
+	 */
+	public static void andNot( RandomAccessibleInterval< BitType > mask, RandomAccessibleInterval< BitType > other )
+	{
+		checkDimensions( mask, other );
+
+		final long[] words = words( mask );
+		final long[] otherWords = words( other );
+
+		if ( words != null && otherWords != null )
+		{
+			final int numWords = numWords( mask );
+			for ( int i = 0; i < numWords; ++i )
+				words[ i ] &= ~ otherWords[ i ];
+			return;
+		}
+
+		final Cursor< BitType > cursor = Views.flatIterable( mask ).cursor();
+		final Cursor< BitType > otherCursor = Views.flatIterable( other ).cursor();
+		while ( cursor.hasNext() )
+		{
+			final BitType pixel = cursor.next();
+			if ( otherCursor.next().get() ) pixel.set( false );
+		}
+	}
+
+	public static void copy( RandomAccessibleInterval< BitType > source, RandomAccessibleInterval< BitType > target )
+	{
+		checkDimensions( source, target );
+
+		final long[] sourceWords = words( source );
+		final long[] targetWords = words( target );
+
+		if ( sourceWords != null && targetWords != null )
+		{
+			System.arraycopy( sourceWords, 0, targetWords, 0, numWords( source ) );
+			return;
+		}
+
+		final Cursor< BitType > sourceCursor = Views.flatIterable( source ).cursor();
+		final Cursor< BitType > targetCursor = Views.flatIterable( target ).cursor();
+		while ( sourceCursor.hasNext() )
+			targetCursor.next().set( sourceCursor.next() );
+	}
+
+	public static void invert( RandomAccessibleInterval< BitType > mask )
+	{
+		final long[] words = words( mask );
+
+		if ( words != null )
+		{
+			final int numWords = numWords( mask );
+			for ( int i = 0; i < numWords; ++i )
+				words[ i ] = ~ words[ i ];
+			return;
+		}
+
+		for ( BitType pixel : Views.iterable( mask ) )
+			pixel.not();
+	}
+
+	/**
+	 * Sets the pixels at the positions of the region, e.g. a {@link net.imglib2.roi.labeling.LabelRegion}.
+	 */
+	public static void draw( IterableInterval< ? > region, RandomAccessibleInterval< BitType > mask )
+	{
+		final long[] words = words( mask );
+		final Cursor< ? > cursor = region.localizingCursor();
+
+		if ( words != null )
+		{
+			final int n = mask.numDimensions();
+			final long[] min = Intervals.minAsLongArray( mask );
+			final long[] dimensions = Intervals.dimensionsAsLongArray( mask );
+
+			while ( cursor.hasNext() )
+			{
+				cursor.fwd();
+				long index = 0;
+				for ( int d = n - 1; d >= 0; --d )
+					index = index * dimensions[ d ] + cursor.getLongPosition( d ) - min[ d ];
+				words[ ( int ) ( index >>> 6 ) ] |= 1L << ( index & 63 );
+			}
+			return;
+		}
+
+		final RandomAccess< BitType > access = mask.randomAccess();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			access.setPosition( cursor );
+			access.get().set( true );
+		}
+	}
+
+	/**
+	 * @return a mask with the interval of the image, where the pixels are larger than the threshold
+	 */
+	public static < T extends RealType< T > >
+	RandomAccessibleInterval< BitType > threshold( RandomAccessibleInterval< T > image, double threshold )
+	{
+		final RandomAccessibleInterval< BitType > mask = Views.translate(
+				ArrayImgs.bits( Intervals.dimensionsAsLongArray( image ) ),
+				Intervals.minAsLongArray( image ) );
+
+		final long[] words = words( mask );
+		final Cursor< T > cursor = Views.flatIterable( image ).cursor();
+
+		for ( int i = 0; cursor.hasNext(); ++i )
+		{
+			long word = 0;
+			for ( int bit = 0; bit < BITS_PER_WORD && cursor.hasNext(); ++bit )
+				if ( cursor.next().getRealDouble() > threshold )
+					word |= 1L << bit;
+			words[ i ] = word;
+		}
+
+		return mask;
+	}
+
+	/**
+	 * @return the words that hold the pixels of the mask in flat iteration order, or null
+	 */
+	private static long[] words( RandomAccessibleInterval< BitType > mask )
+	{
+		if ( mask instanceof ArrayImg )
+			return arrayImgWords( ( ArrayImg ) mask );
+
+		if ( mask instanceof IntervalView && ( ( IntervalView ) mask ).getSource() instanceof MixedTransformView )
+		{
+			final MixedTransformView< ? > view = ( MixedTransformView ) ( ( IntervalView ) mask ).getSource();
+
+			if ( view.getSource() instanceof ArrayImg
+					&& isTranslationOf( mask, ( ArrayImg ) view.getSource(), view.getTransformToSource() ) )
+				return arrayImgWords( ( ArrayImg ) view.getSource() );
+		}
+
+		return null;
+	}
+
+	private static long[] arrayImgWords( ArrayImg< ?, ? > img )
+	{
+		if ( Intervals.numElements( img ) == 0 || ! ( img.firstElement() instanceof BitType ) ) return null;
+
+		final Object access = img.update( null );
+		if ( ! ( access instanceof LongArray ) ) return null;
+
+		return ( ( LongArray ) access ).getCurrentStorageArray();
+	}
+
+	/**
+	 * @return true if the mask covers exactly the translated image
+	 */
+	private static boolean isTranslationOf(
+			RandomAccessibleInterval< BitType > mask,
+			ArrayImg< ?, ? > img,
+			MixedTransform transform )
+	{
+		final int n = mask.numDimensions();
+		if ( transform.numSourceDimensions() != n || img.numDimensions() != n ) return false;
+
+		for ( int d = 0; d < n; ++d )
+		{
+			if ( transform.getComponentZero( d )
+					|| transform.getComponentMapping( d ) != d
+					|| transform.getComponentInversion( d ) ) return false;
+
+			if ( mask.min( d ) + transform.getTranslation( d ) != 0 ) return false;
+			if ( mask.dimension( d ) != img.dimension( d ) ) return false;
+		}
+
+		return true;
+	}
+
+	private static int numWords( RandomAccessibleInterval< BitType > mask )
+	{
+		return ( int ) ( ( Intervals.numElements( mask ) + BITS_PER_WORD - 1 ) / BITS_PER_WORD );
+	}
+
+	/**
+	 * @return the bits of the last word that belong to the mask
+	 */
+	private static long lastWordBits( RandomAccessibleInterval< BitType > mask )
+	{
+		final int numBits = ( int ) ( Intervals.numElements( mask ) % BITS_PER_WORD );
+		return numBits == 0 ? -1L : ( 1L << numBits ) - 1;
+	}
+
+	private static void checkDimensions( RandomAccessibleInterval< BitType > mask, RandomAccessibleInterval< BitType > other )
+	{
+		if ( ! Intervals.equalDimensions( mask, other ) )
+			throw new IllegalArgumentException( "Masks must have the same dimensions: "
+					+ Arrays.toString( Intervals.dimensionsAsLongArray( mask ) ) + ", "
+					+ Arrays.toString( Intervals.dimensionsAsLongArray( other ) ) );
+	}
+}
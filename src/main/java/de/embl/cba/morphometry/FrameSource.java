@@ -0,0 +1,36 @@
+package de.embl.cba.morphometry;
+
+import net.imglib2.RandomAccessibleInterval;
+
+import java.util.List;
+
+/**
+ * Frames of a time series, which may be computed or loaded only when they are requested.
+ */
+public interface FrameSource< T >
+{
+	int numFrames();
+
+	/**
+	 * @return the frame, which may be shared with other callers and must therefore not be modified.
+	 */
+	RandomAccessibleInterval< T > getFrame( int t );
+
+	static < T > FrameSource< T > of( List< RandomAccessibleInterval< T > > frames )
+	{
+		return new FrameSource< T >()
+		{
+			@Override
+			public int numFrames()
+			{
+				return frames.size();
+			}
+
+			@Override
+			public RandomAccessibleInterval< T > getFrame( int t )
+			{
+				return frames.get( t );
+			}
+		};
+	}
+}
@@ -0,0 +1,282 @@
+package de.embl.cba.morphometry;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Median filter with a hyper-sphere (as {@link net.imglib2.algorithm.neighborhood.HyperSphereShape})
+ * for integer images with at most 2^16 different values, e.g. 8- and 16-bit images.
+ *
+ * Along each line of the image, the histogram of the neighborhood is updated in the style of Huang:
+ * the hyper-sphere is split into runs along the line, and for each run only the pixel
+ * that leaves and the pixel that enters the run are updated. The median is tracked incrementally,
+ * using a coarse histogram of 2^( bits / 2 ) fine bins each to skip over empty value ranges.
+ * Thus, the cost per pixel grows with the cross section of the sphere, r^( n - 1 ), rather than with its volume.
+ *
+ * Pixels outside of the image are replaced by the closest border pixel, as with {@link Views#extendBorder}.
+ * The lines are distributed over the threads in slabs.
+ */
+public class HistogramMedianFilter< R extends RealType< R > & NativeType< R > >
+{
+	private static final int MAX_NUM_BINS = 1 << 16;
+
+	private final RandomAccessibleInterval< R > image;
+	private final long radius;
+	private int numThreads;
+
+	private int[] dimensions;
+	private int[] values; // pixel values minus the minimal value of the type
+	private int[][] runOffsets; // for each run, the offsets in the dimensions 1 to n - 1
+	private int[] runHalfWidths;
+	private int numBins;
+	private int coarseShift;
+
+	private RandomAccessibleInterval< R > filtered;
+
+	public HistogramMedianFilter( RandomAccessibleInterval< R > image, long radius )
+	{
+		if ( ! isSupported( Util.getTypeFromInterval( image ) ) )
+			throw new IllegalArgumentException( "Median filtering by histogram needs an integer type with at most "
+					+ MAX_NUM_BINS + " values: " + Util.getTypeFromInterval( image ).getClass().getSimpleName() );
+
+		if ( Intervals.numElements( image ) > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Image is too large for the median filter: "
+					+ Arrays.toString( Intervals.dimensionsAsLongArray( image ) ) );
+
+		this.image = image;
+		this.radius = radius;
+		this.numThreads = 1;
+	}
+
+	public static boolean isSupported( RealType< ? > type )
+	{
+		return type instanceof IntegerType && type.getMaxValue() - type.getMinValue() < MAX_NUM_BINS;
+	}
+
+	public void setNumThreads( int numThreads )
+	{
+		if ( numThreads < 1 )
+			throw new IllegalArgumentException( "Number of threads must be at least 1: " + numThreads );
+
+		this.numThreads = numThreads;
+	}
+
+	public void run()
+	{
+		final R type = Util.getTypeFromInterval( image );
+		final long minValue = ( long ) type.getMinValue();
+		numBins = ( int ) ( type.getMaxValue() - minValue ) + 1;
+		coarseShift = ( 32 - Integer.numberOfLeadingZeros( numBins - 1 ) + 1 ) / 2;
+
+		final int n = image.numDimensions();
+		dimensions = new int[ n ];
+		for ( int d = 0; d < n; ++d )
+			dimensions[ d ] = ( int ) image.dimension( d );
+
+		final int numElements = ( int ) Intervals.numElements( image );
+		values = new int[ numElements ];
+		final Cursor< R > cursor = Views.flatIterable( image ).cursor();
+		for ( int i = 0; i < numElements; ++i )
+			values[ i ] = ( int ) ( ( long ) cursor.next().getRealDouble() - minValue );
+
+		createRuns();
+
+		final int[] medians = new int[ numElements ];
+		final int numLines = numElements == 0 ? 0 : numElements / dimensions[ 0 ];
+
+		ParallelExecutor.shared( numThreads ).map( slabs( numLines ), slab -> filterLines( slab[ 0 ], slab[ 1 ], medians ) );
+
+		filtered = Utils.createEmptyCopy( image );
+		final Cursor< R > filteredCursor = Views.flatIterable( filtered ).cursor();
+		for ( int i = 0; i < numElements; ++i )
+			filteredCursor.next().setReal( medians[ i ] + minValue );
+	}
+
+	/**
+	 * Splits the hyper-sphere into runs along dimension 0.
+	 */
+	private void createRuns()
+	{
+		final int n = dimensions.length;
+		final ArrayList< int[] > offsets = new ArrayList<>();
+		final ArrayList< Integer > halfWidths = new ArrayList<>();
+
+		final int[] offset = new int[ n - 1 ];
+		Arrays.fill( offset, ( int ) - radius );
+
+		while ( true )
+		{
+			long squaredLength = 0;
+			for ( int o : offset )
+				squaredLength += ( long ) o * o;
+
+			if ( squaredLength <= radius * radius )
+			{
+				offsets.add( offset.clone() );
+				halfWidths.add( ( int ) integerSquareRoot( radius * radius - squaredLength ) );
+			}
+
+			int d = 0;
+			while ( d < n - 1 && offset[ d ] == radius ) offset[ d++ ] = ( int ) - radius;
+			if ( d == n - 1 ) break;
+			offset[ d ]++;
+		}
+
+		runOffsets = offsets.toArray( new int[ 0 ][] );
+		runHalfWidths = halfWidths.stream().mapToInt( Integer::intValue ).toArray();
+	}
+
+	private static long integerSquareRoot( long value )
+	{
+		long root = ( long ) Math.sqrt( value );
+		while ( root * root > value ) root--;
+		while ( ( root + 1 ) * ( root + 1 ) <= value ) root++;
+		return root;
+	}
+
+	private List< int[] > slabs( int numLines )
+	{
+		final int numSlabs = Math.max( 1, Math.min( numThreads, numLines ) );
+		final ArrayList< int[] > slabs = new ArrayList<>( numSlabs );
+		for ( int i = 0; i < numSlabs; ++i )
+			slabs.add( new int[]{ ( int ) ( ( long ) numLines * i / numSlabs ), ( int ) ( ( long ) numLines * ( i + 1 ) / numSlabs ) } );
+		return slabs;
+	}
+
+	/**
+	 * Filters the lines from firstLine to lastLine (exclusive), with histograms of its own.
+	 */
+	private Void filterLines( int firstLine, int lastLine, int[] medians )
+	{
+		final int n = dimensions.length;
+		final int width = dimensions[ 0 ];
+		final int numRuns = runOffsets.length;
+
+		final int[] histogram = new int[ numBins ];
+		final int[] coarseHistogram = new int[ ( ( numBins - 1 ) >> coarseShift ) + 1 ];
+		final int[] runStarts = new int[ numRuns ];
+		final int[] position = new int[ n ];
+
+		int windowSize = 0;
+		for ( int halfWidth : runHalfWidths )
+			windowSize += 2 * halfWidth + 1;
+		final int rank = windowSize / 2;
+
+		for ( int line = firstLine; line < lastLine; ++line )
+		{
+			// position of the line in the dimensions 1 to n - 1
+			int remainder = line;
+			for ( int d = 1; d < n; ++d )
+			{
+				position[ d ] = remainder % dimensions[ d ];
+				remainder /= dimensions[ d ];
+			}
+
+			for ( int r = 0; r < numRuns; ++r )
+			{
+				int start = 0;
+				int stride = width;
+				for ( int d = 1; d < n; ++d )
+				{
+					start += clamp( position[ d ] + runOffsets[ r ][ d - 1 ], dimensions[ d ] ) * stride;
+					stride *= dimensions[ d ];
+				}
+				runStarts[ r ] = start;
+			}
+
+			Arrays.fill( histogram, 0 );
+			Arrays.fill( coarseHistogram, 0 );
+
+			for ( int r = 0; r < numRuns; ++r )
+				for ( int x = - runHalfWidths[ r ]; x <= runHalfWidths[ r ]; ++x )
+					add( values[ runStarts[ r ] + clamp( x, width ) ], 1, histogram, coarseHistogram );
+
+			int median = 0;
+			int numBelow = 0; // number of values in the window that are smaller than the median
+
+			final int lineStart = line * width;
+			for ( int x = 0; ; ++x )
+			{
+				// move the median down or up, skipping whole coarse bins where possible
+				while ( numBelow > rank )
+				{
+					final int coarseBin = median >> coarseShift;
+					if ( ( median & ( ( 1 << coarseShift ) - 1 ) ) == 0 && coarseBin > 0
+							&& numBelow - coarseHistogram[ coarseBin - 1 ] > rank )
+					{
+						numBelow -= coarseHistogram[ coarseBin - 1 ];
+						median -= 1 << coarseShift;
+					}
+					else
+					{
+						median--;
+						numBelow -= histogram[ median ];
+					}
+				}
+
+				while ( numBelow + histogram[ median ] <= rank )
+				{
+					final int coarseBin = median >> coarseShift;
+					if ( ( median & ( ( 1 << coarseShift ) - 1 ) ) == 0
+							&& numBelow + coarseHistogram[ coarseBin ] <= rank )
+					{
+						numBelow += coarseHistogram[ coarseBin ];
+						median += 1 << coarseShift;
+					}
+					else
+					{
+						numBelow += histogram[ median ];
+						median++;
+					}
+				}
+
+				medians[ lineStart + x ] = median;
+
+				if ( x == width - 1 ) break;
+
+				for ( int r = 0; r < numRuns; ++r )
+				{
+					final int leaving = values[ runStarts[ r ] + clamp( x - runHalfWidths[ r ], width ) ];
+					final int entering = values[ runStarts[ r ] + clamp( x + runHalfWidths[ r ] + 1, width ) ];
+					if ( leaving == entering ) continue;
+
+					add( leaving, -1, histogram, coarseHistogram );
+					add( entering, 1, histogram, coarseHistogram );
+					if ( leaving < median ) numBelow--;
+					if ( entering < median ) numBelow++;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	private void add( int value, int count, int[] histogram, int[] coarseHistogram )
+	{
+		histogram[ value ] += count;
+		coarseHistogram[ value >> coarseShift ] += count;
+	}
+
+	private static int clamp( int coordinate, int dimension )
+	{
+		return coordinate < 0 ? 0 : ( coordinate >= dimension ? dimension - 1 : coordinate );
+	}
+
+	/**
+	 * @return the filtered image, with the interval of the input image.
+	 */
+	public RandomAccessibleInterval< R > getFiltered()
+	{
+		return filtered;
+	}
+}
@@ -0,0 +1,314 @@
+package de.embl.cba.morphometry;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fills the holes of 2D and 3D binary masks, i.e. the background pixels that are not
+ * connected to the border of the mask. Unlike filling the holes slice by slice,
+ * only cavities that are enclosed in 3D are filled.
+ *
+ * The background is flood filled from the border with a scanline algorithm,
+ * where the background is 4-connected in 2D and 6-connected in 3D,
+ * and the visited pixels are kept in bit sets.
+ *
+ * With multiple threads, the mask is split into slabs along the last dimension.
+ * Each slab is flood filled by one thread, and the fills are continued across the slab
+ * boundaries in rounds, until no slab reaches into its neighbors anymore.
+ */
+public class HoleFilling
+{
+	private final int width;
+	private final int height;
+	private final int depth;
+	private final int planeSize;
+	private final boolean isVolume;
+	private final long[] foreground;
+
+	private HoleFilling( RandomAccessibleInterval< BitType > mask, long[] foreground )
+	{
+		this.width = ( int ) mask.dimension( 0 );
+		this.height = ( int ) mask.dimension( 1 );
+		this.isVolume = mask.numDimensions() == 3;
+		this.depth = isVolume ? ( int ) mask.dimension( 2 ) : 1;
+		this.planeSize = width * height;
+		this.foreground = foreground;
+	}
+
+	public static RandomAccessibleInterval< BitType > fillHoles( RandomAccessibleInterval< BitType > mask )
+	{
+		return fillHoles( mask, 1 );
+	}
+
+	/**
+	 * @return a mask with the interval of the input mask, where the holes are filled
+	 */
+	public static RandomAccessibleInterval< BitType > fillHoles(
+			RandomAccessibleInterval< BitType > mask,
+			int numThreads )
+	{
+		if ( mask.numDimensions() != 2 && mask.numDimensions() != 3 )
+			throw new IllegalArgumentException( "Hole filling needs a 2D or 3D mask: "
+					+ Arrays.toString( Intervals.dimensionsAsLongArray( mask ) ) );
+
+		if ( Intervals.numElements( mask ) > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Mask is too large for the hole filling: "
+					+ Arrays.toString( Intervals.dimensionsAsLongArray( mask ) ) );
+
+		if ( numThreads < 1 )
+			throw new IllegalArgumentException( "Number of threads must be at least 1: " + numThreads );
+
+		final ArrayImg< BitType, LongArray > img = ArrayImgs.bits( Intervals.dimensionsAsLongArray( mask ) );
+		final RandomAccessibleInterval< BitType > filled = Views.translate( img, Intervals.minAsLongArray( mask ) );
+		BitMasks.copy( mask, filled );
+
+		final long[] words = img.update( null ).getCurrentStorageArray();
+
+		if ( Intervals.numElements( mask ) > 0 )
+			new HoleFilling( mask, words ).fill( numThreads );
+
+		return filled;
+	}
+
+	/**
+	 * Replaces the foreground words by the filled mask, i.e. everything that is not
+	 * background connected to the border.
+	 */
+	private void fill( int numThreads )
+	{
+		final List< Slab > slabs = slabs( numThreads );
+
+		final ParallelExecutor executor = ParallelExecutor.shared( numThreads );
+
+		executor.map( slabs, Slab::addBorderSeeds );
+
+		while ( true )
+		{
+			executor.map( slabs, Slab::fill );
+
+			int numSeeds = 0;
+			for ( int slabNumSeeds : executor.map( slabs, Slab::addSeedsFromNeighbors ) )
+				numSeeds += slabNumSeeds;
+
+			if ( numSeeds == 0 ) break;
+		}
+
+		Arrays.fill( foreground, 0L );
+		for ( Slab slab : slabs )
+			slab.orVisitedInto( foreground );
+
+		for ( int i = 0; i < foreground.length; ++i )
+			foreground[ i ] = ~ foreground[ i ];
+
+		// keep the bits beyond the last pixel cleared
+		final int numBitsInLastWord = ( depth * planeSize ) % 64;
+		if ( numBitsInLastWord > 0 )
+			foreground[ foreground.length - 1 ] &= ( 1L << numBitsInLastWord ) - 1;
+	}
+
+	private List< Slab > slabs( int numThreads )
+	{
+		final int numSlabs = Math.max( 1, Math.min( numThreads, depth ) );
+		final ArrayList< Slab > slabs = new ArrayList<>( numSlabs );
+		for ( int i = 0; i < numSlabs; ++i )
+			slabs.add( new Slab( ( int ) ( ( long ) depth * i / numSlabs ), ( int ) ( ( long ) depth * ( i + 1 ) / numSlabs ) ) );
+
+		for ( int i = 0; i < numSlabs; ++i )
+		{
+			if ( i > 0 ) slabs.get( i ).previous = slabs.get( i - 1 );
+			if ( i < numSlabs - 1 ) slabs.get( i ).next = slabs.get( i + 1 );
+		}
+
+		return slabs;
+	}
+
+	private boolean isForeground( int index )
+	{
+		return ( foreground[ index >>> 6 ] & ( 1L << index ) ) != 0;
+	}
+
+	/**
+	 * The planes from firstPlane to lastPlane (exclusive), with the visited pixels and the pending seeds.
+	 */
+	private class Slab
+	{
+		private final int firstPlane;
+		private final int lastPlane;
+		private final int offset; // index of the first pixel of the slab
+		private final long[] visited;
+
+		private Slab previous;
+		private Slab next;
+
+		private int[] seeds;
+		private int numSeeds;
+
+		Slab( int firstPlane, int lastPlane )
+		{
+			this.firstPlane = firstPlane;
+			this.lastPlane = lastPlane;
+			this.offset = firstPlane * planeSize;
+			this.visited = new long[ ( int ) ( ( ( long ) ( lastPlane - firstPlane ) * planeSize + 63 ) / 64 ) ];
+			this.seeds = new int[ 64 ];
+		}
+
+		private boolean isVisited( int index )
+		{
+			final int local = index - offset;
+			return ( visited[ local >>> 6 ] & ( 1L << local ) ) != 0;
+		}
+
+		private boolean isFree( int index )
+		{
+			return ! isForeground( index ) && ! isVisited( index );
+		}
+
+		private void push( int index )
+		{
+			if ( numSeeds == seeds.length ) seeds = Arrays.copyOf( seeds, 2 * seeds.length );
+			seeds[ numSeeds++ ] = index;
+		}
+
+		/**
+		 * Pushes the first pixel of each free run within the pixels from start to end (inclusive) of a row.
+		 */
+		private int pushRuns( int start, int end )
+		{
+			int numPushed = 0;
+			boolean inRun = false;
+			for ( int index = start; index <= end; ++index )
+			{
+				if ( isFree( index ) )
+				{
+					if ( ! inRun ) { push( index ); numPushed++; }
+					inRun = true;
+				}
+				else
+				{
+					inRun = false;
+				}
+			}
+			return numPushed;
+		}
+
+		Void addBorderSeeds()
+		{
+			for ( int z = firstPlane; z < lastPlane; ++z )
+			{
+				final int planeStart = z * planeSize;
+
+				if ( isVolume && ( z == 0 || z == depth - 1 ) )
+				{
+					for ( int y = 0; y < height; ++y )
+						pushRuns( planeStart + y * width, planeStart + y * width + width - 1 );
+					continue;
+				}
+
+				pushRuns( planeStart, planeStart + width - 1 );
+				pushRuns( planeStart + planeSize - width, planeStart + planeSize - 1 );
+
+				for ( int y = 1; y < height - 1; ++y )
+				{
+					final int rowStart = planeStart + y * width;
+					if ( isFree( rowStart ) ) push( rowStart );
+					if ( isFree( rowStart + width - 1 ) ) push( rowStart + width - 1 );
+				}
+			}
+			return null;
+		}
+
+		Void fill()
+		{
+			while ( numSeeds > 0 )
+			{
+				final int index = seeds[ --numSeeds ];
+				if ( ! isFree( index ) ) continue;
+
+				final int rowStart = index - index % width;
+				final int rowEnd = rowStart + width - 1;
+
+				int start = index;
+				while ( start > rowStart && isFree( start - 1 ) ) start--;
+				int end = index;
+				while ( end < rowEnd && isFree( end + 1 ) ) end++;
+
+				for ( int i = start; i <= end; ++i )
+				{
+					final int local = i - offset;
+					visited[ local >>> 6 ] |= 1L << local;
+				}
+
+				final int y = ( index / width ) % height;
+				final int z = index / planeSize;
+
+				if ( y > 0 ) pushRuns( start - width, end - width );
+				if ( y < height - 1 ) pushRuns( start + width, end + width );
+				if ( z > firstPlane ) pushRuns( start - planeSize, end - planeSize );
+				if ( z < lastPlane - 1 ) pushRuns( start + planeSize, end + planeSize );
+			}
+			return null;
+		}
+
+		/**
+		 * @return the number of seeds in the boundary planes, which are adjacent to visited pixels of the neighbor slabs
+		 */
+		int addSeedsFromNeighbors()
+		{
+			int numPushed = 0;
+
+			if ( previous != null )
+				numPushed += addSeedsFrom( previous, firstPlane * planeSize, - planeSize );
+
+			if ( next != null )
+				numPushed += addSeedsFrom( next, ( lastPlane - 1 ) * planeSize, planeSize );
+
+			return numPushed;
+		}
+
+		private int addSeedsFrom( Slab neighbor, int planeStart, int step )
+		{
+			int numPushed = 0;
+			boolean inRun = false;
+			for ( int index = planeStart; index < planeStart + planeSize; ++index )
+			{
+				if ( index % width == 0 ) inRun = false;
+
+				if ( isFree( index ) && neighbor.isVisited( index + step ) )
+				{
+					if ( ! inRun ) { push( index ); numPushed++; }
+					inRun = true;
+				}
+				else
+				{
+					inRun = false;
+				}
+			}
+			return numPushed;
+		}
+
+		/**
+		 * Adds the visited pixels of the slab to the words of the whole mask.
+		 */
+		void orVisitedInto( long[] words )
+		{
+			final int shift = offset & 63;
+			final int firstWord = offset >>> 6;
+
+			for ( int j = 0; j < visited.length; ++j )
+			{
+				words[ firstWord + j ] |= visited[ j ] << shift;
+				if ( shift > 0 && firstWord + j + 1 < words.length )
+					words[ firstWord + j + 1 ] |= visited[ j ] >>> ( 64 - shift );
+			}
+		}
+	}
+}
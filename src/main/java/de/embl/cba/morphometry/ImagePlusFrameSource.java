@@ -0,0 +1,95 @@
+package de.embl.cba.morphometry;
+
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Frames of one channel of a 2D+t ImagePlus, which are only read when they are requested.
+ *
+ * For virtual stacks (e.g. opened with {@link Utils#openWithBioFormats}) this reads the
+ * frames from disk. The most recently used frames are kept in memory,
+ * such that the memory does not depend on the number of frames.
+ */
+public class ImagePlusFrameSource< T extends RealType< T > & NativeType< T > > implements FrameSource< T >
+{
+	public static final int DEFAULT_CACHE_SIZE = 4;
+
+	private final ImagePlus imagePlus;
+	private final int channelOneBased;
+	private final int tMinOneBased;
+	private final int numFrames;
+	private final LinkedHashMap< Integer, RandomAccessibleInterval< T > > cache;
+
+	public ImagePlusFrameSource(
+			ImagePlus imagePlus,
+			long channelOneBased,
+			long tMinOneBased,
+			long tMaxOneBased,
+			int cacheSize )
+	{
+		if ( imagePlus.getNSlices() != 1 )
+			throw new UnsupportedOperationException( "Only 2D images (one z-slice) are supported." );
+
+		this.imagePlus = imagePlus;
+		this.channelOneBased = ( int ) channelOneBased;
+		this.tMinOneBased = ( int ) tMinOneBased;
+		this.numFrames = ( int ) ( tMaxOneBased - tMinOneBased + 1 );
+
+		this.cache = new LinkedHashMap< Integer, RandomAccessibleInterval< T > >( 16, 0.75f, true )
+		{
+			@Override
+			protected boolean removeEldestEntry( Map.Entry< Integer, RandomAccessibleInterval< T > > eldest )
+			{
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	public ImagePlusFrameSource( ImagePlus imagePlus, long channelOneBased )
+	{
+		this( imagePlus, channelOneBased, 1, imagePlus.getNFrames(), DEFAULT_CACHE_SIZE );
+	}
+
+	@Override
+	public int numFrames()
+	{
+		return numFrames;
+	}
+
+	/**
+	 * @return the cached frame, which is shared by all callers and must not be modified.
+	 */
+	@Override
+	public synchronized RandomAccessibleInterval< T > getFrame( int t )
+	{
+		if ( t < 0 || t >= numFrames )
+			throw new IllegalArgumentException( "Frame " + t + " is out of bounds [0, " + ( numFrames - 1 ) + "]" );
+
+		RandomAccessibleInterval< T > frame = cache.get( t );
+
+		if ( frame == null )
+		{
+			frame = readFrame( t );
+			cache.put( t, frame );
+		}
+
+		return frame;
+	}
+
+	private RandomAccessibleInterval< T > readFrame( int t )
+	{
+		final int stackIndex = imagePlus.getStackIndex( channelOneBased, 1, tMinOneBased + t );
+		final ImageProcessor processor = imagePlus.getStack().getProcessor( stackIndex );
+
+		final RandomAccessibleInterval< T > wrapped = ImageJFunctions.wrap( new ImagePlus( "", processor ) );
+
+		return Utils.copyAsArrayImg( wrapped );
+	}
+}
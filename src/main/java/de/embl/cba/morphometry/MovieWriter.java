@@ -0,0 +1,254 @@
+package de.embl.cba.morphometry;
+
+import ij.ImagePlus;
+import ij.VirtualStack;
+import ij.io.FileSaver;
+import ij.measure.Calibration;
+import ij.plugin.Duplicator;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.LUT;
+import ij.process.ShortProcessor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a 2D+t movie as a Tiff file, frame by frame.
+ *
+ * The frames are written to a temporary raw file as soon as they are added,
+ * such that only one frame is kept in memory. On {@link #close()} the Tiff
+ * is written from the raw file, again one frame at a time.
+ * The Tiff is the same as the one written by {@link Utils#saveRAIListAsMovie}.
+ */
+public class MovieWriter implements Closeable
+{
+	private final File file;
+	private final String title;
+	private final Calibration calibration;
+	private LUT lut;
+
+	private File rawFile;
+	private FileChannel rawChannel;
+	private int width;
+	private int height;
+	private int bitDepth;
+	private int numFrames;
+
+	public MovieWriter( File file, String title, Calibration calibration )
+	{
+		this.file = file;
+		this.title = title;
+		this.calibration = calibration;
+	}
+
+	public void setLut( LUT lut )
+	{
+		this.lut = lut;
+	}
+
+	public int getNumFrames()
+	{
+		return numFrames;
+	}
+
+	public synchronized < R extends RealType< R > & NativeType< R > > void add( RandomAccessibleInterval< R > frame )
+	{
+		final ImageProcessor processor =
+				new Duplicator().run( ImageJFunctions.wrap( frame, title ) ).getProcessor();
+
+		try
+		{
+			if ( rawChannel == null ) open( processor );
+
+			if ( processor.getWidth() != width
+					|| processor.getHeight() != height
+					|| processor.getBitDepth() != bitDepth )
+				throw new IllegalArgumentException( "Frame " + numFrames + " of " + title
+						+ " differs in size or type from the first frame." );
+
+			final ByteBuffer buffer = asBytes( processor );
+			while ( buffer.hasRemaining() ) rawChannel.write( buffer );
+			numFrames++;
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	private void open( ImageProcessor processor ) throws IOException
+	{
+		width = processor.getWidth();
+		height = processor.getHeight();
+		bitDepth = processor.getBitDepth();
+
+		if ( bitDepth != 8 && bitDepth != 16 && bitDepth != 32 )
+			throw new UnsupportedOperationException( "Bit depth not supported: " + bitDepth );
+
+		rawFile = File.createTempFile( "movie-", ".raw", file.getAbsoluteFile().getParentFile() );
+		rawFile.deleteOnExit();
+
+		try
+		{
+			rawChannel = new RandomAccessFile( rawFile, "rw" ).getChannel();
+		}
+		catch ( IOException e )
+		{
+			rawFile.delete();
+			rawFile = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the Tiff file and deletes the temporary raw file,
+	 * also if writing the Tiff fails.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if ( rawChannel == null ) return;
+
+		try
+		{
+			final ImagePlus imp = new ImagePlus( title, new RawFileStack() );
+			imp.setDimensions( 1, 1, numFrames );
+			imp.setOpenAsHyperStack( true );
+			if ( calibration != null ) imp.setCalibration( calibration );
+			if ( lut != null ) imp.setLut( lut );
+
+			if ( ! new FileSaver( imp ).saveAsTiff( file.getAbsolutePath() ) )
+				throw new UncheckedIOException( new IOException( "Could not save movie: " + file ) );
+
+			Logger.log( "Movie saved: " + file );
+		}
+		finally
+		{
+			discard();
+		}
+	}
+
+	/**
+	 * Closes and deletes the temporary raw file without writing the Tiff,
+	 * e.g. if computing the frames failed.
+	 */
+	public synchronized void discard()
+	{
+		if ( rawChannel == null ) return;
+
+		try
+		{
+			rawChannel.close();
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+		finally
+		{
+			rawChannel = null;
+			rawFile.delete();
+			rawFile = null;
+		}
+	}
+
+	private int bytesPerFrame()
+	{
+		return width * height * ( bitDepth / 8 );
+	}
+
+	private ByteBuffer asBytes( ImageProcessor processor )
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( bytesPerFrame() ).order( ByteOrder.nativeOrder() );
+
+		if ( bitDepth == 8 )
+			buffer.put( ( byte[] ) processor.getPixels() );
+		else if ( bitDepth == 16 )
+			buffer.asShortBuffer().put( ( short[] ) processor.getPixels() );
+		else
+			buffer.asFloatBuffer().put( ( float[] ) processor.getPixels() );
+
+		buffer.rewind();
+		return buffer;
+	}
+
+	private ImageProcessor readFrame( int t ) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( bytesPerFrame() ).order( ByteOrder.nativeOrder() );
+		long position = ( long ) t * bytesPerFrame();
+		while ( buffer.hasRemaining() )
+		{
+			final int numRead = rawChannel.read( buffer, position );
+			if ( numRead < 0 ) throw new IOException( "Unexpected end of " + rawFile );
+			position += numRead;
+		}
+		buffer.rewind();
+
+		if ( bitDepth == 8 )
+		{
+			final byte[] pixels = new byte[ width * height ];
+			buffer.get( pixels );
+			return new ByteProcessor( width, height, pixels );
+		}
+		else if ( bitDepth == 16 )
+		{
+			final short[] pixels = new short[ width * height ];
+			buffer.asShortBuffer().get( pixels );
+			return new ShortProcessor( width, height, pixels, null );
+		}
+		else
+		{
+			final float[] pixels = new float[ width * height ];
+			buffer.asFloatBuffer().get( pixels );
+			return new FloatProcessor( width, height, pixels );
+		}
+	}
+
+	/**
+	 * Lets the FileSaver fetch the frames one by one from the raw file.
+	 */
+	private class RawFileStack extends VirtualStack
+	{
+		RawFileStack()
+		{
+			super( width, height, null, rawFile.getParent() );
+		}
+
+		@Override
+		public ImageProcessor getProcessor( int n )
+		{
+			try
+			{
+				return readFrame( n - 1 );
+			}
+			catch ( IOException e )
+			{
+				throw new UncheckedIOException( e );
+			}
+		}
+
+		@Override
+		public int getSize()
+		{
+			return numFrames;
+		}
+
+		@Override
+		public String getSliceLabel( int n )
+		{
+			return null;
+		}
+	}
+}
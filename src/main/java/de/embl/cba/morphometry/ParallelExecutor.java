@@ -0,0 +1,140 @@
+package de.embl.cba.morphometry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Applies a function to a list of elements (e.g. objects, labels or image slabs)
+ * in parallel, using a fork join pool.
+ *
+ * The results are returned in the order of the elements, such that processing them
+ * afterwards gives the same output for any number of threads.
+ * The functions must therefore not have side effects on shared state,
+ * e.g. drawing into a shared annotation image must happen when adding the results.
+ *
+ * Algorithms that are called repeatedly should use {@link #shared},
+ * such that the threads are not created again for each call.
+ */
+public class ParallelExecutor
+{
+	private static final ConcurrentHashMap< Integer, ParallelExecutor > sharedExecutors = new ConcurrentHashMap<>();
+
+	private final int numThreads;
+	private final boolean isShared;
+	private ForkJoinPool pool;
+
+	public ParallelExecutor( int numThreads )
+	{
+		this( numThreads, false );
+	}
+
+	public ParallelExecutor()
+	{
+		this( Runtime.getRuntime().availableProcessors() );
+	}
+
+	private ParallelExecutor( int numThreads, boolean isShared )
+	{
+		if ( numThreads < 1 )
+			throw new IllegalArgumentException( "Number of threads must be at least 1: " + numThreads );
+
+		this.numThreads = numThreads;
+		this.isShared = isShared;
+	}
+
+	/**
+	 * @return an executor that is shared by all callers with the same number of threads;
+	 * 			its idle threads are stopped by the pool after a while, {@link #shutdown} has no effect.
+	 */
+	public static ParallelExecutor shared( int numThreads )
+	{
+		if ( numThreads < 1 )
+			throw new IllegalArgumentException( "Number of threads must be at least 1: " + numThreads );
+
+		return sharedExecutors.computeIfAbsent( numThreads, n -> new ParallelExecutor( n, true ) );
+	}
+
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * With one thread, or less than two elements, the function is applied in the calling thread.
+	 *
+	 * @return the results of applying the function to each element, in the order of the elements.
+	 */
+	public < O, R > List< R > map( List< O > elements, Function< O, R > function )
+	{
+		final ArrayList< R > results = new ArrayList<>( elements.size() );
+
+		if ( numThreads == 1 || elements.size() < 2 )
+		{
+			for ( O element : elements )
+				results.add( function.apply( element ) );
+
+			return results;
+		}
+
+		final ArrayList< Callable< R > > tasks = new ArrayList<>( elements.size() );
+		for ( O element : elements )
+			tasks.add( () -> function.apply( element ) );
+
+		final List< Future< R > > futures = getPool().invokeAll( tasks );
+
+		try
+		{
+			for ( Future< R > future : futures )
+				results.add( future.get() );
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( "Interrupted while waiting for the parallel tasks.", e );
+		}
+		catch ( ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException ) throw ( RuntimeException ) cause;
+			if ( cause instanceof Error ) throw ( Error ) cause;
+			throw new RuntimeException( cause );
+		}
+
+		return results;
+	}
+
+	/**
+	 * @return the results of applying the function to each label, in the order of the labels.
+	 */
+	public < R > List< R > map( int[] labels, Function< Integer, R > function )
+	{
+		final ArrayList< Integer > labelList = new ArrayList<>( labels.length );
+		for ( int label : labels )
+			labelList.add( label );
+
+		return map( labelList, function );
+	}
+
+	/**
+	 * Stops the threads of the pool; a new pool is created if {@link #map} is called again.
+	 */
+	public synchronized void shutdown()
+	{
+		if ( isShared ) return;
+
+		if ( pool != null ) pool.shutdown();
+		pool = null;
+	}
+
+	private synchronized ForkJoinPool getPool()
+	{
+		if ( pool == null ) pool = new ForkJoinPool( numThreads );
+		return pool;
+	}
+}
@@ -0,0 +1,489 @@
+package de.embl.cba.morphometry;
+
+import de.embl.cba.transforms.utils.Transforms;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the local maxima of an image, i.e. the pixels that are larger than or equal to
+ * all pixels within a hyper-sphere (or hyper-rectangle) of given radius.
+ *
+ * First, a separable max filter (van Herk/Gil-Werman) over the largest hyper-cube inside the
+ * neighborhood yields the candidates, independent of the radius in time.
+ * For spheres, the candidates are then checked against the remaining pixels of the sphere.
+ * Finally, the maxima are sorted by value and, if a minimal distance is given,
+ * a maximum is only kept if no larger maximum is closer than this distance.
+ *
+ * Pixels outside of the image are not part of any neighborhood.
+ *
+ * The max filter and the search for maxima can run in parallel: each thread works on its own
+ * lines and image chunk, and collects the maxima in its own array, which are concatenated in
+ * the order of the chunks. The results are thus the same for any number of threads.
+ */
+public class PeakDetector< T extends RealType< T > >
+{
+	private final RandomAccessibleInterval< T > image;
+	private final long radius;
+	private boolean isRectangular;
+	private double threshold;
+	private double minimalDistance;
+	private int numThreads;
+
+	private int[] dimensions;
+	private int[] strides;
+	private double[] values;
+
+	private int[] maxima; // indices of all local maxima, in ascending order
+	private int[] peaks; // indices of the maxima that are kept, sorted by value
+
+	/**
+	 * @param radius
+	 * 			radius of the hyper-sphere neighborhood, as in {@link net.imglib2.algorithm.neighborhood.HyperSphereShape}
+	 */
+	public PeakDetector( RandomAccessibleInterval< T > image, long radius )
+	{
+		if ( Intervals.numElements( image ) > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Image is too large for the peak detection: "
+					+ Arrays.toString( Intervals.dimensionsAsLongArray( image ) ) );
+
+		this.image = image;
+		this.radius = radius;
+		this.threshold = Double.NEGATIVE_INFINITY;
+		this.numThreads = 1;
+	}
+
+	/**
+	 * Uses the hyper-rectangle with a span of radius, as in {@link net.imglib2.algorithm.neighborhood.RectangleShape},
+	 * instead of the hyper-sphere.
+	 */
+	public void setRectangular( boolean isRectangular )
+	{
+		this.isRectangular = isRectangular;
+	}
+
+	/**
+	 * Only maxima that are larger than the threshold are found.
+	 */
+	public void setThreshold( double threshold )
+	{
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Maxima that are closer than the minimal distance to a larger maximum are not kept as peaks.
+	 */
+	public void setMinimalDistance( double minimalDistance )
+	{
+		this.minimalDistance = minimalDistance;
+	}
+
+	public void setNumThreads( int numThreads )
+	{
+		if ( numThreads < 1 )
+			throw new IllegalArgumentException( "Number of threads must be at least 1: " + numThreads );
+
+		this.numThreads = numThreads;
+	}
+
+	public void run()
+	{
+		final int n = image.numDimensions();
+
+		dimensions = new int[ n ];
+		strides = new int[ n ];
+		int numElements = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			dimensions[ d ] = ( int ) image.dimension( d );
+			strides[ d ] = numElements;
+			numElements *= dimensions[ d ];
+		}
+
+		values = new double[ numElements ];
+		final Cursor< T > cursor = Views.flatIterable( image ).cursor();
+		for ( int i = 0; i < numElements; ++i )
+			values[ i ] = cursor.next().getRealDouble();
+
+		final int span = isRectangular ? ( int ) radius : inscribedCubeSpan( radius, n );
+
+		final int[][] remainingOffsets = isRectangular ? new int[ 0 ][] : sphereOffsetsOutsideCube( span );
+		final double[] maxFiltered = values.clone();
+
+		final ParallelExecutor executor = ParallelExecutor.shared( numThreads );
+
+		for ( int d = 0; d < n; ++d )
+		{
+			final int dimension = d;
+			final int numLines = numElements / dimensions[ d ];
+			executor.map( chunks( numLines ), chunk -> maxFilter( maxFiltered, dimension, span, chunk[ 0 ], chunk[ 1 ] ) );
+		}
+
+		final List< int[] > chunkMaxima = executor.map( chunks( numElements ),
+				chunk -> findMaxima( maxFiltered, remainingOffsets, chunk[ 0 ], chunk[ 1 ] ) );
+
+		maxima = concatenate( chunkMaxima );
+
+		peaks = suppressNonMaxima( sortByValue( maxima ) );
+	}
+
+	/**
+	 * @return one range [ start, end ) per thread
+	 */
+	private List< int[] > chunks( int size )
+	{
+		final int numChunks = Math.max( 1, Math.min( numThreads, size ) );
+		final ArrayList< int[] > chunks = new ArrayList<>( numChunks );
+		for ( int i = 0; i < numChunks; ++i )
+			chunks.add( new int[]{ ( int ) ( ( long ) size * i / numChunks ), ( int ) ( ( long ) size * ( i + 1 ) / numChunks ) } );
+		return chunks;
+	}
+
+	private static int[] concatenate( List< int[] > arrays )
+	{
+		int length = 0;
+		for ( int[] array : arrays )
+			length += array.length;
+
+		final int[] concatenated = new int[ length ];
+		int offset = 0;
+		for ( int[] array : arrays )
+		{
+			System.arraycopy( array, 0, concatenated, offset, array.length );
+			offset += array.length;
+		}
+
+		return concatenated;
+	}
+
+	/**
+	 * The largest span, such that the hyper-cube with this span lies within the hyper-sphere.
+	 */
+	private static int inscribedCubeSpan( long radius, int n )
+	{
+		int span = ( int ) Math.floor( radius / Math.sqrt( n ) );
+		while ( ( long ) ( span + 1 ) * ( span + 1 ) * n <= radius * radius ) span++;
+		while ( span > 0 && ( long ) span * span * n > radius * radius ) span--;
+		return span;
+	}
+
+	/**
+	 * Max filter along dimension d with a window of 2 * span + 1 pixels,
+	 * using the van Herk/Gil-Werman algorithm, for the lines from firstLine to lastLine (exclusive).
+	 */
+	private Void maxFilter( double[] image, int d, int span, int firstLine, int lastLine )
+	{
+		if ( span == 0 ) return null;
+
+		final int length = dimensions[ d ];
+		final int stride = strides[ d ];
+		final int window = 2 * span + 1;
+		final int paddedLength = length + 2 * span;
+
+		final double[] padded = new double[ paddedLength ];
+		final double[] forward = new double[ paddedLength ];
+		final double[] backward = new double[ paddedLength ];
+		Arrays.fill( padded, Double.NEGATIVE_INFINITY );
+
+		for ( int line = firstLine; line < lastLine; ++line )
+		{
+			final int start = ( line / stride ) * stride * length + line % stride;
+
+			for ( int i = 0; i < length; ++i )
+				padded[ span + i ] = image[ start + i * stride ];
+
+			for ( int i = 0; i < paddedLength; ++i )
+				forward[ i ] = i % window == 0 ? padded[ i ] : Math.max( forward[ i - 1 ], padded[ i ] );
+
+			for ( int i = paddedLength - 1; i >= 0; --i )
+				backward[ i ] = ( i % window == window - 1 || i == paddedLength - 1 ) ?
+						padded[ i ] : Math.max( backward[ i + 1 ], padded[ i ] );
+
+			for ( int i = 0; i < length; ++i )
+				image[ start + i * stride ] = Math.max( backward[ i ], forward[ i + window - 1 ] );
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the offsets of the hyper-sphere that are not within the hyper-cube with the given span
+	 */
+	private int[][] sphereOffsetsOutsideCube( int span )
+	{
+		final int n = dimensions.length;
+		final ArrayList< int[] > offsets = new ArrayList<>();
+
+		final int[] offset = new int[ n ];
+		Arrays.fill( offset, ( int ) - radius );
+
+		while ( true )
+		{
+			long squaredLength = 0;
+			boolean isInCube = true;
+			for ( int d = 0; d < n; ++d )
+			{
+				squaredLength += ( long ) offset[ d ] * offset[ d ];
+				if ( Math.abs( offset[ d ] ) > span ) isInCube = false;
+			}
+
+			if ( ! isInCube && squaredLength <= radius * radius )
+				offsets.add( offset.clone() );
+
+			int d = 0;
+			while ( d < n && offset[ d ] == radius ) offset[ d++ ] = ( int ) - radius;
+			if ( d == n ) break;
+			offset[ d ]++;
+		}
+
+		return offsets.toArray( new int[ 0 ][] );
+	}
+
+	/**
+	 * @return the indices of the maxima from start to end (exclusive), in ascending order
+	 */
+	private int[] findMaxima( double[] maxFiltered, int[][] remainingOffsets, int start, int end )
+	{
+		final int n = dimensions.length;
+		final int[] position = new int[ n ];
+		localize( start, position );
+		int[] maxima = new int[ 16 ];
+		int numMaxima = 0;
+
+		for ( int i = start; i < end; ++i )
+		{
+			final double value = values[ i ];
+
+			if ( value > threshold && value >= maxFiltered[ i ] )
+			{
+				if ( remainingOffsets.length == 0 || isLargestOrEqual( value, i, remainingOffsets, position ) )
+				{
+					if ( numMaxima == maxima.length ) maxima = Arrays.copyOf( maxima, 2 * numMaxima );
+					maxima[ numMaxima++ ] = i;
+				}
+			}
+
+			for ( int d = 0; d < n; ++d )
+			{
+				if ( ++position[ d ] < dimensions[ d ] ) break;
+				position[ d ] = 0;
+			}
+		}
+
+		return Arrays.copyOf( maxima, numMaxima );
+	}
+
+	private boolean isLargestOrEqual( double value, int index, int[][] offsets, int[] position )
+	{
+		for ( int[] offset : offsets )
+		{
+			int neighbor = index;
+			boolean isInside = true;
+			for ( int d = 0; d < offset.length; ++d )
+			{
+				final int coordinate = position[ d ] + offset[ d ];
+				if ( coordinate < 0 || coordinate >= dimensions[ d ] )
+				{
+					isInside = false;
+					break;
+				}
+				neighbor += offset[ d ] * strides[ d ];
+			}
+
+			if ( isInside && values[ neighbor ] > value ) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Sorts by descending value; equal values stay in ascending order of their index.
+	 */
+	private int[] sortByValue( int[] indices )
+	{
+		return Arrays.stream( indices ).boxed()
+				.sorted( Comparator.comparingDouble( ( Integer i ) -> - values[ i ] ) )
+				.mapToInt( Integer::intValue ).toArray();
+	}
+
+	/**
+	 * Keeps the maxima, in the given order, that are not closer than the minimal distance to a kept one.
+	 * The kept maxima are registered in a grid with cells of the size of the minimal distance,
+	 * such that only the neighboring cells need to be searched.
+	 */
+	private int[] suppressNonMaxima( int[] sortedMaxima )
+	{
+		if ( minimalDistance <= 0 ) return sortedMaxima;
+
+		final int n = dimensions.length;
+		final int[] gridDimensions = new int[ n ];
+		final int[] gridStrides = new int[ n ];
+		long numCells = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			gridDimensions[ d ] = ( int ) Math.ceil( dimensions[ d ] / minimalDistance );
+			gridStrides[ d ] = ( int ) numCells;
+			numCells *= gridDimensions[ d ];
+		}
+
+		final int[] firstInCell = new int[ ( int ) numCells ];
+		Arrays.fill( firstInCell, -1 );
+		final int[] nextInCell = new int[ sortedMaxima.length ];
+
+		final int[] kept = new int[ sortedMaxima.length ];
+		int numKept = 0;
+
+		final int[] position = new int[ n ];
+		final int[] cell = new int[ n ];
+		final int[] neighborCell = new int[ n ];
+		final int[] other = new int[ n ];
+
+		for ( int index : sortedMaxima )
+		{
+			localize( index, position );
+			for ( int d = 0; d < n; ++d )
+				cell[ d ] = ( int ) ( position[ d ] / minimalDistance );
+
+			if ( isFarEnough( position, cell, firstInCell, nextInCell, kept, gridDimensions, gridStrides, neighborCell, other ) )
+			{
+				int cellIndex = 0;
+				for ( int d = 0; d < n; ++d )
+					cellIndex += cell[ d ] * gridStrides[ d ];
+
+				nextInCell[ numKept ] = firstInCell[ cellIndex ];
+				firstInCell[ cellIndex ] = numKept;
+				kept[ numKept++ ] = index;
+			}
+		}
+
+		return Arrays.copyOf( kept, numKept );
+	}
+
+	private boolean isFarEnough(
+			int[] position, int[] cell,
+			int[] firstInCell, int[] nextInCell, int[] kept,
+			int[] gridDimensions, int[] gridStrides,
+			int[] neighborCell, int[] other )
+	{
+		final int n = position.length;
+		final double squaredMinimalDistance = minimalDistance * minimalDistance;
+
+		final int[] step = new int[ n ];
+		Arrays.fill( step, -1 );
+
+		while ( true )
+		{
+			boolean isInGrid = true;
+			int cellIndex = 0;
+			for ( int d = 0; d < n; ++d )
+			{
+				neighborCell[ d ] = cell[ d ] + step[ d ];
+				if ( neighborCell[ d ] < 0 || neighborCell[ d ] >= gridDimensions[ d ] ) isInGrid = false;
+				cellIndex += neighborCell[ d ] * gridStrides[ d ];
+			}
+
+			if ( isInGrid )
+			{
+				for ( int k = firstInCell[ cellIndex ]; k != -1; k = nextInCell[ k ] )
+				{
+					localize( kept[ k ], other );
+					double squaredDistance = 0;
+					for ( int d = 0; d < n; ++d )
+						squaredDistance += ( double ) ( other[ d ] - position[ d ] ) * ( other[ d ] - position[ d ] );
+
+					if ( squaredDistance < squaredMinimalDistance ) return false;
+				}
+			}
+
+			int d = 0;
+			while ( d < n && step[ d ] == 1 ) step[ d++ ] = -1;
+			if ( d == n ) return true;
+			step[ d ]++;
+		}
+	}
+
+	private void localize( int index, int[] position )
+	{
+		for ( int d = 0; d < position.length; ++d )
+		{
+			position[ d ] = index % dimensions[ d ];
+			index /= dimensions[ d ];
+		}
+	}
+
+	/**
+	 * @return the kept maxima, sorted by descending value, at their positions in the image.
+	 */
+	public ArrayList< PositionAndValue > getPeaks()
+	{
+		final int n = dimensions.length;
+		final int[] position = new int[ n ];
+
+		final ArrayList< PositionAndValue > positionAndValues = new ArrayList<>();
+		for ( int index : peaks )
+		{
+			localize( index, position );
+
+			final PositionAndValue positionAndValue = new PositionAndValue();
+			positionAndValue.position = new double[ n ];
+			for ( int d = 0; d < n; ++d )
+				positionAndValue.position[ d ] = position[ d ] + image.min( d );
+			positionAndValue.value = values[ index ];
+
+			positionAndValues.add( positionAndValue );
+		}
+
+		return positionAndValues;
+	}
+
+	/**
+	 * @return the positions of all local maxima, irrespective of the minimal distance, in the order of
+	 * the pixels of the image; the coordinates of the i-th maximum are at [ i * n, ( i + 1 ) * n ).
+	 */
+	public long[] getMaximaPositions()
+	{
+		final int n = dimensions.length;
+		final int[] position = new int[ n ];
+
+		final long[] positions = new long[ maxima.length * n ];
+		for ( int i = 0; i < maxima.length; ++i )
+		{
+			localize( maxima[ i ], position );
+			for ( int d = 0; d < n; ++d )
+				positions[ i * n + d ] = position[ d ] + image.min( d );
+		}
+
+		return positions;
+	}
+
+	/**
+	 * @return all local maxima, irrespective of the minimal distance, with the interval of the image.
+	 */
+	public RandomAccessibleInterval< BitType > getMaximaMask()
+	{
+		final RandomAccessibleInterval< BitType > mask =
+				Transforms.getWithAdjustedOrigin( image, ArrayImgs.bits( Intervals.dimensionsAsLongArray( image ) ) );
+
+		final RandomAccess< BitType > access = mask.randomAccess();
+		final int[] position = new int[ dimensions.length ];
+		for ( int index : maxima )
+		{
+			localize( index, position );
+			for ( int d = 0; d < position.length; ++d )
+				access.setPosition( position[ d ] + image.min( d ), d );
+			access.get().set( true );
+		}
+
+		return mask;
+	}
+}
@@ -455,6 +455,12 @@ public class Utils
 			RandomAccessibleInterval< T > rai,
 			RandomAccessibleInterval< BitType > mask )
 	{
+		if ( Util.getTypeFromInterval( rai ) instanceof BitType && Intervals.equals( rai, mask ) )
+		{
+			BitMasks.and( ( RandomAccessibleInterval ) rai, mask );
+			return;
+		}
+
 		final Cursor< T > cursor = Views.iterable( rai ).cursor();
 		final OutOfBounds< BitType > maskAccess =
 				Views.extendZero( mask ).randomAccess();
@@ -951,6 +957,27 @@ public class Utils
 		}
 	}
 
+	/**
+	 * Label maps that were saved via ImageJ are read back as e.g. FloatType,
+	 * also if they are declared as IntType due to type erasure.
+	 *
+	 * @return the label map itself if it is IntType, otherwise a copy with the rounded labels.
+	 */
+	public static < R extends RealType< R > > RandomAccessibleInterval< IntType > asIntTypeLabelMap( RandomAccessibleInterval< R > labelMap )
+	{
+		if ( Util.getTypeFromInterval( ( RandomAccessibleInterval ) labelMap ) instanceof IntType )
+			return ( RandomAccessibleInterval ) labelMap;
+
+		final RandomAccessibleInterval< IntType > converted =
+				Views.translate( ArrayImgs.ints( Intervals.dimensionsAsLongArray( labelMap ) ), Intervals.minAsLongArray( labelMap ) );
+
+		final Cursor< R > input = Views.flatIterable( labelMap ).cursor();
+		for ( IntType output : Views.flatIterable( converted ) )
+			output.set( ( int ) Math.round( input.next().getRealDouble() ) );
+
+		return converted;
+	}
+
 	public static ImgLabeling< Integer, IntType > labelMapAsImgLabeling( RandomAccessibleInterval< IntType > labelMap )
 	{
 		final ImgLabeling< Integer, IntType > imgLabeling = new ImgLabeling<>( labelMap );
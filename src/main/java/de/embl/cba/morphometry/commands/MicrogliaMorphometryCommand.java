@@ -1,14 +1,19 @@
 package de.embl.cba.morphometry.commands;
 
+import de.embl.cba.morphometry.FrameSource;
+import de.embl.cba.morphometry.ImagePlusFrameSource;
 import de.embl.cba.morphometry.Logger;
+import de.embl.cba.morphometry.MovieWriter;
 import de.embl.cba.morphometry.Utils;
 import de.embl.cba.morphometry.measurements.Measurements;
+import de.embl.cba.morphometry.measurements.MeasurementsBinaryWriter;
+import de.embl.cba.morphometry.measurements.MeasurementsTableWriter;
+import de.embl.cba.morphometry.measurements.MeasurementsWriter;
 import de.embl.cba.morphometry.microglia.MicrogliaMorphometry;
 import de.embl.cba.tables.Tables;
 import ij.ImagePlus;
 import inra.ijpb.measure.region2d.GeodesicDiameter;
 import net.imagej.ops.OpService;
-import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import org.scijava.command.Command;
@@ -16,12 +21,11 @@ import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
 import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
 import java.io.File;
 import java.util.*;
 
 import static de.embl.cba.morphometry.Version.getArtifactVersion;
-import static de.embl.cba.tables.Tables.addRelativeImagePathColumn;
-import static de.embl.cba.tables.Tables.saveTable;
 
 @Plugin(type = Command.class, menuPath = "Plugins>Measure>Microglia Morphometry" )
 public class MicrogliaMorphometryCommand < T extends RealType< T > & NativeType< T > >
@@ -29,6 +33,10 @@ public class MicrogliaMorphometryCommand < T extends RealType< T > & NativeType<
 {
 	public static final String DELIM = "\t";
 
+	public static final String TABLE = "Table (.csv)";
+	public static final String BINARY = "Binary columns (" + MeasurementsBinaryWriter.FILE_EXTENSION + ")";
+	public static final String TABLE_AND_BINARY = "Table and binary columns";
+
 	@Parameter
 	public OpService opService;
 
@@ -41,11 +49,18 @@ public class MicrogliaMorphometryCommand < T extends RealType< T > & NativeType<
 	@Parameter ( label = "Output directory", style = "directory" )
 	public File outputDirectory;
 
+	@Parameter ( label = "Measurements output format", choices = { TABLE, BINARY, TABLE_AND_BINARY } )
+	public String outputFormat = TABLE;
+
+	@Parameter ( label = "Number of threads", min = "1" )
+	public int numThreads = Runtime.getRuntime().availableProcessors();
+
 	@Parameter
 	public boolean showIntermediateResults = false;
 
 	private ImagePlus labelMaskImagePlus;
 	private File tableOutputFile;
+	private File binaryOutputFile;
 	private String dataSetID;
 	private ImagePlus intensityImagePlus;
 
@@ -68,9 +83,33 @@ public class MicrogliaMorphometryCommand < T extends RealType< T > & NativeType<
 						openIntensities(),
 						opService );
 
-		microgliaMorphometry.run();
+		microgliaMorphometry.setNumThreads( numThreads );
+
+		final ArrayList< MeasurementsWriter > measurementsWriters = new ArrayList<>();
+		final ArrayList< MovieWriter > movieWriters = new ArrayList<>();
+		boolean isFinished = false;
+
+		try
+		{
+			final MovieWriter skeletonsWriter = createMovieWriter( getSkeletonsFile( dataSetID ), dataSetID + "-skeletons" );
+			movieWriters.add( skeletonsWriter );
+			final MovieWriter annotationsWriter = createMovieWriter( getAnnotationsFile( dataSetID ), dataSetID + "-annotations" );
+			movieWriters.add( annotationsWriter );
+			microgliaMorphometry.setSkeletonsWriter( skeletonsWriter );
+			microgliaMorphometry.setAnnotationsWriter( annotationsWriter );
 
-		saveResults( dataSetID, microgliaMorphometry );
+			addMeasurementsWriters( measurementsWriters, dataSetID );
+
+			for ( MeasurementsWriter measurementsWriter : measurementsWriters )
+				microgliaMorphometry.addMeasurementsWriter( measurementsWriter );
+
+			microgliaMorphometry.run();
+			isFinished = true;
+		}
+		finally
+		{
+			closeWriters( measurementsWriters, movieWriters, isFinished );
+		}
 
 		Logger.log( "Done!" );
 
@@ -89,51 +128,101 @@ public class MicrogliaMorphometryCommand < T extends RealType< T > & NativeType<
 		return true;
 	}
 
-	private ArrayList< RandomAccessibleInterval< T > > openLabelMasks()
+	/**
+	 * The images are opened as virtual stacks, of which only a few frames are kept in memory.
+	 */
+	private FrameSource< T > openLabelMasks()
 	{
 		labelMaskImagePlus = Utils.openWithBioFormats( labelMaskFile.toString() );
 		dataSetID = labelMaskImagePlus.getTitle();
-		return Utils.get2DImagePlusMovieAsFrameList( labelMaskImagePlus, 1 );
+		return new ImagePlusFrameSource<>( labelMaskImagePlus, 1 );
 	}
 
-	private ArrayList< RandomAccessibleInterval< T > > openIntensities()
+	private FrameSource< T > openIntensities()
 	{
 		intensityImagePlus = Utils.openWithBioFormats( intensityFile.toString() );
-		return Utils.get2DImagePlusMovieAsFrameList( intensityImagePlus, 1 );
+		return new ImagePlusFrameSource<>( intensityImagePlus, 1 );
 	}
 
-	private void saveResults( String dataSetID,
-							  MicrogliaMorphometry< T > microgliaMorphometry )
+	/**
+	 * The measurements are streamed to the files while measuring, such that no table
+	 * needs to be created in memory (which also works headless).
+	 */
+	private void addMeasurementsWriters( ArrayList< MeasurementsWriter > measurementsWriters, String dataSetID )
 	{
-		final ArrayList< HashMap< Integer, Map< String, Object > > >
-				measurementsTimepointList = microgliaMorphometry.getMeasurementsTimepointList();
+		if ( outputFormat.equals( TABLE ) || outputFormat.equals( TABLE_AND_BINARY ) )
+		{
+			tableOutputFile = new File(
+					outputDirectory.toString() + File.separator + dataSetID + ".csv" );
 
-		Measurements.addCalibration( measurementsTimepointList, labelMaskImagePlus );
+			Logger.log( "Saving results table: " + tableOutputFile );
 
-		final JTable table = Measurements.asTable( measurementsTimepointList );
+			measurementsWriters.add( new MeasurementsTableWriter( tableOutputFile, DELIM ) );
+		}
 
-		tableOutputFile = new File(
-				outputDirectory.toString() + File.separator + dataSetID + ".csv" );
+		if ( outputFormat.equals( BINARY ) || outputFormat.equals( TABLE_AND_BINARY ) )
+		{
+			binaryOutputFile = new File( outputDirectory.toString() + File.separator
+					+ dataSetID + MeasurementsBinaryWriter.FILE_EXTENSION );
 
-		addRelativeImagePathColumn(
-				table,
-				labelMaskFile.getAbsolutePath(),
-				outputDirectory.getAbsolutePath(),
-				"LabelMasks" );
+			Logger.log( "Saving binary results: " + binaryOutputFile );
 
-		addRelativeImagePathColumn(
-				table,
-				intensityFile.getAbsolutePath(),
-				outputDirectory.getAbsolutePath(),
-				"Intensities" );
+			measurementsWriters.add( new MeasurementsBinaryWriter( binaryOutputFile ) );
+		}
 
-		saveSkeletons( dataSetID, microgliaMorphometry, table );
+		for ( MeasurementsWriter measurementsWriter : measurementsWriters )
+		{
+			measurementsWriter.addConstantMeasurements(
+					Measurements.getCalibrationMeasurements( labelMaskImagePlus ) );
 
-		saveAnnotations( dataSetID, microgliaMorphometry, table );
+			addRelativeImagePathColumn( measurementsWriter, labelMaskFile, "LabelMasks" );
+			addRelativeImagePathColumn( measurementsWriter, intensityFile, "Intensities" );
+			measurementsWriter.addColumn( "Path_Skeletons", getSkeletonsFile( dataSetID ) );
+			measurementsWriter.addColumn( "Path_Annotations", getAnnotationsFile( dataSetID ) );
+		}
+	}
 
-		Logger.log( "Saving results table: " + tableOutputFile );
+	/**
+	 * Adds the same column as {@link Tables#addRelativeImagePathColumn} adds to a table.
+	 */
+	private void addRelativeImagePathColumn( MeasurementsWriter measurementsWriter, File file, String imageName )
+	{
+		final JTable table = new JTable( new DefaultTableModel( 1, 0 ) );
 
-		saveTable( table, tableOutputFile );
+		Tables.addRelativeImagePathColumn(
+				table,
+				file.getAbsolutePath(),
+				outputDirectory.getAbsolutePath(),
+				imageName );
+
+		final int column = table.getColumnCount() - 1;
+		measurementsWriter.addColumn( table.getColumnName( column ), table.getValueAt( 0, column ) );
+	}
+
+	/**
+	 * The measurements are closed in any case, such that the measured time points are kept;
+	 * the movies are only saved if all frames have been written.
+	 */
+	private static void closeWriters(
+			ArrayList< MeasurementsWriter > measurementsWriters,
+			ArrayList< MovieWriter > movieWriters,
+			boolean isFinished )
+	{
+		try
+		{
+			for ( MeasurementsWriter measurementsWriter : measurementsWriters )
+				measurementsWriter.close();
+		}
+		finally
+		{
+			for ( MovieWriter movieWriter : movieWriters )
+			{
+				if ( isFinished )
+					movieWriter.close();
+				else
+					movieWriter.discard();
+			}
+		}
 	}
 
 	public File getTableOutputFile()
@@ -141,40 +230,27 @@ public class MicrogliaMorphometryCommand < T extends RealType< T > & NativeType<
 		return tableOutputFile;
 	}
 
-	private void saveSkeletons(
-			String dataSetID,
-			MicrogliaMorphometry< T > microgliaMorphometry,
-			JTable table )
+	public File getBinaryOutputFile()
 	{
-		final File file = new File( dataSetID + "-skeletons.tif" );
-
-		final String imageName = dataSetID + "-skeletons";
-
-		Utils.saveRAIListAsMovie(
-				microgliaMorphometry.getSkeletons(),
-				labelMaskImagePlus.getCalibration(),
-				outputDirectory.toString() + File.separator + file,
-				imageName );
-
-		Tables.addColumn( table, "Path_Skeletons", file );
+		return binaryOutputFile;
 	}
 
-	private void saveAnnotations(
-			String dataSetID,
-			MicrogliaMorphometry< T > microgliaMorphometry,
-			JTable table )
+	private File getSkeletonsFile( String dataSetID )
 	{
-		final File file = new File( dataSetID + "-annotations.tif" );
-
-		final String imageName = dataSetID + "-annotations";
+		return new File( dataSetID + "-skeletons.tif" );
+	}
 
-		Utils.saveRAIListAsMovie(
-				microgliaMorphometry.getAnnotations(),
-				labelMaskImagePlus.getCalibration(),
-				outputDirectory.toString() + File.separator + file,
-				imageName );
+	private File getAnnotationsFile( String dataSetID )
+	{
+		return new File( dataSetID + "-annotations.tif" );
+	}
 
-		Tables.addColumn( table, "Path_Annotations", file );
+	private MovieWriter createMovieWriter( File file, String imageName )
+	{
+		return new MovieWriter(
+				new File( outputDirectory.toString() + File.separator + file ),
+				imageName,
+				labelMaskImagePlus.getCalibration() );
 	}
 
 }
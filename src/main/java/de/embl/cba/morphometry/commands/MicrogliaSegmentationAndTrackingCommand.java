@@ -1,9 +1,14 @@
 package de.embl.cba.morphometry.commands;
 
+import de.embl.cba.morphometry.Constants;
+import de.embl.cba.morphometry.FrameSource;
+import de.embl.cba.morphometry.ImagePlusFrameSource;
 import de.embl.cba.morphometry.Logger;
+import de.embl.cba.morphometry.MovieWriter;
 import de.embl.cba.morphometry.Utils;
 import de.embl.cba.morphometry.microglia.MicrogliaSegmentationAndTracking;
 import de.embl.cba.morphometry.microglia.MicrogliaSettings;
+import de.embl.cba.morphometry.tracking.LineageGraph;
 import ij.ImagePlus;
 import net.imagej.ops.OpService;
 import net.imglib2.RandomAccessibleInterval;
@@ -50,10 +55,15 @@ public class MicrogliaSegmentationAndTrackingCommand< T extends RealType<T> & Na
 //	@Parameter( label = "Maximal time frame to be processed", min = "1" )
 	public long tMaxOneBased = 1000000000L;
 
+	@Parameter( label = "Number of threads", min = "1" )
+	public int numThreads = settings.numThreads;
+
 	@Parameter
 	public boolean showIntermediateResults = settings.showIntermediateResults;
 	private ImagePlus imagePlus;
-	private ArrayList< RandomAccessibleInterval< T > > intensities;
+	private FrameSource< T > intensities;
+	private MovieWriter labelingsWriter;
+	private String outputLineagePath;
 
 	public void run()
 	{
@@ -65,25 +75,59 @@ public class MicrogliaSegmentationAndTrackingCommand< T extends RealType<T> & Na
 	{
 		settings.outputLabelingsPath = outputDirectory + File.separator
 			+ intensitiesFile.getName().split( "\\." )[ 0 ] + "-labelMasks.tif";
+		outputLineagePath = outputDirectory + File.separator
+			+ intensitiesFile.getName().split( "\\." )[ 0 ] + "-lineage" + LineageGraph.FILE_EXTENSION;
 		settings.showIntermediateResults = showIntermediateResults;
 		settings.outputDirectory = outputDirectory;
 		settings.opService = opService;
 		settings.thresholdInUnitsOfBackgroundPeakHalfWidth = intensityThreshold;
+		settings.numThreads = numThreads;
+		settings.segmentationQueueDepth = 2 * numThreads;
 	}
 
 	private void processFile( File file )
 	{
-		openIntensitiesAsFrameList( file );
+		openIntensities( file );
+
+		// without manual correction the labelings are written while tracking
+		if ( ! settings.manualSegmentationCorrection )
+		{
+			labelingsWriter = new MovieWriter(
+					new File( settings.outputLabelingsPath ),
+					Constants.SEGMENTATION,
+					imagePlus.getCalibration() );
+			labelingsWriter.setLut( Utils.getGoldenAngleLUT() );
+		}
 
-		final ArrayList< RandomAccessibleInterval< T > > labelings = computeLabels();
+		final ArrayList< RandomAccessibleInterval< T > > labelings;
+		try
+		{
+			labelings = computeLabels();
+		}
+		catch ( RuntimeException | Error e )
+		{
+			if ( labelingsWriter != null ) labelingsWriter.discard();
+			throw e;
+		}
 
-		Utils.saveLabelings(
-				labelings,
-				imagePlus.getCalibration(),
-				settings.outputLabelingsPath );
+		if ( labelingsWriter != null )
+		{
+			labelingsWriter.close();
+		}
+		else
+		{
+			Utils.saveLabelings(
+					labelings,
+					imagePlus.getCalibration(),
+					settings.outputLabelingsPath );
+		}
 	}
 
-	private void openIntensitiesAsFrameList( File file )
+	/**
+	 * The intensities are opened as a virtual stack, of which only
+	 * the frames that are currently segmented or tracked are kept in memory.
+	 */
+	private void openIntensities( File file )
 	{
 		imagePlus = Utils.openWithBioFormats( file.getAbsolutePath() );
 
@@ -103,11 +147,12 @@ public class MicrogliaSegmentationAndTrackingCommand< T extends RealType<T> & Na
 
 		settings.calibration = imagePlus.getCalibration();
 
-		intensities = Utils.get2DImagePlusMovieAsFrameList(
+		intensities = new ImagePlusFrameSource<>(
 				imagePlus,
 				1,
 				tMinOneBased,
-				Math.min( tMaxOneBased, imagePlus.getNFrames() ) );
+				Math.min( tMaxOneBased, imagePlus.getNFrames() ),
+				settings.segmentationQueueDepth + ImagePlusFrameSource.DEFAULT_CACHE_SIZE );
 	}
 
 	private ArrayList< RandomAccessibleInterval< T > > computeLabels()
@@ -131,8 +176,15 @@ public class MicrogliaSegmentationAndTrackingCommand< T extends RealType<T> & Na
 			segmentationAndTracking.setLabelings( labelings );
 		}
 
+		if ( labelingsWriter != null )
+		{
+			segmentationAndTracking.setLabelingsWriter( labelingsWriter );
+		}
+
 		segmentationAndTracking.run();
 
+		segmentationAndTracking.getLineage().write( new File( outputLineagePath ) );
+
 		final ArrayList< RandomAccessibleInterval< T > > labelings
 				= segmentationAndTracking.getLabelings();
 
@@ -4,10 +4,11 @@ import de.embl.cba.morphometry.ImageScience;
 import de.embl.cba.morphometry.Logger;
 import de.embl.cba.morphometry.Utils;
 import de.embl.cba.morphometry.measurements.Measurements;
+import de.embl.cba.morphometry.measurements.MeasurementsBinaryWriter;
+import de.embl.cba.morphometry.measurements.MeasurementsTableWriter;
 import de.embl.cba.morphometry.spindle.SpindleMeasurements;
 import de.embl.cba.morphometry.spindle.SpindleMorphometry;
 import de.embl.cba.morphometry.spindle.SpindleMorphometrySettings;
-import de.embl.cba.tables.Tables;
 import ij.CompositeImage;
 import ij.IJ;
 import ij.ImagePlus;
@@ -22,7 +23,6 @@ import org.scijava.command.Command;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
-import javax.swing.*;
 import java.io.File;
 import java.nio.file.Path;
 import java.util.HashMap;
@@ -87,6 +87,8 @@ public class Spindle3DCommand< R extends RealType< R > > implements Command
 
 	public boolean saveResults = true;
 
+	public boolean saveBinaryMeasurements = false;
+
 	private String imageName;
 	private HashMap< Integer, Map< String, Object > > objectMeasurements;
 
@@ -198,13 +200,22 @@ public class Spindle3DCommand< R extends RealType< R > > implements Command
 
 	private void saveMeasurements( SpindleMorphometry morphometry )
 	{
-		final JTable jTable = Measurements.asTable( objectMeasurements );
-
 		final File tableOutputFile = new File( getOutputDirectory() + "measurements.txt" );
 
 		Logger.log( "Saving " + tableOutputFile );
 
-		Tables.saveTable( jTable, tableOutputFile );
+		final MeasurementsTableWriter tableWriter =
+				new MeasurementsTableWriter( tableOutputFile, "\t" );
+		tableWriter.write( objectMeasurements, 0 );
+		tableWriter.close();
+
+		if ( saveBinaryMeasurements )
+		{
+			final MeasurementsBinaryWriter binaryWriter = new MeasurementsBinaryWriter(
+					new File( getOutputDirectory() + "measurements" + MeasurementsBinaryWriter.FILE_EXTENSION ) );
+			binaryWriter.write( objectMeasurements, 0 );
+			binaryWriter.close();
+		}
 	}
 
 	private String getOutputDirectory()
@@ -0,0 +1,164 @@
+package de.embl.cba.morphometry.measurements;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.view.Views;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Sum intensities of all labels of a labeling, corrected by the mean intensity
+ * of the background (label 0), computed in one sweep over the image.
+ *
+ * Use a {@link Cache} to share the results of one ( labeling, intensity ) pair of frames,
+ * e.g. between tracking and splitting.
+ */
+public class BackgroundCorrectedIntensities
+{
+	private double[] sums;
+	private long[] numPixels;
+	private final double backgroundMean;
+
+	public < T extends RealType< T > > BackgroundCorrectedIntensities(
+			RandomAccessibleInterval< IntType > labeling,
+			RandomAccessibleInterval< T > image )
+	{
+		sums = new double[ 16 ];
+		numPixels = new long[ 16 ];
+
+		final Cursor< IntType > labelCursor = Views.iterable( labeling ).localizingCursor();
+		final RandomAccess< T > intensityAccess = image.randomAccess();
+
+		while ( labelCursor.hasNext() )
+		{
+			final int label = labelCursor.next().getInteger();
+
+			if ( label < 0 ) continue;
+
+			if ( label >= sums.length ) grow( label );
+
+			intensityAccess.setPosition( labelCursor );
+			sums[ label ] += intensityAccess.get().getRealDouble();
+			numPixels[ label ]++;
+		}
+
+		backgroundMean = sums[ 0 ] / numPixels[ 0 ];
+	}
+
+	public double getBackgroundMean()
+	{
+		return backgroundMean;
+	}
+
+	public double getSumIntensity( int label )
+	{
+		return label < sums.length ? sums[ label ] : 0;
+	}
+
+	public long getNumPixels( int label )
+	{
+		return label < numPixels.length ? numPixels[ label ] : 0;
+	}
+
+	/**
+	 * Equivalent to {@link Measurements#measureBgCorrectedSumIntensity}.
+	 */
+	public double getBgCorrectedSumIntensity( int label )
+	{
+		return getSumIntensity( label ) - getNumPixels( label ) * backgroundMean;
+	}
+
+	/**
+	 * @return the background corrected sum intensities of all labels (except the background).
+	 */
+	public HashMap< Integer, Double > getBgCorrectedSumIntensities()
+	{
+		final HashMap< Integer, Double > intensities = new HashMap<>();
+
+		for ( int label = 1; label < numPixels.length; ++label )
+			if ( numPixels[ label ] > 0 )
+				intensities.put( label, getBgCorrectedSumIntensity( label ) );
+
+		return intensities;
+	}
+
+	private void grow( int label )
+	{
+		final int length = Math.max( label + 1, 2 * sums.length );
+		sums = Arrays.copyOf( sums, length );
+		numPixels = Arrays.copyOf( numPixels, length );
+	}
+
+	/**
+	 * Results per ( labeling frame, image frame ), for the duration of one run, e.g. of the tracking.
+	 *
+	 * The images are identified by their frame only, such that the results are found again
+	 * when a frame is re-read, e.g. after it has been evicted from the cache of an
+	 * {@link de.embl.cba.morphometry.ImagePlusFrameSource}.
+	 * The labelings are identified by their frame and by identity, such that a labeling
+	 * that has been replaced is measured again. The cache does not notice changes of the pixel values,
+	 * thus {@link #invalidate} must be called after modifying a cached labeling in place.
+	 */
+	public static class Cache
+	{
+		private final HashMap< Long, Entry > results = new HashMap<>();
+
+		private static class Entry
+		{
+			final WeakReference< RandomAccessibleInterval< IntType > > labeling;
+			final BackgroundCorrectedIntensities intensities;
+
+			Entry( RandomAccessibleInterval< IntType > labeling, BackgroundCorrectedIntensities intensities )
+			{
+				this.labeling = new WeakReference<>( labeling );
+				this.intensities = intensities;
+			}
+		}
+
+		/**
+		 * @return the cached results for this labeling and image, computing them if needed.
+		 */
+		public synchronized < T extends RealType< T > > BackgroundCorrectedIntensities get(
+				int labelingFrame,
+				RandomAccessibleInterval< IntType > labeling,
+				int imageFrame,
+				RandomAccessibleInterval< T > image )
+		{
+			final long key = key( labelingFrame, imageFrame );
+
+			Entry entry = results.get( key );
+			if ( entry == null || entry.labeling.get() != labeling )
+			{
+				entry = new Entry( labeling, new BackgroundCorrectedIntensities( labeling, image ) );
+				results.put( key, entry );
+			}
+
+			return entry.intensities;
+		}
+
+		public synchronized void invalidate( int labelingFrame )
+		{
+			results.keySet().removeIf( key -> ( int ) ( key >>> 32 ) == labelingFrame );
+		}
+
+		public synchronized void clear()
+		{
+			results.clear();
+		}
+
+		public synchronized int size()
+		{
+			return results.size();
+		}
+
+		private static long key( int labelingFrame, int imageFrame )
+		{
+			return ( ( long ) labelingFrame << 32 ) | ( imageFrame & 0xFFFFFFFFL );
+		}
+	}
+}
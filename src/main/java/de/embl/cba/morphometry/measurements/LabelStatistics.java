@@ -0,0 +1,299 @@
+package de.embl.cba.morphometry.measurements;
+
+import de.embl.cba.transforms.utils.Transforms;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.roi.labeling.LabelingMapping;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Computes basic per label statistics in one sweep over the index image.
+ *
+ * All results are stored in primitive arrays that are indexed by the label.
+ */
+public class LabelStatistics
+{
+	private final ImgLabeling< Integer, IntType > imgLabeling;
+	private final ArrayList< RandomAccessibleInterval< ? extends RealType< ? > > > channels;
+	private final int numDimensions;
+
+	private int[][] indexToLabels;
+	private int[] labels;
+	private long[] numPixels;
+	private long[] numImageBoundaryPixels;
+	private double[][] coordinateSums;
+	private long[][] min;
+	private long[][] max;
+	private double[][] intensitySums;
+	private double[][] squaredIntensitySums;
+
+	public LabelStatistics( ImgLabeling< Integer, IntType > imgLabeling )
+	{
+		this.imgLabeling = imgLabeling;
+		this.channels = new ArrayList<>();
+		this.numDimensions = imgLabeling.numDimensions();
+	}
+
+	/**
+	 * @param image
+	 * 			must have the same interval as the labeling.
+	 * @return
+	 * 			the channel index to be used for querying the intensity statistics.
+	 */
+	public < T extends RealType< T > > int addChannel( RandomAccessibleInterval< T > image )
+	{
+		channels.add( Views.interval( image, imgLabeling ) );
+		return channels.size() - 1;
+	}
+
+	public void run()
+	{
+		initIndexToLabels();
+		initArrays();
+		sweep();
+		collectLabels();
+	}
+
+	private void initIndexToLabels()
+	{
+		final LabelingMapping< Integer > mapping = imgLabeling.getMapping();
+		final int numSets = mapping.numSets();
+
+		indexToLabels = new int[ numSets ][];
+
+		for ( int index = 0; index < numSets; ++index )
+		{
+			final Set< Integer > labelSet = mapping.labelsAtIndex( index );
+			indexToLabels[ index ] = new int[ labelSet.size() ];
+			int i = 0;
+			for ( int label : labelSet )
+				indexToLabels[ index ][ i++ ] = label;
+		}
+	}
+
+	private void initArrays()
+	{
+		int maxLabel = 0;
+		for ( int[] labelSet : indexToLabels )
+			for ( int label : labelSet )
+				maxLabel = Math.max( maxLabel, label );
+
+		final int numLabels = maxLabel + 1;
+		final int numChannels = channels.size();
+
+		numPixels = new long[ numLabels ];
+		numImageBoundaryPixels = new long[ numLabels ];
+		coordinateSums = new double[ numDimensions ][ numLabels ];
+		min = new long[ numDimensions ][ numLabels ];
+		max = new long[ numDimensions ][ numLabels ];
+		intensitySums = new double[ numChannels ][ numLabels ];
+		squaredIntensitySums = new double[ numChannels ][ numLabels ];
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			Arrays.fill( min[ d ], Long.MAX_VALUE );
+			Arrays.fill( max[ d ], Long.MIN_VALUE );
+		}
+	}
+
+	private void sweep()
+	{
+		final long[] imageMin = new long[ numDimensions ];
+		final long[] imageMax = new long[ numDimensions ];
+		imgLabeling.min( imageMin );
+		imgLabeling.max( imageMax );
+
+		final Cursor< IntType > indexCursor =
+				Views.flatIterable( imgLabeling.getIndexImg() ).localizingCursor();
+
+		final int numChannels = channels.size();
+		final ArrayList< Cursor< ? extends RealType< ? > > > channelCursors = new ArrayList<>();
+		for ( RandomAccessibleInterval< ? extends RealType< ? > > channel : channels )
+			channelCursors.add( Views.flatIterable( channel ).cursor() );
+
+		final long[] position = new long[ numDimensions ];
+		final double[] values = new double[ numChannels ];
+
+		while ( indexCursor.hasNext() )
+		{
+			final int index = indexCursor.next().getInteger();
+
+			for ( int c = 0; c < numChannels; ++c )
+				channelCursors.get( c ).fwd();
+
+			final int[] pixelLabels = indexToLabels[ index ];
+
+			if ( pixelLabels.length == 0 ) continue;
+
+			indexCursor.localize( position );
+
+			boolean isImageBoundaryPixel = false;
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				if ( position[ d ] == imageMin[ d ] || position[ d ] == imageMax[ d ] )
+				{
+					isImageBoundaryPixel = true;
+					break;
+				}
+			}
+
+			for ( int c = 0; c < numChannels; ++c )
+				values[ c ] = channelCursors.get( c ).get().getRealDouble();
+
+			for ( int label : pixelLabels )
+			{
+				numPixels[ label ]++;
+
+				if ( isImageBoundaryPixel ) numImageBoundaryPixels[ label ]++;
+
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					coordinateSums[ d ][ label ] += position[ d ];
+					if ( position[ d ] < min[ d ][ label ] ) min[ d ][ label ] = position[ d ];
+					if ( position[ d ] > max[ d ][ label ] ) max[ d ][ label ] = position[ d ];
+				}
+
+				for ( int c = 0; c < numChannels; ++c )
+				{
+					intensitySums[ c ][ label ] += values[ c ];
+					squaredIntensitySums[ c ][ label ] += values[ c ] * values[ c ];
+				}
+			}
+		}
+	}
+
+	private void collectLabels()
+	{
+		int numExistingLabels = 0;
+		for ( int label = 1; label < numPixels.length; ++label )
+			if ( numPixels[ label ] > 0 ) numExistingLabels++;
+
+		labels = new int[ numExistingLabels ];
+
+		int i = 0;
+		for ( int label = 1; label < numPixels.length; ++label )
+			if ( numPixels[ label ] > 0 ) labels[ i++ ] = label;
+	}
+
+	/**
+	 * @return the labels of all objects that contain at least one pixel, sorted ascending.
+	 */
+	public int[] getLabels()
+	{
+		return labels;
+	}
+
+	public int numDimensions()
+	{
+		return numDimensions;
+	}
+
+	public int numChannels()
+	{
+		return channels.size();
+	}
+
+	public long getNumPixels( int label )
+	{
+		return numPixels[ label ];
+	}
+
+	public long getNumImageBoundaryPixels( int label )
+	{
+		return numImageBoundaryPixels[ label ];
+	}
+
+	public double[] getCenterOfMass( int label )
+	{
+		final double[] centerOfMass = new double[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			centerOfMass[ d ] = coordinateSums[ d ][ label ] / numPixels[ label ];
+		return centerOfMass;
+	}
+
+	public long[] getMin( int label )
+	{
+		final long[] labelMin = new long[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			labelMin[ d ] = min[ d ][ label ];
+		return labelMin;
+	}
+
+	public long[] getMax( int label )
+	{
+		final long[] labelMax = new long[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			labelMax[ d ] = max[ d ][ label ];
+		return labelMax;
+	}
+
+	public FinalInterval getBoundingBox( int label )
+	{
+		return new FinalInterval( getMin( label ), getMax( label ) );
+	}
+
+	public double getSumIntensity( int channel, int label )
+	{
+		return intensitySums[ channel ][ label ];
+	}
+
+	public double getSumOfSquaredIntensities( int channel, int label )
+	{
+		return squaredIntensitySums[ channel ][ label ];
+	}
+
+	public double getMeanIntensity( int channel, int label )
+	{
+		return intensitySums[ channel ][ label ] / numPixels[ label ];
+	}
+
+	public double getIntensityVariance( int channel, int label )
+	{
+		final double mean = getMeanIntensity( channel, label );
+		return squaredIntensitySums[ channel ][ label ] / numPixels[ label ] - mean * mean;
+	}
+
+	/**
+	 * Creates a mask of the object, with the object's bounding box as interval.
+	 * This is equivalent to Regions.asMask( labelRegion ).
+	 *
+	 * @param label
+	 * @return mask
+	 */
+	public RandomAccessibleInterval< BitType > getMask( int label )
+	{
+		final boolean[] isLabelIndex = new boolean[ indexToLabels.length ];
+		for ( int index = 0; index < indexToLabels.length; ++index )
+			for ( int indexLabel : indexToLabels[ index ] )
+				if ( indexLabel == label ) isLabelIndex[ index ] = true;
+
+		final FinalInterval boundingBox = getBoundingBox( label );
+
+		RandomAccessibleInterval< BitType > mask =
+				ArrayImgs.bits( Intervals.dimensionsAsLongArray( boundingBox ) );
+		mask = Transforms.getWithAdjustedOrigin( boundingBox, mask );
+
+		final Cursor< IntType > indexCursor =
+				Views.flatIterable( Views.interval( imgLabeling.getIndexImg(), boundingBox ) ).cursor();
+		final Cursor< BitType > maskCursor = Views.flatIterable( mask ).cursor();
+
+		while ( indexCursor.hasNext() )
+		{
+			final boolean isLabel = isLabelIndex[ indexCursor.next().getInteger() ];
+			maskCursor.next().set( isLabel );
+		}
+
+		return mask;
+	}
+}
@@ -0,0 +1,374 @@
+package de.embl.cba.morphometry.measurements;
+
+import de.embl.cba.morphometry.tracking.LongCountMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Columnar storage of object measurements.
+ *
+ * Rows are identified by ( frame, label ) and stored densely in the order in which they are added;
+ * removed rows keep their index, but have no values.
+ * Columns are identified by interned integer ids and backed by primitive arrays.
+ * A long column to which a double is written is widened to a double column;
+ * only columns with non-numeric values (e.g. units or paths) are stored as objects.
+ *
+ * Use {@link #getObjectMeasurements(int)} to obtain a view of one frame with the
+ * HashMap< Integer, Map< String, Object > > API that is used throughout {@link Measurements}.
+ */
+public class MeasurementTable
+{
+	public enum ColumnType
+	{
+		Double,
+		Long,
+		Object
+	}
+
+	public static final long MISSING_LONG = Long.MIN_VALUE;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final HashMap< String, Integer > columnIds;
+	private final ArrayList< Column > columns;
+	private final LongCountMap rowIndices; // row index + 1
+	private final ArrayList< TableBackedObjectMeasurements > frameViews;
+
+	private int[] rowFrames;
+	private int[] rowLabels;
+	private int numRows;
+	private int capacity;
+
+	public MeasurementTable()
+	{
+		columnIds = new HashMap<>();
+		columns = new ArrayList<>();
+		rowIndices = new LongCountMap();
+		frameViews = new ArrayList<>();
+		capacity = INITIAL_CAPACITY;
+		rowFrames = new int[ capacity ];
+		rowLabels = new int[ capacity ];
+	}
+
+	public int numRows()
+	{
+		return numRows;
+	}
+
+	public int numColumns()
+	{
+		return columns.size();
+	}
+
+	public int numFrames()
+	{
+		return frameViews.size();
+	}
+
+	/**
+	 * @return the id of the column, creating the column if it does not exist yet.
+	 */
+	public int getColumnId( String name )
+	{
+		final Integer columnId = columnIds.get( name );
+
+		if ( columnId != null ) return columnId;
+
+		final int newColumnId = columns.size();
+		columns.add( new Column( name, capacity ) );
+		columnIds.put( name, newColumnId );
+		return newColumnId;
+	}
+
+	/**
+	 * @return the id of the column or -1 if it does not exist.
+	 */
+	public int findColumnId( String name )
+	{
+		final Integer columnId = columnIds.get( name );
+		return columnId == null ? -1 : columnId;
+	}
+
+	public String getColumnName( int columnId )
+	{
+		return columns.get( columnId ).name;
+	}
+
+	public ColumnType getColumnType( int columnId )
+	{
+		return columns.get( columnId ).type;
+	}
+
+	public List< String > getColumnNames()
+	{
+		final ArrayList< String > names = new ArrayList<>();
+		for ( Column column : columns )
+			names.add( column.name );
+		return names;
+	}
+
+	/**
+	 * @return the row index or -1 if there is no such row.
+	 */
+	public int getRow( int frame, int label )
+	{
+		return ( int ) rowIndices.get( LongCountMap.key( frame, label ) ) - 1;
+	}
+
+	public int addRow( int frame, int label )
+	{
+		final int existingRow = getRow( frame, label );
+		if ( existingRow != -1 ) return existingRow;
+
+		ensureCapacity( numRows + 1 );
+
+		final int row = numRows++;
+		rowFrames[ row ] = frame;
+		rowLabels[ row ] = label;
+		rowIndices.add( LongCountMap.key( frame, label ), row + 1 );
+
+		getObjectMeasurements( frame ).addRow( row );
+
+		return row;
+	}
+
+	/**
+	 * Removes all values of the row; adding the object again creates a new row.
+	 *
+	 * @return false if there is no such row.
+	 */
+	public boolean removeRow( int frame, int label )
+	{
+		final int row = getRow( frame, label );
+		if ( row == -1 ) return false;
+
+		clearValues( row );
+		rowIndices.remove( LongCountMap.key( frame, label ) );
+		getObjectMeasurements( frame ).removeRow( row );
+
+		return true;
+	}
+
+	public void clearValues( int row )
+	{
+		for ( int columnId = 0; columnId < columns.size(); ++columnId )
+			clearValue( row, columnId );
+	}
+
+	public void clearValue( int row, int columnId )
+	{
+		final Column column = columns.get( columnId );
+		column.isSet.clear( row );
+		if ( column.objects != null ) column.objects[ row ] = null;
+	}
+
+	public int getFrame( int row )
+	{
+		return rowFrames[ row ];
+	}
+
+	public int getLabel( int row )
+	{
+		return rowLabels[ row ];
+	}
+
+	public boolean hasValue( int row, int columnId )
+	{
+		return columns.get( columnId ).isSet.get( row );
+	}
+
+	public void setDouble( int row, int columnId, double value )
+	{
+		final Column column = columns.get( columnId );
+
+		if ( column.type == null ) column.setType( ColumnType.Double );
+		if ( column.type == ColumnType.Long ) column.convertToDoubleColumn();
+
+		if ( column.type == ColumnType.Double )
+			column.doubles[ row ] = value;
+		else
+			column.objects[ row ] = value;
+
+		column.isSet.set( row );
+	}
+
+	public void setLong( int row, int columnId, long value )
+	{
+		final Column column = columns.get( columnId );
+
+		if ( column.type == null ) column.setType( ColumnType.Long );
+
+		if ( column.type == ColumnType.Long )
+			column.longs[ row ] = value;
+		else if ( column.type == ColumnType.Double )
+			column.doubles[ row ] = value;
+		else
+			column.objects[ row ] = value;
+
+		column.isSet.set( row );
+	}
+
+	/**
+	 * Setting a null value removes the value.
+	 */
+	public void setValue( int row, int columnId, Object value )
+	{
+		if ( value == null )
+			clearValue( row, columnId );
+		else if ( value instanceof Double || value instanceof Float )
+			setDouble( row, columnId, ( ( Number ) value ).doubleValue() );
+		else if ( value instanceof Long || value instanceof Integer
+				|| value instanceof Short || value instanceof Byte )
+			setLong( row, columnId, ( ( Number ) value ).longValue() );
+		else
+		{
+			final Column column = columns.get( columnId );
+			column.setBoxed( row, value );
+			column.isSet.set( row );
+		}
+	}
+
+	/**
+	 * @return the value or NaN if there is no numeric value.
+	 */
+	public double getDouble( int row, int columnId )
+	{
+		final Column column = columns.get( columnId );
+
+		if ( ! column.isSet.get( row ) ) return Double.NaN;
+		if ( column.type == ColumnType.Double ) return column.doubles[ row ];
+		if ( column.type == ColumnType.Long ) return column.longs[ row ];
+
+		final Object value = column.objects[ row ];
+		return value instanceof Number ? ( ( Number ) value ).doubleValue() : Double.NaN;
+	}
+
+	/**
+	 * @return the value or {@link #MISSING_LONG} if there is no numeric value.
+	 */
+	public long getLong( int row, int columnId )
+	{
+		final Column column = columns.get( columnId );
+
+		if ( ! column.isSet.get( row ) ) return MISSING_LONG;
+		if ( column.type == ColumnType.Long ) return column.longs[ row ];
+		if ( column.type == ColumnType.Double )
+			return Double.isNaN( column.doubles[ row ] ) ? MISSING_LONG : ( long ) column.doubles[ row ];
+
+		final Object value = column.objects[ row ];
+		return value instanceof Number ? ( ( Number ) value ).longValue() : MISSING_LONG;
+	}
+
+	/**
+	 * @return the (boxed) value or null if there is no value.
+	 */
+	public Object getValue( int row, int columnId )
+	{
+		final Column column = columns.get( columnId );
+
+		if ( ! column.isSet.get( row ) ) return null;
+
+		if ( column.type == ColumnType.Double ) return column.doubles[ row ];
+		if ( column.type == ColumnType.Long ) return column.longs[ row ];
+		return column.objects[ row ];
+	}
+
+	/**
+	 * @return a view on the measurements of one frame, keyed by the object label.
+	 */
+	public TableBackedObjectMeasurements getObjectMeasurements( int frame )
+	{
+		while ( frameViews.size() <= frame )
+			frameViews.add( new TableBackedObjectMeasurements( this, frameViews.size() ) );
+
+		return frameViews.get( frame );
+	}
+
+	private void ensureCapacity( int minCapacity )
+	{
+		if ( minCapacity <= capacity ) return;
+
+		capacity = Math.max( minCapacity, 2 * capacity );
+		rowFrames = Arrays.copyOf( rowFrames, capacity );
+		rowLabels = Arrays.copyOf( rowLabels, capacity );
+
+		for ( Column column : columns )
+			column.ensureCapacity( capacity );
+	}
+
+	private static class Column
+	{
+		final String name;
+		final BitSet isSet;
+		ColumnType type;
+		double[] doubles;
+		long[] longs;
+		Object[] objects;
+		int capacity;
+
+		Column( String name, int capacity )
+		{
+			this.name = name;
+			this.capacity = capacity;
+			this.isSet = new BitSet();
+		}
+
+		void setType( ColumnType type )
+		{
+			this.type = type;
+
+			if ( type == ColumnType.Double ) doubles = new double[ capacity ];
+			else if ( type == ColumnType.Long ) longs = new long[ capacity ];
+			else objects = new Object[ capacity ];
+		}
+
+		void setBoxed( int row, Object value )
+		{
+			if ( type != ColumnType.Object ) convertToObjectColumn();
+			objects[ row ] = value;
+		}
+
+		void convertToDoubleColumn()
+		{
+			doubles = new double[ capacity ];
+
+			for ( int row = isSet.nextSetBit( 0 ); row >= 0; row = isSet.nextSetBit( row + 1 ) )
+				doubles[ row ] = longs[ row ];
+
+			longs = null;
+			type = ColumnType.Double;
+		}
+
+		/**
+		 * Columns with non-numeric values fall back to object storage,
+		 * such that each value keeps its original type.
+		 */
+		private void convertToObjectColumn()
+		{
+			final Object[] boxed = new Object[ capacity ];
+
+			for ( int row = isSet.nextSetBit( 0 ); row >= 0; row = isSet.nextSetBit( row + 1 ) )
+			{
+				if ( type == ColumnType.Double ) boxed[ row ] = doubles[ row ];
+				else if ( type == ColumnType.Long ) boxed[ row ] = longs[ row ];
+			}
+
+			doubles = null;
+			longs = null;
+			objects = boxed;
+			type = ColumnType.Object;
+		}
+
+		void ensureCapacity( int capacity )
+		{
+			this.capacity = capacity;
+			if ( doubles != null ) doubles = Arrays.copyOf( doubles, capacity );
+			if ( longs != null ) longs = Arrays.copyOf( longs, capacity );
+			if ( objects != null ) objects = Arrays.copyOf( objects, capacity );
+		}
+	}
+}
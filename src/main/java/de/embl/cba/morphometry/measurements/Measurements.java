@@ -1,37 +1,31 @@
 package de.embl.cba.morphometry.measurements;
 
-import de.embl.cba.morphometry.Algorithms;
+import de.embl.cba.morphometry.BitMasks;
 import de.embl.cba.morphometry.Logger;
+import de.embl.cba.morphometry.ParallelExecutor;
 import de.embl.cba.morphometry.Utils;
 import de.embl.cba.morphometry.regions.Regions;
 import de.embl.cba.morphometry.skeleton.SkeletonAnalyzer;
 import de.embl.cba.tables.Tables;
 import ij.ImagePlus;
 import ij.measure.Calibration;
-import ij.process.ImageProcessor;
 
-import inra.ijpb.geometry.Ellipse;
 import net.imagej.ops.OpService;
 import net.imglib2.*;
 import net.imglib2.RandomAccess;
 import net.imglib2.algorithm.gauss3.Gauss3;
-import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.roi.geom.real.Polygon2D;
 import net.imglib2.roi.labeling.ImgLabeling;
 import net.imglib2.roi.labeling.LabelRegion;
-import net.imglib2.roi.labeling.LabelRegionCursor;
 import net.imglib2.roi.labeling.LabelRegions;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
-import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 
-import inra.ijpb.measure.region2d.GeodesicDiameter;
-import inra.ijpb.measure.region2d.Convexity;
-import inra.ijpb.measure.region2d.InertiaEllipse;
 
 
 import javax.swing.*;
@@ -40,7 +34,6 @@ import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.util.*;
 
-import static de.embl.cba.morphometry.Algorithms.getMaximumLocation;
 
 public class Measurements
 {
@@ -77,6 +70,19 @@ public class Measurements
 
 	public static final String[] XYZ = new String[]{"X","Y","Z"};
 
+	private static ParallelExecutor objectMeasurementsExecutor = new ParallelExecutor();
+
+	/**
+	 * Sets the number of threads used for per object measurements,
+	 * if no executor is passed explicitly.
+	 */
+	public static synchronized void setNumThreads( int numThreads )
+	{
+		final ParallelExecutor previous = objectMeasurementsExecutor;
+		objectMeasurementsExecutor = new ParallelExecutor( numThreads );
+		previous.shutdown();
+	}
+
 	public static String getVolumeName( int numDimensions )
 	{
 		if ( numDimensions == 1 ) return LENGTH;
@@ -102,17 +108,25 @@ public class Measurements
 			double[] calibration,
 			RandomAccessibleInterval< BitType > annotation )
 	{
-		String[] XYZ = new String[]{"X","Y","Z"};
-
-		final LabelRegions< Integer > labelRegions = new LabelRegions<>( imgLabeling );
+		measureCentroids(
+				objectMeasurements,
+				computeLabelStatistics( imgLabeling ),
+				calibration,
+				annotation );
+	}
 
-		for ( LabelRegion labelRegion : labelRegions )
+	public static void measureCentroids(
+			HashMap< Integer, Map< String, Object > > objectMeasurements,
+			LabelStatistics labelStatistics,
+			double[] calibration,
+			RandomAccessibleInterval< BitType > annotation )
+	{
+		for ( int label : labelStatistics.getLabels() )
 		{
-			final int label = ( int ) ( labelRegion.getLabel() );
-
 			final double[] position = new double[ 3 ];
 
-			labelRegion.getCenterOfMass().localize( position );
+			final double[] centerOfMass = labelStatistics.getCenterOfMass( label );
+			System.arraycopy( centerOfMass, 0, position, 0, centerOfMass.length );
 
 			for ( int d = 0; d < position.length; ++d )
 			{
@@ -130,6 +144,13 @@ public class Measurements
 		}
 	}
 
+	public static LabelStatistics computeLabelStatistics( ImgLabeling< Integer, IntType > imgLabeling )
+	{
+		final LabelStatistics labelStatistics = new LabelStatistics( imgLabeling );
+		labelStatistics.run();
+		return labelStatistics;
+	}
+
 
 	public static < T extends RealType< T > & NativeType< T > >
 	void measureBrightestPoints(
@@ -140,16 +161,37 @@ public class Measurements
 			RandomAccessibleInterval< BitType > annotation,
 			int gaussianBlurSigma )
 	{
-		final LabelRegions< Integer > labelRegions = new LabelRegions<>( imgLabeling );
+		measureBrightestPoints(
+				objectMeasurements,
+				imgLabeling,
+				intensity,
+				calibration,
+				annotation,
+				gaussianBlurSigma,
+				objectMeasurementsExecutor );
+	}
 
-		for ( LabelRegion labelRegion : labelRegions )
-		{
-			final RandomAccessibleInterval< T > blur =
-					getBlurredIntensityImage( intensity, labelRegion, gaussianBlurSigma );
+	public static < T extends RealType< T > & NativeType< T > >
+	void measureBrightestPoints(
+			HashMap< Integer, Map< String, Object > > objectMeasurements,
+			ImgLabeling< Integer, IntType > imgLabeling,
+			RandomAccessibleInterval< T > intensity,
+			double[] calibration,
+			RandomAccessibleInterval< BitType > annotation,
+			int gaussianBlurSigma,
+			ParallelExecutor executor )
+	{
+		final List< LabelRegion< Integer > > labelRegions = getLabelRegions( imgLabeling );
 
-			final RealPoint maximumLocation = getMaximumLocation( blur, null );
-			final double[] pixelUnitsPosition = new double[ maximumLocation.numDimensions() ];
-			maximumLocation.localize( pixelUnitsPosition );
+		final List< BrightestPoint > brightestPoints = executor.map(
+				labelRegions,
+				labelRegion -> measureBrightestPoint( intensity, labelRegion, gaussianBlurSigma ) );
+
+		for ( int i = 0; i < labelRegions.size(); ++i )
+		{
+			final int label = labelRegions.get( i ).getLabel();
+			final BrightestPoint brightestPoint = brightestPoints.get( i );
+			final double[] pixelUnitsPosition = brightestPoint.position;
 
 			for ( int d = 0; d < pixelUnitsPosition.length; ++d )
 			{
@@ -159,30 +201,69 @@ public class Measurements
 
 				addMeasurement(
 						objectMeasurements,
-						( int ) ( labelRegion.getLabel() ),
+						label,
 						getCoordinateName( BRIGHTEST_POINT, d ),
 						calibratedPosition  );
 			}
 
 			drawPosition( annotation, Utils.asLongs( pixelUnitsPosition ) );
 
-			final RandomAccessibleInterval< DoubleType > squaredDistances
-					= Algorithms.computeSquaredDistances( Regions.asMask( labelRegion ) );
-
-			final RandomAccess< DoubleType > access = squaredDistances.randomAccess();
-
-			access.setPosition( Utils.asLongs( pixelUnitsPosition ) );
-			final double distanceAtPosition = Math.sqrt( access.get().getRealDouble() );
-
 			addMeasurement(
 					objectMeasurements,
-					( int ) ( labelRegion.getLabel() ),
+					label,
 					RADIUS_AT_BRIGHTEST_POINT + SEP + PIXEL_UNIT,
-					distanceAtPosition );
-
+					brightestPoint.radius );
 		}
 	}
 
+	private static class BrightestPoint
+	{
+		double[] position;
+		double radius;
+	}
+
+	/**
+	 * Runs on the {@link RoiWorkspace} of the current thread, such that no images are allocated.
+	 * The result is the same as finding the maximum of {@link #getBlurredIntensityImage}
+	 * and the value of the distance transform of the region mask at this maximum.
+	 */
+	private static < T extends RealType< T > & NativeType< T > >
+	BrightestPoint measureBrightestPoint(
+			RandomAccessibleInterval< T > intensity,
+			LabelRegion< Integer > labelRegion,
+			int gaussianBlurSigma )
+	{
+		final RoiWorkspace workspace = RoiWorkspace.get();
+
+		workspace.load( intensity, labelRegion );
+		workspace.blur( gaussianBlurSigma, Util.getTypeFromInterval( intensity ).createVariable() );
+
+		final long[] maximumLocation = workspace.getMaximumLocation();
+
+		final BrightestPoint brightestPoint = new BrightestPoint();
+		brightestPoint.position = new double[ maximumLocation.length ];
+		for ( int d = 0; d < maximumLocation.length; ++d )
+			brightestPoint.position[ d ] = maximumLocation[ d ];
+
+		brightestPoint.radius = workspace.getDistanceToBackground( maximumLocation );
+
+		return brightestPoint;
+	}
+
+	/**
+	 * @return the label regions, in the iteration order of LabelRegions.
+	 */
+	public static List< LabelRegion< Integer > > getLabelRegions( ImgLabeling< Integer, IntType > imgLabeling )
+	{
+		final LabelRegions< Integer > labelRegions = new LabelRegions<>( imgLabeling );
+
+		final ArrayList< LabelRegion< Integer > > regionList = new ArrayList<>();
+		for ( LabelRegion< Integer > labelRegion : labelRegions )
+			regionList.add( labelRegion );
+
+		return regionList;
+	}
+
 	public static String getCoordinateName( String brightestPoint, int dimension )
 	{
 		return brightestPoint + SEP + XYZ[ dimension ] + SEP + PIXEL_UNIT;
@@ -213,24 +294,28 @@ public class Measurements
 		final RandomAccessibleInterval< T > blur =
 				Utils.copyAsArrayImg( crop );
 		Gauss3.gauss( gaussianBlurSigma, Views.extendBorder( crop ), blur ) ;
-//		ImageJFunctions.show( blur );
 		return blur;
 	}
 
 	public static void measureVolumes( HashMap<Integer, Map<String, Object>> objectMeasurements,
 									   ImgLabeling<Integer, IntType> imgLabeling )
 	{
-		final LabelRegions< Integer > labelRegions = new LabelRegions<>( imgLabeling );
-		for ( LabelRegion labelRegion : labelRegions )
-		{
+		measureVolumes( objectMeasurements, computeLabelStatistics( imgLabeling ) );
+	}
 
-			final int label = ( int ) ( labelRegion.getLabel() );
+	public static void measureVolumes( HashMap<Integer, Map<String, Object>> objectMeasurements,
+									   LabelStatistics labelStatistics )
+	{
+		final int numDimensions = labelStatistics.numDimensions();
+
+		for ( int label : labelStatistics.getLabels() )
+		{
 			addMeasurement(
 					objectMeasurements,
 					label,
-					getVolumeName( labelRegion.numDimensions() )
-							+ SEP + PIXEL_UNIT + POW + labelRegion.numDimensions(),
-					labelRegion.size() );
+					getVolumeName( numDimensions )
+							+ SEP + PIXEL_UNIT + POW + numDimensions,
+					labelStatistics.getNumPixels( label ) );
 		}
 	}
 
@@ -238,22 +323,39 @@ public class Measurements
 									   ImgLabeling<Integer, IntType> imgLabeling,
 									   OpService opService )
 	{
-		final LabelRegions< Integer > labelRegions = new LabelRegions<>( imgLabeling );
-		for ( LabelRegion labelRegion : labelRegions )
-		{
-			final int label = ( int ) ( labelRegion.getLabel() );
+		measureSurface( objectMeasurements, computeLabelStatistics( imgLabeling ), opService );
+	}
 
-			final RandomAccessibleInterval< BitType > mask = Regions.asMask( labelRegion );
+	public static void measureSurface( HashMap<Integer, Map<String, Object>> objectMeasurements,
+									   LabelStatistics labelStatistics,
+									   OpService opService )
+	{
+		measureSurface( objectMeasurements, labelStatistics, opService, objectMeasurementsExecutor );
+	}
+
+	public static void measureSurface( HashMap<Integer, Map<String, Object>> objectMeasurements,
+									   LabelStatistics labelStatistics,
+									   OpService opService,
+									   ParallelExecutor executor )
+	{
+		final int[] labels = labelStatistics.getLabels();
+
+		final List< Double > boundarySizes = executor.map( labels, label ->
+		{
+			final RandomAccessibleInterval< BitType > mask = labelStatistics.getMask( label );
 
 			// See: https://forum.image.sc/t/measure-surface-perimeter-in-imglib2/21213
 
 			final Polygon2D contour = opService.geom().contour( mask, true );
-			final double boundarySize = opService.geom().boundarySize( contour ).getRealDouble();
+			return opService.geom().boundarySize( contour ).getRealDouble();
+		} );
 
+		for ( int i = 0; i < labels.length; ++i )
+		{
 			addMeasurement( objectMeasurements,
-					label,
-					getSurfaceName( labelRegion.numDimensions() ) + SEP + PIXEL_UNIT,
-					boundarySize );
+					labels[ i ],
+					getSurfaceName( labelStatistics.numDimensions() ) + SEP + PIXEL_UNIT,
+					boundarySizes.get( i ) );
 		}
 	}
 
@@ -263,11 +365,26 @@ public class Measurements
 										 RandomAccessibleInterval< BitType > skeleton,
 										 OpService opService )
 	{
-		final LabelRegions< Integer > labelRegions = new LabelRegions<>( imgLabeling );
+		measureSkeletons( objectMeasurements, imgLabeling, skeleton, opService, objectMeasurementsExecutor );
+	}
 
-		for ( LabelRegion labelRegion : labelRegions )
-			measureSkeleton( objectMeasurements, skeleton, opService, labelRegion );
+	public static void measureSkeletons( HashMap<Integer, Map<String, Object>> objectMeasurements,
+										 ImgLabeling<Integer, IntType> imgLabeling,
+										 RandomAccessibleInterval< BitType > skeleton,
+										 OpService opService,
+										 ParallelExecutor executor )
+	{
+		final List< LabelRegion< Integer > > labelRegions = getLabelRegions( imgLabeling );
 
+		final List< SkeletonAnalyzer > skeletonAnalyzers = executor.map(
+				labelRegions,
+				labelRegion -> analyzeSkeleton( skeleton, opService, labelRegion ) );
+
+		for ( int i = 0; i < labelRegions.size(); ++i )
+			addSkeletonMeasurements(
+					objectMeasurements,
+					labelRegions.get( i ).getLabel(),
+					skeletonAnalyzers.get( i ) );
 	}
 
 	public static void measureSkeleton(
@@ -275,15 +392,29 @@ public class Measurements
 			RandomAccessibleInterval< BitType > skeleton,
 			OpService opService,
 			LabelRegion labelRegion )
+	{
+		addSkeletonMeasurements(
+				objectMeasurements,
+				( int ) ( labelRegion.getLabel() ),
+				analyzeSkeleton( skeleton, opService, labelRegion ) );
+	}
+
+	private static SkeletonAnalyzer analyzeSkeleton(
+			RandomAccessibleInterval< BitType > skeleton,
+			OpService opService,
+			LabelRegion labelRegion )
 	{
 		final RandomAccessibleInterval< BitType > regionSkeleton =
 				Regions.getMaskedAndCropped( skeleton, labelRegion );
 
-		final SkeletonAnalyzer skeletonAnalyzer =
-				new SkeletonAnalyzer( regionSkeleton, opService );
-
-		final int label = ( int ) ( labelRegion.getLabel() );
+		return new SkeletonAnalyzer( regionSkeleton, opService );
+	}
 
+	private static void addSkeletonMeasurements(
+			HashMap< Integer, Map< String, Object > > objectMeasurements,
+			int label,
+			SkeletonAnalyzer skeletonAnalyzer )
+	{
 		addMeasurement( objectMeasurements,
 				label,
 				 SKELETON_TOTAL_LENGTH + SEP + PIXEL_UNIT,
@@ -309,76 +440,107 @@ public class Measurements
 			HashMap<Integer, Map<String, Object>> objectMeasurements,
 			ImgLabeling<Integer, IntType> imgLabeling )
 	{
-		final LabelRegions< Integer > labelRegions = new LabelRegions<>( imgLabeling );
+		measureMorpholibJFeatures( objectMeasurements, imgLabeling, objectMeasurementsExecutor );
+	}
 
-		for ( LabelRegion labelRegion : labelRegions )
-			measureMorpholibJFeatures( objectMeasurements, labelRegion );
+	public static void measureMorpholibJFeatures(
+			HashMap<Integer, Map<String, Object>> objectMeasurements,
+			ImgLabeling<Integer, IntType> imgLabeling,
+			ParallelExecutor executor )
+	{
+		final List< LabelRegion< Integer > > labelRegions = getLabelRegions( imgLabeling );
 
-	}
+		final List< Map< String, Object > > features = executor.map(
+				labelRegions,
+				Measurements::computeMorpholibJFeatures );
 
+		for ( int i = 0; i < labelRegions.size(); ++i )
+			addMeasurements( objectMeasurements, labelRegions.get( i ).getLabel(), features.get( i ) );
+	}
 
 	public static void measureMorpholibJFeatures(
 			HashMap< Integer, Map< String, Object > > objectMeasurements,
 			LabelRegion labelRegion )
 	{
-		final int label = ( int ) ( labelRegion.getLabel() );
-
-		final RandomAccessibleInterval< BitType > mask =
-				Regions.asMask( labelRegion );
+		addMeasurements(
+				objectMeasurements,
+				( int ) ( labelRegion.getLabel() ),
+				computeMorpholibJFeatures( labelRegion ) );
+	}
 
-		final Calibration calibration = new Calibration();
-		final ImageProcessor maskProcessor =
-				ImageJFunctions.wrap( mask, "" ).getProcessor();
-		final int[] labels = { 255 };
+	/**
+	 * Computes the features that used to be measured with MorphoLibJ,
+	 * using {@link ShapeDescriptors2D} directly on the region.
+	 */
+	private static Map< String, Object > computeMorpholibJFeatures( LabelRegion labelRegion )
+	{
+		final Map< String, Object > features = new LinkedHashMap<>();
 
-		final GeodesicDiameter.Result[] geodesicDiameters = GeodesicDiameter.geodesicDiameters(
-				maskProcessor,
-				labels,
-				calibration );
+		final ShapeDescriptors2D shapeDescriptors = new ShapeDescriptors2D( labelRegion );
 
-		addMeasurement( objectMeasurements,
-				label,
-				"GeodesicDiameter" + SEP + PIXEL_UNIT,
-				geodesicDiameters[ 0 ].diameter );
+		features.put( "GeodesicDiameter" + SEP + PIXEL_UNIT,
+				shapeDescriptors.getGeodesicDiameter() );
 
-		addMeasurement( objectMeasurements,
-				label,
-				"LargestInscribedCircleRadius" + SEP + PIXEL_UNIT,
-				geodesicDiameters[ 0 ].innerRadius );
+		features.put( "LargestInscribedCircleRadius" + SEP + PIXEL_UNIT,
+				shapeDescriptors.getLargestInscribedCircleRadius() );
 
-		final Convexity.Result[] convexity
-				= new Convexity().analyzeRegions( maskProcessor, labels, calibration );
+		features.put( CONVEX_AREA + SEP + PIXEL_UNIT + POW + 2,
+				shapeDescriptors.getConvexArea() );
 
-		addMeasurement( objectMeasurements,
-				label,
-				CONVEX_AREA + SEP + PIXEL_UNIT + POW + 2,
-				convexity[ 0 ].convexArea );
+		features.put( "EllipsoidLongestAxisRadius" + SEP + PIXEL_UNIT,
+				shapeDescriptors.getEllipseLongestAxisRadius() );
 
-		final Ellipse[] ellipses =
-				new InertiaEllipse().analyzeRegions( maskProcessor, labels, calibration );
+		features.put( "EllipsoidShortestAxisRadius" + SEP + PIXEL_UNIT,
+				shapeDescriptors.getEllipseShortestAxisRadius() );
 
-		addMeasurement( objectMeasurements,
-				label,
-				"EllipsoidLongestAxisRadius" + SEP + PIXEL_UNIT,
-				ellipses[ 0 ].radius1()  );
-
-		addMeasurement( objectMeasurements,
-				label,
-				"EllipsoidShortestAxisRadius" + SEP + PIXEL_UNIT,
-				ellipses[ 0 ].radius2()  );
+		return features;
+	}
 
+	public static void addMeasurements(
+			HashMap< Integer, Map< String, Object > > objectMeasurements,
+			int objectLabel,
+			Map< String, Object > measurements )
+	{
+		for ( Map.Entry< String, Object > measurement : measurements.entrySet() )
+			addMeasurement( objectMeasurements, objectLabel, measurement.getKey(), measurement.getValue() );
 	}
 
 	public static void addMeasurement(
 			HashMap< Integer, Map< String, Object > > objectMeasurements,
 			int objectLabel, String name, Object value )
 	{
+		if ( objectMeasurements instanceof TableBackedObjectMeasurements )
+		{
+			( ( TableBackedObjectMeasurements ) objectMeasurements ).setValue( objectLabel, name, value );
+			return;
+		}
+
 		if ( ! objectMeasurements.keySet().contains( objectLabel ) )
 			objectMeasurements.put( objectLabel, new HashMap<>(  ) );
 
 		objectMeasurements.get( objectLabel ).put( name, value );
 	}
 
+	public static void addMeasurement(
+			HashMap< Integer, Map< String, Object > > objectMeasurements,
+			int objectLabel, String name, double value )
+	{
+		if ( objectMeasurements instanceof TableBackedObjectMeasurements )
+			( ( TableBackedObjectMeasurements ) objectMeasurements ).setDouble( objectLabel, name, value );
+		else
+			addMeasurement( objectMeasurements, objectLabel, name, ( Object ) value );
+	}
+
+	public static void addMeasurement(
+			HashMap< Integer, Map< String, Object > > objectMeasurements,
+			int objectLabel, String name, long value )
+	{
+		if ( objectMeasurements instanceof TableBackedObjectMeasurements )
+			( ( TableBackedObjectMeasurements ) objectMeasurements ).setLong( objectLabel, name, value );
+		else
+			addMeasurement( objectMeasurements, objectLabel, name, ( Object ) value );
+	}
+
 	public static < T extends RealType< T > & NativeType< T > >
 	double sumIntensity( RandomAccessibleInterval< T > image,
 						 RandomAccessibleInterval< BitType > mask
@@ -431,47 +593,6 @@ public class Measurements
 		return sum / n;
 	}
 
-	private static < T extends RealType< T > & NativeType< T > >
-	long measureSumIntensity( RandomAccess< T > imageRandomAccess, LabelRegion labelRegion )
-	{
-		final LabelRegionCursor cursor = labelRegion.cursor();
-
-		long sum = 0;
-
-		while ( cursor.hasNext() )
-		{
-			cursor.fwd();
-			imageRandomAccess.setPosition( cursor );
-			sum += imageRandomAccess.get().getRealDouble();
-		}
-		return sum;
-	}
-
-	private static < T extends RealType< T > & NativeType< T > >
-	long measureImageBoundaryContact( LabelRegion labelRegion, long[] min, long[] max )
-	{
-		final LabelRegionCursor cursor = labelRegion.cursor();
-
-		long numBoundaryPixels = 0;
-
-		final int numDimensions = min.length;
-		final long[] position = new long[ numDimensions ];
-		while ( cursor.hasNext() )
-		{
-			cursor.fwd();
-			cursor.localize( position );
-			for ( int d = 0; d < numDimensions ; d++ )
-			{
-				if ( position[ d ] == min[ d ] || position[ d ] == max[ d ])
-				{
-					numBoundaryPixels++;
-					break;
-				}
-			}
-		}
-		return numBoundaryPixels;
-	}
-
 	public static < I extends IntegerType< I >  >
 	long measureSizeInPixels( RandomAccessibleInterval< I > labeling,
 							  int label )
@@ -495,20 +616,18 @@ public class Measurements
 	public static
 	long measureSizeInPixels( RandomAccessibleInterval< BitType > mask )
 	{
+		return BitMasks.count( mask );
+	}
 
-		final Cursor< BitType > cursor = Views.iterable( mask ).cursor();
-		long size = 0;
-
-		while ( cursor.hasNext() )
-		{
-			if( cursor.next().get() )
-			{
-				size++;
-			}
-		}
-
-		return size;
-
+	/**
+	 * Computes the background corrected sum intensities of all labels in one sweep,
+	 * see {@link BackgroundCorrectedIntensities}.
+	 */
+	public static < T extends RealType< T > & NativeType< T > >
+	HashMap< Integer, Double > measureBgCorrectedSumIntensities( RandomAccessibleInterval< IntType > labeling,
+																 RandomAccessibleInterval< T > image )
+	{
+		return new BackgroundCorrectedIntensities( labeling, image ).getBgCorrectedSumIntensities();
 	}
 
 	public static < T extends RealType< T > & NativeType< T > >
@@ -614,12 +733,14 @@ public class Measurements
 
 		final ArrayList< String > lines = new ArrayList<>();
 
-		String header = "Object_Label";
-		header += delim + CENTROID + SEP + TIME + SEP + FRAME_UNITS;
+		final StringBuilder row = new StringBuilder();
+
+		row.append( "Object_Label" );
+		row.append( delim ).append( CENTROID + SEP + TIME + SEP + FRAME_UNITS );
 		for ( String measurementName : measurementNames )
-			header += delim + measurementName ;
+			row.append( delim ).append( measurementName );
 
-		lines.add( header );
+		lines.add( row.toString() );
 
 		for ( int t = 0; t < measurementsTimePointList.size(); ++t )
 		{
@@ -632,21 +753,50 @@ public class Measurements
 			{
 				final Map< String, Object > measurementsMap = measurements.get( label );
 
-				String values = String.format( "%05d", label );
-
-				values += delim + String.format( "%05d", t + 1 ); // convert to one-based time points
+				row.setLength( 0 );
+				appendZeroPadded( row, label );
+				row.append( delim );
+				appendZeroPadded( row, t + 1 ); // convert to one-based time points
 
 				for ( String measurementName : measurementNames )
-					values += delim + measurementsMap.get( measurementName );
+					row.append( delim ).append( measurementsMap.get( measurementName ) );
 
-				lines.add( values );
+				lines.add( row.toString() );
 			}
 		}
 
 		return lines;
 	}
 
+	/**
+	 * Equivalent to String.format( "%05d", value ), without parsing the format.
+	 */
+	private static void appendZeroPadded( StringBuilder builder, int value )
+	{
+		if ( value < 0 )
+		{
+			builder.append( String.format( "%05d", value ) );
+			return;
+		}
+
+		for ( int digits = value == 0 ? 1 : ( int ) Math.log10( value ) + 1; digits < 5; ++digits )
+			builder.append( '0' );
+
+		builder.append( value );
+	}
+
+	public static ArrayList< HashMap< Integer, Map< String, Object > > >  initMeasurements(
+			int numTimepoints )
+	{
+		return initMeasurements( new MeasurementTable(), numTimepoints );
+	}
+
+	/**
+	 * The returned per time point measurements are views on the given table,
+	 * i.e. all values are stored in the table's primitive columns.
+	 */
 	public static ArrayList< HashMap< Integer, Map< String, Object > > >  initMeasurements(
+			MeasurementTable measurementTable,
 			int numTimepoints )
 	{
 		ArrayList< HashMap< Integer, Map< String, Object > > > measurementsTimepointList
@@ -654,8 +804,7 @@ public class Measurements
 
 		for ( int t = 0; t < numTimepoints; ++t )
 		{
-			final HashMap< Integer, Map< String, Object > > objectMeasurements = new HashMap<>();
-			measurementsTimepointList.add( objectMeasurements );
+			measurementsTimepointList.add( measurementTable.getObjectMeasurements( t ) );
 		}
 
 		return measurementsTimepointList;
@@ -668,15 +817,23 @@ public class Measurements
 								RandomAccessibleInterval< T > image,
 								String channel )
 	{
-		final RandomAccess< T > imageRandomAccess = image.randomAccess();
+		final LabelStatistics labelStatistics = new LabelStatistics( imgLabeling );
+		final int channelIndex = labelStatistics.addChannel( image );
+		labelStatistics.run();
 
-		final LabelRegions< Integer > labelRegions = new LabelRegions<>( imgLabeling );
+		measureSumIntensities( objectMeasurements, labelStatistics, channelIndex, channel );
+	}
 
-		for ( LabelRegion labelRegion : labelRegions )
+	public static void measureSumIntensities( HashMap< Integer, Map< String, Object > > objectMeasurements,
+											  LabelStatistics labelStatistics,
+											  int channelIndex,
+											  String channel )
+	{
+		for ( int label : labelStatistics.getLabels() )
 		{
-			long sum = measureSumIntensity( imageRandomAccess, labelRegion );
+			long sum = ( long ) labelStatistics.getSumIntensity( channelIndex, label );
 			addMeasurement( objectMeasurements,
-					(int) labelRegion.getLabel(),
+					label,
 					SUM_INTENSITY + SEP + channel, sum );
 		}
 	}
@@ -687,23 +844,19 @@ public class Measurements
 			HashMap< Integer, Map< String, Object > > objectMeasurements,
 			ImgLabeling< Integer, IntType > imgLabeling )
 	{
-		final LabelRegions< Integer > labelRegions = new LabelRegions<>( imgLabeling );
-
-		final int numDimensions = imgLabeling.numDimensions();
-		final long[] imgBoundaryMin = new long[ numDimensions ];
-		final long[] imgBoundaryMax = new long[ numDimensions ];
-		imgLabeling.min( imgBoundaryMin );
-		imgLabeling.max( imgBoundaryMax );
+		measureImageBoundaryContact( objectMeasurements, computeLabelStatistics( imgLabeling ) );
+	}
 
-		for ( LabelRegion labelRegion : labelRegions )
+	public static void measureImageBoundaryContact(
+			HashMap< Integer, Map< String, Object > > objectMeasurements,
+			LabelStatistics labelStatistics )
+	{
+		for ( int label : labelStatistics.getLabels() )
 		{
-			long numBoundaryPixels =
-					measureImageBoundaryContact( labelRegion, imgBoundaryMin, imgBoundaryMax );
-
 			addMeasurement( objectMeasurements,
-					(int) labelRegion.getLabel(),
+					label,
 					IMAGE_BOUNDARY_CONTACT + SEP + PIXEL_UNIT,
-					numBoundaryPixels );
+					labelStatistics.getNumImageBoundaryPixels( label ) );
 		}
 	}
 
@@ -711,13 +864,7 @@ public class Measurements
 			ArrayList< HashMap< Integer, Map< String, Object > > > measurementsTimepointList,
 			ImagePlus imagePlus )
 	{
-		final Calibration calibration = imagePlus.getCalibration();
-		final double pixelWidth = calibration.pixelWidth;
-		final double pixelHeight = calibration.pixelHeight;
-		final double pixelDepth = calibration.pixelDepth;
-		final String unit = calibration.getUnit();
-		final double frameInterval = calibration.frameInterval;
-		final String timeUnit = calibration.getTimeUnit();
+		final Map< String, Object > calibrationMeasurements = getCalibrationMeasurements( imagePlus );
 
 		for ( int t = 0; t < measurementsTimepointList.size(); ++t )
 		{
@@ -727,33 +874,26 @@ public class Measurements
 			final Set< Integer > labels = measurements.keySet();
 
 			for( int label : labels )
-			{
-				measurements.get( label ).put(
-						VOXEL_SPACING + SEP + "X",
-						pixelWidth );
-
-				measurements.get( label ).put(
-						VOXEL_SPACING + SEP + "Y",
-						pixelHeight );
-
-				measurements.get( label ).put(
-						VOXEL_SPACING + SEP + "Z",
-						pixelDepth );
-
-				measurements.get( label ).put(
-						VOXEL_SPACING + SEP + "Unit",
-						unit );
+				measurements.get( label ).putAll( calibrationMeasurements );
+		}
+	}
 
-				measurements.get( label ).put(
-						FRAME_INTERVAL,
-						frameInterval );
+	/**
+	 * @return the calibration measurements, which are the same for all objects.
+	 */
+	public static Map< String, Object > getCalibrationMeasurements( ImagePlus imagePlus )
+	{
+		final Calibration calibration = imagePlus.getCalibration();
 
-				measurements.get( label ).put(
-						FRAME_INTERVAL + SEP + "Unit",
-						timeUnit );
-			}
+		final Map< String, Object > calibrationMeasurements = new LinkedHashMap<>();
+		calibrationMeasurements.put( VOXEL_SPACING + SEP + "X", calibration.pixelWidth );
+		calibrationMeasurements.put( VOXEL_SPACING + SEP + "Y", calibration.pixelHeight );
+		calibrationMeasurements.put( VOXEL_SPACING + SEP + "Z", calibration.pixelDepth );
+		calibrationMeasurements.put( VOXEL_SPACING + SEP + "Unit", calibration.getUnit() );
+		calibrationMeasurements.put( FRAME_INTERVAL, calibration.frameInterval );
+		calibrationMeasurements.put( FRAME_INTERVAL + SEP + "Unit", calibration.getTimeUnit() );
 
-		}
+		return calibrationMeasurements;
 	}
 
 	public static void measureCentroidsToBrightestPointsDistances(
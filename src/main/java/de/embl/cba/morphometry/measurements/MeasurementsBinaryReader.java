@@ -0,0 +1,420 @@
+package de.embl.cba.morphometry.measurements;
+
+import de.embl.cba.morphometry.measurements.MeasurementTable.ColumnType;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static de.embl.cba.morphometry.measurements.MeasurementsBinaryWriter.MAGIC;
+import static de.embl.cba.morphometry.measurements.MeasurementsBinaryWriter.VERSION;
+
+/**
+ * Reads single columns of a file that was written by {@link MeasurementsBinaryWriter}.
+ *
+ * Opening the file only reads the schema and the block headers,
+ * and reading a column only reads and decompresses the data of this column.
+ *
+ * The type of a column is the widest type of its blocks; e.g. a column that
+ * was widened from long to double by the writer is read as double column.
+ */
+public class MeasurementsBinaryReader implements Closeable
+{
+	private final File file;
+	private final FileChannel channel;
+	private final ArrayList< String > columnNames;
+	private final ArrayList< ColumnType > columnTypes;
+	private final HashMap< String, Integer > columnIndices;
+	private final ArrayList< Block > blocks;
+
+	private long position;
+	private int numRows;
+
+	public MeasurementsBinaryReader( File file )
+	{
+		this.file = file;
+		this.columnNames = new ArrayList<>();
+		this.columnTypes = new ArrayList<>();
+		this.columnIndices = new HashMap<>();
+		this.blocks = new ArrayList<>();
+
+		try
+		{
+			channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Could not open binary measurements file: " + file, e );
+		}
+
+		boolean isRead = false;
+		try
+		{
+			readSchema();
+			readBlockHeaders();
+			isRead = true;
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Could not read binary measurements file: " + file, e );
+		}
+		finally
+		{
+			if ( ! isRead ) close();
+		}
+	}
+
+	private void readSchema() throws IOException
+	{
+		final ByteBuffer header = read( MAGIC.length + 8 );
+
+		final byte[] magic = new byte[ MAGIC.length ];
+		if ( header != null ) header.get( magic );
+		if ( ! Arrays.equals( magic, MAGIC ) )
+			throw new IllegalArgumentException( "Not a binary measurements file: " + file );
+
+		final int version = header.getInt();
+		if ( version != VERSION )
+			throw new IllegalArgumentException( "Unsupported binary measurements file version "
+					+ version + ": " + file );
+
+		final int numColumns = header.getInt();
+		for ( int c = 0; c < numColumns; ++c )
+		{
+			final ByteBuffer column = read( 3 );
+			if ( column == null )
+				throw new IllegalArgumentException( "Incomplete binary measurements file: " + file );
+
+			final ColumnType type = ColumnType.values()[ column.get() ];
+			final String name = readUTF( column.getShort() & 0xFFFF );
+			columnIndices.put( name, c );
+			columnNames.add( name );
+			columnTypes.add( type );
+		}
+	}
+
+	private String readUTF( int length ) throws IOException
+	{
+		final ByteBuffer bytes = read( length );
+		if ( bytes == null )
+			throw new IllegalArgumentException( "Incomplete binary measurements file: " + file );
+
+		// DataOutput.writeUTF uses modified UTF-8, which is identical to UTF-8 for all common characters
+		return new String( bytes.array(), StandardCharsets.UTF_8 );
+	}
+
+	private void readBlockHeaders() throws IOException
+	{
+		final int numColumns = columnNames.size();
+		final long size = channel.size();
+
+		ByteBuffer header;
+		while ( ( header = read( 8 + 9 * numColumns ) ) != null ) // incompletely written blocks are ignored
+		{
+			final Block block = new Block( numColumns );
+			block.timepoint = header.getInt();
+			block.numRows = header.getInt();
+
+			for ( int c = 0; c < numColumns; ++c )
+			{
+				block.types[ c ] = ColumnType.values()[ header.get() ];
+				block.compressedLengths[ c ] = header.getInt();
+				block.uncompressedLengths[ c ] = header.getInt();
+			}
+
+			long offset = position;
+			for ( int c = 0; c < numColumns; ++c )
+			{
+				block.offsets[ c ] = offset;
+				offset += block.compressedLengths[ c ];
+			}
+
+			if ( offset > size ) break;
+
+			position = offset;
+			blocks.add( block );
+			numRows += block.numRows;
+
+			for ( int c = 0; c < numColumns; ++c )
+				columnTypes.set( c, widest( columnTypes.get( c ), block.types[ c ] ) );
+		}
+	}
+
+	private static ColumnType widest( ColumnType type, ColumnType other )
+	{
+		if ( type == ColumnType.Object || other == ColumnType.Object )
+			return ColumnType.Object;
+		else if ( type == ColumnType.Double || other == ColumnType.Double )
+			return ColumnType.Double;
+		else
+			return ColumnType.Long;
+	}
+
+	/**
+	 * Reads the next bytes of the file.
+	 *
+	 * @return the bytes, or null if the file ends before
+	 */
+	private ByteBuffer read( int length ) throws IOException
+	{
+		final ByteBuffer bytes = read( position, length );
+		if ( bytes != null ) position += length;
+		return bytes;
+	}
+
+	private ByteBuffer read( long offset, int length ) throws IOException
+	{
+		final ByteBuffer bytes = ByteBuffer.allocate( length );
+		while ( bytes.hasRemaining() )
+			if ( channel.read( bytes, offset + bytes.position() ) < 0 )
+				return null;
+
+		bytes.flip();
+		return bytes;
+	}
+
+	public List< String > getColumnNames()
+	{
+		return columnNames;
+	}
+
+	public ColumnType getColumnType( String columnName )
+	{
+		return columnTypes.get( getColumnIndex( columnName ) );
+	}
+
+	public int numRows()
+	{
+		return numRows;
+	}
+
+	/**
+	 * @return the (zero-based) time points of the written blocks.
+	 */
+	public int[] getTimepoints()
+	{
+		final int[] timepoints = new int[ blocks.size() ];
+		for ( int i = 0; i < timepoints.length; ++i )
+			timepoints[ i ] = blocks.get( i ).timepoint;
+		return timepoints;
+	}
+
+	/**
+	 * Values of long columns are converted; missing values are NaN.
+	 */
+	public double[] getDoubleColumn( String columnName )
+	{
+		final int c = getColumnIndex( columnName );
+		final ColumnType type = columnTypes.get( c );
+
+		if ( type == ColumnType.Object )
+			throw new IllegalArgumentException( "Not a numeric column: " + columnName );
+
+		final double[] values = new double[ numRows ];
+		int i = 0;
+
+		for ( Block block : blocks )
+		{
+			final ByteBuffer data = inflate( block, c );
+
+			if ( block.types[ c ] == ColumnType.Double )
+			{
+				for ( int row = 0; row < block.numRows; ++row )
+					values[ i++ ] = data.getDouble();
+			}
+			else
+			{
+				long value = 0;
+				for ( int row = 0; row < block.numRows; ++row )
+				{
+					value += data.getLong();
+					values[ i++ ] = value == MeasurementsBinaryWriter.MISSING_LONG ? Double.NaN : value;
+				}
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Missing values are {@link MeasurementsBinaryWriter#MISSING_LONG}.
+	 */
+	public long[] getLongColumn( String columnName )
+	{
+		final int c = getColumnIndex( columnName );
+
+		if ( columnTypes.get( c ) != ColumnType.Long )
+			throw new IllegalArgumentException( "Not a long column: " + columnName );
+
+		final long[] values = new long[ numRows ];
+		int i = 0;
+
+		for ( Block block : blocks )
+		{
+			final ByteBuffer data = inflate( block, c );
+
+			long value = 0;
+			for ( int row = 0; row < block.numRows; ++row )
+			{
+				value += data.getLong();
+				values[ i++ ] = value;
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Missing values are null.
+	 */
+	public String[] getStringColumn( String columnName )
+	{
+		final int c = getColumnIndex( columnName );
+
+		if ( columnTypes.get( c ) != ColumnType.Object )
+			throw new IllegalArgumentException( "Not a string column: " + columnName );
+
+		final String[] values = new String[ numRows ];
+		int i = 0;
+
+		for ( Block block : blocks )
+		{
+			final ByteBuffer data = inflate( block, c );
+
+			// numeric blocks were written before the column was widened
+			if ( block.types[ c ] == ColumnType.Double )
+			{
+				for ( int row = 0; row < block.numRows; ++row )
+				{
+					final double value = data.getDouble();
+					values[ i++ ] = Double.isNaN( value ) ? null : Double.toString( value );
+				}
+			}
+			else if ( block.types[ c ] == ColumnType.Long )
+			{
+				long value = 0;
+				for ( int row = 0; row < block.numRows; ++row )
+				{
+					value += data.getLong();
+					values[ i++ ] = value == MeasurementsBinaryWriter.MISSING_LONG ? null : Long.toString( value );
+				}
+			}
+			else
+			{
+				for ( int row = 0; row < block.numRows; ++row )
+				{
+					final int length = data.getInt();
+
+					if ( length == -1 )
+					{
+						values[ i++ ] = null;
+					}
+					else
+					{
+						values[ i++ ] = new String( data.array(), data.position(), length, StandardCharsets.UTF_8 );
+						data.position( data.position() + length );
+					}
+				}
+			}
+		}
+
+		return values;
+	}
+
+	@Override
+	public void close()
+	{
+		try
+		{
+			channel.close();
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Could not close binary measurements file: " + file, e );
+		}
+	}
+
+	private int getColumnIndex( String columnName )
+	{
+		final Integer c = columnIndices.get( columnName );
+
+		if ( c == null )
+			throw new IllegalArgumentException( "No such column: " + columnName );
+
+		return c;
+	}
+
+	private ByteBuffer inflate( Block block, int c )
+	{
+		final byte[] compressed;
+		try
+		{
+			final ByteBuffer compressedData = read( block.offsets[ c ], block.compressedLengths[ c ] );
+			if ( compressedData == null )
+				throw new IllegalStateException( "Corrupt column " + columnNames.get( c ) + " in: " + file );
+			compressed = compressedData.array();
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Could not read binary measurements file: " + file, e );
+		}
+
+		final byte[] uncompressed = new byte[ block.uncompressedLengths[ c ] ];
+
+		final Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput( compressed );
+			int numBytes = 0;
+			while ( numBytes < uncompressed.length && ! inflater.finished() )
+			{
+				final int numInflated = inflater.inflate( uncompressed, numBytes, uncompressed.length - numBytes );
+				if ( numInflated == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) )
+					break; // truncated data
+				numBytes += numInflated;
+			}
+
+			if ( numBytes < uncompressed.length )
+				throw new IllegalStateException( "Corrupt column " + columnNames.get( c ) + " in: " + file );
+		}
+		catch ( DataFormatException e )
+		{
+			throw new IllegalStateException( "Corrupt column " + columnNames.get( c ) + " in: " + file, e );
+		}
+		finally
+		{
+			inflater.end();
+		}
+
+		return ByteBuffer.wrap( uncompressed );
+	}
+
+	private static class Block
+	{
+		int timepoint;
+		int numRows;
+		final ColumnType[] types;
+		final long[] offsets;
+		final int[] compressedLengths;
+		final int[] uncompressedLengths;
+
+		Block( int numColumns )
+		{
+			types = new ColumnType[ numColumns ];
+			offsets = new long[ numColumns ];
+			compressedLengths = new int[ numColumns ];
+			uncompressedLengths = new int[ numColumns ];
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package de.embl.cba.morphometry.measurements;
+
+import de.embl.cba.morphometry.Logger;
+import de.embl.cba.morphometry.measurements.MeasurementTable.ColumnType;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import static de.embl.cba.morphometry.measurements.Measurements.*;
+
+/**
+ * Writes object measurements as a binary columnar file, which can be read
+ * column by column using {@link MeasurementsBinaryReader}.
+ *
+ * The columns are the same as in {@link MeasurementsTableWriter}, but each column has a type
+ * (double, long or string). The header stores the types of the values of the first written object;
+ * if a later block contains a value that does not fit, e.g. a double in a long column, the column
+ * is widened (long to double, numbers to string) from this block on.
+ *
+ * File layout (big endian):
+ * <pre>
+ * header:  magic "MORPHCOL", int version, int numColumns, numColumns x ( byte type, UTF name )
+ * blocks:  one per written time point:
+ *          int timepoint, int numRows,
+ *          numColumns x ( byte type, int compressedLength, int uncompressedLength ),
+ *          numColumns x compressed column data
+ * </pre>
+ *
+ * The column data of each block is compressed separately with {@link Deflater}.
+ * Doubles are stored as IEEE 754 values (missing values as NaN), longs as differences to the
+ * previous row (missing values as {@link #MISSING_LONG}) and strings as UTF-8 bytes with a
+ * preceding int length (-1 for missing values).
+ */
+public class MeasurementsBinaryWriter implements MeasurementsWriter
+{
+	public static final String FILE_EXTENSION = ".mcol";
+	public static final long MISSING_LONG = MeasurementTable.MISSING_LONG;
+
+	static final byte[] MAGIC = "MORPHCOL".getBytes( StandardCharsets.US_ASCII );
+	static final int VERSION = 2;
+
+	private final File file;
+	private final DataOutputStream out;
+	private final Map< String, Object > constantMeasurements;
+	private final LinkedHashMap< String, Object > additionalColumns;
+	private final ByteArrayOutputStream columnBytes;
+	private final DataOutputStream columnData;
+	private final Deflater deflater;
+	private final byte[] deflateBuffer;
+
+	private List< String > measurementNames;
+	private ColumnType[] measurementTypes;
+
+	public MeasurementsBinaryWriter( File file )
+	{
+		this.file = file;
+		this.constantMeasurements = new HashMap<>();
+		this.additionalColumns = new LinkedHashMap<>();
+		this.columnBytes = new ByteArrayOutputStream();
+		this.columnData = new DataOutputStream( columnBytes );
+		this.deflater = new Deflater();
+		this.deflateBuffer = new byte[ 64 * 1024 ];
+
+		try
+		{
+			this.out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Could not open binary measurements file: " + file, e );
+		}
+	}
+
+	@Override
+	public void addConstantMeasurements( Map< String, Object > measurements )
+	{
+		constantMeasurements.putAll( measurements );
+	}
+
+	@Override
+	public void addColumn( String name, Object value )
+	{
+		additionalColumns.put( name, value );
+	}
+
+	@Override
+	public void write( HashMap< Integer, Map< String, Object > > measurements, int timepoint )
+	{
+		if ( measurements.isEmpty() ) return;
+
+		try
+		{
+			if ( measurementNames == null )
+				writeHeader( measurements );
+
+			writeBlock( measurements, timepoint );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Could not write to binary measurements file: " + file, e );
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		try
+		{
+			out.close();
+			deflater.end();
+			Logger.log( "\nSaved binary measurements to: " + file );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Could not close binary measurements file: " + file, e );
+		}
+	}
+
+	private void writeHeader( HashMap< Integer, Map< String, Object > > measurements ) throws IOException
+	{
+		measurementNames = MeasurementsTableWriter.getMeasurementNames( measurements, constantMeasurements );
+
+		final Map< String, Object > firstObjectMeasurements =
+				measurements.get( measurements.keySet().iterator().next() );
+
+		measurementTypes = new ColumnType[ measurementNames.size() ];
+		for ( int i = 0; i < measurementTypes.length; ++i )
+		{
+			final String name = measurementNames.get( i );
+			final Object value = firstObjectMeasurements.containsKey( name )
+					? firstObjectMeasurements.get( name )
+					: constantMeasurements.get( name );
+			measurementTypes[ i ] = getColumnType( value );
+		}
+
+		out.write( MAGIC );
+		out.writeInt( VERSION );
+		out.writeInt( 2 + measurementNames.size() + additionalColumns.size() );
+
+		writeColumnSchema( "Object_Label", ColumnType.Long );
+		writeColumnSchema( CENTROID + SEP + TIME + SEP + FRAME_UNITS, ColumnType.Long );
+		for ( int i = 0; i < measurementTypes.length; ++i )
+			writeColumnSchema( measurementNames.get( i ), measurementTypes[ i ] );
+		for ( Map.Entry< String, Object > column : additionalColumns.entrySet() )
+			writeColumnSchema( column.getKey(), getColumnType( column.getValue() ) );
+	}
+
+	private void writeColumnSchema( String name, ColumnType type ) throws IOException
+	{
+		out.writeByte( type.ordinal() );
+		out.writeUTF( name );
+	}
+
+	static ColumnType getColumnType( Object value )
+	{
+		if ( value instanceof Double || value instanceof Float )
+			return ColumnType.Double;
+		else if ( value instanceof Long || value instanceof Integer
+				|| value instanceof Short || value instanceof Byte )
+			return ColumnType.Long;
+		else
+			return ColumnType.Object;
+	}
+
+	/**
+	 * @return the type that can store values of both types, missing values do not change the type
+	 */
+	static ColumnType widen( ColumnType type, Object value )
+	{
+		if ( value == null ) return type;
+
+		final ColumnType valueType = getColumnType( value );
+		if ( type == ColumnType.Object || valueType == ColumnType.Object )
+			return ColumnType.Object;
+		else if ( type == ColumnType.Double || valueType == ColumnType.Double )
+			return ColumnType.Double;
+		else
+			return ColumnType.Long;
+	}
+
+	private void writeBlock(
+			HashMap< Integer, Map< String, Object > > measurements,
+			int timepoint ) throws IOException
+	{
+		final List< Integer > labels = new ArrayList<>( measurements.keySet() );
+		final List< Map< String, Object > > rows = new ArrayList<>( labels.size() );
+		for ( int label : labels )
+			rows.add( measurements.get( label ) );
+
+		final int numRows = labels.size();
+		final ArrayList< ColumnType > types = new ArrayList<>();
+		final ArrayList< byte[] > compressedColumns = new ArrayList<>();
+		final ArrayList< Integer > uncompressedLengths = new ArrayList<>();
+
+		// Object_Label
+		columnBytes.reset();
+		long previous = 0;
+		for ( int label : labels )
+		{
+			columnData.writeLong( label - previous );
+			previous = label;
+		}
+		types.add( ColumnType.Long );
+		addCompressedColumn( compressedColumns, uncompressedLengths );
+
+		// Time point
+		columnBytes.reset();
+		columnData.writeLong( timepoint + 1 ); // one-based time points
+		for ( int row = 1; row < numRows; ++row )
+			columnData.writeLong( 0 );
+		types.add( ColumnType.Long );
+		addCompressedColumn( compressedColumns, uncompressedLengths );
+
+		for ( int i = 0; i < measurementTypes.length; ++i )
+		{
+			final String name = measurementNames.get( i );
+			final Object constantValue = constantMeasurements.get( name );
+
+			final ArrayList< Object > values = new ArrayList<>( numRows );
+			for ( Map< String, Object > row : rows )
+			{
+				final Object value = row.containsKey( name ) ? row.get( name ) : constantValue;
+				measurementTypes[ i ] = widen( measurementTypes[ i ], value );
+				values.add( value );
+			}
+
+			columnBytes.reset();
+			previous = 0;
+			for ( Object value : values )
+				previous = writeValue( measurementTypes[ i ], value, previous );
+			types.add( measurementTypes[ i ] );
+			addCompressedColumn( compressedColumns, uncompressedLengths );
+		}
+
+		for ( Object value : additionalColumns.values() )
+		{
+			final ColumnType type = getColumnType( value );
+
+			columnBytes.reset();
+			previous = 0;
+			for ( int row = 0; row < numRows; ++row )
+				previous = writeValue( type, value, previous );
+			types.add( type );
+			addCompressedColumn( compressedColumns, uncompressedLengths );
+		}
+
+		out.writeInt( timepoint );
+		out.writeInt( numRows );
+
+		for ( int c = 0; c < compressedColumns.size(); ++c )
+		{
+			out.writeByte( types.get( c ).ordinal() );
+			out.writeInt( compressedColumns.get( c ).length );
+			out.writeInt( uncompressedLengths.get( c ) );
+		}
+
+		for ( byte[] compressedColumn : compressedColumns )
+			out.write( compressedColumn );
+
+		out.flush();
+	}
+
+	/**
+	 * @return the value to which the next long value is written as difference
+	 */
+	private long writeValue( ColumnType type, Object value, long previous ) throws IOException
+	{
+		switch ( type )
+		{
+			case Double:
+				columnData.writeDouble( value instanceof Number ? ( ( Number ) value ).doubleValue() : Double.NaN );
+				return previous;
+			case Long:
+				final long longValue = value instanceof Number ? ( ( Number ) value ).longValue() : MISSING_LONG;
+				columnData.writeLong( longValue - previous );
+				return longValue;
+			default:
+				if ( value == null )
+				{
+					columnData.writeInt( -1 );
+				}
+				else
+				{
+					final byte[] bytes = value.toString().getBytes( StandardCharsets.UTF_8 );
+					columnData.writeInt( bytes.length );
+					columnData.write( bytes );
+				}
+				return previous;
+		}
+	}
+
+	private void addCompressedColumn(
+			ArrayList< byte[] > compressedColumns,
+			ArrayList< Integer > uncompressedLengths ) throws IOException
+	{
+		columnData.flush();
+		final byte[] bytes = columnBytes.toByteArray();
+
+		deflater.reset();
+		deflater.setInput( bytes );
+		deflater.finish();
+
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream( bytes.length / 4 + 16 );
+		while ( ! deflater.finished() )
+		{
+			final int numBytes = deflater.deflate( deflateBuffer );
+			compressed.write( deflateBuffer, 0, numBytes );
+		}
+
+		compressedColumns.add( compressed.toByteArray() );
+		uncompressedLengths.add( bytes.length );
+	}
+}
@@ -0,0 +1,245 @@
+package de.embl.cba.morphometry.measurements;
+
+import de.embl.cba.morphometry.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static de.embl.cba.morphometry.measurements.Measurements.*;
+
+/**
+ * Writes object measurements as a delimited text table, one time point at a time.
+ *
+ * The rows of each time point are appended to a buffered stream as soon as the time point
+ * is written, using one reusable row buffer, such that the table is never held in memory.
+ *
+ * The output is the same as saving the JTable of {@link Measurements#asTable(ArrayList)}:
+ * the columns are the object label, the (one-based) time point, the alphabetically sorted
+ * measurements and finally the additional columns in the order in which they were added.
+ * As in the JTable, numeric values are written as doubles.
+ */
+public class MeasurementsTableWriter implements MeasurementsWriter
+{
+	private final File file;
+	private final String delim;
+	private final Writer writer;
+	private final StringBuilder row;
+	private final Map< String, Object > constantMeasurements;
+	private final LinkedHashMap< String, Object > additionalColumns;
+
+	private List< String > measurementNames;
+
+	public MeasurementsTableWriter( File file, String delim )
+	{
+		this.file = file;
+		this.delim = delim;
+		this.row = new StringBuilder();
+		this.constantMeasurements = new HashMap<>();
+		this.additionalColumns = new LinkedHashMap<>();
+
+		try
+		{
+			this.writer = new BufferedWriter( new FileWriter( file ) );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Could not open table file: " + file, e );
+		}
+	}
+
+	/**
+	 * The constant measurements are sorted in between the object measurements.
+	 */
+	@Override
+	public void addConstantMeasurements( Map< String, Object > measurements )
+	{
+		constantMeasurements.putAll( measurements );
+	}
+
+	/**
+	 * The additional columns are appended after the measurements.
+	 */
+	@Override
+	public void addColumn( String name, Object value )
+	{
+		additionalColumns.put( name, value );
+	}
+
+	@Override
+	public void write(
+			HashMap< Integer, Map< String, Object > > measurements,
+			int timepoint )
+	{
+		if ( measurements.isEmpty() ) return;
+
+		try
+		{
+			if ( measurementNames == null )
+				writeHeader( measurements );
+
+			if ( measurements instanceof TableBackedObjectMeasurements )
+				writeRows( ( TableBackedObjectMeasurements ) measurements, timepoint );
+			else
+				writeRows( measurements, timepoint );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Could not write to table file: " + file, e );
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		try
+		{
+			writer.close();
+			Logger.log( "\nSaved table to: " + file );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Could not close table file: " + file, e );
+		}
+	}
+
+	private void writeHeader( HashMap< Integer, Map< String, Object > > measurements ) throws IOException
+	{
+		measurementNames = getMeasurementNames( measurements, constantMeasurements );
+
+		row.setLength( 0 );
+		row.append( "Object_Label" );
+		row.append( delim ).append( CENTROID + SEP + TIME + SEP + FRAME_UNITS );
+		for ( String measurementName : measurementNames )
+			row.append( delim ).append( measurementName );
+		for ( String columnName : additionalColumns.keySet() )
+			row.append( delim ).append( columnName );
+		row.append( '\n' );
+
+		writer.append( row );
+	}
+
+	/**
+	 * @return the sorted names of the measurements of the first object and the constant measurements.
+	 */
+	static List< String > getMeasurementNames(
+			HashMap< Integer, Map< String, Object > > measurements,
+			Map< String, Object > constantMeasurements )
+	{
+		final Map< String, Object > firstObjectMeasurements =
+				measurements.get( measurements.keySet().iterator().next() );
+
+		final List< String > measurementNames = new ArrayList<>( firstObjectMeasurements.keySet() );
+		for ( String name : constantMeasurements.keySet() )
+			if ( ! firstObjectMeasurements.containsKey( name ) )
+				measurementNames.add( name );
+
+		Collections.sort( measurementNames );
+
+		return measurementNames;
+	}
+
+	private void writeRows(
+			HashMap< Integer, Map< String, Object > > measurements,
+			int timepoint ) throws IOException
+	{
+		for ( int label : measurements.keySet() )
+		{
+			final Map< String, Object > objectMeasurements = measurements.get( label );
+
+			startRow( label, timepoint );
+
+			for ( String measurementName : measurementNames )
+			{
+				row.append( delim );
+				if ( objectMeasurements.containsKey( measurementName ) )
+					appendValue( objectMeasurements.get( measurementName ) );
+				else
+					appendValue( constantMeasurements.get( measurementName ) );
+			}
+
+			endRow();
+		}
+	}
+
+	private void writeRows(
+			TableBackedObjectMeasurements measurements,
+			int timepoint ) throws IOException
+	{
+		final MeasurementTable table = measurements.getTable();
+
+		final int numMeasurements = measurementNames.size();
+		final int[] columnIds = new int[ numMeasurements ];
+		for ( int i = 0; i < numMeasurements; ++i )
+			columnIds[ i ] = table.findColumnId( measurementNames.get( i ) );
+
+		for ( int tableRow : measurements.getRows() )
+		{
+			startRow( table.getLabel( tableRow ), timepoint );
+
+			for ( int i = 0; i < numMeasurements; ++i )
+			{
+				row.append( delim );
+
+				final int columnId = columnIds[ i ];
+
+				if ( columnId == -1 || ! table.hasValue( tableRow, columnId ) )
+				{
+					appendValue( constantMeasurements.get( measurementNames.get( i ) ) );
+				}
+				else
+				{
+					switch ( table.getColumnType( columnId ) )
+					{
+						case Double:
+							row.append( table.getDouble( tableRow, columnId ) );
+							break;
+						case Long:
+							row.append( ( double ) table.getLong( tableRow, columnId ) );
+							break;
+						default:
+							appendValue( table.getValue( tableRow, columnId ) );
+					}
+				}
+			}
+
+			endRow();
+		}
+	}
+
+	private void startRow( int label, int timepoint )
+	{
+		row.setLength( 0 );
+		row.append( label );
+		row.append( delim ).append( timepoint + 1 ); // one-based time points
+	}
+
+	private void endRow() throws IOException
+	{
+		for ( Object value : additionalColumns.values() )
+		{
+			row.append( delim );
+			appendValue( value );
+		}
+		row.append( '\n' );
+
+		writer.append( row );
+	}
+
+	private void appendValue( Object value )
+	{
+		if ( value instanceof Number )
+			row.append( ( ( Number ) value ).doubleValue() );
+		else
+			row.append( value );
+	}
+}
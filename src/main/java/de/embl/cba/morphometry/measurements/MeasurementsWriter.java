@@ -0,0 +1,37 @@
+package de.embl.cba.morphometry.measurements;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes object measurements to a file, one time point at a time.
+ */
+public interface MeasurementsWriter extends Closeable
+{
+	/**
+	 * Adds measurements that are the same for all objects, e.g. the calibration.
+	 *
+	 * Must be called before the first time point is written.
+	 */
+	void addConstantMeasurements( Map< String, Object > measurements );
+
+	/**
+	 * Adds a column with the same value in all rows, e.g. an image path.
+	 *
+	 * Must be called before the first time point is written.
+	 */
+	void addColumn( String name, Object value );
+
+	void write( HashMap< Integer, Map< String, Object > > measurements, int timepoint );
+
+	default void write( ArrayList< HashMap< Integer, Map< String, Object > > > measurementsTimepointList )
+	{
+		for ( int t = 0; t < measurementsTimepointList.size(); ++t )
+			write( measurementsTimepointList.get( t ), t );
+	}
+
+	@Override
+	void close();
+}
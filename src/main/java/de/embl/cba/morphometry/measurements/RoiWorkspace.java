@@ -0,0 +1,261 @@
+package de.embl.cba.morphometry.measurements;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.roi.labeling.LabelRegion;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import java.util.Arrays;
+
+/**
+ * Reusable primitive buffers for processing the bounding box of one object.
+ *
+ * Each thread has its own workspace (see {@link #get()}), whose buffers grow to the
+ * largest bounding box that has been processed on this thread, such that processing
+ * further objects does not allocate any images.
+ *
+ * Pixels are stored in flat iteration order of the bounding box.
+ */
+public class RoiWorkspace
+{
+	private static final ThreadLocal< RoiWorkspace > WORKSPACES = ThreadLocal.withInitial( RoiWorkspace::new );
+
+	private double[] values;
+	private double[] buffer;
+	private boolean[] mask;
+
+	private int numDimensions;
+	private final long[] min;
+	private final int[] dimensions;
+	private final int[] strides;
+	private int numPixels;
+
+	private double sigma = Double.NaN;
+	private double[] halfKernel;
+
+	private RoiWorkspace()
+	{
+		values = new double[ 0 ];
+		buffer = new double[ 0 ];
+		mask = new boolean[ 0 ];
+		min = new long[ 3 ];
+		dimensions = new int[ 3 ];
+		strides = new int[ 3 ];
+	}
+
+	/**
+	 * @return the workspace of the current thread.
+	 */
+	public static RoiWorkspace get()
+	{
+		return WORKSPACES.get();
+	}
+
+	/**
+	 * Loads the intensities within the bounding box of the region,
+	 * setting all pixels that do not belong to the region to zero.
+	 */
+	public < T extends RealType< T > > void load(
+			RandomAccessibleInterval< T > intensity,
+			LabelRegion< ? > labelRegion )
+	{
+		setBoundingBox( labelRegion );
+
+		Arrays.fill( mask, 0, numPixels, false );
+
+		final Cursor< Void > regionCursor = labelRegion.cursor();
+		final long[] position = new long[ numDimensions ];
+		while ( regionCursor.hasNext() )
+		{
+			regionCursor.fwd();
+			regionCursor.localize( position );
+			mask[ index( position ) ] = true;
+		}
+
+		final Cursor< T > intensityCursor =
+				Views.flatIterable( Views.interval( intensity, labelRegion ) ).cursor();
+
+		for ( int i = 0; i < numPixels; ++i )
+		{
+			final double value = intensityCursor.next().getRealDouble();
+			values[ i ] = mask[ i ] ? value : 0;
+		}
+	}
+
+	/**
+	 * Gaussian blur of the loaded values, with the same kernel as {@link Gauss3}
+	 * and the bounding box extended by its border pixels.
+	 *
+	 * @param type
+	 * 			the values are rounded to this type after the convolution along each dimension,
+	 * 			as {@link Gauss3} does with its intermediate images of the target type,
+	 * 			such that integer images give the same result.
+	 */
+	public < T extends RealType< T > > void blur( double sigma, T type )
+	{
+		if ( sigma != this.sigma )
+		{
+			halfKernel = Gauss3.halfkernels( new double[]{ sigma } )[ 0 ];
+			this.sigma = sigma;
+		}
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			convolve( values, buffer, d );
+			final double[] tmp = values;
+			values = buffer;
+			buffer = tmp;
+
+			round( type );
+		}
+	}
+
+	private < T extends RealType< T > > void round( T type )
+	{
+		for ( int i = 0; i < numPixels; ++i )
+		{
+			type.setReal( values[ i ] );
+			values[ i ] = type.getRealDouble();
+		}
+	}
+
+	private void convolve( double[] source, double[] target, int d )
+	{
+		final int size = dimensions[ d ];
+		final int stride = strides[ d ];
+		final int last = size - 1;
+		final int kernelSize = halfKernel.length;
+		final int numLines = numPixels / size;
+		final int lineBlock = stride * size;
+
+		for ( int line = 0; line < numLines; ++line )
+		{
+			// first pixel of the line: lines along d are interleaved with period stride
+			final int start = ( line / stride ) * lineBlock + ( line % stride );
+
+			for ( int i = 0; i < size; ++i )
+			{
+				double sum = halfKernel[ 0 ] * source[ start + i * stride ];
+
+				for ( int k = 1; k < kernelSize; ++k )
+				{
+					final int left = Math.max( i - k, 0 );
+					final int right = Math.min( i + k, last );
+					sum += halfKernel[ k ] * ( source[ start + left * stride ] + source[ start + right * stride ] );
+				}
+
+				target[ start + i * stride ] = sum;
+			}
+		}
+	}
+
+	/**
+	 * @return the position of the first (in flat iteration order) maximum.
+	 */
+	public long[] getMaximumLocation()
+	{
+		double maxValue = - Double.MAX_VALUE;
+		int maxIndex = 0;
+
+		for ( int i = 0; i < numPixels; ++i )
+		{
+			if ( values[ i ] > maxValue )
+			{
+				maxValue = values[ i ];
+				maxIndex = i;
+			}
+		}
+
+		return position( maxIndex );
+	}
+
+	/**
+	 * Equivalent to the value of the Euclidean distance transform of the region mask
+	 * (within the bounding box) at the given position.
+	 *
+	 * @return the distance to the closest pixel of the bounding box that does not belong to the region,
+	 * 			or the square root of Double.MAX_VALUE if there is no such pixel.
+	 */
+	public double getDistanceToBackground( long[] position )
+	{
+		final int[] relativePosition = new int[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			relativePosition[ d ] = ( int ) ( position[ d ] - min[ d ] );
+
+		final int[] coordinates = new int[ numDimensions ];
+		double minSquaredDistance = Double.MAX_VALUE;
+
+		for ( int i = 0; i < numPixels; ++i )
+		{
+			if ( ! mask[ i ] )
+			{
+				double squaredDistance = 0;
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					final double delta = coordinates[ d ] - relativePosition[ d ];
+					squaredDistance += delta * delta;
+				}
+
+				if ( squaredDistance < minSquaredDistance )
+				{
+					minSquaredDistance = squaredDistance;
+					if ( minSquaredDistance == 0 ) break;
+				}
+			}
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				if ( ++coordinates[ d ] < dimensions[ d ] ) break;
+				coordinates[ d ] = 0;
+			}
+		}
+
+		return Math.sqrt( minSquaredDistance );
+	}
+
+	private void setBoundingBox( LabelRegion< ? > labelRegion )
+	{
+		if ( labelRegion.numDimensions() > min.length )
+			throw new IllegalArgumentException( "Only up to 3D regions are supported, "
+					+ "the region has " + labelRegion.numDimensions() + " dimensions." );
+
+		numDimensions = labelRegion.numDimensions();
+
+		numPixels = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			min[ d ] = labelRegion.min( d );
+			dimensions[ d ] = ( int ) labelRegion.dimension( d );
+			strides[ d ] = numPixels;
+			numPixels *= dimensions[ d ];
+		}
+
+		if ( numPixels > values.length )
+		{
+			values = new double[ numPixels ];
+			buffer = new double[ numPixels ];
+			mask = new boolean[ numPixels ];
+		}
+	}
+
+	private int index( long[] position )
+	{
+		int index = 0;
+		for ( int d = 0; d < numDimensions; ++d )
+			index += ( position[ d ] - min[ d ] ) * strides[ d ];
+		return index;
+	}
+
+	private long[] position( int index )
+	{
+		final long[] position = new long[ numDimensions ];
+		for ( int d = numDimensions - 1; d >= 0; --d )
+		{
+			position[ d ] = min[ d ] + index / strides[ d ];
+			index %= strides[ d ];
+		}
+		return position;
+	}
+}
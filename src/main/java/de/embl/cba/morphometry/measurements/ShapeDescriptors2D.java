@@ -0,0 +1,434 @@
+package de.embl.cba.morphometry.measurements;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.roi.labeling.LabelRegion;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.view.Views;
+
+import java.util.Arrays;
+
+/**
+ * Shape descriptors of one 2D region, computed directly on the region's bounding box.
+ *
+ * The descriptors are defined as in MorphoLibJ (GeodesicDiameter, Convexity and InertiaEllipse,
+ * with default settings and without calibration), but are computed from one raster scan
+ * (moments and boundary) plus three distance propagations, without converting the region
+ * into an ImageJ ImageProcessor.
+ *
+ * As in MorphoLibJ, distances are chamfer distances with the "Chessknight" weights (5,7,11),
+ * normalised by the orthogonal weight, and pixels outside of the bounding box do not count as background.
+ */
+public class ShapeDescriptors2D
+{
+	private static final int ORTHOGONAL_WEIGHT = 5;
+
+	// { dx, dy, weight }
+	private static final int[][] CHAMFER_OFFSETS = {
+			{ 1, 0, 5 }, { -1, 0, 5 }, { 0, 1, 5 }, { 0, -1, 5 },
+			{ 1, 1, 7 }, { 1, -1, 7 }, { -1, 1, 7 }, { -1, -1, 7 },
+			{ 1, 2, 11 }, { 2, 1, 11 }, { -1, 2, 11 }, { -2, 1, 11 },
+			{ 1, -2, 11 }, { 2, -1, 11 }, { -1, -2, 11 }, { -2, -1, 11 } };
+
+	private static final int UNREACHED = Integer.MAX_VALUE;
+
+	private final int width;
+	private final int height;
+	private final boolean[] mask;
+
+	private long numPixels;
+	private long sumX, sumY, sumXX, sumXY, sumYY;
+	private long[] boundaryPoints;
+	private int numBoundaryPoints;
+
+	private double geodesicDiameter;
+	private double largestInscribedCircleRadius;
+	private double convexArea;
+	private double ellipseLongestAxisRadius;
+	private double ellipseShortestAxisRadius;
+
+	public ShapeDescriptors2D( LabelRegion< ? > labelRegion )
+	{
+		checkNumDimensions( labelRegion.numDimensions() );
+
+		width = ( int ) labelRegion.dimension( 0 );
+		height = ( int ) labelRegion.dimension( 1 );
+		mask = new boolean[ width * height ];
+
+		final long minX = labelRegion.min( 0 );
+		final long minY = labelRegion.min( 1 );
+
+		final Cursor< Void > cursor = labelRegion.cursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			final int x = ( int ) ( cursor.getLongPosition( 0 ) - minX );
+			final int y = ( int ) ( cursor.getLongPosition( 1 ) - minY );
+			mask[ x + y * width ] = true;
+		}
+
+		run();
+	}
+
+	public ShapeDescriptors2D( RandomAccessibleInterval< BitType > regionMask )
+	{
+		checkNumDimensions( regionMask.numDimensions() );
+
+		width = ( int ) regionMask.dimension( 0 );
+		height = ( int ) regionMask.dimension( 1 );
+		mask = new boolean[ width * height ];
+
+		final Cursor< BitType > cursor = Views.flatIterable( regionMask ).cursor();
+		for ( int i = 0; i < mask.length; ++i )
+			mask[ i ] = cursor.next().get();
+
+		run();
+	}
+
+	/**
+	 * @param mask
+	 * 			the region mask within its bounding box, in raster order.
+	 */
+	public ShapeDescriptors2D( boolean[] mask, int width, int height )
+	{
+		this.width = width;
+		this.height = height;
+		this.mask = mask;
+
+		run();
+	}
+
+	private static void checkNumDimensions( int numDimensions )
+	{
+		if ( numDimensions != 2 )
+			throw new IllegalArgumentException( "Shape descriptors are only implemented for 2D regions: "
+					+ numDimensions + " dimensions." );
+	}
+
+	private void run()
+	{
+		scan();
+		computeInertiaEllipse();
+		computeConvexArea();
+		computeGeodesicDiameter();
+	}
+
+	/**
+	 * In pixel units.
+	 */
+	public double getGeodesicDiameter()
+	{
+		return geodesicDiameter;
+	}
+
+	/**
+	 * In pixel units; infinite if the region has no background pixel within its bounding box.
+	 */
+	public double getLargestInscribedCircleRadius()
+	{
+		return largestInscribedCircleRadius;
+	}
+
+	/**
+	 * Area of the convex hull of the mid points of the region's boundary pixel edges, in pixel units.
+	 */
+	public double getConvexArea()
+	{
+		return convexArea;
+	}
+
+	public double getEllipseLongestAxisRadius()
+	{
+		return ellipseLongestAxisRadius;
+	}
+
+	public double getEllipseShortestAxisRadius()
+	{
+		return ellipseShortestAxisRadius;
+	}
+
+	public long getNumPixels()
+	{
+		return numPixels;
+	}
+
+	/**
+	 * Accumulates the moments and collects the boundary edge mid points
+	 * (in doubled coordinates, such that they are integers).
+	 */
+	private void scan()
+	{
+		boundaryPoints = new long[ 64 ];
+
+		for ( int y = 0; y < height; ++y )
+		{
+			for ( int x = 0; x < width; ++x )
+			{
+				if ( ! mask[ x + y * width ] ) continue;
+
+				numPixels++;
+				sumX += x;
+				sumY += y;
+				sumXX += ( long ) x * x;
+				sumXY += ( long ) x * y;
+				sumYY += ( long ) y * y;
+
+				if ( ! isInMask( x - 1, y ) ) addBoundaryPoint( 2 * x, 2 * y + 1 );
+				if ( ! isInMask( x + 1, y ) ) addBoundaryPoint( 2 * x + 2, 2 * y + 1 );
+				if ( ! isInMask( x, y - 1 ) ) addBoundaryPoint( 2 * x + 1, 2 * y );
+				if ( ! isInMask( x, y + 1 ) ) addBoundaryPoint( 2 * x + 1, 2 * y + 2 );
+			}
+		}
+	}
+
+	private boolean isInMask( int x, int y )
+	{
+		return x >= 0 && y >= 0 && x < width && y < height && mask[ x + y * width ];
+	}
+
+	private void addBoundaryPoint( long x, long y )
+	{
+		if ( numBoundaryPoints == boundaryPoints.length )
+			boundaryPoints = Arrays.copyOf( boundaryPoints, 2 * boundaryPoints.length );
+
+		boundaryPoints[ numBoundaryPoints++ ] = ( x << 32 ) | y;
+	}
+
+	private void computeInertiaEllipse()
+	{
+		if ( numPixels == 0 ) return;
+
+		final double n = numPixels;
+
+		// centered second order moments, plus the moments of a single pixel
+		final double xx = ( sumXX - sumX * ( sumX / n ) ) / n + 1.0 / 12.0;
+		final double xy = ( sumXY - sumX * ( sumY / n ) ) / n;
+		final double yy = ( sumYY - sumY * ( sumY / n ) ) / n + 1.0 / 12.0;
+
+		final double common = Math.sqrt( ( xx - yy ) * ( xx - yy ) + 4 * xy * xy );
+		ellipseLongestAxisRadius = Math.sqrt( 2 ) * Math.sqrt( xx + yy + common );
+		ellipseShortestAxisRadius = Math.sqrt( 2 ) * Math.sqrt( xx + yy - common );
+	}
+
+	/**
+	 * Convex hull by Andrew's monotone chain algorithm.
+	 */
+	private void computeConvexArea()
+	{
+		if ( numBoundaryPoints < 3 ) return;
+
+		final long[] points = Arrays.copyOf( boundaryPoints, numBoundaryPoints );
+		Arrays.sort( points ); // by x, then y
+
+		final long[] hull = new long[ 2 * points.length ];
+		int k = 0;
+
+		for ( long point : points ) // lower hull
+		{
+			while ( k >= 2 && cross( hull[ k - 2 ], hull[ k - 1 ], point ) <= 0 ) k--;
+			hull[ k++ ] = point;
+		}
+
+		for ( int i = points.length - 2, lowerSize = k + 1; i >= 0; --i ) // upper hull
+		{
+			while ( k >= lowerSize && cross( hull[ k - 2 ], hull[ k - 1 ], points[ i ] ) <= 0 ) k--;
+			hull[ k++ ] = points[ i ];
+		}
+
+		long twiceArea = 0;
+		for ( int i = 0; i < k - 1; ++i )
+			twiceArea += x( hull[ i ] ) * y( hull[ i + 1 ] ) - x( hull[ i + 1 ] ) * y( hull[ i ] );
+
+		// the points are in doubled coordinates
+		convexArea = Math.abs( twiceArea ) / 8.0;
+	}
+
+	private static long cross( long o, long a, long b )
+	{
+		return ( x( a ) - x( o ) ) * ( y( b ) - y( o ) ) - ( y( a ) - y( o ) ) * ( x( b ) - x( o ) );
+	}
+
+	private static long x( long point )
+	{
+		return point >>> 32;
+	}
+
+	private static long y( long point )
+	{
+		return point & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * The largest inscribed circle is centered at the (first, in raster order) maximum of the
+	 * distance map. The geodesic diameter is found by propagating geodesic distances within the
+	 * region from this center to the farthest point and from there to the farthest point again.
+	 */
+	private void computeGeodesicDiameter()
+	{
+		if ( numPixels == 0 ) return;
+
+		final int[] distances = new int[ mask.length ];
+		final PixelQueue queue = new PixelQueue();
+
+		// distance map: distances of region pixels to the closest background pixel
+		for ( int i = 0; i < mask.length; ++i )
+		{
+			if ( mask[ i ] )
+			{
+				distances[ i ] = UNREACHED;
+			}
+			else
+			{
+				distances[ i ] = 0;
+				queue.add( 0, i );
+			}
+		}
+		propagate( distances, queue, false );
+
+		final int center = getFirstMaximumIndex( distances );
+		largestInscribedCircleRadius = distances[ center ] == UNREACHED
+				? Double.POSITIVE_INFINITY
+				: normalise( distances[ center ] );
+
+		final int firstExtremity = propagateGeodesicDistances( distances, queue, center );
+		final int secondExtremity = propagateGeodesicDistances( distances, queue, firstExtremity );
+
+		geodesicDiameter = normalise( distances[ secondExtremity ] );
+	}
+
+	/**
+	 * @return the index of the farthest pixel; unreachable pixels (of disconnected regions) are ignored.
+	 */
+	private int propagateGeodesicDistances( int[] distances, PixelQueue queue, int start )
+	{
+		for ( int i = 0; i < mask.length; ++i )
+			distances[ i ] = UNREACHED;
+
+		distances[ start ] = 0;
+		queue.add( 0, start );
+		propagate( distances, queue, true );
+
+		for ( int i = 0; i < mask.length; ++i )
+			if ( distances[ i ] == UNREACHED ) distances[ i ] = -1;
+
+		return getFirstMaximumIndex( distances );
+	}
+
+	/**
+	 * Dijkstra propagation with the chamfer weights. This gives the same distances as
+	 * iterating forward and backward chamfer passes until convergence.
+	 *
+	 * @param isGeodesic
+	 * 			if true, only region pixels are traversed.
+	 */
+	private void propagate( int[] distances, PixelQueue queue, boolean isGeodesic )
+	{
+		while ( ! queue.isEmpty() )
+		{
+			final long entry = queue.poll();
+			final int distance = ( int ) ( entry >>> 32 );
+			final int index = ( int ) entry;
+
+			if ( distance > distances[ index ] ) continue; // outdated entry
+
+			final int x = index % width;
+			final int y = index / width;
+
+			for ( int[] offset : CHAMFER_OFFSETS )
+			{
+				final int nx = x + offset[ 0 ];
+				final int ny = y + offset[ 1 ];
+
+				if ( nx < 0 || ny < 0 || nx >= width || ny >= height ) continue;
+
+				final int neighbour = nx + ny * width;
+
+				if ( ! mask[ neighbour ] ) continue; // background pixels are sources only
+
+				final int newDistance = distance + offset[ 2 ];
+
+				if ( newDistance < distances[ neighbour ] )
+				{
+					distances[ neighbour ] = newDistance;
+					queue.add( newDistance, neighbour );
+				}
+			}
+		}
+	}
+
+	private int getFirstMaximumIndex( int[] distances )
+	{
+		int maxIndex = -1;
+		long maxDistance = Long.MIN_VALUE;
+
+		for ( int i = 0; i < mask.length; ++i )
+		{
+			if ( mask[ i ] && distances[ i ] > maxDistance )
+			{
+				maxDistance = distances[ i ];
+				maxIndex = i;
+			}
+		}
+
+		return maxIndex;
+	}
+
+	/**
+	 * As in MorphoLibJ, the normalisation is done in float precision.
+	 */
+	private static double normalise( int distance )
+	{
+		return ( float ) distance / ( float ) ORTHOGONAL_WEIGHT;
+	}
+
+	/**
+	 * Binary min heap of ( distance, pixel index ) pairs, packed into longs.
+	 */
+	private static class PixelQueue
+	{
+		private long[] heap = new long[ 256 ];
+		private int size;
+
+		boolean isEmpty()
+		{
+			return size == 0;
+		}
+
+		void add( int distance, int index )
+		{
+			if ( size == heap.length ) heap = Arrays.copyOf( heap, 2 * heap.length );
+
+			final long entry = ( ( long ) distance << 32 ) | ( index & 0xFFFFFFFFL );
+
+			int i = size++;
+			while ( i > 0 )
+			{
+				final int parent = ( i - 1 ) / 2;
+				if ( heap[ parent ] <= entry ) break;
+				heap[ i ] = heap[ parent ];
+				i = parent;
+			}
+			heap[ i ] = entry;
+		}
+
+		long poll()
+		{
+			final long first = heap[ 0 ];
+			final long last = heap[ --size ];
+
+			int i = 0;
+			while ( true )
+			{
+				int child = 2 * i + 1;
+				if ( child >= size ) break;
+				if ( child + 1 < size && heap[ child + 1 ] < heap[ child ] ) child++;
+				if ( last <= heap[ child ] ) break;
+				heap[ i ] = heap[ child ];
+				i = child;
+			}
+			heap[ i ] = last;
+
+			return first;
+		}
+	}
+}
@@ -0,0 +1,525 @@
+package de.embl.cba.morphometry.measurements;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Adapter that exposes the measurements of one frame of a {@link MeasurementTable}
+ * via the HashMap< Integer, Map< String, Object > > API.
+ *
+ * All reads and writes go to the primitive columns of the table; every public method of
+ * {@link HashMap} is overridden, such that the (empty) hash table of the super class is never used.
+ * The values are views on the table rows. Putting an object replaces all its measurements
+ * and putting null removes the object.
+ */
+public class TableBackedObjectMeasurements extends HashMap< Integer, Map< String, Object > >
+{
+	private final MeasurementTable table;
+	private final int frame;
+	private final AbstractMap< Integer, Map< String, Object > > view;
+
+	private int[] rows;
+	private int numRows;
+
+	TableBackedObjectMeasurements( MeasurementTable table, int frame )
+	{
+		this.table = table;
+		this.frame = frame;
+		this.rows = new int[ 16 ];
+		this.view = new AbstractMap< Integer, Map< String, Object > >()
+		{
+			@Override
+			public Set< Entry< Integer, Map< String, Object > > > entrySet()
+			{
+				return TableBackedObjectMeasurements.this.entrySet();
+			}
+
+			@Override
+			public Map< String, Object > get( Object key )
+			{
+				return TableBackedObjectMeasurements.this.get( key );
+			}
+
+			@Override
+			public boolean containsKey( Object key )
+			{
+				return TableBackedObjectMeasurements.this.containsKey( key );
+			}
+
+			@Override
+			public Map< String, Object > remove( Object key )
+			{
+				return TableBackedObjectMeasurements.this.remove( key );
+			}
+		};
+	}
+
+	public MeasurementTable getTable()
+	{
+		return table;
+	}
+
+	public int getFrame()
+	{
+		return frame;
+	}
+
+	void addRow( int row )
+	{
+		if ( numRows == rows.length ) rows = Arrays.copyOf( rows, 2 * rows.length );
+		rows[ numRows++ ] = row;
+	}
+
+	void removeRow( int row )
+	{
+		for ( int i = 0; i < numRows; ++i )
+		{
+			if ( rows[ i ] == row )
+			{
+				rows[ i ] = rows[ --numRows ];
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the table rows of this frame, sorted by object label.
+	 */
+	public int[] getRows()
+	{
+		final long[] labelsAndRows = new long[ numRows ];
+		for ( int i = 0; i < numRows; ++i )
+			labelsAndRows[ i ] = ( ( long ) table.getLabel( rows[ i ] ) << 32 ) | rows[ i ];
+
+		Arrays.sort( labelsAndRows );
+
+		final int[] sorted = new int[ numRows ];
+		for ( int i = 0; i < numRows; ++i )
+			sorted[ i ] = ( int ) labelsAndRows[ i ];
+
+		return sorted;
+	}
+
+	public void setDouble( int label, String name, double value )
+	{
+		table.setDouble( table.addRow( frame, label ), table.getColumnId( name ), value );
+	}
+
+	public void setLong( int label, String name, long value )
+	{
+		table.setLong( table.addRow( frame, label ), table.getColumnId( name ), value );
+	}
+
+	public void setValue( int label, String name, Object value )
+	{
+		table.setValue( table.addRow( frame, label ), table.getColumnId( name ), value );
+	}
+
+	@Override
+	public int size()
+	{
+		return numRows;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return numRows == 0;
+	}
+
+	@Override
+	public boolean containsKey( Object key )
+	{
+		return key instanceof Integer && table.getRow( frame, ( Integer ) key ) != -1;
+	}
+
+	@Override
+	public Map< String, Object > get( Object key )
+	{
+		if ( ! ( key instanceof Integer ) ) return null;
+
+		final int row = table.getRow( frame, ( Integer ) key );
+
+		return row == -1 ? null : new RowMeasurements( row );
+	}
+
+	@Override
+	public Map< String, Object > getOrDefault( Object key, Map< String, Object > defaultValue )
+	{
+		final Map< String, Object > measurements = get( key );
+		return measurements == null ? defaultValue : measurements;
+	}
+
+	@Override
+	public boolean containsValue( Object value )
+	{
+		return view.containsValue( value );
+	}
+
+	/**
+	 * @return a copy of the previous measurements of the object, or null
+	 */
+	@Override
+	public Map< String, Object > put( Integer label, Map< String, Object > measurements )
+	{
+		if ( measurements == null ) return remove( label );
+
+		final int previousRow = table.getRow( frame, label );
+
+		final Map< String, Object > previous = previousRow == -1
+				? null : new HashMap<>( new RowMeasurements( previousRow ) );
+
+		if ( measurements instanceof RowMeasurements && ( ( RowMeasurements ) measurements ).isRow( table, previousRow ) )
+			return previous;
+
+		// copies first, as the measurements may be a view on the same row
+		final Map< String, Object > values = new HashMap<>( measurements );
+
+		final int row = table.addRow( frame, label );
+		table.clearValues( row );
+
+		for ( Map.Entry< String, Object > entry : values.entrySet() )
+			table.setValue( row, table.getColumnId( entry.getKey() ), entry.getValue() );
+
+		return previous;
+	}
+
+	@Override
+	public void putAll( Map< ? extends Integer, ? extends Map< String, Object > > map )
+	{
+		for ( Map.Entry< ? extends Integer, ? extends Map< String, Object > > entry : map.entrySet() )
+			put( entry.getKey(), entry.getValue() );
+	}
+
+	@Override
+	public Map< String, Object > putIfAbsent( Integer label, Map< String, Object > measurements )
+	{
+		final Map< String, Object > previous = get( label );
+		if ( previous == null ) put( label, measurements );
+		return previous;
+	}
+
+	/**
+	 * @return a copy of the removed measurements of the object, or null
+	 */
+	@Override
+	public Map< String, Object > remove( Object key )
+	{
+		if ( ! ( key instanceof Integer ) ) return null;
+
+		final int row = table.getRow( frame, ( Integer ) key );
+		if ( row == -1 ) return null;
+
+		final Map< String, Object > previous = new HashMap<>( new RowMeasurements( row ) );
+		table.removeRow( frame, ( Integer ) key );
+		return previous;
+	}
+
+	@Override
+	public boolean remove( Object key, Object value )
+	{
+		if ( ! containsKey( key ) || ! Objects.equals( get( key ), value ) ) return false;
+
+		remove( key );
+		return true;
+	}
+
+	@Override
+	public boolean replace( Integer label, Map< String, Object > oldValue, Map< String, Object > newValue )
+	{
+		if ( ! containsKey( label ) || ! Objects.equals( get( label ), oldValue ) ) return false;
+
+		put( label, newValue );
+		return true;
+	}
+
+	@Override
+	public Map< String, Object > replace( Integer label, Map< String, Object > value )
+	{
+		return containsKey( label ) ? put( label, value ) : null;
+	}
+
+	@Override
+	public void replaceAll( BiFunction< ? super Integer, ? super Map< String, Object >, ? extends Map< String, Object > > function )
+	{
+		for ( int row : getRows() )
+		{
+			final int label = table.getLabel( row );
+			put( label, function.apply( label, new RowMeasurements( row ) ) );
+		}
+	}
+
+	@Override
+	public void clear()
+	{
+		for ( int row : Arrays.copyOf( rows, numRows ) )
+			table.removeRow( frame, table.getLabel( row ) );
+	}
+
+	@Override
+	public Map< String, Object > computeIfAbsent(
+			Integer label,
+			Function< ? super Integer, ? extends Map< String, Object > > mappingFunction )
+	{
+		final Map< String, Object > previous = get( label );
+		if ( previous != null ) return previous;
+
+		return putAndGet( label, mappingFunction.apply( label ) );
+	}
+
+	@Override
+	public Map< String, Object > computeIfPresent(
+			Integer label,
+			BiFunction< ? super Integer, ? super Map< String, Object >, ? extends Map< String, Object > > remappingFunction )
+	{
+		final Map< String, Object > previous = get( label );
+		if ( previous == null ) return null;
+
+		return putAndGet( label, remappingFunction.apply( label, previous ) );
+	}
+
+	@Override
+	public Map< String, Object > compute(
+			Integer label,
+			BiFunction< ? super Integer, ? super Map< String, Object >, ? extends Map< String, Object > > remappingFunction )
+	{
+		return putAndGet( label, remappingFunction.apply( label, get( label ) ) );
+	}
+
+	@Override
+	public Map< String, Object > merge(
+			Integer label,
+			Map< String, Object > value,
+			BiFunction< ? super Map< String, Object >, ? super Map< String, Object >, ? extends Map< String, Object > > remappingFunction )
+	{
+		final Map< String, Object > previous = get( label );
+
+		return putAndGet( label, previous == null ? value : remappingFunction.apply( previous, value ) );
+	}
+
+	/**
+	 * @return the view on the table row of the stored value, such that later changes of the returned map are stored, too
+	 */
+	private Map< String, Object > putAndGet( Integer label, Map< String, Object > value )
+	{
+		if ( value == null )
+		{
+			remove( label );
+			return null;
+		}
+
+		put( label, value );
+		return get( label );
+	}
+
+	@Override
+	public Set< Integer > keySet()
+	{
+		return view.keySet();
+	}
+
+	@Override
+	public Collection< Map< String, Object > > values()
+	{
+		return view.values();
+	}
+
+	/**
+	 * @return the objects sorted by label, as a view on the table
+	 */
+	@Override
+	public Set< Map.Entry< Integer, Map< String, Object > > > entrySet()
+	{
+		return new AbstractSet< Map.Entry< Integer, Map< String, Object > > >()
+		{
+			@Override
+			public Iterator< Map.Entry< Integer, Map< String, Object > > > iterator()
+			{
+				final int[] sortedRows = getRows();
+
+				return new Iterator< Map.Entry< Integer, Map< String, Object > > >()
+				{
+					private int i = 0;
+
+					@Override
+					public void remove()
+					{
+						if ( i == 0 ) throw new IllegalStateException();
+						TableBackedObjectMeasurements.this.remove( table.getLabel( sortedRows[ i - 1 ] ) );
+					}
+
+					@Override
+					public boolean hasNext()
+					{
+						return i < sortedRows.length;
+					}
+
+					@Override
+					public Map.Entry< Integer, Map< String, Object > > next()
+					{
+						if ( ! hasNext() ) throw new NoSuchElementException();
+
+						final int row = sortedRows[ i++ ];
+						return new SimpleImmutableEntry<>( table.getLabel( row ), new RowMeasurements( row ) );
+					}
+				};
+			}
+
+			@Override
+			public int size()
+			{
+				return numRows;
+			}
+		};
+	}
+
+	@Override
+	public void forEach( BiConsumer< ? super Integer, ? super Map< String, Object > > action )
+	{
+		for ( int row : getRows() )
+			action.accept( table.getLabel( row ), new RowMeasurements( row ) );
+	}
+
+	/**
+	 * @return a plain copy, which is not backed by the table
+	 */
+	@Override
+	public Object clone()
+	{
+		return new HashMap<>( this );
+	}
+
+	private Object writeReplace()
+	{
+		return new HashMap<>( this );
+	}
+
+	/**
+	 * The measurements of one object, as a view on one table row.
+	 */
+	private class RowMeasurements extends AbstractMap< String, Object >
+	{
+		private final int row;
+
+		RowMeasurements( int row )
+		{
+			this.row = row;
+		}
+
+		boolean isRow( MeasurementTable table, int row )
+		{
+			return TableBackedObjectMeasurements.this.table == table && this.row == row;
+		}
+
+		@Override
+		public Object get( Object key )
+		{
+			if ( ! ( key instanceof String ) ) return null;
+			final int columnId = table.findColumnId( ( String ) key );
+			return columnId == -1 ? null : table.getValue( row, columnId );
+		}
+
+		@Override
+		public boolean containsKey( Object key )
+		{
+			if ( ! ( key instanceof String ) ) return false;
+			final int columnId = table.findColumnId( ( String ) key );
+			return columnId != -1 && table.hasValue( row, columnId );
+		}
+
+		@Override
+		public Object put( String key, Object value )
+		{
+			final int columnId = table.getColumnId( key );
+			final Object previous = table.getValue( row, columnId );
+			table.setValue( row, columnId, value );
+			return previous;
+		}
+
+		@Override
+		public Object remove( Object key )
+		{
+			if ( ! ( key instanceof String ) ) return null;
+			final int columnId = table.findColumnId( ( String ) key );
+			if ( columnId == -1 ) return null;
+
+			final Object previous = table.getValue( row, columnId );
+			table.clearValue( row, columnId );
+			return previous;
+		}
+
+		@Override
+		public Set< Entry< String, Object > > entrySet()
+		{
+			return new AbstractSet< Entry< String, Object > >()
+			{
+				@Override
+				public Iterator< Entry< String, Object > > iterator()
+				{
+					return new Iterator< Entry< String, Object > >()
+					{
+						private int columnId = nextColumnId( 0 );
+						private int previousColumnId = -1;
+
+						@Override
+						public void remove()
+						{
+							if ( previousColumnId == -1 ) throw new IllegalStateException();
+							table.clearValue( row, previousColumnId );
+							previousColumnId = -1;
+						}
+
+						@Override
+						public boolean hasNext()
+						{
+							return columnId < table.numColumns();
+						}
+
+						@Override
+						public Entry< String, Object > next()
+						{
+							if ( ! hasNext() ) throw new NoSuchElementException();
+
+							final Entry< String, Object > entry =
+									new SimpleImmutableEntry<>(
+											table.getColumnName( columnId ),
+											table.getValue( row, columnId ) );
+
+							previousColumnId = columnId;
+							columnId = nextColumnId( columnId + 1 );
+
+							return entry;
+						}
+					};
+				}
+
+				@Override
+				public int size()
+				{
+					int size = 0;
+					for ( int columnId = 0; columnId < table.numColumns(); ++columnId )
+						if ( table.hasValue( row, columnId ) ) size++;
+					return size;
+				}
+			};
+		}
+
+		private int nextColumnId( int columnId )
+		{
+			while ( columnId < table.numColumns() && ! table.hasValue( row, columnId ) )
+				columnId++;
+			return columnId;
+		}
+	}
+}
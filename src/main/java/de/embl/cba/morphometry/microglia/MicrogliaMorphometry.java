@@ -1,8 +1,14 @@
 package de.embl.cba.morphometry.microglia;
 
+import de.embl.cba.morphometry.FrameSource;
 import de.embl.cba.morphometry.Logger;
+import de.embl.cba.morphometry.MovieWriter;
+import de.embl.cba.morphometry.ParallelExecutor;
 import de.embl.cba.morphometry.Utils;
+import de.embl.cba.morphometry.measurements.LabelStatistics;
+import de.embl.cba.morphometry.measurements.MeasurementTable;
 import de.embl.cba.morphometry.measurements.Measurements;
+import de.embl.cba.morphometry.measurements.MeasurementsWriter;
 import de.embl.cba.morphometry.skeleton.SkeletonCreator;
 import net.imagej.ops.OpService;
 import net.imglib2.RandomAccessibleInterval;
@@ -21,34 +27,102 @@ import java.util.Map;
 public class MicrogliaMorphometry < T extends RealType< T > & NativeType< T > >
 {
 
-	private final ArrayList< RandomAccessibleInterval< T > > labelMaps;
-	private final ArrayList< RandomAccessibleInterval< T > > intensities;
+	private final FrameSource< T > labelMaps;
+	private final FrameSource< T > intensities;
 	private final OpService opService;
+	private MeasurementTable measurementTable;
 	private ArrayList< HashMap< Integer, Map< String, Object > > > measurementsTimepointList;
 	private ArrayList< RandomAccessibleInterval< BitType > > skeletons;
 	private ArrayList< RandomAccessibleInterval< BitType > > annotations;
+	private final ArrayList< MeasurementsWriter > measurementsWriters;
+	private ParallelExecutor executor;
+	private MovieWriter skeletonsWriter;
+	private MovieWriter annotationsWriter;
 
 
 	public MicrogliaMorphometry( ArrayList< RandomAccessibleInterval< T > > labelMasks,
 								 ArrayList< RandomAccessibleInterval< T > > intensities,
 								 OpService opService )
+	{
+		this( FrameSource.of( labelMasks ), FrameSource.of( intensities ), opService );
+	}
+
+	/**
+	 * The frames are requested one after the other, such that lazily
+	 * loaded frame sources only need to keep a few frames in memory.
+	 */
+	public MicrogliaMorphometry( FrameSource< T > labelMasks,
+								 FrameSource< T > intensities,
+								 OpService opService )
 	{
 		this.labelMaps = labelMasks;
 		this.intensities = intensities;
 		this.opService = opService;
+		this.measurementsWriters = new ArrayList<>();
+		this.executor = new ParallelExecutor();
+	}
+
+	/**
+	 * Sets the number of threads used to measure the objects of one frame.
+	 * The measurements do not depend on the number of threads.
+	 */
+	public void setNumThreads( int numThreads )
+	{
+		final ParallelExecutor previous = executor;
+		this.executor = new ParallelExecutor( numThreads );
+		previous.shutdown();
+	}
+
+	/**
+	 * The measurements of each frame are written by all added writers
+	 * as soon as the frame has been measured.
+	 */
+	public void addMeasurementsWriter( MeasurementsWriter measurementsWriter )
+	{
+		measurementsWriters.add( measurementsWriter );
+	}
+
+	/**
+	 * The skeletons of each frame are written as soon as the frame has been measured,
+	 * instead of being kept for {@link #getSkeletons()}.
+	 */
+	public void setSkeletonsWriter( MovieWriter skeletonsWriter )
+	{
+		this.skeletonsWriter = skeletonsWriter;
+	}
+
+	/**
+	 * The annotations of each frame are written as soon as the frame has been measured,
+	 * instead of being kept for {@link #getAnnotations()}.
+	 */
+	public void setAnnotationsWriter( MovieWriter annotationsWriter )
+	{
+		this.annotationsWriter = annotationsWriter;
 	}
 
 	public void run()
 	{
-		createSkeletons();
+		skeletons = new ArrayList<>(  );
 		annotations = new ArrayList<>(  );
-		measurementsTimepointList = Measurements.initMeasurements( labelMaps.size() );
-		performMeasurements();
+		measurementTable = new MeasurementTable();
+		measurementsTimepointList = Measurements.initMeasurements( measurementTable, labelMaps.numFrames() );
+
+		try
+		{
+			performMeasurements();
+		}
+		finally
+		{
+			executor.shutdown(); // the threads are created again by a next run
+		}
 	}
 
 	private void performMeasurements( )
 	{
-		final int nt = labelMaps.size();
+		final int nt = labelMaps.numFrames();
+
+		final SkeletonCreator skeletonCreator = new SkeletonCreator( opService );
+		skeletonCreator.setClosingRadius( 3 );
 
 		for ( int t = 0; t < nt; ++t )
 		{
@@ -57,24 +131,34 @@ public class MicrogliaMorphometry < T extends RealType< T > & NativeType< T > >
 			final HashMap< Integer, Map< String, Object > > measurements =
 					measurementsTimepointList.get( t );
 
+			final RandomAccessibleInterval< T > labelMap = labelMaps.getFrame( t );
+
 			final ImgLabeling< Integer, IntType > imgLabeling =
-					Utils.labelMapAsImgLabelingRobert( labelMaps.get( t ) );
+					Utils.labelMapAsImgLabelingRobert( labelMap );
 
-			annotations.add( ArrayImgs.bits( Intervals.dimensionsAsLongArray( imgLabeling ) ) );
+			final RandomAccessibleInterval< BitType > skeleton =
+					skeletonCreator.createSkeletons( Utils.asMask( labelMap ) );
+
+			final RandomAccessibleInterval< BitType > annotation =
+					ArrayImgs.bits( Intervals.dimensionsAsLongArray( imgLabeling ) );
+
+			final LabelStatistics labelStatistics =
+					Measurements.computeLabelStatistics( imgLabeling );
 
 			Measurements.measureCentroids(
 					measurements,
-					imgLabeling,
+					labelStatistics,
 					null,
-					annotations.get( t ));
+					annotation );
 
 			Measurements.measureBrightestPoints(
 					measurements,
 					imgLabeling,
-					intensities.get( t ),
+					intensities.getFrame( t ),
 					null,
-					annotations.get( t ),
-					3 );
+					annotation,
+					3,
+					executor );
 
 			Measurements.measureCentroidsToBrightestPointsDistances(
 					measurements
@@ -84,44 +168,50 @@ public class MicrogliaMorphometry < T extends RealType< T > & NativeType< T > >
 			// Volumes ( = areas )
 			Measurements.measureVolumes(
 					measurements,
-					imgLabeling);
+					labelStatistics );
 
 			// Surfaces ( = perimeters )
 			Measurements.measureSurface(
 					measurements,
-					imgLabeling,
-					opService );
+					labelStatistics,
+					opService,
+					executor );
 
-			// Surfaces ( = perimeters )
 			Measurements.measureImageBoundaryContact(
 					measurements,
-					imgLabeling );
+					labelStatistics );
 
 			Measurements.measureSkeletons(
 					measurements,
 					imgLabeling,
-					skeletons.get( t ),
-					opService );
+					skeleton,
+					opService,
+					executor );
 
 			Measurements.measureMorpholibJFeatures(
 					measurements,
-					imgLabeling );
+					imgLabeling,
+					executor );
+
+			for ( MeasurementsWriter measurementsWriter : measurementsWriters )
+				measurementsWriter.write( measurements, t );
+
+			if ( skeletonsWriter != null ) skeletonsWriter.add( skeleton );
+			else skeletons.add( skeleton );
+
+			if ( annotationsWriter != null ) annotationsWriter.add( annotation );
+			else annotations.add( annotation );
 		}
 	}
 
-	private void createSkeletons( )
+	public ArrayList< HashMap< Integer, Map< String, Object > > > getMeasurementsTimepointList()
 	{
-		final SkeletonCreator skeletonCreator = new SkeletonCreator(
-				Utils.labelMapsAsMasks( labelMaps ),
-				opService );
-		skeletonCreator.setClosingRadius( 3 );
-		skeletonCreator.run();
-		skeletons = skeletonCreator.getSkeletons();
+		return measurementsTimepointList;
 	}
 
-	public ArrayList< HashMap< Integer, Map< String, Object > > > getMeasurementsTimepointList()
+	public MeasurementTable getMeasurementTable()
 	{
-		return measurementsTimepointList;
+		return measurementTable;
 	}
 
 	public ArrayList< RandomAccessibleInterval< BitType > > getSkeletons()
@@ -1,10 +1,14 @@
 package de.embl.cba.morphometry.microglia;
 
+import de.embl.cba.morphometry.FrameSource;
 import de.embl.cba.morphometry.Logger;
+import de.embl.cba.morphometry.MovieWriter;
 import de.embl.cba.morphometry.segmentation.MicrogliaSegmenter;
+import de.embl.cba.morphometry.tracking.LineageGraph;
 import de.embl.cba.morphometry.tracking.SemiAutomatedTrackingSplitter;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.NativeType;
+import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
 
 import java.util.ArrayList;
@@ -12,32 +16,81 @@ import java.util.ArrayList;
 public class MicrogliaSegmentationAndTracking< T extends RealType< T > & NativeType< T > >
 {
 	private final MicrogliaSettings settings;
-	private final ArrayList< RandomAccessibleInterval< T > > intensities;
+	private final FrameSource< T > intensities;
 	private ArrayList< RandomAccessibleInterval< T > > labelings;
+	private MovieWriter labelingsWriter;
+	private LineageGraph lineage;
 
 	public MicrogliaSegmentationAndTracking(
 			ArrayList< RandomAccessibleInterval< T  > > intensities,
 			MicrogliaSettings settings )
+	{
+		this( FrameSource.of( intensities ), settings );
+	}
+
+	public MicrogliaSegmentationAndTracking(
+			FrameSource< T > intensities,
+			MicrogliaSettings settings )
 	{
 		this.intensities = intensities;
 		this.settings = MicrogliaSettings.addMissingSettings( settings );
 	}
 
+	/**
+	 * See {@link SemiAutomatedTrackingSplitter#setLabelingsWriter}.
+	 */
+	public void setLabelingsWriter( MovieWriter labelingsWriter )
+	{
+		this.labelingsWriter = labelingsWriter;
+	}
+
 	public void run()
 	{
-		ArrayList< RandomAccessibleInterval< T > > masks = createBinaryMasks( intensities );
-		labelings = splitTouchingObjectsAndTrack( intensities, masks );
+		if ( settings.pipelinedSegmentation && ! settings.showIntermediateResults )
+		{
+			final MicrogliaSegmentationPipeline< T > masks = new MicrogliaSegmentationPipeline<>(
+					intensities,
+					settings,
+					settings.numThreads,
+					getPipelineQueueDepth(),
+					labelings == null ? 0 : labelings.size() );
+
+			try
+			{
+				masks.start();
+				labelings = splitTouchingObjectsAndTrack( intensities, masks );
+			}
+			finally
+			{
+				masks.stop();
+			}
+		}
+		else
+		{
+			ArrayList< RandomAccessibleInterval< BitType > > masks = createBinaryMasks( intensities );
+			labelings = splitTouchingObjectsAndTrack( intensities, FrameSource.of( masks ) );
+		}
+	}
+
+	/**
+	 * The mask that the pipeline provides last is also buffered by the tracking,
+	 * such that in total max( segmentationQueueDepth, numBufferedMasks ) masks are in memory.
+	 */
+	private int getPipelineQueueDepth()
+	{
+		final int numBufferedMasks = SemiAutomatedTrackingSplitter.getNumBufferedMasks( settings );
+		return Math.max( 1, settings.segmentationQueueDepth - numBufferedMasks + 1 );
 	}
 
-	private ArrayList< RandomAccessibleInterval< T > > createBinaryMasks(
-			ArrayList< RandomAccessibleInterval< T > > intensities )
+	private ArrayList< RandomAccessibleInterval< BitType > > createBinaryMasks(
+			FrameSource< T > intensities )
 	{
-		ArrayList<  RandomAccessibleInterval< T > > masks = new ArrayList<>();
-		for ( long t = 0; t < intensities.size() ; ++t )
+		ArrayList<  RandomAccessibleInterval< BitType > > masks = new ArrayList<>();
+		for ( int t = 0; t < intensities.numFrames() ; ++t )
 		{
 			Logger.log("Creating mask for frame " + ( t + 1 ) );
 			final MicrogliaSegmenter microgliaSegmenter =
-					new MicrogliaSegmenter( intensities.get( ( int ) t ), settings );
+					new MicrogliaSegmenter( intensities.getFrame( t ), settings );
 			microgliaSegmenter.run();
 			masks.add( microgliaSegmenter.getMask() );
 		}
@@ -45,8 +98,8 @@ public class MicrogliaSegmentationAndTracking< T extends RealType< T > & NativeT
 	}
 
 	private ArrayList< RandomAccessibleInterval< T > > splitTouchingObjectsAndTrack(
-			ArrayList< RandomAccessibleInterval< T > > intensities,
-			ArrayList< RandomAccessibleInterval< T > > masks )
+			FrameSource< T > intensities,
+			FrameSource< BitType > masks )
 	{
 		final SemiAutomatedTrackingSplitter splitter =
 				new SemiAutomatedTrackingSplitter( masks, intensities, settings );
@@ -56,8 +109,15 @@ public class MicrogliaSegmentationAndTracking< T extends RealType< T > & NativeT
 			splitter.setLabelings( labelings );
 		}
 
+		if ( labelingsWriter != null )
+		{
+			splitter.setLabelingsWriter( labelingsWriter );
+		}
+
 		splitter.run();
 
+		lineage = splitter.getLineage();
+
 		return splitter.getLabelings();
 	}
 
@@ -66,6 +126,11 @@ public class MicrogliaSegmentationAndTracking< T extends RealType< T > & NativeT
 		return labelings;
 	}
 
+	public LineageGraph getLineage()
+	{
+		return lineage;
+	}
+
 	public void setLabelings( ArrayList< RandomAccessibleInterval < T > > labelings )
 	{
 		this.labelings = labelings;
@@ -0,0 +1,157 @@
+package de.embl.cba.morphometry.microglia;
+
+import de.embl.cba.morphometry.FrameSource;
+import de.embl.cba.morphometry.Logger;
+import de.embl.cba.morphometry.segmentation.MicrogliaSegmenter;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Segments the frames of a time series in a pool of worker threads, ahead of
+ * a sequential consumer (e.g. the tracking), which receives the masks in frame order.
+ *
+ * At most queueDepth masks, including the one that the consumer is currently
+ * working on, are kept in memory; the workers wait if the consumer falls behind.
+ * Frames must be requested in ascending order, repeatedly requesting the current frame is fine.
+ */
+public class MicrogliaSegmentationPipeline< T extends RealType< T > & NativeType< T > >
+		implements FrameSource< BitType >
+{
+	private final FrameSource< T > intensities;
+	private final MicrogliaSettings settings;
+	private final int numThreads;
+	private final int queueDepth;
+	private final int tMin;
+
+	private ExecutorService workers;
+	private Thread dispatcher;
+	private ArrayBlockingQueue< Future< RandomAccessibleInterval< BitType > > > queue;
+	private Semaphore permits;
+
+	private int currentTimePoint;
+	private RandomAccessibleInterval< BitType > currentMask;
+
+	public MicrogliaSegmentationPipeline(
+			FrameSource< T > intensities,
+			MicrogliaSettings settings,
+			int numThreads,
+			int queueDepth,
+			int tMin )
+	{
+		if ( numThreads < 1 || queueDepth < 1 )
+			throw new IllegalArgumentException( "Number of threads and queue depth must be at least 1." );
+
+		this.intensities = intensities;
+		this.settings = settings;
+		this.numThreads = numThreads;
+		this.queueDepth = queueDepth;
+		this.tMin = tMin;
+		this.currentTimePoint = tMin - 1;
+	}
+
+	public synchronized void start()
+	{
+		queue = new ArrayBlockingQueue<>( queueDepth );
+		permits = new Semaphore( queueDepth );
+
+		workers = Executors.newFixedThreadPool( numThreads, runnable -> {
+			final Thread thread = new Thread( runnable, "Microglia segmentation" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+
+		dispatcher = new Thread( () -> {
+			try
+			{
+				for ( int t = tMin; t < intensities.numFrames(); ++t )
+				{
+					permits.acquire();
+					final int frame = t;
+					queue.put( workers.submit( () -> createMask( frame ) ) );
+				}
+			}
+			catch ( InterruptedException e )
+			{
+				// stopped
+			}
+		}, "Microglia segmentation dispatcher" );
+
+		dispatcher.setDaemon( true );
+		dispatcher.start();
+	}
+
+	public synchronized void stop()
+	{
+		if ( dispatcher != null ) dispatcher.interrupt();
+		if ( workers != null ) workers.shutdownNow();
+	}
+
+	private RandomAccessibleInterval< BitType > createMask( int t )
+	{
+		Logger.log("Creating mask for frame " + ( t + 1 ) );
+		final MicrogliaSegmenter microgliaSegmenter =
+				new MicrogliaSegmenter( intensities.getFrame( t ), settings );
+		microgliaSegmenter.setNumThreads( 1 ); // the frames are already segmented in parallel
+		microgliaSegmenter.run();
+		return microgliaSegmenter.getMask();
+	}
+
+	@Override
+	public int numFrames()
+	{
+		return intensities.numFrames();
+	}
+
+	/**
+	 * Blocks until the mask of frame t has been computed.
+	 * Frames between the current one and t are dropped.
+	 */
+	@Override
+	public synchronized RandomAccessibleInterval< BitType > getFrame( int t )
+	{
+		if ( t < currentTimePoint || t < tMin )
+			throw new IllegalArgumentException( "Frame " + t + " is not available anymore, " +
+					"frames must be requested in ascending order." );
+
+		if ( queue == null ) start();
+
+		while ( currentTimePoint < t )
+		{
+			if ( currentMask != null ) permits.release();
+			currentMask = null;
+			currentMask = takeNextMask();
+			currentTimePoint++;
+		}
+
+		return currentMask;
+	}
+
+	private RandomAccessibleInterval< BitType > takeNextMask()
+	{
+		try
+		{
+			return queue.take().get();
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( "Interrupted while waiting for the segmentation.", e );
+		}
+		catch ( ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException ) throw ( RuntimeException ) cause;
+			if ( cause instanceof Error ) throw ( Error ) cause;
+			throw new RuntimeException( cause );
+		}
+	}
+}
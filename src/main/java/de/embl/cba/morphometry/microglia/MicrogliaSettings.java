@@ -51,6 +51,11 @@ public class MicrogliaSettings<T extends RealType<T> & NativeType< T > >
 	public double minimalSumIntensityRatio = 0.5;
 	public double maximalSumIntensityRatio = 1.5;
 	public boolean manualSegmentationCorrection = true;
+	public int numSpeculativeFrames = 2; // frames that are split ahead while the user corrects a frame
+
+	public int numThreads = Runtime.getRuntime().availableProcessors();
+	public boolean pipelinedSegmentation = true; // segment frames in parallel, ahead of the tracking
+	public int segmentationQueueDepth = 2 * numThreads; // maximal number of masks in memory, including the ones buffered for the speculation
 
 	public String outputLabelingsPath;
 
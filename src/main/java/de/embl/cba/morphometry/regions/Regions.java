@@ -1,6 +1,7 @@
 package de.embl.cba.morphometry.regions;
 
 import de.embl.cba.morphometry.Algorithms;
+import de.embl.cba.morphometry.BitMasks;
 import de.embl.cba.morphometry.Logger;
 import de.embl.cba.morphometry.Utils;
 import de.embl.cba.transforms.utils.Transforms;
@@ -94,16 +95,7 @@ public abstract class Regions
 			LabelRegion labelRegion,
 			RandomAccessibleInterval< BitType > mask )
 	{
-		final RandomAccess< BitType > maskAccess = mask.randomAccess();
-
-		final LabelRegionCursor cursor = labelRegion.cursor();
-
-		while ( cursor.hasNext() )
-		{
-			cursor.fwd();
-			maskAccess.setPosition( cursor );
-			maskAccess.get().set( true );
-		}
+		BitMasks.draw( labelRegion, mask );
 	}
 
 	public static long size( LabelRegion labelRegion )
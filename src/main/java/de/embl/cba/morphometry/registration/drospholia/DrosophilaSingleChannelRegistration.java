@@ -8,6 +8,7 @@ import de.embl.cba.morphometry.geometry.ellipsoids.EllipsoidsMLJ;
 import de.embl.cba.morphometry.refractiveindexmismatch.RefractiveIndexMismatchCorrectionSettings;
 import de.embl.cba.morphometry.refractiveindexmismatch.RefractiveIndexMismatchCorrections;
 import de.embl.cba.morphometry.regions.Regions;
+import de.embl.cba.morphometry.splitting.SeededWatershed;
 import de.embl.cba.transforms.utils.Transforms;
 import net.imagej.ops.OpService;
 import net.imglib2.*;
@@ -314,10 +315,7 @@ public class  DrosophilaSingleChannelRegistration< T extends RealType< T > & Nat
 			show( Utils.copyAsArrayImg( mask ), "small regions removed", null,
 					registrationCalibration, false );
 
-		for ( int d = 0; d < 3; ++d )
-		{
-			mask = Algorithms.fillHoles3Din2D( mask, d, opService );
-		}
+		mask = Algorithms.fillHoles( mask );
 
 		if ( settings.showIntermediateResults )
 			show( mask, "small regions removed and holes closed", null,
@@ -430,24 +428,18 @@ public class  DrosophilaSingleChannelRegistration< T extends RealType< T > & Nat
 
 		Logger.log( "Watershed..." );
 
-		watershedLabelImg = ArrayImgs.ints( Intervals.dimensionsAsLongArray( mask ) );
-		final ImgLabeling< Integer, IntType > watershedLabeling =
-				new ImgLabeling<>( watershedLabelImg );
+		final SeededWatershed< DoubleType, IntType > watershed =
+				new SeededWatershed<>( Utils.invertedView( distances ), seedsLabelImg.getIndexImg() );
+		watershed.run();
+
+		watershedLabelImg = watershed.getLabeling();
+		Utils.applyMask( watershedLabelImg, mask );
 
 		if ( settings.showIntermediateResults )
 			show( watershedLabelImg, "watershed",
 					null, registrationCalibration, false );
 
-		opService.image().watershed(
-				watershedLabeling,
-				Utils.invertedView( distances ),
-				seedsLabelImg,
-				false,
-				false );
-
-		Utils.applyMask( watershedLabelImg, mask );
-
-		return watershedLabeling;
+		return Utils.labelMapAsImgLabeling( watershedLabelImg );
 	}
 
 
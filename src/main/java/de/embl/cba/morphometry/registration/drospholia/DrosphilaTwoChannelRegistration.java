@@ -9,6 +9,7 @@ import de.embl.cba.morphometry.geometry.ellipsoids.EllipsoidsMLJ;
 import de.embl.cba.morphometry.refractiveindexmismatch.RefractiveIndexMismatchCorrectionSettings;
 import de.embl.cba.morphometry.refractiveindexmismatch.RefractiveIndexMismatchCorrections;
 import de.embl.cba.morphometry.regions.Regions;
+import de.embl.cba.morphometry.splitting.SeededWatershed;
 import de.embl.cba.transforms.utils.Transforms;
 import net.imagej.ops.OpService;
 import net.imglib2.*;
@@ -259,10 +260,7 @@ public class DrosphilaTwoChannelRegistration< T extends RealType< T > & NativeTy
 
 		Regions.removeSmallRegionsInMask( mask, settings.minimalObjectSize, settings.registrationResolution );
 
-		for ( int d = 0; d < 3; ++d )
-		{
-			mask = Algorithms.fillHoles3Din2D( mask, d, opService );
-		}
+		mask = Algorithms.fillHoles( mask );
 
 		if ( settings.showIntermediateResults ) show( mask, "small objects removed and holes closed", null, registrationCalibration, false );
 
@@ -376,19 +374,14 @@ public class DrosphilaTwoChannelRegistration< T extends RealType< T > & NativeTy
 	{
 		Logger.log( "Watershed..." );
 
-		// prepare result label image
-		watershedLabelImg = ArrayImgs.ints( Intervals.dimensionsAsLongArray( mask ) );
-		final ImgLabeling< Integer, IntType > watershedLabeling = new ImgLabeling<>( watershedLabelImg );
-
-		opService.image().watershed(
-				watershedLabeling,
-				Utils.invertedView( distances ),
-				seedsLabelImg,
-				false,
-				false );
+		final SeededWatershed< DoubleType, IntType > watershed =
+				new SeededWatershed<>( Utils.invertedView( distances ), seedsLabelImg.getIndexImg() );
+		watershed.run();
 
+		watershedLabelImg = watershed.getLabeling();
 		Utils.applyMask( watershedLabelImg, mask );
-		return watershedLabeling;
+
+		return Utils.labelMapAsImgLabeling( watershedLabelImg );
 	}
 
 
@@ -8,6 +8,7 @@ import de.embl.cba.morphometry.geometry.ellipsoids.EllipsoidVectors;
 import de.embl.cba.morphometry.geometry.ellipsoids.Ellipsoids3DImageSuite;
 import de.embl.cba.morphometry.geometry.ellipsoids.EllipsoidsMLJ;
 import de.embl.cba.morphometry.regions.Regions;
+import de.embl.cba.morphometry.splitting.SeededWatershed;
 import de.embl.cba.transforms.utils.Scalings;
 import de.embl.cba.transforms.utils.Transforms;
 import ij.IJ;
@@ -296,8 +297,7 @@ public class PlatynereisRegistration< T extends RealType< T > & NativeType< T >
 	private void fillHolesInMask()
 	{
 		Logger.log( "Fill holes..." );
-		for ( int d = 0; d < 3; ++d )
-			mask = Algorithms.fillHoles3Din2D( mask, d, opService );
+		mask = Algorithms.fillHoles( mask );
 
 		if ( settings.showIntermediateResults )
 			show( mask, "small regions removed and holes closed", null,
@@ -341,24 +341,18 @@ public class PlatynereisRegistration< T extends RealType< T > & NativeType< T >
 
 		Logger.log( "Watershed..." );
 
-		watershedLabelImg = ArrayImgs.ints( Intervals.dimensionsAsLongArray( mask ) );
-		final ImgLabeling< Integer, IntType > watershedLabeling =
-				new ImgLabeling<>( watershedLabelImg );
+		final SeededWatershed< DoubleType, IntType > watershed =
+				new SeededWatershed<>( Utils.invertedView( distances ), seedsLabelImg.getIndexImg() );
+		watershed.run();
+
+		watershedLabelImg = watershed.getLabeling();
+		Utils.applyMask( watershedLabelImg, mask );
 
 		if ( settings.showIntermediateResults )
 			show( watershedLabelImg, "watershed",
 					null, registrationCalibration, false );
 
-		opService.image().watershed(
-				watershedLabeling,
-				Utils.invertedView( distances ),
-				seedsLabelImg,
-				false,
-				false );
-
-		Utils.applyMask( watershedLabelImg, mask );
-
-		return watershedLabeling;
+		return Utils.labelMapAsImgLabeling( watershedLabelImg );
 	}
 
 	public AffineTransform3D getRegistrationTransform( double[] fromCalibration, double toCalibration )
@@ -1,17 +1,14 @@
 package de.embl.cba.morphometry.segmentation;
 
-import anisotropic_diffusion.Anisotropic_Diffusion_2D;
 import de.embl.cba.morphometry.*;
 import de.embl.cba.morphometry.microglia.MicrogliaSettings;
 import de.embl.cba.morphometry.regions.Regions;
-import ij.IJ;
-import ij.ImageJ;
-import ij.ImagePlus;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
 import static de.embl.cba.morphometry.viewing.BdvViewer.show;
 import static de.embl.cba.transforms.utils.Scalings.createRescaledArrayImg;
 import static de.embl.cba.transforms.utils.Transforms.getScalingFactors;
@@ -23,6 +20,7 @@ public class MicrogliaSegmenter< T extends RealType< T > & NativeType< T > >
 	private RandomAccessibleInterval< BitType > mask;
 	final private RandomAccessibleInterval< T > intensity;
 	final private boolean showIntermediateResults;
+	private int numThreads;
 
 	public MicrogliaSegmenter(
 			RandomAccessibleInterval< T > intensity,
@@ -31,7 +29,17 @@ public class MicrogliaSegmenter< T extends RealType< T > & NativeType< T > >
 		this.intensity = intensity;
 		this.settings = settings;
 		this.showIntermediateResults = settings.showIntermediateResults;
+		this.numThreads = settings.numThreads;
+	}
 
+	/**
+	 * Sets the number of threads used to segment this frame,
+	 * e.g. 1 if several frames are segmented in parallel.
+	 * Default is {@link MicrogliaSettings#numThreads}.
+	 */
+	public void setNumThreads( int numThreads )
+	{
+		this.numThreads = numThreads;
 	}
 
 	public void run()
@@ -50,13 +58,12 @@ public class MicrogliaSegmenter< T extends RealType< T > & NativeType< T > >
 		 *  Smooth
 		 */
 
-		final ImagePlus wrap = ImageJFunctions.wrap( image, "" );
-		final Anisotropic_Diffusion_2D diffusion2D = new Anisotropic_Diffusion_2D();
-		diffusion2D.setup( "", wrap );
-		final ImagePlus imagePlus = diffusion2D.runTD( wrap.getProcessor() );
-		image = ImageJFunctions.wrapReal( imagePlus );
+		final AnisotropicDiffusion2D< T > diffusion = new AnisotropicDiffusion2D<>( image );
+		diffusion.setNumThreads( numThreads );
+		diffusion.run();
+		final RandomAccessibleInterval< FloatType > smoothed = diffusion.getSmoothed();
 
-		if ( showIntermediateResults ) ImageJFunctions.show( image, "smoothed image" );
+		if ( showIntermediateResults ) ImageJFunctions.show( smoothed, "smoothed image" );
 
 
 
@@ -64,7 +71,7 @@ public class MicrogliaSegmenter< T extends RealType< T > & NativeType< T > >
 		 *  Compute offset and threshold
 		 */
 
-		final IntensityHistogram intensityHistogram = new IntensityHistogram( image, 65535, 2 );
+		final IntensityHistogram intensityHistogram = new IntensityHistogram( smoothed, 65535, 2 );
 
 		CoordinateAndValue mode = intensityHistogram.getMode();
 
@@ -79,7 +86,7 @@ public class MicrogliaSegmenter< T extends RealType< T > & NativeType< T > >
 		/**
 		 * Create mask
 		 */
-		mask = Algorithms.createMask( image, threshold );
+		mask = Algorithms.createMask( smoothed, threshold );
 
 		if ( showIntermediateResults ) show( mask, "mask", null, workingCalibration, false );
 
@@ -1,11 +1,10 @@
 package de.embl.cba.morphometry.skeleton;
 
+import de.embl.cba.morphometry.BitMasks;
 import net.imagej.ops.OpService;
-import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.view.Views;
 
 import java.util.ArrayList;
 
@@ -94,14 +93,7 @@ public class SkeletonAnalyzer< R extends RealType< R > >
 
 	public static long measureSum( RandomAccessibleInterval< BitType > rai )
 	{
-		final Cursor< BitType > cursor = Views.iterable( rai ).cursor();
-
-		long sum = 0;
-
-		while ( cursor.hasNext() )
-			sum += cursor.next().getRealDouble();
-
-		return sum;
+		return BitMasks.count( rai );
 	}
 
 
@@ -30,6 +30,18 @@ public class SkeletonCreator< T extends RealType< T > & NativeType< T > >
 		this.opService = opService;
 	}
 
+	/**
+	 * For creating the skeletons frame by frame, using {@link #createSkeletons}.
+	 */
+	public SkeletonCreator( OpService opService )
+	{
+		this( new ArrayList<>(), opService );
+	}
+
+	/**
+	 * Each object is closed with a hyper-sphere of this radius before its skeletonization,
+	 * see {@link Algorithms#close}.
+	 */
 	public void setClosingRadius( int closingRadius )
 	{
 		this.closingRadius = closingRadius;
@@ -47,22 +59,27 @@ public class SkeletonCreator< T extends RealType< T > & NativeType< T > >
 		{
 			Logger.log( "Creating skeletons, frame " + ( t + 1 ) + " / " + ( ( tMax - tMin ) + 1 ) );
 
-			final ImgLabeling< Integer, IntType > imgLabeling =
-					Regions.asImgLabeling(
-							masks.get( t ),
-							ConnectedComponents.StructuringElement.FOUR_CONNECTED );
-
-			final RandomAccessibleInterval< BitType > skeletons =
-					Algorithms.createObjectSkeletons(
-							imgLabeling,
-							closingRadius, // TODO: Make a parameter
-							opService );
-
-			this.skeletons.add( skeletons );
+			this.skeletons.add( createSkeletons( masks.get( t ) ) );
 		}
 
 	}
 
+	/**
+	 * Creates the skeletons of one frame, e.g. to avoid keeping the skeletons of all frames in memory.
+	 */
+	public RandomAccessibleInterval< BitType > createSkeletons( RandomAccessibleInterval< BitType > mask )
+	{
+		final ImgLabeling< Integer, IntType > imgLabeling =
+				Regions.asImgLabeling(
+						mask,
+						ConnectedComponents.StructuringElement.FOUR_CONNECTED );
+
+		return Algorithms.createObjectSkeletons(
+				imgLabeling,
+				closingRadius, // TODO: Make a parameter
+				opService );
+	}
+
 	public ArrayList< RandomAccessibleInterval< BitType > > getSkeletons()
 	{
 		return skeletons;
@@ -1,5 +1,6 @@
 package de.embl.cba.morphometry.skeleton;
 
+import de.embl.cba.morphometry.BitMasks;
 import de.embl.cba.morphometry.Utils;
 import de.embl.cba.morphometry.regions.RegionAndSize;
 import de.embl.cba.morphometry.regions.Regions;
@@ -8,7 +9,6 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.labeling.ConnectedComponents;
 import net.imglib2.algorithm.morphology.table2d.Branchpoints;
 import net.imglib2.img.array.ArrayImgs;
-import net.imglib2.loops.LoopBuilder;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
@@ -70,10 +70,7 @@ public class Skeletons
 	{
 		final RandomAccessibleInterval< BitType > branchpoints = branchPoints( skeleton );
 
-		LoopBuilder.setImages( branchpoints, skeleton ).forEachPixel( ( b, s ) ->
-		{
-			if ( b.get() ) s.set( false );
-		});
+		BitMasks.andNot( skeleton, branchpoints );
 	}
 
 
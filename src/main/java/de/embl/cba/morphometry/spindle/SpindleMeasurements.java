@@ -142,6 +142,17 @@ public class SpindleMeasurements
 				value );
 	}
 
+	private void addMeasurement( String name, Double value )
+	{
+		Logger.log( name + ": " + value  );
+
+		Measurements.addMeasurement(
+				objectMeasurements,
+				0,
+				name,
+				value == null ? Double.NaN : value );
+	}
+
 	public static String getSpindleVolumeKey()
 	{
 		return SpindleMeasurements.SPINDLE_VOLUME + SEP + SpindleMeasurements.VOLUME_UNIT;
@@ -100,7 +100,7 @@ public class SpindleMorphometry  < R extends RealType< R > & NativeType< R > >
 	{
 		this.raiXYCZ = raiXYCZ;
 
-		objectMeasurements = new HashMap<>();
+		objectMeasurements = Measurements.initMeasurements( 1 ).get( 0 );
 
 		measurements = new SpindleMeasurements( objectMeasurements );
 
@@ -0,0 +1,426 @@
+package de.embl.cba.morphometry.splitting;
+
+import de.embl.cba.morphometry.Algorithms;
+import de.embl.cba.morphometry.tracking.LongCountMap;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.BooleanType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Seeded watershed on primitive arrays, meant for the small crops of object splitting,
+ * but also used for whole images.
+ *
+ * The image is flooded from the seeds in ascending order of its values, using a binary heap
+ * with first-in-first-out order for equal values, such that plateaus are split in their middle.
+ * The image, seeds and mask are copied into arrays with a one pixel border, thus there are
+ * no bounds checks during the flooding.
+ *
+ * Seeds may touch the border of the mask. If watersheds are drawn, pixels of touching seeds
+ * with different labels become watershed pixels, such that the resulting objects are separated;
+ * the pixels of the larger seed are removed, such that every seed keeps at least one pixel.
+ *
+ * The labeling contains the seed labels, {@link Algorithms#WATERSHED} for watershed pixels,
+ * and 0 outside of the mask and for pixels that cannot be reached from any seed.
+ */
+public class SeededWatershed< T extends RealType< T >, I extends IntegerType< I > >
+{
+	private static final int UNLABELED = 0;
+	private static final int WATERSHED = Algorithms.WATERSHED;
+	private static final int OUTSIDE = -2;
+	private static final int QUEUED = -3;
+
+	private final RandomAccessibleInterval< T > image;
+	private final RandomAccessibleInterval< I > seeds;
+	private RandomAccessibleInterval< ? extends BooleanType< ? > > mask;
+	private boolean drawWatersheds;
+	private boolean eightConnected;
+
+	private Img< IntType > labeling;
+	private long numWatershedPixels;
+
+	/**
+	 * @param seeds
+	 * 			label image of the seeds with positive labels; 0 is background
+	 */
+	public SeededWatershed( RandomAccessibleInterval< T > image, RandomAccessibleInterval< I > seeds )
+	{
+		if ( ! Intervals.equalDimensions( image, seeds ) )
+			throw new IllegalArgumentException( "Image and seeds must have the same dimensions." );
+
+		this.image = image;
+		this.seeds = seeds;
+	}
+
+	/**
+	 * Restricts the flooding to the foreground of the mask.
+	 */
+	public void setMask( RandomAccessibleInterval< ? extends BooleanType< ? > > mask )
+	{
+		if ( ! Intervals.equalDimensions( image, mask ) )
+			throw new IllegalArgumentException( "Image and mask must have the same dimensions." );
+
+		this.mask = mask;
+	}
+
+	public void setDrawWatersheds( boolean drawWatersheds )
+	{
+		this.drawWatersheds = drawWatersheds;
+	}
+
+	/**
+	 * @param eightConnected
+	 * 			if true, all pixels of the 3^n - 1 neighborhood are neighbors (8 in 2D),
+	 * 			otherwise only the pixels that share a face (4 in 2D)
+	 */
+	public void setEightConnected( boolean eightConnected )
+	{
+		this.eightConnected = eightConnected;
+	}
+
+	public void run()
+	{
+		final int n = image.numDimensions();
+		final long[] dimensions = Intervals.dimensionsAsLongArray( image );
+
+		final int[] strides = new int[ n ];
+		long paddedSize = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			strides[ d ] = ( int ) paddedSize;
+			paddedSize *= dimensions[ d ] + 2;
+		}
+
+		if ( paddedSize > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Image is too large for the seeded watershed: " + Arrays.toString( dimensions ) );
+
+		final int[] labels = new int[ ( int ) paddedSize ];
+		final double[] values = new double[ ( int ) paddedSize ];
+		Arrays.fill( labels, OUTSIDE );
+
+		copyIntoPaddedArrays( dimensions, strides, labels, values );
+
+		final int[] offsets = neighborOffsets( strides );
+
+		if ( drawWatersheds ) separateTouchingSeeds( labels, offsets );
+
+		flood( labels, values, offsets );
+
+		labeling = ArrayImgs.ints( dimensions );
+		copyFromPaddedArray( dimensions, strides, labels );
+	}
+
+	private void copyIntoPaddedArrays( long[] dimensions, int[] strides, int[] labels, double[] values )
+	{
+		final Cursor< T > imageCursor = Views.flatIterable( image ).cursor();
+		final Cursor< I > seedsCursor = Views.flatIterable( seeds ).cursor();
+		final Cursor< ? extends BooleanType< ? > > maskCursor = mask == null ? null : Views.flatIterable( mask ).cursor();
+
+		final long[] position = new long[ dimensions.length ];
+
+		while ( imageCursor.hasNext() )
+		{
+			final int index = paddedIndex( position, strides );
+
+			values[ index ] = imageCursor.next().getRealDouble();
+			final int seed = seedsCursor.next().getInteger();
+			final boolean isInside = maskCursor == null || maskCursor.next().get();
+
+			labels[ index ] = isInside ? Math.max( seed, UNLABELED ) : OUTSIDE;
+
+			increment( position, dimensions );
+		}
+	}
+
+	private void copyFromPaddedArray( long[] dimensions, int[] strides, int[] labels )
+	{
+		final Cursor< IntType > cursor = Views.flatIterable( labeling ).cursor();
+		final long[] position = new long[ dimensions.length ];
+
+		numWatershedPixels = 0;
+
+		while ( cursor.hasNext() )
+		{
+			final int label = labels[ paddedIndex( position, strides ) ];
+
+			if ( label == WATERSHED ) numWatershedPixels++;
+
+			cursor.next().set( label == OUTSIDE ? 0 : label );
+
+			increment( position, dimensions );
+		}
+	}
+
+	private static int paddedIndex( long[] position, int[] strides )
+	{
+		int index = 0;
+		for ( int d = 0; d < position.length; ++d )
+			index += ( position[ d ] + 1 ) * strides[ d ];
+		return index;
+	}
+
+	private static void increment( long[] position, long[] dimensions )
+	{
+		for ( int d = 0; d < position.length; ++d )
+		{
+			if ( ++position[ d ] < dimensions[ d ] ) return;
+			position[ d ] = 0;
+		}
+	}
+
+	private int[] neighborOffsets( int[] strides )
+	{
+		final int n = strides.length;
+		final ArrayList< Integer > offsets = new ArrayList<>();
+
+		if ( ! eightConnected )
+		{
+			for ( int d = 0; d < n; ++d )
+			{
+				offsets.add( - strides[ d ] );
+				offsets.add( strides[ d ] );
+			}
+		}
+		else
+		{
+			final int[] steps = new int[ n ];
+			Arrays.fill( steps, -1 );
+
+			while ( true )
+			{
+				int offset = 0;
+				for ( int d = 0; d < n; ++d )
+					offset += steps[ d ] * strides[ d ];
+				if ( offset != 0 ) offsets.add( offset );
+
+				int d = 0;
+				while ( d < n && steps[ d ] == 1 ) steps[ d++ ] = -1;
+				if ( d == n ) break;
+				steps[ d ]++;
+			}
+		}
+
+		return offsets.stream().mapToInt( Integer::intValue ).toArray();
+	}
+
+	/**
+	 * Seed pixels that touch a seed with fewer pixels (for equally sized seeds: a smaller label)
+	 * become watershed pixels, such that the smaller seed remains intact.
+	 *
+	 * A seed that would lose all its pixels keeps its first pixel; the touching pixels of the other
+	 * seeds become watershed pixels instead, as long as these seeds keep at least one pixel.
+	 */
+	private static void separateTouchingSeeds( int[] labels, int[] offsets )
+	{
+		final LongCountMap sizes = new LongCountMap();
+		final LongCountMap firstIndices = new LongCountMap(); // index + 1
+		for ( int index = 0; index < labels.length; ++index )
+		{
+			final int label = labels[ index ];
+			if ( label <= 0 ) continue;
+
+			sizes.increment( label );
+			if ( firstIndices.get( label ) == 0 ) firstIndices.add( label, index + 1 );
+		}
+
+		final int[] seeds = labels.clone();
+		final LongCountMap numRemoved = new LongCountMap();
+
+		for ( int index = 0; index < seeds.length; ++index )
+		{
+			final int label = seeds[ index ];
+			if ( label <= 0 ) continue;
+
+			for ( int offset : offsets )
+			{
+				final int neighborLabel = seeds[ index + offset ];
+				if ( neighborLabel > 0 && isLarger( label, neighborLabel, sizes ) )
+				{
+					labels[ index ] = WATERSHED;
+					numRemoved.increment( label );
+					break;
+				}
+			}
+		}
+
+		for ( long label : sizes.getSortedKeys() )
+		{
+			if ( numRemoved.get( label ) < sizes.get( label ) ) continue;
+
+			final int index = ( int ) firstIndices.get( label ) - 1;
+			labels[ index ] = ( int ) label;
+
+			for ( int offset : offsets )
+			{
+				final int neighborLabel = labels[ index + offset ];
+				if ( neighborLabel <= 0 || neighborLabel == label ) continue;
+
+				if ( sizes.get( neighborLabel ) - numRemoved.get( neighborLabel ) > 1 )
+				{
+					labels[ index + offset ] = WATERSHED;
+					numRemoved.increment( neighborLabel );
+				}
+			}
+		}
+	}
+
+	private static boolean isLarger( int label, int otherLabel, LongCountMap sizes )
+	{
+		if ( label == otherLabel ) return false;
+
+		final long size = sizes.get( label );
+		final long otherSize = sizes.get( otherLabel );
+
+		return size > otherSize || ( size == otherSize && label > otherLabel );
+	}
+
+	private void flood( int[] labels, double[] values, int[] offsets )
+	{
+		final PixelQueue queue = new PixelQueue();
+
+		for ( int index = 0; index < labels.length; ++index )
+			if ( labels[ index ] > 0 )
+				enqueueNeighbors( index, labels, values, offsets, queue );
+
+		while ( ! queue.isEmpty() )
+		{
+			final int index = queue.poll();
+
+			int label = UNLABELED;
+			boolean isWatershed = false;
+
+			for ( int offset : offsets )
+			{
+				final int neighborLabel = labels[ index + offset ];
+				if ( neighborLabel <= 0 ) continue;
+
+				if ( label == UNLABELED ) label = neighborLabel;
+				else if ( neighborLabel != label ) isWatershed = true;
+			}
+
+			if ( isWatershed && drawWatersheds )
+			{
+				labels[ index ] = WATERSHED;
+				continue;
+			}
+
+			labels[ index ] = label;
+			enqueueNeighbors( index, labels, values, offsets, queue );
+		}
+	}
+
+	private static void enqueueNeighbors( int index, int[] labels, double[] values, int[] offsets, PixelQueue queue )
+	{
+		for ( int offset : offsets )
+		{
+			final int neighbor = index + offset;
+			if ( labels[ neighbor ] != UNLABELED ) continue;
+
+			labels[ neighbor ] = QUEUED;
+			queue.add( neighbor, values[ neighbor ] );
+		}
+	}
+
+	/**
+	 * @return the labeling, with the dimensions of the image and zero min.
+	 */
+	public Img< IntType > getLabeling()
+	{
+		return labeling;
+	}
+
+	public long getNumWatershedPixels()
+	{
+		return numWatershedPixels;
+	}
+
+	/**
+	 * Binary min heap of pixel indices, ordered by value and, for equal values, by insertion order.
+	 */
+	private static class PixelQueue
+	{
+		private double[] values = new double[ 256 ];
+		private long[] orders = new long[ 256 ];
+		private int[] indices = new int[ 256 ];
+		private int size;
+		private long numAdded;
+
+		boolean isEmpty()
+		{
+			return size == 0;
+		}
+
+		void add( int index, double value )
+		{
+			if ( size == values.length )
+			{
+				values = Arrays.copyOf( values, 2 * size );
+				orders = Arrays.copyOf( orders, 2 * size );
+				indices = Arrays.copyOf( indices, 2 * size );
+			}
+
+			final long order = numAdded++;
+
+			int i = size++;
+			while ( i > 0 )
+			{
+				final int parent = ( i - 1 ) >>> 1;
+				if ( ! isBefore( value, order, values[ parent ], orders[ parent ] ) ) break;
+				set( i, parent );
+				i = parent;
+			}
+
+			values[ i ] = value;
+			orders[ i ] = order;
+			indices[ i ] = index;
+		}
+
+		int poll()
+		{
+			final int first = indices[ 0 ];
+
+			final int last = --size;
+			final double value = values[ last ];
+			final long order = orders[ last ];
+			final int index = indices[ last ];
+
+			int i = 0;
+			while ( true )
+			{
+				int child = 2 * i + 1;
+				if ( child >= size ) break;
+				if ( child + 1 < size && isBefore( values[ child + 1 ], orders[ child + 1 ], values[ child ], orders[ child ] ) ) child++;
+				if ( ! isBefore( values[ child ], orders[ child ], value, order ) ) break;
+				set( i, child );
+				i = child;
+			}
+
+			values[ i ] = value;
+			orders[ i ] = order;
+			indices[ i ] = index;
+
+			return first;
+		}
+
+		private static boolean isBefore( double value, long order, double otherValue, long otherOrder )
+		{
+			return value < otherValue || ( value == otherValue && order < otherOrder );
+		}
+
+		private void set( int slot, int fromSlot )
+		{
+			values[ slot ] = values[ fromSlot ];
+			orders[ slot ] = orders[ fromSlot ];
+			indices[ slot ] = indices[ fromSlot ];
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package de.embl.cba.morphometry.tracking;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over points (e.g. object centroids) for finding all points within a
+ * given radius of a query position, without comparing against all points.
+ *
+ * The cell size equals the radius, such that only the neighbouring cells must be searched.
+ */
+class CentroidGrid
+{
+	private static final int BITS_PER_DIMENSION = 21;
+	private static final long CELL_MASK = ( 1L << BITS_PER_DIMENSION ) - 1;
+	private static final long CELL_OFFSET = 1L << ( BITS_PER_DIMENSION - 1 );
+
+	private final double[] positions;
+	private final int numDimensions;
+	private final double radius;
+	private final double squaredRadius;
+
+	private final long[] sortedCells;
+	private final int[] sortedPoints;
+
+	/**
+	 * @param positions
+	 * 			point coordinates, numDimensions consecutive values per point
+	 */
+	CentroidGrid( double[] positions, int numPoints, int numDimensions, double radius )
+	{
+		if ( numDimensions > 3 )
+			throw new UnsupportedOperationException( "Only up to 3D positions are supported." );
+
+		this.positions = positions;
+		this.numDimensions = numDimensions;
+		this.radius = radius;
+		this.squaredRadius = radius * radius;
+
+		final long[] cells = new long[ numPoints ];
+		final int[] cell = new int[ numDimensions ];
+		for ( int p = 0; p < numPoints; ++p )
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+				cell[ d ] = ( int ) Math.floor( positions[ p * numDimensions + d ] / radius );
+
+			cells[ p ] = cellKey( cell );
+		}
+
+		final Integer[] order = new Integer[ numPoints ];
+		for ( int p = 0; p < numPoints; ++p ) order[ p ] = p;
+		Arrays.sort( order, ( a, b ) -> Long.compare( cells[ a ], cells[ b ] ) );
+
+		sortedCells = new long[ numPoints ];
+		sortedPoints = new int[ numPoints ];
+		for ( int i = 0; i < numPoints; ++i )
+		{
+			sortedPoints[ i ] = order[ i ];
+			sortedCells[ i ] = cells[ order[ i ] ];
+		}
+	}
+
+	interface PointConsumer
+	{
+		void accept( int point, double squaredDistance );
+	}
+
+	/**
+	 * Calls the consumer for each point within the radius of the position.
+	 */
+	void forEachWithinRadius( double[] position, int offset, PointConsumer consumer )
+	{
+		final int[] center = new int[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			center[ d ] = ( int ) Math.floor( position[ offset + d ] / radius );
+
+		final int[] cell = new int[ numDimensions ];
+		final int numNeighbours = ( int ) Math.pow( 3, numDimensions );
+
+		for ( int n = 0; n < numNeighbours; ++n )
+		{
+			int code = n;
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				cell[ d ] = center[ d ] + code % 3 - 1;
+				code /= 3;
+			}
+
+			final long key = cellKey( cell );
+
+			int i = lowerBound( key );
+			for ( ; i < sortedCells.length && sortedCells[ i ] == key; ++i )
+			{
+				final int point = sortedPoints[ i ];
+
+				double squaredDistance = 0;
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					final double delta = positions[ point * numDimensions + d ] - position[ offset + d ];
+					squaredDistance += delta * delta;
+				}
+
+				if ( squaredDistance <= squaredRadius )
+					consumer.accept( point, squaredDistance );
+			}
+		}
+	}
+
+	private int lowerBound( long key )
+	{
+		int low = 0;
+		int high = sortedCells.length;
+		while ( low < high )
+		{
+			final int mid = ( low + high ) >>> 1;
+			if ( sortedCells[ mid ] < key ) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	private long cellKey( int[] cell )
+	{
+		long key = 0;
+		for ( int d = 0; d < numDimensions; ++d )
+			key = ( key << BITS_PER_DIMENSION ) | ( ( cell[ d ] + CELL_OFFSET ) & CELL_MASK );
+		return key;
+	}
+}
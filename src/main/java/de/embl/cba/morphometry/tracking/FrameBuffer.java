@@ -0,0 +1,122 @@
+package de.embl.cba.morphometry.tracking;
+
+import de.embl.cba.morphometry.FrameSource;
+import net.imglib2.RandomAccessibleInterval;
+
+import java.util.HashMap;
+
+/**
+ * Buffers the frames of a source that provides them only in ascending order
+ * (e.g. the segmentation pipeline), such that they can be requested ahead of the tracking,
+ * and again by the tracking itself.
+ *
+ * At most maxNumFrames frames, starting at the frame that the tracking is at, are buffered;
+ * requests further ahead wait until the tracking proceeds.
+ * Frames behind the tracking are released and not available anymore.
+ */
+public class FrameBuffer< T >
+{
+	private final FrameSource< T > source;
+	private final int maxNumFrames;
+	private final HashMap< Integer, RandomAccessibleInterval< T > > frames;
+
+	private int firstFrame;
+	private int lastLoadedFrame;
+	private boolean isLoading;
+
+	public FrameBuffer( FrameSource< T > source, int firstFrame, int maxNumFrames )
+	{
+		if ( maxNumFrames < 1 )
+			throw new IllegalArgumentException( "At least one frame must be buffered." );
+
+		this.source = source;
+		this.maxNumFrames = maxNumFrames;
+		this.frames = new HashMap<>();
+		this.firstFrame = firstFrame;
+		this.lastLoadedFrame = firstFrame - 1;
+	}
+
+	/**
+	 * Blocks until frame t is within maxNumFrames of the tracking and has been loaded.
+	 * The source is only accessed by one thread at a time, but outside of the lock,
+	 * such that frames that are already buffered can be requested meanwhile.
+	 */
+	public RandomAccessibleInterval< T > getFrame( int t )
+	{
+		synchronized ( frames )
+		{
+			while ( true )
+			{
+				if ( t < firstFrame )
+					throw new IllegalStateException( "Frame " + t + " has already been released, "
+							+ "the tracking is at frame " + firstFrame + "." );
+
+				if ( t <= lastLoadedFrame ) return frames.get( t );
+
+				if ( ! isLoading && t < firstFrame + maxNumFrames ) break;
+
+				waitForFrames();
+			}
+
+			isLoading = true;
+		}
+
+		try
+		{
+			RandomAccessibleInterval< T > frame = null;
+			for ( int s = lastLoadedFrame + 1; s <= t; ++s )
+			{
+				frame = source.getFrame( s );
+				synchronized ( frames )
+				{
+					if ( s >= firstFrame ) frames.put( s, frame );
+					lastLoadedFrame = s;
+					frames.notifyAll();
+				}
+			}
+			return frame;
+		}
+		finally
+		{
+			synchronized ( frames )
+			{
+				isLoading = false;
+				frames.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Called by the tracking when it proceeds to frame t.
+	 */
+	public void releaseFramesBefore( int t )
+	{
+		synchronized ( frames )
+		{
+			firstFrame = t;
+			frames.keySet().removeIf( s -> s < t );
+			frames.notifyAll();
+		}
+	}
+
+	public int numBufferedFrames()
+	{
+		synchronized ( frames )
+		{
+			return frames.size();
+		}
+	}
+
+	private void waitForFrames()
+	{
+		try
+		{
+			frames.wait();
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( "Interrupted while waiting for the tracking to proceed.", e );
+		}
+	}
+}
@@ -0,0 +1,362 @@
+package de.embl.cba.morphometry.tracking;
+
+import de.embl.cba.morphometry.regions.Regions;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.labeling.ConnectedComponents;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Maximal overlap tracking (see {@link TrackingUtils#getMaximalOverlapBasedLabeling}),
+ * which can be updated after some frames have been edited.
+ *
+ * For each frame the objects, their sizes and their overlaps with the objects of the
+ * previous frame are kept. After editing, only the edited frames are labeled again.
+ * The following frames are re-linked using the cached overlaps, until a frame after
+ * the last edited one keeps all its track ids.
+ * A lineage is updated in the same way, see {@link #updateLineage}.
+ */
+public class IncrementalMaximalOverlapTracker
+{
+	private final ArrayList< Frame > frames;
+	private int firstEditedFrame;
+	private int lastEditedFrame;
+	private int firstChangedFrame; // first frame whose labeling has changed since the last lineage update
+
+	private static class Frame
+	{
+		RandomAccessibleInterval< IntType > objects; // each object has its own key
+		LabelSizeIndex objectSizes; // index: key
+		OverlapMatrix overlaps; // rows: keys, columns: keys of the previous frame; null if not yet computed
+		int[] trackIds; // index: key; null if not yet linked
+		int maxTrackId; // largest track id up to and including this frame
+		boolean isEdited;
+		RandomAccessibleInterval< IntType > labeling; // track ids
+		LabelSizeIndex labelSizeIndex; // index: track id
+	}
+
+	public IncrementalMaximalOverlapTracker()
+	{
+		this.frames = new ArrayList<>();
+		this.firstEditedFrame = Integer.MAX_VALUE;
+		this.lastEditedFrame = -1;
+		this.firstChangedFrame = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Sets a labeling that is already tracked, e.g. by the {@link SemiAutomatedTrackingSplitter}.
+	 * Each label is treated as one object.
+	 *
+	 * @param labelSizeIndex
+	 * 			the size index of the labeling, or null if it should be computed
+	 */
+	public < R extends RealType< R > > void setLabeling(
+			int t,
+			RandomAccessibleInterval< R > labels,
+			LabelSizeIndex labelSizeIndex )
+	{
+		final RandomAccessibleInterval< IntType > labeling = asIntType( labels );
+		if ( labelSizeIndex == null ) labelSizeIndex = LabelSizeIndex.of( labeling );
+
+		final Frame frame = new Frame();
+		frame.objects = labeling;
+		frame.objectSizes = labelSizeIndex;
+		frame.trackIds = identity( labelSizeIndex.getMaxLabel() );
+		frame.labeling = labeling;
+		frame.labelSizeIndex = labelSizeIndex;
+
+		setFrame( t, frame );
+
+		for ( int s = t; s < frames.size() && frames.get( s ).trackIds != null; ++s )
+			frames.get( s ).maxTrackId = Math.max( getMaxTrackId( s - 1 ), max( frames.get( s ).trackIds ) );
+	}
+
+	/**
+	 * Replaces the objects of frame t by the connected components of the mask.
+	 * The labeling of the frame is only available after {@link #relink()}.
+	 */
+	public < T extends RealType< T > & NativeType< T > > void setEditedMask( int t, RandomAccessibleInterval< T > mask )
+	{
+		final Frame frame = new Frame();
+		frame.objects = Regions.asImgLabeling(
+				mask, ConnectedComponents.StructuringElement.FOUR_CONNECTED ).getIndexImg();
+		frame.objectSizes = LabelSizeIndex.of( frame.objects );
+		frame.isEdited = true;
+
+		setFrame( t, frame );
+
+		firstEditedFrame = Math.min( firstEditedFrame, t );
+		lastEditedFrame = Math.max( lastEditedFrame, t );
+	}
+
+	private void setFrame( int t, Frame frame )
+	{
+		if ( t > frames.size() )
+			throw new IllegalArgumentException( "Frame " + frames.size() + " must be set before frame " + t );
+
+		if ( t == frames.size() )
+		{
+			frames.add( frame );
+		}
+		else
+		{
+			frames.set( t, frame );
+			firstChangedFrame = Math.min( firstChangedFrame, t );
+		}
+
+		// the overlaps of the next frame refer to the objects of this frame
+		if ( t + 1 < frames.size() ) frames.get( t + 1 ).overlaps = null;
+	}
+
+	/**
+	 * Removes all frames from numFrames on.
+	 */
+	public void truncate( int numFrames )
+	{
+		if ( frames.size() > numFrames )
+			firstChangedFrame = Math.min( firstChangedFrame, numFrames );
+
+		while ( frames.size() > numFrames )
+			frames.remove( frames.size() - 1 );
+
+		lastEditedFrame = Math.min( lastEditedFrame, numFrames - 1 );
+		if ( firstEditedFrame > lastEditedFrame ) firstEditedFrame = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Links the objects of the edited frames and, as far as needed, of the following frames.
+	 *
+	 * @return the frames whose labeling has changed
+	 */
+	public ArrayList< Integer > relink()
+	{
+		final ArrayList< Integer > relinkedFrames = new ArrayList<>();
+
+		for ( int t = firstEditedFrame; t < frames.size(); ++t )
+		{
+			final Frame frame = frames.get( t );
+			final int[] trackIds = link( t );
+			final int maxTrackId = Math.max( getMaxTrackId( t - 1 ), max( trackIds ) );
+
+			if ( ! frame.isEdited
+					&& Arrays.equals( trackIds, frame.trackIds )
+					&& maxTrackId == frame.maxTrackId )
+			{
+				if ( t > lastEditedFrame ) break; // thus, the following frames do not change either
+				continue;
+			}
+
+			frame.trackIds = trackIds;
+			frame.maxTrackId = maxTrackId;
+			frame.isEdited = false;
+			frame.labeling = relabel( frame.objects, frame.objectSizes, trackIds );
+			frame.labelSizeIndex = frame.objectSizes.relabel( trackIds );
+
+			relinkedFrames.add( t );
+			firstChangedFrame = Math.min( firstChangedFrame, t );
+		}
+
+		firstEditedFrame = Integer.MAX_VALUE;
+		lastEditedFrame = -1;
+
+		return relinkedFrames;
+	}
+
+	/**
+	 * Brings the lineage up to date with the labelings: the frames from the first one that has changed
+	 * since the last update (or that is not yet in the lineage) are added again, using the cached overlaps.
+	 * Frames that are already in the lineage are kept otherwise, e.g. the ones that
+	 * the {@link SemiAutomatedTrackingSplitter} has added while linking them.
+	 */
+	public void updateLineage( LineageGraph lineage )
+	{
+		if ( firstEditedFrame != Integer.MAX_VALUE )
+			throw new IllegalStateException( "The edited frames must be relinked before updating the lineage." );
+
+		final int tFirst = Math.min( Math.min( lineage.numFrames(), firstChangedFrame ), frames.size() );
+
+		lineage.truncate( tFirst );
+
+		for ( int t = tFirst; t < frames.size(); ++t )
+		{
+			final Frame frame = frames.get( t );
+
+			if ( t == 0 )
+			{
+				lineage.addFrame( t, frame.labelSizeIndex );
+				continue;
+			}
+
+			final Frame previous = frames.get( t - 1 );
+
+			if ( frame.overlaps == null )
+				frame.overlaps = new OverlapMatrix( frame.objects, previous.objects );
+
+			lineage.addFrame( t, frame.labelSizeIndex, frame.overlaps, frame.trackIds, previous.trackIds );
+		}
+
+		firstChangedFrame = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Assigns to each object the track id of the previous object with the largest overlap
+	 * (the smallest track id in case of ties), in ascending order of the object keys.
+	 * Objects without overlap, or whose track id has already been assigned, start a new track.
+	 */
+	private int[] link( int t )
+	{
+		final Frame frame = frames.get( t );
+		final int maxKey = frame.objectSizes.getMaxLabel();
+
+		if ( t == 0 ) return identity( maxKey );
+
+		final Frame previous = frames.get( t - 1 );
+
+		if ( frame.overlaps == null )
+			frame.overlaps = new OverlapMatrix( frame.objects, previous.objects );
+
+		final int[] trackIds = new int[ maxKey + 1 ];
+		final HashSet< Integer > assignedTrackIds = new HashSet<>();
+		int maxTrackId = previous.maxTrackId;
+
+		for ( int key = 1; key <= maxKey; ++key )
+		{
+			if ( ! frame.objectSizes.contains( key ) ) continue;
+
+			int trackId = 0;
+			long maxOverlap = 0;
+
+			for ( int previousKey : frame.overlaps.getOverlappingLabels( key ) )
+			{
+				final long overlap = frame.overlaps.getOverlap( key, previousKey );
+				final int previousTrackId = previous.trackIds[ previousKey ];
+
+				if ( overlap > maxOverlap || ( overlap == maxOverlap && previousTrackId < trackId ) )
+				{
+					maxOverlap = overlap;
+					trackId = previousTrackId;
+				}
+			}
+
+			if ( trackId == 0 || ! assignedTrackIds.add( trackId ) )
+			{
+				trackId = ++maxTrackId;
+				assignedTrackIds.add( trackId );
+			}
+
+			trackIds[ key ] = trackId;
+		}
+
+		return trackIds;
+	}
+
+	private static < R extends RealType< R > > RandomAccessibleInterval< IntType > asIntType(
+			RandomAccessibleInterval< R > labels )
+	{
+		if ( Util.getTypeFromInterval( labels ) instanceof IntType )
+			return ( RandomAccessibleInterval ) labels;
+
+		final RandomAccessibleInterval< IntType > labeling =
+				ArrayImgs.ints( Intervals.dimensionsAsLongArray( labels ) );
+
+		final Cursor< R > labelsCursor = Views.flatIterable( labels ).cursor();
+		final Cursor< IntType > labelingCursor = Views.flatIterable( labeling ).cursor();
+
+		while ( labelsCursor.hasNext() )
+			labelingCursor.next().set( ( int ) labelsCursor.next().getRealDouble() );
+
+		return labeling;
+	}
+
+	private static RandomAccessibleInterval< IntType > relabel(
+			RandomAccessibleInterval< IntType > objects,
+			LabelSizeIndex objectSizes,
+			int[] trackIds )
+	{
+		boolean isIdentity = true;
+		for ( int key = 1; key < trackIds.length; ++key )
+			if ( objectSizes.contains( key ) && trackIds[ key ] != key )
+				isIdentity = false;
+
+		if ( isIdentity ) return objects;
+
+		final RandomAccessibleInterval< IntType > labeling =
+				ArrayImgs.ints( Intervals.dimensionsAsLongArray( objects ) );
+
+		final Cursor< IntType > objectsCursor = Views.flatIterable( objects ).cursor();
+		final Cursor< IntType > labelingCursor = Views.flatIterable( labeling ).cursor();
+
+		while ( objectsCursor.hasNext() )
+		{
+			final int key = objectsCursor.next().get();
+			labelingCursor.next().set( key > 0 ? trackIds[ key ] : 0 );
+		}
+
+		return labeling;
+	}
+
+	private int getMaxTrackId( int t )
+	{
+		return t < 0 ? 0 : frames.get( t ).maxTrackId;
+	}
+
+	private static int[] identity( int maxKey )
+	{
+		final int[] ids = new int[ maxKey + 1 ];
+		for ( int key = 0; key <= maxKey; ++key )
+			ids[ key ] = key;
+		return ids;
+	}
+
+	private static int max( int[] values )
+	{
+		int max = 0;
+		for ( int value : values )
+			max = Math.max( max, value );
+		return max;
+	}
+
+	public int numFrames()
+	{
+		return frames.size();
+	}
+
+	public RandomAccessibleInterval< IntType > getLabeling( int t )
+	{
+		return frames.get( t ).labeling;
+	}
+
+	public LabelSizeIndex getLabelSizeIndex( int t )
+	{
+		return frames.get( t ).labelSizeIndex;
+	}
+
+	public ArrayList< RandomAccessibleInterval< IntType > > getLabelings()
+	{
+		final ArrayList< RandomAccessibleInterval< IntType > > labelings = new ArrayList<>();
+		for ( Frame frame : frames )
+			labelings.add( frame.labeling );
+		return labelings;
+	}
+
+	/**
+	 * @return the size index of each labeling, in the same order as {@link #getLabelings()}.
+	 */
+	public ArrayList< LabelSizeIndex > getLabelSizeIndices()
+	{
+		final ArrayList< LabelSizeIndex > labelSizeIndices = new ArrayList<>();
+		for ( Frame frame : frames )
+			labelSizeIndices.add( frame.labelSizeIndex );
+		return labelSizeIndices;
+	}
+}
@@ -0,0 +1,178 @@
+package de.embl.cba.morphometry.tracking;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.roi.labeling.LabelRegion;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.view.Views;
+
+import java.util.Arrays;
+
+/**
+ * Number of pixels and bounding box of each label of a labeling.
+ *
+ * The index is meant to be created together with the labeling, e.g. while drawing
+ * the objects, and to be passed along with it, such that sizes can be looked up
+ * without iterating over the labeling again.
+ */
+public class LabelSizeIndex
+{
+	private final int numDimensions;
+	private long[] sizes;
+	private long[] mins;
+	private long[] maxs;
+	private int maxLabel;
+
+	public LabelSizeIndex( int numDimensions )
+	{
+		this.numDimensions = numDimensions;
+		this.sizes = new long[ 16 ];
+		this.mins = new long[ 16 * numDimensions ];
+		this.maxs = new long[ 16 * numDimensions ];
+	}
+
+	/**
+	 * Indexes all labels (except the background) of the labeling in one sweep.
+	 */
+	public static < I extends IntegerType< I > > LabelSizeIndex of( RandomAccessibleInterval< I > labeling )
+	{
+		final int numDimensions = labeling.numDimensions();
+		final LabelSizeIndex index = new LabelSizeIndex( numDimensions );
+
+		final Cursor< I > cursor = Views.iterable( labeling ).localizingCursor();
+		final long[] position = new long[ numDimensions ];
+
+		while ( cursor.hasNext() )
+		{
+			final int label = cursor.next().getInteger();
+
+			if ( label <= 0 ) continue;
+
+			cursor.localize( position );
+			index.add( label, position );
+		}
+
+		return index;
+	}
+
+	/**
+	 * Adds a region that has been drawn into the labeling with the given label.
+	 */
+	public void add( int label, LabelRegion< ? > region )
+	{
+		final long[] min = new long[ numDimensions ];
+		final long[] max = new long[ numDimensions ];
+		region.min( min );
+		region.max( max );
+
+		add( label, region.size(), min, max );
+	}
+
+	public void add( int label, long[] position )
+	{
+		add( label, 1, position, position );
+	}
+
+	private void add( int label, long size, long[] min, long[] max )
+	{
+		if ( label <= 0 )
+			throw new IllegalArgumentException( "Labels must be positive: " + label );
+
+		if ( label >= sizes.length ) grow( label );
+
+		final int offset = label * numDimensions;
+
+		if ( sizes[ label ] == 0 )
+		{
+			System.arraycopy( min, 0, mins, offset, numDimensions );
+			System.arraycopy( max, 0, maxs, offset, numDimensions );
+		}
+		else
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				mins[ offset + d ] = Math.min( mins[ offset + d ], min[ d ] );
+				maxs[ offset + d ] = Math.max( maxs[ offset + d ], max[ d ] );
+			}
+		}
+
+		sizes[ label ] += size;
+		maxLabel = Math.max( maxLabel, label );
+	}
+
+	public boolean contains( int label )
+	{
+		return getSize( label ) > 0;
+	}
+
+	/**
+	 * @return the number of pixels of the label, or 0 if the label does not exist.
+	 */
+	public long getSize( int label )
+	{
+		return label > 0 && label < sizes.length ? sizes[ label ] : 0;
+	}
+
+	/**
+	 * @return the bounding box of the label, or null if the label does not exist.
+	 */
+	public Interval getBoundingBox( int label )
+	{
+		if ( ! contains( label ) ) return null;
+
+		final int offset = label * numDimensions;
+
+		return new FinalInterval(
+				Arrays.copyOfRange( mins, offset, offset + numDimensions ),
+				Arrays.copyOfRange( maxs, offset, offset + numDimensions ) );
+	}
+
+	/**
+	 * @return the largest label, or 0 if there are no labels.
+	 */
+	public int getMaxLabel()
+	{
+		return maxLabel;
+	}
+
+	/**
+	 * @return an index in which each label is replaced by newLabels[ label ].
+	 */
+	public LabelSizeIndex relabel( int[] newLabels )
+	{
+		final LabelSizeIndex relabeled = new LabelSizeIndex( numDimensions );
+
+		for ( int label = 1; label <= maxLabel; ++label )
+		{
+			if ( sizes[ label ] == 0 ) continue;
+
+			final int offset = label * numDimensions;
+
+			relabeled.add(
+					newLabels[ label ],
+					sizes[ label ],
+					Arrays.copyOfRange( mins, offset, offset + numDimensions ),
+					Arrays.copyOfRange( maxs, offset, offset + numDimensions ) );
+		}
+
+		return relabeled;
+	}
+
+	public int getNumLabels()
+	{
+		int numLabels = 0;
+		for ( int label = 1; label <= maxLabel; ++label )
+			if ( sizes[ label ] > 0 ) numLabels++;
+		return numLabels;
+	}
+
+	private void grow( int label )
+	{
+		final int length = Math.max( label + 1, 2 * sizes.length );
+		sizes = Arrays.copyOf( sizes, length );
+		mins = Arrays.copyOf( mins, length * numDimensions );
+		maxs = Arrays.copyOf( maxs, length * numDimensions );
+	}
+}
@@ -7,4 +7,5 @@ public class LabelingAndMaxIndex
 {
 	RandomAccessibleInterval< IntType > labeling;
 	int maxIndex;
+	LabelSizeIndex labelSizeIndex;
 }
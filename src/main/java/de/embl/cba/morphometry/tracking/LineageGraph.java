@@ -0,0 +1,616 @@
+package de.embl.cba.morphometry.tracking;
+
+import de.embl.cba.morphometry.measurements.MeasurementTable;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.IntType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Lineage of tracked objects, stored in primitive arrays.
+ *
+ * Nodes are the objects ( frame, label ) of the tracked labelings, where the label is the track id.
+ * Edges connect objects of different frames and are of one of the following types:
+ * <ul>
+ *     <li>{@link #LINK}: the object continues the track of the previous object</li>
+ *     <li>{@link #SPLIT}: the object starts a new track that branches off the previous object</li>
+ *     <li>{@link #MERGE}: the track of the previous object ends and the object has been merged into the next object</li>
+ * </ul>
+ *
+ * Nodes and edges must be added in ascending frame order (edges in the order of their target frames),
+ * such that the graph can be truncated when frames are tracked again.
+ */
+public class LineageGraph
+{
+	public static final byte LINK = 0;
+	public static final byte SPLIT = 1;
+	public static final byte MERGE = 2;
+
+	public static final String FILE_EXTENSION = ".mlin";
+
+	static final byte[] MAGIC = "MORPHLIN".getBytes( StandardCharsets.US_ASCII );
+	static final int VERSION = 1;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private int numFrames;
+
+	// nodes
+	private int numNodes;
+	private int[] nodeFrames;
+	private int[] nodeLabels;
+	private long[] nodeSizes;
+	private int[] firstOutgoingEdges; // -1 if none
+	private int[] firstIncomingEdges; // -1 if none
+	private int[] previousTrackNodes; // -1 if none
+	private final LongCountMap nodeIndices; // key( frame, label ) -> node + 1, i.e. 0 if there is no node
+
+	// edges
+	private int numEdges;
+	private int[] edgeSources;
+	private int[] edgeTargets;
+	private byte[] edgeTypes;
+	private int[] nextOutgoingEdges; // next edge with the same source, -1 if none
+	private int[] nextIncomingEdges; // next edge with the same target, -1 if none
+
+	// tracks, index: track id
+	private int[] trackFirstNodes;
+	private int[] trackLastNodes;
+	private int[] trackLengths;
+	private int maxTrackId;
+
+	public LineageGraph()
+	{
+		nodeFrames = new int[ INITIAL_CAPACITY ];
+		nodeLabels = new int[ INITIAL_CAPACITY ];
+		nodeSizes = new long[ INITIAL_CAPACITY ];
+		firstOutgoingEdges = new int[ INITIAL_CAPACITY ];
+		firstIncomingEdges = new int[ INITIAL_CAPACITY ];
+		previousTrackNodes = new int[ INITIAL_CAPACITY ];
+		nodeIndices = new LongCountMap( INITIAL_CAPACITY );
+
+		edgeSources = new int[ INITIAL_CAPACITY ];
+		edgeTargets = new int[ INITIAL_CAPACITY ];
+		edgeTypes = new byte[ INITIAL_CAPACITY ];
+		nextOutgoingEdges = new int[ INITIAL_CAPACITY ];
+		nextIncomingEdges = new int[ INITIAL_CAPACITY ];
+
+		trackFirstNodes = new int[ INITIAL_CAPACITY ];
+		trackLastNodes = new int[ INITIAL_CAPACITY ];
+		trackLengths = new int[ INITIAL_CAPACITY ];
+		Arrays.fill( trackFirstNodes, -1 );
+		Arrays.fill( trackLastNodes, -1 );
+	}
+
+	/**
+	 * Adds all objects of frame t, without edges.
+	 */
+	public void addFrame( int t, LabelSizeIndex labelSizeIndex )
+	{
+		checkFrame( t );
+
+		for ( int label = 1; label <= labelSizeIndex.getMaxLabel(); ++label )
+			if ( labelSizeIndex.contains( label ) )
+				addNode( t, label, labelSizeIndex.getSize( label ) );
+
+		numFrames = t + 1;
+	}
+
+	/**
+	 * Adds all objects of the tracked labeling of frame t and their edges to the objects
+	 * of the tracked labeling of frame t - 1.
+	 *
+	 * @param previousLabeling
+	 * 			the labeling of frame t - 1, or null if t is the first frame
+	 * @param labelSizeIndex
+	 * 			the size index of the labeling, or null if it should be computed
+	 */
+	public void addFrame(
+			int t,
+			RandomAccessibleInterval< IntType > previousLabeling,
+			RandomAccessibleInterval< IntType > labeling,
+			LabelSizeIndex labelSizeIndex )
+	{
+		if ( labelSizeIndex == null ) labelSizeIndex = LabelSizeIndex.of( labeling );
+
+		if ( previousLabeling == null )
+			addFrame( t, labelSizeIndex );
+		else
+			addFrame( t, labelSizeIndex, new OverlapMatrix( labeling, previousLabeling ), null );
+	}
+
+	/**
+	 * Adds all objects of frame t and their edges to the overlapping objects of frame t - 1.
+	 *
+	 * For each pair of overlapping objects the edge type is determined as follows:
+	 * the same track id is a {@link #LINK}; the previous object with the largest overlap
+	 * is a {@link #SPLIT}; a previous object whose track ends in frame t - 1 is a {@link #MERGE}.
+	 * Overlaps with previous objects that are continued by another object are not added as edges.
+	 *
+	 * @param overlaps
+	 * 			rows: the objects of frame t, columns: the track ids of frame t - 1
+	 * @param rowLabels
+	 * 			the track id of each row of the overlaps, or null if the rows are the track ids
+	 */
+	public void addFrame( int t, LabelSizeIndex labelSizeIndex, OverlapMatrix overlaps, int[] rowLabels )
+	{
+		addFrame( t, labelSizeIndex, overlaps, rowLabels, null );
+	}
+
+	/**
+	 * As {@link #addFrame(int, LabelSizeIndex, OverlapMatrix, int[])}, for overlaps whose columns
+	 * are objects of frame t - 1 rather than track ids.
+	 *
+	 * @param columnLabels
+	 * 			the track id of each column of the overlaps, or null if the columns are the track ids
+	 */
+	public void addFrame( int t, LabelSizeIndex labelSizeIndex, OverlapMatrix overlaps, int[] rowLabels, int[] columnLabels )
+	{
+		addFrame( t, labelSizeIndex );
+
+		final int numRows = rowLabels == null ? labelSizeIndex.getMaxLabel() + 1 : rowLabels.length;
+
+		for ( int row = 1; row < numRows; ++row )
+		{
+			final int label = rowLabels == null ? row : rowLabels[ row ];
+			final int node = getNode( t, label );
+			if ( node < 0 ) continue;
+
+			final int maxOverlapLabel = getLabel( overlaps.getMaxOverlapLabel( row ), columnLabels );
+
+			for ( int column : overlaps.getOverlappingLabels( row ) )
+			{
+				final int previousLabel = getLabel( column, columnLabels );
+				final int previousNode = getNode( t - 1, previousLabel );
+				if ( previousNode < 0 ) continue;
+
+				if ( previousLabel == label )
+					addEdge( previousNode, node, LINK );
+				else if ( previousLabel == maxOverlapLabel )
+					addEdge( previousNode, node, SPLIT );
+				else if ( ! labelSizeIndex.contains( previousLabel ) )
+					addEdge( previousNode, node, MERGE );
+			}
+		}
+	}
+
+	private static int getLabel( int column, int[] columnLabels )
+	{
+		if ( columnLabels == null ) return column;
+		return column < columnLabels.length ? columnLabels[ column ] : 0;
+	}
+
+	/**
+	 * @return the node
+	 */
+	public int addNode( int frame, int label, long size )
+	{
+		checkFrame( frame );
+
+		if ( label <= 0 )
+			throw new IllegalArgumentException( "Labels must be positive: " + label );
+
+		final long key = LongCountMap.key( frame, label );
+		if ( nodeIndices.get( key ) != 0 )
+			throw new IllegalArgumentException( "Object " + label + " of frame " + frame + " has already been added." );
+
+		if ( numNodes == nodeFrames.length ) growNodes();
+		if ( label >= trackLengths.length ) growTracks( label );
+
+		final int node = numNodes++;
+		nodeFrames[ node ] = frame;
+		nodeLabels[ node ] = label;
+		nodeSizes[ node ] = size;
+		firstOutgoingEdges[ node ] = -1;
+		firstIncomingEdges[ node ] = -1;
+		previousTrackNodes[ node ] = trackLastNodes[ label ];
+		nodeIndices.add( key, node + 1 );
+
+		if ( trackLengths[ label ]++ == 0 ) trackFirstNodes[ label ] = node;
+		trackLastNodes[ label ] = node;
+		maxTrackId = Math.max( maxTrackId, label );
+		numFrames = Math.max( numFrames, frame + 1 );
+
+		return node;
+	}
+
+	/**
+	 * @return the edge
+	 */
+	public int addEdge( int source, int target, byte type )
+	{
+		if ( nodeFrames[ source ] >= nodeFrames[ target ] )
+			throw new IllegalArgumentException( "Edges must point forward in time: " + source + " -> " + target );
+
+		if ( numEdges > 0 && nodeFrames[ target ] < nodeFrames[ edgeTargets[ numEdges - 1 ] ] )
+			throw new IllegalArgumentException( "Edges must be added in ascending order of their target frames." );
+
+		if ( numEdges == edgeSources.length ) growEdges();
+
+		final int edge = numEdges++;
+		edgeSources[ edge ] = source;
+		edgeTargets[ edge ] = target;
+		edgeTypes[ edge ] = type;
+		nextOutgoingEdges[ edge ] = firstOutgoingEdges[ source ];
+		nextIncomingEdges[ edge ] = firstIncomingEdges[ target ];
+		firstOutgoingEdges[ source ] = edge;
+		firstIncomingEdges[ target ] = edge;
+
+		return edge;
+	}
+
+	/**
+	 * Removes all nodes and edges from frame numFrames on.
+	 */
+	public void truncate( int numFrames )
+	{
+		while ( numEdges > 0 && nodeFrames[ edgeTargets[ numEdges - 1 ] ] >= numFrames )
+		{
+			// the edges are removed in reverse order, thus each one is the first edge of its nodes
+			final int edge = --numEdges;
+			firstOutgoingEdges[ edgeSources[ edge ] ] = nextOutgoingEdges[ edge ];
+			firstIncomingEdges[ edgeTargets[ edge ] ] = nextIncomingEdges[ edge ];
+		}
+
+		while ( numNodes > 0 && nodeFrames[ numNodes - 1 ] >= numFrames )
+		{
+			final int node = --numNodes;
+			final int label = nodeLabels[ node ];
+			nodeIndices.add( LongCountMap.key( nodeFrames[ node ], label ), - ( node + 1 ) );
+
+			trackLastNodes[ label ] = previousTrackNodes[ node ];
+			if ( --trackLengths[ label ] == 0 ) trackFirstNodes[ label ] = -1;
+		}
+
+		while ( maxTrackId > 0 && trackLengths[ maxTrackId ] == 0 ) maxTrackId--;
+
+		this.numFrames = Math.min( this.numFrames, numFrames );
+	}
+
+	private void checkFrame( int frame )
+	{
+		if ( frame < numFrames - 1 )
+			throw new IllegalArgumentException( "Frame " + frame + " is before the last added frame " + ( numFrames - 1 ) + "." );
+	}
+
+	public int numFrames()
+	{
+		return numFrames;
+	}
+
+	public int numNodes()
+	{
+		return numNodes;
+	}
+
+	public int numEdges()
+	{
+		return numEdges;
+	}
+
+	/**
+	 * @return the node of the object or -1 if there is no such object.
+	 */
+	public int getNode( int frame, int label )
+	{
+		if ( frame < 0 || label <= 0 ) return -1;
+		return ( int ) nodeIndices.get( LongCountMap.key( frame, label ) ) - 1;
+	}
+
+	public int getFrame( int node )
+	{
+		return nodeFrames[ node ];
+	}
+
+	public int getLabel( int node )
+	{
+		return nodeLabels[ node ];
+	}
+
+	public int getTrackId( int node )
+	{
+		return nodeLabels[ node ];
+	}
+
+	/**
+	 * @return the number of pixels of the object.
+	 */
+	public long getSize( int node )
+	{
+		return nodeSizes[ node ];
+	}
+
+	public int getEdgeSource( int edge )
+	{
+		return edgeSources[ edge ];
+	}
+
+	public int getEdgeTarget( int edge )
+	{
+		return edgeTargets[ edge ];
+	}
+
+	public byte getEdgeType( int edge )
+	{
+		return edgeTypes[ edge ];
+	}
+
+	/**
+	 * @return the nodes that are connected to the node by edges of the given type, e.g. the
+	 * objects that have been merged into the node for {@link #MERGE}.
+	 */
+	public int[] getPredecessors( int node, byte type )
+	{
+		int[] predecessors = new int[ 0 ];
+		for ( int edge = firstIncomingEdges[ node ]; edge >= 0; edge = nextIncomingEdges[ edge ] )
+			if ( edgeTypes[ edge ] == type )
+				predecessors = append( predecessors, edgeSources[ edge ] );
+		return predecessors;
+	}
+
+	public int[] getSuccessors( int node, byte type )
+	{
+		int[] successors = new int[ 0 ];
+		for ( int edge = firstOutgoingEdges[ node ]; edge >= 0; edge = nextOutgoingEdges[ edge ] )
+			if ( edgeTypes[ edge ] == type )
+				successors = append( successors, edgeTargets[ edge ] );
+		return successors;
+	}
+
+	private static int[] append( int[] array, int value )
+	{
+		final int[] appended = Arrays.copyOf( array, array.length + 1 );
+		appended[ array.length ] = value;
+		return appended;
+	}
+
+	public int getMaxTrackId()
+	{
+		return maxTrackId;
+	}
+
+	/**
+	 * @return the number of objects of the track.
+	 */
+	public int getTrackLength( int trackId )
+	{
+		return trackId > 0 && trackId < trackLengths.length ? trackLengths[ trackId ] : 0;
+	}
+
+	/**
+	 * @return the first frame of the track, or -1 if the track does not exist.
+	 */
+	public int getTrackStart( int trackId )
+	{
+		return getTrackLength( trackId ) > 0 ? nodeFrames[ trackFirstNodes[ trackId ] ] : -1;
+	}
+
+	/**
+	 * @return the last frame of the track, or -1 if the track does not exist.
+	 */
+	public int getTrackEnd( int trackId )
+	{
+		return getTrackLength( trackId ) > 0 ? nodeFrames[ trackLastNodes[ trackId ] ] : -1;
+	}
+
+	/**
+	 * @return the last node of the track, or -1 if the track does not exist.
+	 */
+	public int getTrackLastNode( int trackId )
+	{
+		return getTrackLength( trackId ) > 0 ? trackLastNodes[ trackId ] : -1;
+	}
+
+	/**
+	 * @return the nodes of the track, in ascending frame order.
+	 */
+	public int[] getTrackNodes( int trackId )
+	{
+		final int[] nodes = new int[ getTrackLength( trackId ) ];
+		int node = getTrackLastNode( trackId );
+		for ( int i = nodes.length - 1; i >= 0; --i )
+		{
+			nodes[ i ] = node;
+			node = previousTrackNodes[ node ];
+		}
+		return nodes;
+	}
+
+	/**
+	 * @return the sum of the column over the objects of each track, index: track id.
+	 */
+	public double[] getTrackSums( MeasurementTable table, String columnName )
+	{
+		return aggregate( table, columnName, false );
+	}
+
+	/**
+	 * @return the mean of the column over the objects of each track, index: track id;
+	 * NaN for tracks without values.
+	 */
+	public double[] getTrackMeans( MeasurementTable table, String columnName )
+	{
+		return aggregate( table, columnName, true );
+	}
+
+	/**
+	 * Iterates once over the rows of the table; the rows are assigned to the tracks
+	 * via the node lookup, such that rows of objects that are not in the graph are ignored.
+	 */
+	private double[] aggregate( MeasurementTable table, String columnName, boolean isMean )
+	{
+		final int columnId = table.findColumnId( columnName );
+		if ( columnId < 0 )
+			throw new IllegalArgumentException( "No such measurement: " + columnName );
+
+		final double[] sums = new double[ maxTrackId + 1 ];
+		final int[] counts = new int[ maxTrackId + 1 ];
+
+		for ( int row = 0; row < table.numRows(); ++row )
+		{
+			if ( ! table.hasValue( row, columnId ) ) continue;
+
+			final int node = getNode( table.getFrame( row ), table.getLabel( row ) );
+			if ( node < 0 ) continue;
+
+			final int trackId = nodeLabels[ node ];
+			sums[ trackId ] += table.getDouble( row, columnId );
+			counts[ trackId ]++;
+		}
+
+		if ( isMean )
+			for ( int trackId = 0; trackId <= maxTrackId; ++trackId )
+				sums[ trackId ] = counts[ trackId ] > 0 ? sums[ trackId ] / counts[ trackId ] : Double.NaN;
+
+		return sums;
+	}
+
+	/**
+	 * Writes the graph as a compact binary file, which can be read with {@link #read(File)}.
+	 *
+	 * File layout (big endian, varint: unsigned LEB128):
+	 * <pre>
+	 * header:  magic "MORPHLIN", int version, int numFrames, int numNodes, int numEdges
+	 * nodes:   numNodes x ( varint frame - frame of the previous node, varint label, varint size )
+	 * edges:   numEdges x ( varint target, varint target - source, byte type )
+	 * </pre>
+	 */
+	public void write( File file )
+	{
+		try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) ) )
+		{
+			out.write( MAGIC );
+			out.writeInt( VERSION );
+			out.writeInt( numFrames );
+			out.writeInt( numNodes );
+			out.writeInt( numEdges );
+
+			int previousFrame = 0;
+			for ( int node = 0; node < numNodes; ++node )
+			{
+				writeVarLong( out, nodeFrames[ node ] - previousFrame );
+				writeVarLong( out, nodeLabels[ node ] );
+				writeVarLong( out, nodeSizes[ node ] );
+				previousFrame = nodeFrames[ node ];
+			}
+
+			for ( int edge = 0; edge < numEdges; ++edge )
+			{
+				writeVarLong( out, edgeTargets[ edge ] );
+				writeVarLong( out, edgeTargets[ edge ] - edgeSources[ edge ] );
+				out.writeByte( edgeTypes[ edge ] );
+			}
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Could not write lineage file: " + file, e );
+		}
+	}
+
+	public static LineageGraph read( File file )
+	{
+		try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+		{
+			final byte[] magic = new byte[ MAGIC.length ];
+			in.readFully( magic );
+			if ( ! Arrays.equals( magic, MAGIC ) )
+				throw new IOException( "Not a lineage file: " + file );
+
+			final int version = in.readInt();
+			if ( version != VERSION )
+				throw new IOException( "Unsupported lineage file version: " + version );
+
+			final int numFrames = in.readInt();
+			final int numNodes = in.readInt();
+			final int numEdges = in.readInt();
+
+			final LineageGraph lineage = new LineageGraph();
+
+			int frame = 0;
+			for ( int node = 0; node < numNodes; ++node )
+			{
+				frame += ( int ) readVarLong( in );
+				final int label = ( int ) readVarLong( in );
+				lineage.addNode( frame, label, readVarLong( in ) );
+			}
+
+			for ( int edge = 0; edge < numEdges; ++edge )
+			{
+				final int target = ( int ) readVarLong( in );
+				final int source = target - ( int ) readVarLong( in );
+				lineage.addEdge( source, target, in.readByte() );
+			}
+
+			lineage.numFrames = Math.max( lineage.numFrames, numFrames );
+
+			return lineage;
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Could not read lineage file: " + file, e );
+		}
+	}
+
+	private static void writeVarLong( DataOutputStream out, long value ) throws IOException
+	{
+		while ( ( value & ~0x7FL ) != 0 )
+		{
+			out.writeByte( ( int ) ( ( value & 0x7F ) | 0x80 ) );
+			value >>>= 7;
+		}
+		out.writeByte( ( int ) value );
+	}
+
+	private static long readVarLong( DataInputStream in ) throws IOException
+	{
+		long value = 0;
+		for ( int shift = 0; ; shift += 7 )
+		{
+			final int b = in.readUnsignedByte();
+			value |= ( long ) ( b & 0x7F ) << shift;
+			if ( ( b & 0x80 ) == 0 ) return value;
+		}
+	}
+
+	private void growNodes()
+	{
+		final int length = 2 * nodeFrames.length;
+		nodeFrames = Arrays.copyOf( nodeFrames, length );
+		nodeLabels = Arrays.copyOf( nodeLabels, length );
+		nodeSizes = Arrays.copyOf( nodeSizes, length );
+		firstOutgoingEdges = Arrays.copyOf( firstOutgoingEdges, length );
+		firstIncomingEdges = Arrays.copyOf( firstIncomingEdges, length );
+		previousTrackNodes = Arrays.copyOf( previousTrackNodes, length );
+	}
+
+	private void growEdges()
+	{
+		final int length = 2 * edgeSources.length;
+		edgeSources = Arrays.copyOf( edgeSources, length );
+		edgeTargets = Arrays.copyOf( edgeTargets, length );
+		edgeTypes = Arrays.copyOf( edgeTypes, length );
+		nextOutgoingEdges = Arrays.copyOf( nextOutgoingEdges, length );
+		nextIncomingEdges = Arrays.copyOf( nextIncomingEdges, length );
+	}
+
+	private void growTracks( int trackId )
+	{
+		final int oldLength = trackLengths.length;
+		final int length = Math.max( trackId + 1, 2 * oldLength );
+		trackFirstNodes = Arrays.copyOf( trackFirstNodes, length );
+		trackLastNodes = Arrays.copyOf( trackLastNodes, length );
+		trackLengths = Arrays.copyOf( trackLengths, length );
+		Arrays.fill( trackFirstNodes, oldLength, length, -1 );
+		Arrays.fill( trackLastNodes, oldLength, length, -1 );
+	}
+}
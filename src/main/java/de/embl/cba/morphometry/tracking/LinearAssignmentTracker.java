@@ -0,0 +1,445 @@
+package de.embl.cba.morphometry.tracking;
+
+import de.embl.cba.morphometry.regions.Regions;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.labeling.ConnectedComponents;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Tracks the objects of a time series of masks by solving the linking of consecutive frames
+ * as a linear assignment problem, followed by a second assignment that closes gaps of
+ * frames in which an object was missed (following Jaqaman et al., Nat Methods 2008).
+ *
+ * Link candidates are objects whose centroids are within the maximal linking distance
+ * (found via a grid over the centroids) or which overlap, such that the cost matrix stays sparse.
+ * The costs combine the squared centroid distance and the overlap.
+ *
+ * The resulting labelings contain the track id of each object.
+ */
+public class LinearAssignmentTracker< T extends RealType< T > & NativeType< T > >
+{
+	final ArrayList< RandomAccessibleInterval< T > > masks;
+	final LinearAssignmentTrackerSettings settings;
+
+	private ArrayList< FrameObjects > frames;
+	private ArrayList< int[] > segmentIds; // per frame: object label -> track segment
+	private Segments segments;
+	private ArrayList< RandomAccessibleInterval< IntType > > labelings;
+	private int numTracks;
+	private LineageGraph lineage;
+
+	public LinearAssignmentTracker(
+			ArrayList< RandomAccessibleInterval< T > > masks,
+			LinearAssignmentTrackerSettings settings )
+	{
+		this.masks = masks;
+		this.settings = settings;
+	}
+
+	public void run()
+	{
+		frames = new ArrayList<>();
+		for ( RandomAccessibleInterval< T > mask : masks )
+			frames.add( new FrameObjects(
+					Regions.asImgLabeling( mask, ConnectedComponents.StructuringElement.FOUR_CONNECTED ).getIndexImg() ) );
+
+		createSegments();
+
+		if ( settings.maxGapFrames > 0 ) closeGaps();
+
+		createTrackLabelings();
+
+		frames = null;
+	}
+
+	public ArrayList< RandomAccessibleInterval< IntType > > getLabelings()
+	{
+		return labelings;
+	}
+
+	public int getNumTracks()
+	{
+		return numTracks;
+	}
+
+	/**
+	 * @return the lineage of the tracked objects; links across closed gaps connect non-consecutive frames.
+	 */
+	public LineageGraph getLineage()
+	{
+		return lineage;
+	}
+
+	private void createSegments()
+	{
+		segments = new Segments();
+		segmentIds = new ArrayList<>();
+
+		final FrameObjects firstFrame = frames.get( 0 );
+		final int[] firstSegmentIds = new int[ firstFrame.numObjects + 1 ];
+		for ( int label = 1; label <= firstFrame.numObjects; ++label )
+			firstSegmentIds[ label ] = segments.add( 0, label );
+		segmentIds.add( firstSegmentIds );
+
+		for ( int t = 1; t < frames.size(); ++t )
+		{
+			final int[] previousLabels = link( frames.get( t - 1 ), frames.get( t ) );
+			final int[] previousSegmentIds = segmentIds.get( t - 1 );
+			final int[] currentSegmentIds = new int[ previousLabels.length ];
+
+			for ( int label = 1; label < previousLabels.length; ++label )
+			{
+				if ( previousLabels[ label ] > 0 )
+				{
+					currentSegmentIds[ label ] = previousSegmentIds[ previousLabels[ label ] ];
+					segments.extend( currentSegmentIds[ label ], t, label );
+				}
+				else
+				{
+					currentSegmentIds[ label ] = segments.add( t, label );
+				}
+			}
+
+			segmentIds.add( currentSegmentIds );
+		}
+	}
+
+	/**
+	 * @return for each label of the current frame the linked label of the previous frame, or 0.
+	 */
+	private int[] link( FrameObjects previous, FrameObjects current )
+	{
+		final int numDimensions = current.numDimensions;
+		final double maxDistance = settings.maxLinkingDistance;
+		final double maxSquaredDistance = maxDistance * maxDistance;
+
+		final OverlapMatrix overlapMatrix = new OverlapMatrix( current.labeling, previous.labeling );
+		final CentroidGrid grid = new CentroidGrid( previous.centroids, previous.numObjects, numDimensions, maxDistance );
+
+		final Edges edges = new Edges();
+
+		for ( int label = 1; label <= current.numObjects; ++label )
+		{
+			final int currentLabel = label;
+
+			grid.forEachWithinRadius( current.centroids, ( currentLabel - 1 ) * numDimensions,
+					( point, squaredDistance ) ->
+							edges.add( point, currentLabel - 1,
+									getLinkingCost( overlapMatrix, currentLabel, point + 1, squaredDistance ) ) );
+
+			// overlapping objects are candidates even if their centroids are further apart
+			for ( int previousLabel : overlapMatrix.getOverlappingLabels( currentLabel ) )
+			{
+				final double squaredDistance = squaredDistance(
+						previous.centroids, previousLabel, current.centroids, currentLabel, numDimensions );
+
+				if ( squaredDistance > maxSquaredDistance )
+					edges.add( previousLabel - 1, currentLabel - 1,
+							getLinkingCost( overlapMatrix, currentLabel, previousLabel, squaredDistance ) );
+			}
+		}
+
+		final double alternativeCost = settings.alternativeCostFactor * ( 1.0 + settings.overlapWeight ) / 2;
+
+		final SparseLinearAssignment assignment = new SparseLinearAssignment(
+				previous.numObjects,
+				current.numObjects,
+				edges.rows, edges.columns, edges.costs, edges.size,
+				alternativeCost,
+				alternativeCost );
+		assignment.run();
+
+		final int[] columnAssignments = assignment.getColumnAssignments();
+		final int[] previousLabels = new int[ current.numObjects + 1 ];
+		for ( int label = 1; label <= current.numObjects; ++label )
+			previousLabels[ label ] = columnAssignments[ label - 1 ] + 1;
+
+		return previousLabels;
+	}
+
+	/**
+	 * @return the normalised squared centroid distance (at most 1) plus the weighted
+	 * 			Jaccard distance of the two objects.
+	 */
+	private double getLinkingCost(
+			OverlapMatrix overlapMatrix,
+			int currentLabel,
+			int previousLabel,
+			double squaredDistance )
+	{
+		final double maxDistance = settings.maxLinkingDistance;
+		final double distanceCost = Math.min( squaredDistance / ( maxDistance * maxDistance ), 1.0 );
+
+		final long overlap = overlapMatrix.getOverlap( currentLabel, previousLabel );
+		final long union = overlapMatrix.getCurrentSize( currentLabel )
+				+ overlapMatrix.getPreviousSize( previousLabel ) - overlap;
+
+		return distanceCost + settings.overlapWeight * ( 1.0 - 1.0 * overlap / union );
+	}
+
+	/**
+	 * Links the ends of track segments to the starts of segments that begin
+	 * up to maxGapFrames + 1 frames later.
+	 */
+	private void closeGaps()
+	{
+		final int numFrames = frames.size();
+		final int maxGap = settings.maxGapFrames;
+		final double maxDistance = settings.maxGapClosingDistance;
+		final int numDimensions = frames.get( 0 ).numDimensions;
+
+		// segment starts, grouped by frame
+		final int[] numStarts = new int[ numFrames + 1 ];
+		for ( int s = 0; s < segments.size; ++s )
+			numStarts[ segments.startFrames[ s ] + 1 ]++;
+		final int[] startOffsets = new int[ numFrames + 1 ];
+		for ( int t = 0; t < numFrames; ++t )
+			startOffsets[ t + 1 ] = startOffsets[ t ] + numStarts[ t + 1 ];
+
+		final int[] starts = new int[ segments.size ];
+		final int[] fill = Arrays.copyOf( startOffsets, numFrames );
+		for ( int s = 0; s < segments.size; ++s )
+			starts[ fill[ segments.startFrames[ s ] ]++ ] = s;
+
+		final CentroidGrid[] startGrids = new CentroidGrid[ numFrames ];
+		for ( int t = 2; t < numFrames; ++t )
+		{
+			final int numStartsInFrame = startOffsets[ t + 1 ] - startOffsets[ t ];
+			if ( numStartsInFrame == 0 ) continue;
+
+			final double[] positions = new double[ numStartsInFrame * numDimensions ];
+			for ( int i = 0; i < numStartsInFrame; ++i )
+			{
+				final int label = segments.startLabels[ starts[ startOffsets[ t ] + i ] ];
+				System.arraycopy( frames.get( t ).centroids, ( label - 1 ) * numDimensions,
+						positions, i * numDimensions, numDimensions );
+			}
+
+			startGrids[ t ] = new CentroidGrid( positions, numStartsInFrame, numDimensions, maxDistance );
+		}
+
+		// segment ends, as rows of the assignment; the columns are the starts
+		final int[] ends = new int[ segments.size ];
+		int numEnds = 0;
+		for ( int s = 0; s < segments.size; ++s )
+			if ( segments.endFrames[ s ] + 2 < numFrames )
+				ends[ numEnds++ ] = s;
+
+		final Edges edges = new Edges();
+
+		for ( int row = 0; row < numEnds; ++row )
+		{
+			final int endFrame = segments.endFrames[ ends[ row ] ];
+			final int endLabel = segments.endLabels[ ends[ row ] ];
+			final int endRow = row;
+
+			for ( int t = endFrame + 2; t <= Math.min( endFrame + 1 + maxGap, numFrames - 1 ); ++t )
+			{
+				if ( startGrids[ t ] == null ) continue;
+
+				final int offset = startOffsets[ t ];
+				final double gapCost = ( t - endFrame - 2.0 ) / maxGap;
+
+				startGrids[ t ].forEachWithinRadius(
+						frames.get( endFrame ).centroids, ( endLabel - 1 ) * numDimensions,
+						( point, squaredDistance ) ->
+								edges.add( endRow, offset + point,
+										squaredDistance / ( maxDistance * maxDistance ) + gapCost ) );
+			}
+		}
+
+		// the costs are at most 2
+		final double alternativeCost = settings.alternativeCostFactor;
+
+		final SparseLinearAssignment assignment = new SparseLinearAssignment(
+				numEnds,
+				segments.size,
+				edges.rows, edges.columns, edges.costs, edges.size,
+				alternativeCost,
+				alternativeCost );
+		assignment.run();
+
+		final int[] rowAssignments = assignment.getRowAssignments();
+		for ( int row = 0; row < numEnds; ++row )
+			if ( rowAssignments[ row ] >= 0 )
+				segments.successors[ ends[ row ] ] = starts[ rowAssignments[ row ] ];
+	}
+
+	private void createTrackLabelings()
+	{
+		// segments are created in the order of their start frames, thus predecessors come first
+		final int[] trackIds = new int[ segments.size ];
+		numTracks = 0;
+		for ( int s = 0; s < segments.size; ++s )
+		{
+			if ( trackIds[ s ] == 0 ) trackIds[ s ] = ++numTracks;
+			if ( segments.successors[ s ] >= 0 ) trackIds[ segments.successors[ s ] ] = trackIds[ s ];
+		}
+
+		labelings = new ArrayList<>();
+		lineage = new LineageGraph();
+
+		for ( int t = 0; t < frames.size(); ++t )
+		{
+			final int[] frameSegmentIds = segmentIds.get( t );
+			final int[] lut = new int[ frameSegmentIds.length ];
+			for ( int label = 1; label < lut.length; ++label )
+			{
+				lut[ label ] = trackIds[ frameSegmentIds[ label ] ];
+				addToLineage( t, lut[ label ], frames.get( t ).sizes[ label - 1 ] );
+			}
+
+			final RandomAccessibleInterval< IntType > objectLabeling = frames.get( t ).labeling;
+			final RandomAccessibleInterval< IntType > trackLabeling =
+					ArrayImgs.ints( Intervals.dimensionsAsLongArray( objectLabeling ) );
+
+			final Cursor< IntType > objectCursor = Views.flatIterable( objectLabeling ).cursor();
+			final Cursor< IntType > trackCursor = Views.flatIterable( trackLabeling ).cursor();
+			while ( objectCursor.hasNext() )
+				trackCursor.next().set( lut[ objectCursor.next().get() ] );
+
+			labelings.add( trackLabeling );
+		}
+	}
+
+	private void addToLineage( int t, int trackId, long size )
+	{
+		final int previousNode = lineage.getTrackLastNode( trackId );
+		final int node = lineage.addNode( t, trackId, size );
+		if ( previousNode >= 0 ) lineage.addEdge( previousNode, node, LineageGraph.LINK );
+	}
+
+	private static double squaredDistance( double[] positionsA, int labelA, double[] positionsB, int labelB, int numDimensions )
+	{
+		double squaredDistance = 0;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			final double delta = positionsA[ ( labelA - 1 ) * numDimensions + d ]
+					- positionsB[ ( labelB - 1 ) * numDimensions + d ];
+			squaredDistance += delta * delta;
+		}
+		return squaredDistance;
+	}
+
+	/**
+	 * Centroids of the objects of one frame, computed in one sweep over the labeling.
+	 */
+	private static class FrameObjects
+	{
+		final RandomAccessibleInterval< IntType > labeling;
+		final int numDimensions;
+		int numObjects;
+		double[] centroids; // numDimensions values per object, starting with label 1
+		long[] sizes; // starting with label 1
+
+		FrameObjects( RandomAccessibleInterval< IntType > labeling )
+		{
+			this.labeling = labeling;
+			this.numDimensions = labeling.numDimensions();
+
+			double[] sums = new double[ 16 * numDimensions ];
+			long[] sizes = new long[ 16 ];
+
+			final Cursor< IntType > cursor = Views.iterable( labeling ).localizingCursor();
+			while ( cursor.hasNext() )
+			{
+				final int label = cursor.next().get();
+				if ( label <= 0 ) continue;
+
+				if ( label > sizes.length )
+				{
+					final int length = Math.max( label, 2 * sizes.length );
+					sizes = Arrays.copyOf( sizes, length );
+					sums = Arrays.copyOf( sums, length * numDimensions );
+				}
+
+				sizes[ label - 1 ]++;
+				for ( int d = 0; d < numDimensions; ++d )
+					sums[ ( label - 1 ) * numDimensions + d ] += cursor.getDoublePosition( d );
+
+				numObjects = Math.max( numObjects, label );
+			}
+
+			this.sizes = Arrays.copyOf( sizes, numObjects );
+
+			centroids = new double[ numObjects * numDimensions ];
+			for ( int i = 0; i < numObjects * numDimensions; ++i )
+				centroids[ i ] = sums[ i ] / sizes[ i / numDimensions ];
+		}
+	}
+
+	/**
+	 * Track segments, i.e. objects linked from frame to frame without gaps.
+	 */
+	private static class Segments
+	{
+		int size;
+		int[] startFrames = new int[ 64 ];
+		int[] startLabels = new int[ 64 ];
+		int[] endFrames = new int[ 64 ];
+		int[] endLabels = new int[ 64 ];
+		int[] successors = new int[ 64 ]; // segment continuing after a gap, or -1
+
+		int add( int frame, int label )
+		{
+			if ( size == startFrames.length )
+			{
+				final int length = 2 * size;
+				startFrames = Arrays.copyOf( startFrames, length );
+				startLabels = Arrays.copyOf( startLabels, length );
+				endFrames = Arrays.copyOf( endFrames, length );
+				endLabels = Arrays.copyOf( endLabels, length );
+				successors = Arrays.copyOf( successors, length );
+			}
+
+			startFrames[ size ] = frame;
+			startLabels[ size ] = label;
+			endFrames[ size ] = frame;
+			endLabels[ size ] = label;
+			successors[ size ] = -1;
+
+			return size++;
+		}
+
+		void extend( int segment, int frame, int label )
+		{
+			endFrames[ segment ] = frame;
+			endLabels[ segment ] = label;
+		}
+	}
+
+	/**
+	 * Candidate links of an assignment problem.
+	 */
+	private static class Edges
+	{
+		int size;
+		int[] rows = new int[ 1024 ];
+		int[] columns = new int[ 1024 ];
+		double[] costs = new double[ 1024 ];
+
+		void add( int row, int column, double cost )
+		{
+			if ( size == rows.length )
+			{
+				rows = Arrays.copyOf( rows, 2 * size );
+				columns = Arrays.copyOf( columns, 2 * size );
+				costs = Arrays.copyOf( costs, 2 * size );
+			}
+
+			rows[ size ] = row;
+			columns[ size ] = column;
+			costs[ size ] = cost;
+			size++;
+		}
+	}
+}
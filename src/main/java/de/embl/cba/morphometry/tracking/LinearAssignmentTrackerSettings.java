@@ -0,0 +1,32 @@
+package de.embl.cba.morphometry.tracking;
+
+public class LinearAssignmentTrackerSettings
+{
+	// all spatial values are in pixels
+
+	/**
+	 * Objects of consecutive frames are only linked if their centroids are closer
+	 * than this distance, or if they overlap.
+	 */
+	public double maxLinkingDistance = 10.0;
+
+	/**
+	 * Weight of the overlap (one minus the Jaccard index) relative to the
+	 * normalised squared centroid distance in the linking costs.
+	 */
+	public double overlapWeight = 1.0;
+
+	/**
+	 * Track segments are joined across up to this number of frames in which the object was missed.
+	 * Zero disables gap closing.
+	 */
+	public int maxGapFrames = 2;
+
+	public double maxGapClosingDistance = 15.0;
+
+	/**
+	 * Cost of not linking an object, relative to the maximal cost of a link.
+	 * Values above 1 mean that every link candidate is preferred over not linking.
+	 */
+	public double alternativeCostFactor = 1.05;
+}
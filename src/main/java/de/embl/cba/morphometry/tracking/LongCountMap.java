@@ -0,0 +1,163 @@
+package de.embl.cba.morphometry.tracking;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing (linear probing) hash map from non-negative long keys to long counts,
+ * without boxing.
+ */
+public class LongCountMap
+{
+	private static final long EMPTY = -1L;
+	private static final double MAX_LOAD = 0.5;
+
+	private long[] keys;
+	private long[] counts;
+	private int mask;
+	private int size;
+
+	public LongCountMap()
+	{
+		this( 64 );
+	}
+
+	public LongCountMap( int expectedSize )
+	{
+		int capacity = 16;
+		while ( capacity * MAX_LOAD < expectedSize ) capacity <<= 1;
+		allocate( capacity );
+	}
+
+	public static long key( int high, int low )
+	{
+		return ( ( long ) high << 32 ) | ( low & 0xFFFFFFFFL );
+	}
+
+	public static int high( long key )
+	{
+		return ( int ) ( key >>> 32 );
+	}
+
+	public static int low( long key )
+	{
+		return ( int ) key;
+	}
+
+	public void increment( long key )
+	{
+		add( key, 1 );
+	}
+
+	public void add( long key, long count )
+	{
+		if ( key < 0 )
+			throw new IllegalArgumentException( "Keys must not be negative: " + key );
+
+		int slot = slot( key );
+		while ( keys[ slot ] != EMPTY )
+		{
+			if ( keys[ slot ] == key )
+			{
+				counts[ slot ] += count;
+				return;
+			}
+			slot = ( slot + 1 ) & mask;
+		}
+
+		keys[ slot ] = key;
+		counts[ slot ] = count;
+
+		if ( ++size > MAX_LOAD * keys.length ) rehash( keys.length << 1 );
+	}
+
+	/**
+	 * @return the count of the key, or 0 if the key is not in the map.
+	 */
+	public long get( long key )
+	{
+		int slot = slot( key );
+		while ( keys[ slot ] != EMPTY )
+		{
+			if ( keys[ slot ] == key ) return counts[ slot ];
+			slot = ( slot + 1 ) & mask;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the count of the removed key, or 0 if the key was not in the map.
+	 */
+	public long remove( long key )
+	{
+		int slot = slot( key );
+		while ( keys[ slot ] != key )
+		{
+			if ( keys[ slot ] == EMPTY ) return 0;
+			slot = ( slot + 1 ) & mask;
+		}
+
+		final long count = counts[ slot ];
+
+		// moves the following keys of the probe sequence into the gap, such that they remain reachable
+		int gap = slot;
+		for ( int next = ( gap + 1 ) & mask; keys[ next ] != EMPTY; next = ( next + 1 ) & mask )
+		{
+			final int home = slot( keys[ next ] );
+			if ( ( ( next - home ) & mask ) >= ( ( next - gap ) & mask ) )
+			{
+				keys[ gap ] = keys[ next ];
+				counts[ gap ] = counts[ next ];
+				gap = next;
+			}
+		}
+
+		keys[ gap ] = EMPTY;
+		size--;
+
+		return count;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return all keys, in ascending order.
+	 */
+	public long[] getSortedKeys()
+	{
+		final long[] sortedKeys = new long[ size ];
+		int i = 0;
+		for ( long key : keys )
+			if ( key != EMPTY ) sortedKeys[ i++ ] = key;
+		Arrays.sort( sortedKeys );
+		return sortedKeys;
+	}
+
+	private int slot( long key )
+	{
+		final long hash = key * 0x9E3779B97F4A7C15L;
+		return ( int ) ( hash ^ ( hash >>> 32 ) ) & mask;
+	}
+
+	private void allocate( int capacity )
+	{
+		keys = new long[ capacity ];
+		counts = new long[ capacity ];
+		Arrays.fill( keys, EMPTY );
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	private void rehash( int capacity )
+	{
+		final long[] oldKeys = keys;
+		final long[] oldCounts = counts;
+
+		allocate( capacity );
+
+		for ( int i = 0; i < oldKeys.length; ++i )
+			if ( oldKeys[ i ] != EMPTY ) add( oldKeys[ i ], oldCounts[ i ] );
+	}
+}
@@ -1,9 +1,11 @@
 package de.embl.cba.morphometry.tracking;
 
-import de.embl.cba.morphometry.Utils;
 import de.embl.cba.morphometry.regions.Regions;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.labeling.ConnectedComponents;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.roi.labeling.LabelRegion;
+import net.imglib2.roi.labeling.LabelRegions;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
@@ -19,6 +21,10 @@ public class MaximalOverlapTracker< T extends RealType< T > & NativeType< T > >
 
 	private ArrayList< RandomAccessibleInterval< IntType > > labelings;
 
+	private ArrayList< LabelSizeIndex > labelSizeIndices;
+
+	private LineageGraph lineage;
+
 	public MaximalOverlapTracker( ArrayList< RandomAccessibleInterval< T > > masks )
 	{
 		this.masks = masks;
@@ -31,20 +37,26 @@ public class MaximalOverlapTracker< T extends RealType< T > & NativeType< T > >
 
 		int t = tMin;
 
-		maxIndex = Utils.getNumObjects( masks.get( t ) );
+		initLabelings( masks.get( tMin ) );
+
+		lineage = new LineageGraph();
+		lineage.addFrame( tMin, labelSizeIndices.get( tMin ) );
 
-		RandomAccessibleInterval< IntType > previousLabeling = Regions.asImgLabeling( masks.get( tMin ), ConnectedComponents.StructuringElement.FOUR_CONNECTED ).getSource();
+		maxIndex = labelSizeIndices.get( tMin ).getMaxLabel();
 
-		labelings = initLabelings( masks.get( tMin )  );
+		RandomAccessibleInterval< IntType > previousLabeling = labelings.get( tMin );
 
 		for ( t = tMin + 1; t <= tMax; ++t )
 		{
 			final LabelingAndMaxIndex labelingAndMaxIndex = TrackingUtils.getMaximalOverlapBasedLabeling(
 					previousLabeling,
 					masks.get( t ),
-					maxIndex );
+					maxIndex,
+					lineage,
+					t );
 
 			labelings.add( labelingAndMaxIndex.labeling );
+			labelSizeIndices.add( labelingAndMaxIndex.labelSizeIndex );
 			maxIndex = labelingAndMaxIndex.maxIndex;
 			previousLabeling = labelingAndMaxIndex.labeling;
 		}
@@ -57,11 +69,36 @@ public class MaximalOverlapTracker< T extends RealType< T > & NativeType< T > >
 	}
 
 
-	public ArrayList< RandomAccessibleInterval< IntType > > initLabelings( RandomAccessibleInterval< T > mask )
+	/**
+	 * @return the size index of each labeling, in the same order as {@link #getLabelings()}.
+	 */
+	public ArrayList< LabelSizeIndex > getLabelSizeIndices()
+	{
+		return labelSizeIndices;
+	}
+
+	/**
+	 * @return the lineage of the tracked objects, which is filled while linking.
+	 */
+	public LineageGraph getLineage()
+	{
+		return lineage;
+	}
+
+	public void initLabelings( RandomAccessibleInterval< T > mask )
 	{
-		final ArrayList< RandomAccessibleInterval< IntType > > updatedLabelings = new ArrayList<>();
-		updatedLabelings.add( Regions.asImgLabeling( mask, ConnectedComponents.StructuringElement.FOUR_CONNECTED ).getIndexImg() );
-		return updatedLabelings;
+		final ImgLabeling< Integer, IntType > imgLabeling =
+				Regions.asImgLabeling( mask, ConnectedComponents.StructuringElement.FOUR_CONNECTED );
+
+		final LabelSizeIndex labelSizeIndex = new LabelSizeIndex( mask.numDimensions() );
+		for ( LabelRegion< Integer > region : new LabelRegions<>( imgLabeling ) )
+			labelSizeIndex.add( region.getLabel(), region );
+
+		labelings = new ArrayList<>();
+		labelings.add( imgLabeling.getIndexImg() );
+
+		labelSizeIndices = new ArrayList<>();
+		labelSizeIndices.add( labelSizeIndex );
 	}
 
 }
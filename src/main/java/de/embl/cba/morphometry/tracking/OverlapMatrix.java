@@ -0,0 +1,226 @@
+package de.embl.cba.morphometry.tracking;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.roi.labeling.LabelingMapping;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Sparse matrix of the number of overlapping pixels of the objects of two label images,
+ * e.g. of two consecutive time points, computed in one lock-step pass over both images.
+ *
+ * Rows are the labels of the current label image, columns the labels of the previous one.
+ * The background (label 0) of either image is not counted as overlap.
+ *
+ * The pixel values of the label images are the labels. For an ImgLabeling, whose index image
+ * contains indices into its label sets, use {@link #OverlapMatrix(ImgLabeling, RandomAccessibleInterval)},
+ * such that the rows are the labels of its LabelRegions.
+ */
+public class OverlapMatrix
+{
+	private static final int[] NO_LABELS = new int[ 0 ];
+
+	private int[] rowStarts; // index: current label
+	private int[] previousLabels; // ascending within each row
+	private long[] overlaps;
+	private long[] currentSizes;
+	private long[] previousSizes;
+
+	/**
+	 * The label images may be of any real type, e.g. FloatType if they were read from saved label masks.
+	 */
+	public < C extends RealType< C >, P extends RealType< P > > OverlapMatrix(
+			RandomAccessibleInterval< C > currentLabeling,
+			RandomAccessibleInterval< P > previousLabeling )
+	{
+		this( currentLabeling, null, previousLabeling );
+	}
+
+	/**
+	 * @param currentLabeling
+	 * 			each pixel may have at most one label, which must be positive.
+	 */
+	public < I extends IntegerType< I >, P extends RealType< P > > OverlapMatrix(
+			ImgLabeling< Integer, I > currentLabeling,
+			RandomAccessibleInterval< P > previousLabeling )
+	{
+		this( currentLabeling.getIndexImg(), getLabelsOfIndices( currentLabeling.getMapping() ), previousLabeling );
+	}
+
+	/**
+	 * @param labelsOfIndices
+	 * 			the labels of the pixel values of the current labeling, or null if the values are the labels.
+	 */
+	private < C extends RealType< C >, P extends RealType< P > > OverlapMatrix(
+			RandomAccessibleInterval< C > currentLabeling,
+			int[] labelsOfIndices,
+			RandomAccessibleInterval< P > previousLabeling )
+	{
+		final LongCountMap counts = new LongCountMap();
+		currentSizes = new long[ 16 ];
+		previousSizes = new long[ 16 ];
+
+		final Cursor< C > currentCursor = Views.flatIterable( currentLabeling ).cursor();
+		final Cursor< P > previousCursor =
+				Views.flatIterable( Views.interval( previousLabeling, currentLabeling ) ).cursor();
+
+		while ( currentCursor.hasNext() )
+		{
+			final int value = ( int ) currentCursor.next().getRealDouble();
+			final int current = labelsOfIndices == null ? value : labelsOfIndices[ value ];
+			final int previous = ( int ) previousCursor.next().getRealDouble();
+
+			if ( current > 0 )
+			{
+				if ( current >= currentSizes.length ) currentSizes = grow( currentSizes, current );
+				currentSizes[ current ]++;
+			}
+
+			if ( previous > 0 )
+			{
+				if ( previous >= previousSizes.length ) previousSizes = grow( previousSizes, previous );
+				previousSizes[ previous ]++;
+
+				if ( current > 0 ) counts.increment( LongCountMap.key( current, previous ) );
+			}
+		}
+
+		compress( counts );
+	}
+
+	private static int[] getLabelsOfIndices( LabelingMapping< Integer > mapping )
+	{
+		final int[] labels = new int[ mapping.numSets() ];
+
+		for ( int index = 0; index < labels.length; ++index )
+		{
+			final Set< Integer > labelSet = mapping.labelsAtIndex( index );
+
+			if ( labelSet.size() > 1 )
+				throw new IllegalArgumentException( "Overlap matrix needs at most one label per pixel: " + labelSet );
+
+			if ( labelSet.size() == 1 )
+			{
+				labels[ index ] = labelSet.iterator().next();
+				if ( labels[ index ] <= 0 )
+					throw new IllegalArgumentException( "Overlap matrix needs positive labels: " + labels[ index ] );
+			}
+		}
+
+		return labels;
+	}
+
+	/**
+	 * Stores the counts row by row, such that each row can be read without hashing.
+	 */
+	private void compress( LongCountMap counts )
+	{
+		final long[] keys = counts.getSortedKeys();
+
+		rowStarts = new int[ currentSizes.length + 1 ];
+		previousLabels = new int[ keys.length ];
+		overlaps = new long[ keys.length ];
+
+		for ( int i = 0; i < keys.length; ++i )
+		{
+			previousLabels[ i ] = LongCountMap.low( keys[ i ] );
+			overlaps[ i ] = counts.get( keys[ i ] );
+			rowStarts[ LongCountMap.high( keys[ i ] ) + 1 ]++;
+		}
+
+		for ( int row = 0; row < currentSizes.length; ++row )
+			rowStarts[ row + 1 ] += rowStarts[ row ];
+	}
+
+	/**
+	 * @return the labels of the previous objects that overlap with the current object, in ascending order.
+	 */
+	public int[] getOverlappingLabels( int currentLabel )
+	{
+		if ( ! isRow( currentLabel ) ) return NO_LABELS;
+		return Arrays.copyOfRange( previousLabels, rowStarts[ currentLabel ], rowStarts[ currentLabel + 1 ] );
+	}
+
+	public int getNumOverlappingLabels( int currentLabel )
+	{
+		if ( ! isRow( currentLabel ) ) return 0;
+		return rowStarts[ currentLabel + 1 ] - rowStarts[ currentLabel ];
+	}
+
+	public long getOverlap( int currentLabel, int previousLabel )
+	{
+		if ( ! isRow( currentLabel ) ) return 0;
+
+		final int i = Arrays.binarySearch(
+				previousLabels, rowStarts[ currentLabel ], rowStarts[ currentLabel + 1 ], previousLabel );
+
+		return i >= 0 ? overlaps[ i ] : 0;
+	}
+
+	/**
+	 * @return the label of the previous object with the largest overlap
+	 * (the smallest label in case of ties), or 0 if there is no overlap.
+	 */
+	public int getMaxOverlapLabel( int currentLabel )
+	{
+		if ( ! isRow( currentLabel ) ) return 0;
+
+		int maxOverlapLabel = 0;
+		long maxOverlap = 0;
+
+		for ( int i = rowStarts[ currentLabel ]; i < rowStarts[ currentLabel + 1 ]; ++i )
+		{
+			if ( overlaps[ i ] > maxOverlap )
+			{
+				maxOverlap = overlaps[ i ];
+				maxOverlapLabel = previousLabels[ i ];
+			}
+		}
+
+		return maxOverlapLabel;
+	}
+
+	/**
+	 * @return the overlap divided by the size of the current object.
+	 */
+	public double getCurrentOverlapFraction( int currentLabel, int previousLabel )
+	{
+		final long size = getCurrentSize( currentLabel );
+		return size == 0 ? 0 : 1.0 * getOverlap( currentLabel, previousLabel ) / size;
+	}
+
+	/**
+	 * @return the overlap divided by the size of the previous object.
+	 */
+	public double getPreviousOverlapFraction( int currentLabel, int previousLabel )
+	{
+		final long size = getPreviousSize( previousLabel );
+		return size == 0 ? 0 : 1.0 * getOverlap( currentLabel, previousLabel ) / size;
+	}
+
+	public long getCurrentSize( int currentLabel )
+	{
+		return currentLabel > 0 && currentLabel < currentSizes.length ? currentSizes[ currentLabel ] : 0;
+	}
+
+	public long getPreviousSize( int previousLabel )
+	{
+		return previousLabel > 0 && previousLabel < previousSizes.length ? previousSizes[ previousLabel ] : 0;
+	}
+
+	private boolean isRow( int currentLabel )
+	{
+		return currentLabel > 0 && currentLabel < currentSizes.length;
+	}
+
+	private static long[] grow( long[] array, int index )
+	{
+		return Arrays.copyOf( array, Math.max( index + 1, 2 * array.length ) );
+	}
+}
@@ -2,59 +2,94 @@ package de.embl.cba.morphometry.tracking;
 
 import de.embl.cba.morphometry.Algorithms;
 import de.embl.cba.morphometry.Constants;
+import de.embl.cba.morphometry.FrameSource;
 import de.embl.cba.morphometry.Logger;
+import de.embl.cba.morphometry.MovieWriter;
 import de.embl.cba.morphometry.Utils;
-import de.embl.cba.morphometry.measurements.Measurements;
+import de.embl.cba.morphometry.measurements.BackgroundCorrectedIntensities;
 import de.embl.cba.morphometry.microglia.MicrogliaSettings;
 import de.embl.cba.morphometry.regions.Regions;
 import de.embl.cba.morphometry.splitting.ShapeAndIntensitySplitter;
 import ij.IJ;
 import ij.ImagePlus;
-import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.labeling.ConnectedComponents;
 import net.imglib2.roi.labeling.ImgLabeling;
 import net.imglib2.roi.labeling.LabelRegion;
-import net.imglib2.roi.labeling.LabelRegionCursor;
 import net.imglib2.roi.labeling.LabelRegions;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.logic.BitType;
-import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
 
 import java.awt.*;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 public class SemiAutomatedTrackingSplitter< T extends RealType< T > & NativeType< T > >
 {
 
-	final ArrayList< RandomAccessibleInterval< BitType > > masks;
-	final ArrayList< RandomAccessibleInterval< T > > intensities;
+	final FrameSource< BitType > masks;
+	final FrameSource< T > intensities;
 	private Integer maxIndex;
 	private ArrayList< RandomAccessibleInterval< IntType > > labelings;
+	private ArrayList< LabelSizeIndex > labelSizeIndices;
 	final MicrogliaSettings settings;
-	private final ImagePlus intensitiesImp;
+	private ImagePlus intensitiesImp;
+	private MovieWriter labelingsWriter;
 	private long minimalObjectSizeInPixels;
 	private static Point intensitiesImpLocation;
 	private TrackingSplitterManualCorrectionUI trackingSplitterManualCorrectionUI;
+	private IncrementalMaximalOverlapTracker correctionTracker;
 	private RandomAccessibleInterval< IntType > previousLabeling;
+	private SplitMaskSpeculation speculation;
+	private FrameBuffer< BitType > maskBuffer;
+	private final LineageGraph lineage;
+	private final BackgroundCorrectedIntensities.Cache bgCorrectedIntensities;
 
 	public SemiAutomatedTrackingSplitter(
 			ArrayList< RandomAccessibleInterval< BitType > > masks,
 			ArrayList< RandomAccessibleInterval< T > > intensities,
 			MicrogliaSettings settings )
+	{
+		this( FrameSource.of( masks ), FrameSource.of( intensities ), settings );
+	}
+
+	/**
+	 * @param masks
+	 * 			the masks are requested in ascending frame order,
+	 * 			such that they can be computed while the tracking proceeds
+	 * @param intensities
+	 * 			the intensities may be loaded lazily; all frames are only
+	 * 			requested at once for showing them during the manual correction
+	 */
+	public SemiAutomatedTrackingSplitter(
+			FrameSource< BitType > masks,
+			FrameSource< T > intensities,
+			MicrogliaSettings settings )
 	{
 		this.masks = masks;
 		this.intensities = intensities;
 		this.settings = settings;
 
-		setMinimalObjectSize( settings, masks.get( 0 ).numDimensions() );
+		setMinimalObjectSize( settings, intensities.getFrame( 0 ).numDimensions() );
 
 		this.labelings = new ArrayList();
-		this.intensitiesImp =
-				Utils.getAsImagePlusMovie( intensities, Constants.INTENSITIES );
+		this.labelSizeIndices = new ArrayList<>();
+		this.lineage = new LineageGraph();
+		this.bgCorrectedIntensities = new BackgroundCorrectedIntensities.Cache();
+	}
+
+	/**
+	 * Without manual correction, each labeling is written as soon as it is final,
+	 * and only the labeling of the previous frame is kept in memory;
+	 * the labelings of the other frames are null in {@link #getLabelings()}.
+	 * With manual correction all labelings are kept, because all of them can be edited.
+	 */
+	public void setLabelingsWriter( MovieWriter labelingsWriter )
+	{
+		this.labelingsWriter = labelingsWriter;
 	}
 
 	public void setMinimalObjectSize( MicrogliaSettings settings, int numDimensions )
@@ -68,12 +103,48 @@ public class SemiAutomatedTrackingSplitter< T extends RealType< T > & NativeType
 	{
 
 		int tMin = labelings == null ? 0 : labelings.size();
-		int tMax = masks.size() - 1;
+		int tMax = masks.numFrames() - 1;
+
+		final boolean isStreaming = labelingsWriter != null && ! settings.manualSegmentationCorrection;
+
+		addLineageOfLabelings( tMin );
+
+		if ( isStreaming )
+		{
+			for ( int t = 0; t < tMin; ++t )
+				writeLabeling( t );
+		}
 
+		maskBuffer = new FrameBuffer<>( masks, tMin, getNumBufferedMasks( settings ) );
+
+		if ( settings.manualSegmentationCorrection && settings.numSpeculativeFrames > 0 )
+		{
+			speculation = new SplitMaskSpeculation(
+					this::splitCurrentMaskBasedOnPreviousLabeling,
+					masks.numFrames(),
+					settings.numSpeculativeFrames );
+		}
+
+		try
+		{
+			track( tMin, tMax, isStreaming );
+		}
+		finally
+		{
+			if ( speculation != null ) speculation.stop();
+			speculation = null;
+			maskBuffer.releaseFramesBefore( masks.numFrames() );
+		}
+	}
+
+	private void track( int tMin, int tMax, boolean isStreaming )
+	{
 		for ( int t = tMin; t <= tMax; ++t )
 		{
 			Logger.log( "Processing frame " + ( t + 1 ) );
 
+			maskBuffer.releaseFramesBefore( t );
+
 			if ( t == 0 )
 			{
 				final RandomAccessibleInterval splitMask = getSplitMask( t );
@@ -83,33 +154,54 @@ public class SemiAutomatedTrackingSplitter< T extends RealType< T > & NativeType
 						ConnectedComponents.StructuringElement.FOUR_CONNECTED );
 
 				labelings.add( imgLabeling.getIndexImg() );
+				setLabelSizeIndex( t, LabelSizeIndex.of( imgLabeling.getIndexImg() ) );
+				lineage.addFrame( t, getLabelSizeIndex( t ) );
 			}
 			else
 			{
 
 				previousLabeling = labelings.get( t - 1  );
-				maxIndex = Algorithms.getMaximumValue( previousLabeling ).intValue();
+				maxIndex = getLabelSizeIndex( t - 1 ).getMaxLabel();
+
+				RandomAccessibleInterval< BitType > mask = null;
 
-				RandomAccessibleInterval< BitType > mask =
-						splitCurrentMaskBasedOnPreviousLabeling( t, previousLabeling );
+				if ( speculation != null )
+					mask = speculation.take( t, previousLabeling );
+
+				if ( mask == null )
+					mask = splitCurrentMaskBasedOnPreviousLabeling( t, previousLabeling );
 
 				final LabelingAndMaxIndex labelingAndMaxIndex =
 						TrackingUtils.getMaximalOverlapBasedLabeling(
 								previousLabeling,
 								mask,
-								maxIndex );
+								maxIndex,
+								lineage,
+								t );
 
 				labelings.add( labelingAndMaxIndex.labeling );
+				setLabelSizeIndex( t, labelingAndMaxIndex.labelSizeIndex );
 			}
 
 
 			if ( settings.manualSegmentationCorrection )
 			{
+				// compute the next frames while the user is correcting this one
+				if ( speculation != null )
+					speculation.speculate( t, labelings.get( t ), getLabelSizeIndex( t ) );
+
 				manuallyCorrectLabelings( t );
+
+				// the correction may have changed the labelings of this and previous frames
+				correctionTracker.updateLineage( lineage );
 			}
 
+			if ( isStreaming )
+			{
+				writeLabeling( t );
+			}
 
-			if( trackingSplitterManualCorrectionUI.isStopped() )
+			if( trackingSplitterManualCorrectionUI != null && trackingSplitterManualCorrectionUI.isStopped() )
 			{
 				break; // saving will happen in the command
 			}
@@ -117,45 +209,108 @@ public class SemiAutomatedTrackingSplitter< T extends RealType< T > & NativeType
 		}
 	}
 
+	/**
+	 * Adds the frames that have been tracked before, e.g. read from saved labelings, to the lineage.
+	 * The frames that are tracked in {@link #run()} are added while linking them.
+	 */
+	private void addLineageOfLabelings( int numFrames )
+	{
+		lineage.truncate( 0 );
+
+		for ( int t = 0; t < numFrames; ++t )
+			lineage.addFrame(
+					t,
+					t > 0 ? labelings.get( t - 1 ) : null,
+					labelings.get( t ),
+					getLabelSizeIndex( t ) );
+	}
+
+	private void writeLabeling( int t )
+	{
+		labelingsWriter.add( labelings.get( t ) );
+
+		if ( t > 0 )
+		{
+			labelings.set( t - 1, null );
+			if ( t - 1 < labelSizeIndices.size() ) labelSizeIndices.set( t - 1, null );
+		}
+	}
+
 	public RandomAccessibleInterval getSplitMask( int t )
 	{
 		final ShapeAndIntensitySplitter splitter =
-				new ShapeAndIntensitySplitter( masks.get( t ), intensities.get( t ), settings );
+				new ShapeAndIntensitySplitter( getMask( t ), intensities.getFrame( t ), settings );
 		splitter.run();
 		return splitter.getSplitMask();
 	}
 
+	/**
+	 * The masks of the frame that is tracked and of the frames that are split ahead by the speculation
+	 * are buffered, because the masks are only provided once and in ascending order.
+	 * These masks are in memory on top of the ones queued in the segmentation pipeline,
+	 * see {@link de.embl.cba.morphometry.microglia.MicrogliaSegmentationAndTracking}.
+	 */
+	public static int getNumBufferedMasks( MicrogliaSettings settings )
+	{
+		if ( settings.manualSegmentationCorrection && settings.numSpeculativeFrames > 0 )
+			return settings.numSpeculativeFrames + 1;
+		else
+			return 1;
+	}
+
+	private RandomAccessibleInterval< BitType > getMask( int t )
+	{
+		if ( maskBuffer == null ) return masks.getFrame( t );
+
+		return maskBuffer.getFrame( t );
+	}
+
 	public RandomAccessibleInterval< BitType > splitCurrentMaskBasedOnPreviousLabeling(
 			int currentTimePoint,
 			RandomAccessibleInterval< IntType > previousLabeling )
 	{
+		return splitCurrentMaskBasedOnPreviousLabeling(
+				currentTimePoint,
+				previousLabeling,
+				getLabelSizeIndex( currentTimePoint - 1 ) );
+	}
+
+	/**
+	 * Only depends on the given labeling of the previous frame,
+	 * such that it can be computed concurrently for speculative labelings.
+	 */
+	public RandomAccessibleInterval< BitType > splitCurrentMaskBasedOnPreviousLabeling(
+			int currentTimePoint,
+			RandomAccessibleInterval< IntType > previousLabeling,
+			LabelSizeIndex previousLabelSizeIndex )
+	{
+		final RandomAccessibleInterval< BitType > mask = getMask( currentTimePoint );
+
 		final ImgLabeling< Integer, IntType > currentImgLabeling =
 				Regions.asImgLabeling(
-						masks.get( currentTimePoint ),
+						mask,
 						ConnectedComponents.StructuringElement.FOUR_CONNECTED );
 
-		RandomAccessibleInterval< IntType > currentLabeling = currentImgLabeling.getIndexImg();
-
 		HashMap< Integer, ArrayList< Integer > > overlappingObjectsLabelsMap =
 				getOverlappingObjectLabelsMap(
-						currentTimePoint,
+						previousLabelSizeIndex,
 						previousLabeling,
-						currentImgLabeling,
-						currentLabeling );
+						currentImgLabeling );
 
 		RandomAccessibleInterval< BitType > splitMask =
-				Utils.copyAsArrayImg( masks.get( currentTimePoint ) );
+				Utils.copyAsArrayImg( mask );
 
 		Algorithms.splitCurrentObjectsBasedOnOverlapWithPreviousObjects(
 				splitMask,
 				overlappingObjectsLabelsMap,
 				currentImgLabeling,
-				intensities.get( currentTimePoint ),
+				intensities.getFrame( currentTimePoint ),
 				previousLabeling,
 				minimalObjectSizeInPixels,
 				( int ) ( settings.minimalObjectCenterDistance / settings.workingVoxelSize ),
 				settings.opService,
-				false);
+				false,
+				settings.numThreads );
 
 		return splitMask;
 	}
@@ -166,21 +321,47 @@ public class SemiAutomatedTrackingSplitter< T extends RealType< T > & NativeType
 
 		trackingSplitterManualCorrectionUI =
 				new TrackingSplitterManualCorrectionUI(
-						labelings,
+						getCorrectionTracker(),
 						minimalObjectSizeInPixels,
 						settings.outputLabelingsPath,
 						settings.calibration );
 
-		while ( ! trackingSplitterManualCorrectionUI.isThisFrameFinished() )
+		if ( speculation != null )
 		{
-			Utils.wait( 100 );
+			final SplitMaskSpeculation currentSpeculation = speculation;
+			final TrackingSplitterManualCorrectionUI< IntType > ui = trackingSplitterManualCorrectionUI;
+			ui.setLabelsUpdateListener( ( labels, labelSizeIndices ) ->
+				currentSpeculation.speculate( t, labels.get( t ), labelSizeIndices.get( t ) ) );
 		}
 
+		trackingSplitterManualCorrectionUI.getFrameFinished().join();
+
 		labelings = trackingSplitterManualCorrectionUI.getLabelings();
+		labelSizeIndices = trackingSplitterManualCorrectionUI.getLabelSizeIndices();
+
+		// edited labelings are new images, which the intensities cache measures again
 
 		hideIntensities();
 	}
 
+	/**
+	 * The tracker is kept from frame to frame, such that only the labelings
+	 * that have been added or changed since the last correction need to be passed on.
+	 */
+	private IncrementalMaximalOverlapTracker getCorrectionTracker()
+	{
+		if ( correctionTracker == null )
+			correctionTracker = new IncrementalMaximalOverlapTracker();
+
+		correctionTracker.truncate( labelings.size() );
+
+		for ( int t = 0; t < labelings.size(); ++t )
+			if ( t >= correctionTracker.numFrames() || correctionTracker.getLabeling( t ) != labelings.get( t ) )
+				correctionTracker.setLabeling( t, labelings.get( t ), getLabelSizeIndex( t ) );
+
+		return correctionTracker;
+	}
+
 	public void hideIntensities()
 	{
 		intensitiesImpLocation = intensitiesImp.getWindow().getLocation();
@@ -189,6 +370,8 @@ public class SemiAutomatedTrackingSplitter< T extends RealType< T > & NativeType
 
 	public void showIntensities( int t )
 	{
+		if ( intensitiesImp == null ) intensitiesImp = createIntensitiesImp();
+
 		intensitiesImp.show();
 		if ( intensitiesImpLocation != null ) intensitiesImp.getWindow().setLocation( intensitiesImpLocation );
 		intensitiesImp.setT( t + 1 );
@@ -196,39 +379,42 @@ public class SemiAutomatedTrackingSplitter< T extends RealType< T > & NativeType
 		IJ.run( intensitiesImp, "Enhance Contrast", "saturated=0.01");
 	}
 
+	private ImagePlus createIntensitiesImp()
+	{
+		final ArrayList< RandomAccessibleInterval< T > > frames = new ArrayList<>();
+		for ( int t = 0; t < intensities.numFrames(); ++t )
+			frames.add( intensities.getFrame( t ) );
+
+		return Utils.getAsImagePlusMovie( frames, Constants.INTENSITIES );
+	}
 
-	public HashMap< Integer, ArrayList< Integer > > getOverlappingObjectLabelsMap( int t, RandomAccessibleInterval< IntType > previousLabeling, ImgLabeling< Integer, IntType > currentImgLabeling, RandomAccessibleInterval< IntType > currentLabeling )
+	public HashMap< Integer, ArrayList< Integer > > getOverlappingObjectLabelsMap( int t, RandomAccessibleInterval< IntType > previousLabeling, ImgLabeling< Integer, IntType > currentImgLabeling )
+	{
+		return getOverlappingObjectLabelsMap( getLabelSizeIndex( t - 1 ), previousLabeling, currentImgLabeling );
+	}
+
+	public HashMap< Integer, ArrayList< Integer > > getOverlappingObjectLabelsMap( LabelSizeIndex previousLabelSizeIndex, RandomAccessibleInterval< IntType > previousLabeling, ImgLabeling< Integer, IntType > currentImgLabeling )
 	{
 		HashMap< Integer, ArrayList< Integer > > overlappingObjectsLabelsMap = new HashMap<>(  );
 
 		LabelRegions< Integer > labelRegions = new LabelRegions( currentImgLabeling );
 
+		// rows by the labels of the regions, not by the values of the index image
+		final OverlapMatrix overlapMatrix = new OverlapMatrix( currentImgLabeling, previousLabeling );
+
 		for ( LabelRegion< Integer > region : labelRegions )
 		{
-			final HashMap< Integer, Long > overlapSizes = computeOverlaps( previousLabeling, region );
-
-			if ( overlapSizes.size() == 0 )
+			if ( overlapMatrix.getNumOverlappingLabels( region.getLabel() ) == 0 )
 			{
 				overlappingObjectsLabelsMap.put( region.getLabel(), new ArrayList<>() );
 			}
 			else
 			{
-				if ( overlapSizes.size() > 1 )
-				{
-//					Utils.log( "Object at "
-//							+ " x = " + ( int ) region.getCenterOfMass().getDoublePosition( 0 )
-//							+ " y = " + ( int ) region.getCenterOfMass().getDoublePosition( 1 )
-//							+ " overlaps with " + overlapSizes.size() + " objects in previous frame." );
-				}
-
 				final ArrayList< Integer > trulyOverlappingObjectLabels
 						= getTrulyOverlappingObjectLabels(
-								intensities.get( t - 1 ),
-								intensities.get( t ),
-								previousLabeling,
-								currentLabeling,
 								region,
-								overlapSizes );
+								overlapMatrix,
+								previousLabelSizeIndex );
 
 				overlappingObjectsLabelsMap.put( region.getLabel(), trulyOverlappingObjectLabels );
 
@@ -239,27 +425,26 @@ public class SemiAutomatedTrackingSplitter< T extends RealType< T > & NativeType
 	}
 
 
-	public ArrayList< Integer > getTrulyOverlappingObjectLabels( RandomAccessibleInterval< T > previousIntensityImage,
-												RandomAccessibleInterval< T > currentIntensityImage,
-												RandomAccessibleInterval< IntType > previousLabeling,
-												RandomAccessibleInterval< IntType > currentLabeling,
-												LabelRegion< Integer > currentObjectRegion,
-												HashMap< Integer, Long > overlapSizes )
+	public ArrayList< Integer > getTrulyOverlappingObjectLabels( LabelRegion< Integer > currentObjectRegion,
+																 OverlapMatrix overlapMatrix,
+																 LabelSizeIndex previousLabelSizeIndex )
 	{
 
 		final ArrayList< Integer > trulyOverlappingObjectLabels = new ArrayList<>();
 
-		if ( overlapSizes.keySet().size() == 1 )
+		final int[] overlappingLabels = overlapMatrix.getOverlappingLabels( currentObjectRegion.getLabel() );
+
+		if ( overlappingLabels.length == 1 )
 		{
-			trulyOverlappingObjectLabels.add( overlapSizes.keySet().iterator().next() );
+			trulyOverlappingObjectLabels.add( overlappingLabels[ 0 ] );
 		}
 		else
 		{
-			for ( int previousLabel : overlapSizes.keySet() )
+			for ( int previousLabel : overlappingLabels )
 			{
-				final long previousObjectSize = Measurements.measureSizeInPixels( previousLabeling, previousLabel );
-
-				final double overlapFraction = 1.0 * overlapSizes.get( previousLabel ).longValue() / previousObjectSize;
+				final double overlapFraction = 1.0
+						* overlapMatrix.getOverlap( currentObjectRegion.getLabel(), previousLabel )
+						/ previousLabelSizeIndex.getSize( previousLabel );
 
 				// Utils.log( "Previous object size / overlap size: " + overlapFraction );
 
@@ -276,35 +461,43 @@ public class SemiAutomatedTrackingSplitter< T extends RealType< T > & NativeType
 		return trulyOverlappingObjectLabels;
 	}
 
-	public boolean isReallyTwoObjects( RandomAccessibleInterval< T > previousIntensityImage,
+	/**
+	 * @param t
+	 * 			the frame of the current labeling and intensities
+	 */
+	public boolean isReallyTwoObjects( int t,
+									   RandomAccessibleInterval< T > previousIntensityImage,
 									   RandomAccessibleInterval< T > currentIntensityImage,
 									   RandomAccessibleInterval< IntType > previousLabeling,
 									   RandomAccessibleInterval< IntType > currentLabeling,
 									   LabelRegion< Integer > currentObjectRegion,
-									   HashMap< Integer, Long > previousSizes )
+									   OverlapMatrix overlapMatrix )
 	{
 
 		boolean splitObjects =  true;
 
-		final double currentObjectIntensity = Measurements.measureBgCorrectedSumIntensity(
+		final double currentObjectIntensity = bgCorrectedIntensities.get(
+				t,
 				currentLabeling,
-				currentObjectRegion.getLabel(),
-				currentIntensityImage );
+				t,
+				currentIntensityImage ).getBgCorrectedSumIntensity( currentObjectRegion.getLabel() );
 
 		Logger.log( "Object intensity: " + (long) currentObjectIntensity );
 
 		final HashMap< Integer, Double > previousIntensities = new HashMap<>();
 
-		for ( int previousLabel : previousSizes.keySet() )
+		final BackgroundCorrectedIntensities previousBgCorrectedIntensities =
+				bgCorrectedIntensities.get( t - 1, previousLabeling, t - 1, previousIntensityImage );
+
+		for ( int previousLabel : overlapMatrix.getOverlappingLabels( currentObjectRegion.getLabel() ) )
 		{
-			final double previousObjectIntensity = Measurements.measureBgCorrectedSumIntensity(
-					previousLabeling,
-					previousLabel,
-					previousIntensityImage );
+			final double previousObjectIntensity =
+					previousBgCorrectedIntensities.getBgCorrectedSumIntensity( previousLabel );
 
 			previousIntensities.put( previousLabel , previousObjectIntensity );
 
-			final double overlapFraction = 1.0 * previousSizes.get( previousLabel ).longValue() / currentObjectRegion.size();
+			final double overlapFraction =
+					overlapMatrix.getCurrentOverlapFraction( currentObjectRegion.getLabel(), previousLabel );
 			Logger.log( "Previous object intensity: " + (long) previousObjectIntensity );
 			Logger.log( "Overlap pixel fraction: " + overlapFraction );
 
@@ -338,50 +531,53 @@ public class SemiAutomatedTrackingSplitter< T extends RealType< T > & NativeType
 		return previousIntensitySum;
 	}
 
-	public < I extends IntegerType< I > >  HashMap< Integer, Long > computeOverlaps(
-			RandomAccessibleInterval< I > previousLabeling,
-			LabelRegion region )
+	public ArrayList< RandomAccessibleInterval< IntType > > getLabelings()
 	{
-		final HashMap< Integer, Long > overlaps = new HashMap<>();
-
-		final RandomAccess< I > previousLabelsAccess = previousLabeling.randomAccess();
-		final LabelRegionCursor cursor = region.cursor();
-
-		while ( cursor.hasNext() )
-		{
-			cursor.fwd();
-			previousLabelsAccess.setPosition( cursor );
-			final int previousLabel = previousLabelsAccess.get().getInteger();
-
-			if ( previousLabel != 0 )
-			{
-				addOverlap( overlaps, previousLabel );
-			}
-		}
-
-		return overlaps;
+		return labelings;
 	}
 
+	/**
+	 * @return the lineage of the labelings that are final, i.e. of all frames after {@link #run()}.
+	 */
+	public LineageGraph getLineage()
+	{
+		return lineage;
+	}
 
-	public void addOverlap( HashMap< Integer, Long > overlaps, int integer )
+	/**
+	 * @param labelings
+	 * 			e.g. read from a previously saved segmentation; they are converted to IntType
+	 * 			if they are of another type, such as the FloatType of saved label masks.
+	 */
+	public < R extends RealType< R > > void setLabelings( List< ? extends RandomAccessibleInterval< R > > labelings )
 	{
-		if ( overlaps.keySet().contains( integer ) )
-		{
-			overlaps.put( integer,  overlaps.get( integer ).longValue() + 1 );
-		}
-		else
-		{
-			overlaps.put( integer,  1L );
-		}
+		this.labelings = new ArrayList<>( labelings.size() );
+		for ( RandomAccessibleInterval< R > labeling : labelings )
+			this.labelings.add( Utils.asIntTypeLabelMap( labeling ) );
+
+		this.labelSizeIndices = new ArrayList<>();
 	}
 
-	public ArrayList< RandomAccessibleInterval< IntType > > getLabelings()
+	/**
+	 * @return the size index of the labeling of time point t,
+	 * which is only computed if it has not been passed along with the labeling.
+	 */
+	public LabelSizeIndex getLabelSizeIndex( int t )
 	{
-		return labelings;
+		setLabelSizeIndex( t, null );
+
+		if ( labelSizeIndices.get( t ) == null )
+			labelSizeIndices.set( t, LabelSizeIndex.of( labelings.get( t ) ) );
+
+		return labelSizeIndices.get( t );
 	}
 
-	public void setLabelings( ArrayList< RandomAccessibleInterval< IntType > > labelings )
+	private void setLabelSizeIndex( int t, LabelSizeIndex labelSizeIndex )
 	{
-		this.labelings = labelings;
+		while ( labelSizeIndices.size() <= t )
+			labelSizeIndices.add( null );
+
+		if ( labelSizeIndex != null )
+			labelSizeIndices.set( t, labelSizeIndex );
 	}
 }
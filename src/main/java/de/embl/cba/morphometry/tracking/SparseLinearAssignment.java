@@ -0,0 +1,343 @@
+package de.embl.cba.morphometry.tracking;
+
+import java.util.Arrays;
+
+/**
+ * Solves a linear assignment problem with a sparse cost matrix, where each row and each column
+ * may also stay unassigned at a fixed alternative cost (e.g. the death and birth of a track).
+ *
+ * The candidate links decompose into connected components, which are solved independently
+ * with the Hungarian algorithm (shortest augmenting paths) on a matrix that is extended by
+ * one "not assigned" column per row. With spatially pruned candidates the components are
+ * small, such that the total run time grows about linearly with the number of candidates.
+ *
+ * Components whose dense matrix would exceed a maximal number of entries, e.g. in very crowded
+ * frames, are solved greedily instead, by taking the cheapest remaining links first.
+ */
+public class SparseLinearAssignment
+{
+	private static final double BLOCKED = Double.MAX_VALUE / 4;
+
+	public static final long DEFAULT_MAX_NUM_DENSE_ENTRIES = 1 << 20;
+
+	private final int numRows;
+	private final int numColumns;
+	private final int[] edgeRows;
+	private final int[] edgeColumns;
+	private final double[] edgeCosts;
+	private final int numEdges;
+	private final double rowAlternativeCost;
+	private final double columnAlternativeCost;
+	private long maxNumDenseEntries;
+
+	private int[] rowAssignments;
+	private int[] columnAssignments;
+
+	/**
+	 * @param edgeRows
+	 * 			row of each candidate link
+	 * @param edgeColumns
+	 * 			column of each candidate link
+	 * @param edgeCosts
+	 * 			cost of each candidate link
+	 * @param rowAlternativeCost
+	 * 			cost of not assigning a row
+	 * @param columnAlternativeCost
+	 * 			cost of not assigning a column
+	 */
+	public SparseLinearAssignment(
+			int numRows,
+			int numColumns,
+			int[] edgeRows,
+			int[] edgeColumns,
+			double[] edgeCosts,
+			int numEdges,
+			double rowAlternativeCost,
+			double columnAlternativeCost )
+	{
+		this.numRows = numRows;
+		this.numColumns = numColumns;
+		this.edgeRows = edgeRows;
+		this.edgeColumns = edgeColumns;
+		this.edgeCosts = edgeCosts;
+		this.numEdges = numEdges;
+		this.rowAlternativeCost = rowAlternativeCost;
+		this.columnAlternativeCost = columnAlternativeCost;
+		this.maxNumDenseEntries = DEFAULT_MAX_NUM_DENSE_ENTRIES;
+	}
+
+	/**
+	 * @param maxNumDenseEntries
+	 * 			maximal size of the dense cost matrix of a component, larger components are solved greedily
+	 */
+	public void setMaxNumDenseEntries( long maxNumDenseEntries )
+	{
+		this.maxNumDenseEntries = maxNumDenseEntries;
+	}
+
+	public void run()
+	{
+		rowAssignments = new int[ numRows ];
+		columnAssignments = new int[ numColumns ];
+		Arrays.fill( rowAssignments, -1 );
+		Arrays.fill( columnAssignments, -1 );
+
+		final int[] roots = getComponentRoots();
+		final int[] componentEdges = sortEdgesByComponent( roots );
+
+		final int[] localRows = new int[ numRows ];
+		final int[] localColumns = new int[ numColumns ];
+		Arrays.fill( localRows, -1 );
+		Arrays.fill( localColumns, -1 );
+
+		int start = 0;
+		while ( start < numEdges )
+		{
+			int end = start + 1;
+			final int component = roots[ edgeRows[ componentEdges[ start ] ] ];
+			while ( end < numEdges && roots[ edgeRows[ componentEdges[ end ] ] ] == component ) end++;
+
+			solveComponent( componentEdges, start, end, localRows, localColumns );
+
+			start = end;
+		}
+	}
+
+	/**
+	 * @return the assigned column of each row, or -1 if the row is not assigned.
+	 */
+	public int[] getRowAssignments()
+	{
+		return rowAssignments;
+	}
+
+	/**
+	 * @return the assigned row of each column, or -1 if the column is not assigned.
+	 */
+	public int[] getColumnAssignments()
+	{
+		return columnAssignments;
+	}
+
+	/**
+	 * Union find over rows and columns, with columns offset by the number of rows.
+	 *
+	 * @return the root of the component of each row and column
+	 */
+	private int[] getComponentRoots()
+	{
+		final int[] parents = new int[ numRows + numColumns ];
+		for ( int i = 0; i < parents.length; ++i ) parents[ i ] = i;
+
+		for ( int e = 0; e < numEdges; ++e )
+		{
+			final int a = find( parents, edgeRows[ e ] );
+			final int b = find( parents, numRows + edgeColumns[ e ] );
+			if ( a != b ) parents[ Math.max( a, b ) ] = Math.min( a, b );
+		}
+
+		for ( int i = 0; i < parents.length; ++i )
+			parents[ i ] = find( parents, i );
+
+		return parents;
+	}
+
+	private static int find( int[] parents, int i )
+	{
+		while ( parents[ i ] != i )
+		{
+			parents[ i ] = parents[ parents[ i ] ];
+			i = parents[ i ];
+		}
+		return i;
+	}
+
+	/**
+	 * @return the edge indices, grouped by component (counting sort over the component roots).
+	 */
+	private int[] sortEdgesByComponent( int[] roots )
+	{
+		final int[] counts = new int[ numRows + numColumns + 1 ];
+		for ( int e = 0; e < numEdges; ++e )
+			counts[ roots[ edgeRows[ e ] ] + 1 ]++;
+
+		for ( int i = 1; i < counts.length; ++i )
+			counts[ i ] += counts[ i - 1 ];
+
+		final int[] sorted = new int[ numEdges ];
+		for ( int e = 0; e < numEdges; ++e )
+			sorted[ counts[ roots[ edgeRows[ e ] ] ]++ ] = e;
+
+		return sorted;
+	}
+
+	private void solveComponent( int[] componentEdges, int start, int end, int[] localRows, int[] localColumns )
+	{
+		// local indices of the rows and columns of this component
+		int numLocalRows = 0;
+		int numLocalColumns = 0;
+		final int[] rows = new int[ end - start ];
+		final int[] columns = new int[ end - start ];
+
+		for ( int i = start; i < end; ++i )
+		{
+			final int e = componentEdges[ i ];
+			if ( localRows[ edgeRows[ e ] ] == -1 )
+			{
+				localRows[ edgeRows[ e ] ] = numLocalRows;
+				rows[ numLocalRows++ ] = edgeRows[ e ];
+			}
+			if ( localColumns[ edgeColumns[ e ] ] == -1 )
+			{
+				localColumns[ edgeColumns[ e ] ] = numLocalColumns;
+				columns[ numLocalColumns++ ] = edgeColumns[ e ];
+			}
+		}
+
+		// Assigning a row to a column saves both alternative costs. Adding the column alternative
+		// cost to every entry of a row does not change the solution, since each row is assigned once.
+		final double notAssignedCost = rowAlternativeCost + columnAlternativeCost;
+
+		if ( numLocalRows == 1 && numLocalColumns == 1 )
+		{
+			if ( edgeCosts[ componentEdges[ start ] ] < notAssignedCost )
+				assign( rows[ 0 ], columns[ 0 ] );
+		}
+		else if ( ( long ) numLocalRows * ( numLocalColumns + numLocalRows ) > Math.min( maxNumDenseEntries, Integer.MAX_VALUE ) )
+		{
+			solveGreedily( componentEdges, start, end, notAssignedCost );
+		}
+		else
+		{
+			final int n = numLocalRows;
+			final int m = numLocalColumns + numLocalRows;
+			final double[] costs = new double[ n * m ];
+			Arrays.fill( costs, BLOCKED );
+
+			for ( int i = start; i < end; ++i )
+			{
+				final int e = componentEdges[ i ];
+				costs[ localRows[ edgeRows[ e ] ] * m + localColumns[ edgeColumns[ e ] ] ] = edgeCosts[ e ];
+			}
+
+			for ( int r = 0; r < n; ++r )
+				costs[ r * m + numLocalColumns + r ] = notAssignedCost;
+
+			final int[] assignment = hungarian( costs, n, m );
+
+			for ( int r = 0; r < n; ++r )
+				if ( assignment[ r ] < numLocalColumns )
+					assign( rows[ r ], columns[ assignment[ r ] ] );
+		}
+
+		for ( int r = 0; r < numLocalRows; ++r ) localRows[ rows[ r ] ] = -1;
+		for ( int c = 0; c < numLocalColumns; ++c ) localColumns[ columns[ c ] ] = -1;
+	}
+
+	/**
+	 * Assigns the links in the order of increasing cost, as long as they are cheaper than not assigning.
+	 */
+	private void solveGreedily( int[] componentEdges, int start, int end, double notAssignedCost )
+	{
+		final Integer[] edges = new Integer[ end - start ];
+		for ( int i = start; i < end; ++i )
+			edges[ i - start ] = componentEdges[ i ];
+
+		Arrays.sort( edges, ( a, b ) -> Double.compare( edgeCosts[ a ], edgeCosts[ b ] ) );
+
+		for ( int e : edges )
+		{
+			if ( edgeCosts[ e ] >= notAssignedCost ) break;
+
+			if ( rowAssignments[ edgeRows[ e ] ] == -1 && columnAssignments[ edgeColumns[ e ] ] == -1 )
+				assign( edgeRows[ e ], edgeColumns[ e ] );
+		}
+	}
+
+	private void assign( int row, int column )
+	{
+		rowAssignments[ row ] = column;
+		columnAssignments[ column ] = row;
+	}
+
+	/**
+	 * Minimal cost assignment of all n rows to distinct columns of the row major n x m (n <= m) cost matrix,
+	 * using shortest augmenting paths with row and column potentials.
+	 *
+	 * @return the assigned column of each row
+	 */
+	public static int[] hungarian( double[] costs, int n, int m )
+	{
+		// one based, index 0 is a virtual column
+		final double[] u = new double[ n + 1 ];
+		final double[] v = new double[ m + 1 ];
+		final int[] rowOfColumn = new int[ m + 1 ];
+		final int[] way = new int[ m + 1 ];
+		final double[] minSlack = new double[ m + 1 ];
+		final boolean[] used = new boolean[ m + 1 ];
+
+		for ( int i = 1; i <= n; ++i )
+		{
+			rowOfColumn[ 0 ] = i;
+			int column = 0;
+			Arrays.fill( minSlack, Double.POSITIVE_INFINITY );
+			Arrays.fill( used, false );
+
+			do
+			{
+				used[ column ] = true;
+				final int row = rowOfColumn[ column ];
+				double delta = Double.POSITIVE_INFINITY;
+				int nextColumn = 0;
+
+				for ( int j = 1; j <= m; ++j )
+				{
+					if ( used[ j ] ) continue;
+
+					final double slack = costs[ ( row - 1 ) * m + j - 1 ] - u[ row ] - v[ j ];
+					if ( slack < minSlack[ j ] )
+					{
+						minSlack[ j ] = slack;
+						way[ j ] = column;
+					}
+					if ( minSlack[ j ] < delta )
+					{
+						delta = minSlack[ j ];
+						nextColumn = j;
+					}
+				}
+
+				for ( int j = 0; j <= m; ++j )
+				{
+					if ( used[ j ] )
+					{
+						u[ rowOfColumn[ j ] ] += delta;
+						v[ j ] -= delta;
+					}
+					else
+					{
+						minSlack[ j ] -= delta;
+					}
+				}
+
+				column = nextColumn;
+			}
+			while ( rowOfColumn[ column ] != 0 );
+
+			do
+			{
+				final int previousColumn = way[ column ];
+				rowOfColumn[ column ] = rowOfColumn[ previousColumn ];
+				column = previousColumn;
+			}
+			while ( column != 0 );
+		}
+
+		final int[] columnOfRow = new int[ n ];
+		for ( int j = 1; j <= m; ++j )
+			if ( rowOfColumn[ j ] != 0 )
+				columnOfRow[ rowOfColumn[ j ] - 1 ] = j - 1;
+
+		return columnOfRow;
+	}
+}
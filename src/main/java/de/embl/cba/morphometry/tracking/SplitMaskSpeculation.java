@@ -0,0 +1,196 @@
+package de.embl.cba.morphometry.tracking;
+
+import de.embl.cba.morphometry.Logger;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Computes the split masks of the next frames in the background, e.g. while the user
+ * corrects the labeling of the current frame.
+ *
+ * The split mask of frame t depends on the labeling of frame t - 1. The speculations are
+ * thus chained: the speculative labeling of frame t + 1 is the input for frame t + 2, and so on.
+ * A speculative split mask is only used if it was computed from a labeling that is equal
+ * to the final labeling of the previous frame. When the speculation is restarted from
+ * a changed labeling, the results of frames whose input turns out to be unchanged are reused.
+ */
+class SplitMaskSpeculation
+{
+	interface Splitter
+	{
+		RandomAccessibleInterval< BitType > split(
+				int t,
+				RandomAccessibleInterval< IntType > previousLabeling,
+				LabelSizeIndex previousLabelSizeIndex );
+	}
+
+	private final Splitter splitter;
+	private final int numFrames;
+	private final int numSpeculativeFrames;
+	private final ExecutorService executor;
+	private final TreeMap< Integer, Speculation > speculations;
+
+	private class Speculation
+	{
+		final int t;
+		final CompletableFuture< LabelingAndMaxIndex > input;
+		final CompletableFuture< RandomAccessibleInterval< BitType > > splitMask;
+		final CompletableFuture< LabelingAndMaxIndex > output;
+		volatile boolean isSuperseded;
+
+		Speculation( int t, CompletableFuture< LabelingAndMaxIndex > input, Speculation previous )
+		{
+			this.t = t;
+			this.input = input;
+			this.splitMask = input.thenApplyAsync( in -> reuseOrSplit( in, previous ), executor );
+			this.output = splitMask.thenApply( mask ->
+					TrackingUtils.getMaximalOverlapBasedLabeling( input.join().labeling, mask, input.join().labelSizeIndex.getMaxLabel() ) );
+		}
+
+		private RandomAccessibleInterval< BitType > reuseOrSplit( LabelingAndMaxIndex in, Speculation previous )
+		{
+			if ( isSuperseded ) throw new CancellationException();
+
+			if ( previous != null && previous.isDoneWith( in.labeling ) )
+				return previous.splitMask.join();
+
+			return splitter.split( t, in.labeling, in.labelSizeIndex );
+		}
+
+		boolean isDoneWith( RandomAccessibleInterval< IntType > previousLabeling )
+		{
+			if ( ! splitMask.isDone() || splitMask.isCompletedExceptionally() ) return false;
+			return isEqual( input.join().labeling, previousLabeling );
+		}
+	}
+
+	/**
+	 * @param numSpeculativeFrames
+	 * 			number of frames that are computed ahead of the current frame
+	 */
+	SplitMaskSpeculation( Splitter splitter, int numFrames, int numSpeculativeFrames )
+	{
+		this.splitter = splitter;
+		this.numFrames = numFrames;
+		this.numSpeculativeFrames = numSpeculativeFrames;
+		this.speculations = new TreeMap<>();
+		this.executor = Executors.newSingleThreadExecutor( runnable -> {
+			final Thread thread = new Thread( runnable, "Split mask speculation" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+
+	/**
+	 * (Re-)starts the speculation of the frames following frame t,
+	 * based on the current labeling of frame t.
+	 */
+	synchronized void speculate(
+			int t,
+			RandomAccessibleInterval< IntType > labeling,
+			LabelSizeIndex labelSizeIndex )
+	{
+		discardUpTo( t );
+
+		final LabelingAndMaxIndex current = new LabelingAndMaxIndex();
+		current.labeling = labeling;
+		current.labelSizeIndex = labelSizeIndex;
+		current.maxIndex = labelSizeIndex.getMaxLabel();
+
+		CompletableFuture< LabelingAndMaxIndex > input = CompletableFuture.completedFuture( current );
+
+		final int tMax = Math.min( t + numSpeculativeFrames, numFrames - 1 );
+
+		for ( int s = t + 1; s <= tMax; ++s )
+		{
+			final Speculation previous = speculations.get( s );
+			if ( previous != null ) previous.isSuperseded = true;
+
+			final Speculation speculation = new Speculation( s, input, previous );
+			speculations.put( s, speculation );
+			input = speculation.output;
+		}
+	}
+
+	/**
+	 * Waits for the speculative split mask of frame t, if it has been computed from a labeling
+	 * that is equal to the given labeling of frame t - 1.
+	 *
+	 * @return the split mask or null, if there is no valid speculation for frame t
+	 */
+	RandomAccessibleInterval< BitType > take( int t, RandomAccessibleInterval< IntType > previousLabeling )
+	{
+		final Speculation speculation;
+
+		synchronized ( this )
+		{
+			speculation = speculations.remove( t );
+			discardUpTo( t );
+		}
+
+		if ( speculation == null ) return null;
+
+		try
+		{
+			if ( ! isEqual( speculation.input.get().labeling, previousLabeling ) )
+			{
+				Logger.log( "Labels of frame " + t + " have been changed, recomputing frame " + ( t + 1 ) );
+				return null;
+			}
+
+			return speculation.splitMask.get();
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( "Interrupted while waiting for the speculative split mask.", e );
+		}
+		catch ( ExecutionException | CancellationException e )
+		{
+			return null; // computed again by the caller
+		}
+	}
+
+	synchronized void stop()
+	{
+		for ( Speculation speculation : speculations.values() )
+			speculation.isSuperseded = true;
+		speculations.clear();
+		executor.shutdownNow();
+	}
+
+	private void discardUpTo( int t )
+	{
+		final Map< Integer, Speculation > discarded = speculations.headMap( t, true );
+		for ( Speculation speculation : discarded.values() )
+			speculation.isSuperseded = true;
+		discarded.clear();
+	}
+
+	static boolean isEqual( RandomAccessibleInterval< IntType > a, RandomAccessibleInterval< IntType > b )
+	{
+		if ( a == b ) return true;
+		if ( ! Intervals.equals( a, b ) ) return false;
+
+		final Cursor< IntType > cursorA = Views.flatIterable( a ).cursor();
+		final Cursor< IntType > cursorB = Views.flatIterable( b ).cursor();
+
+		while ( cursorA.hasNext() )
+			if ( cursorA.next().get() != cursorB.next().get() )
+				return false;
+
+		return true;
+	}
+}
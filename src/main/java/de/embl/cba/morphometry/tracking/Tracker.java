@@ -2,9 +2,8 @@ package de.embl.cba.morphometry.tracking;
 
 import de.embl.cba.morphometry.Logger;
 import de.embl.cba.morphometry.Utils;
-import de.embl.cba.morphometry.measurements.Measurements;
+import de.embl.cba.morphometry.measurements.BackgroundCorrectedIntensities;
 import de.embl.cba.morphometry.regions.Regions;
-import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.labeling.ConnectedComponents;
 import net.imglib2.img.array.ArrayImgs;
@@ -51,18 +50,23 @@ public class Tracker < T extends RealType< T > & NativeType< T > >
 
 		updatedLabelings = initUpdatedLabelings( tMin );
 
+		final BackgroundCorrectedIntensities.Cache bgCorrectedIntensities = new BackgroundCorrectedIntensities.Cache();
+
 		for ( t = tMin + 1; t <= tMax; ++t )
 		{
 			RandomAccessibleInterval< IntType > currentLabeling = imgLabelings.get( t ).getSource();;
 			RandomAccessibleInterval< IntType > updatedLabeling = ArrayImgs.ints( Intervals.dimensionsAsLongArray( currentLabeling ) );
 
-			labelRegions = new LabelRegions( Regions.asImgLabeling( currentLabeling, ConnectedComponents.StructuringElement.FOUR_CONNECTED ) );
+			final ImgLabeling< Integer, IntType > currentImgLabeling = Regions.asImgLabeling( currentLabeling, ConnectedComponents.StructuringElement.FOUR_CONNECTED );
+			labelRegions = new LabelRegions<>( currentImgLabeling );
+
+			final OverlapMatrix overlapMatrix = new OverlapMatrix( currentImgLabeling, previousLabeling );
 
 			for ( LabelRegion< Integer > region : labelRegions )
 			{
-				final HashMap< Integer, Long > overlaps = computeOverlaps( previousLabeling, region );
+				final int[] overlappingLabels = overlapMatrix.getOverlappingLabels( region.getLabel() );
 
-				if ( overlaps.size() == 2 )
+				if ( overlappingLabels.length == 2 )
 				{
 
 					Logger.log( "Overlap with two objects" );
@@ -70,26 +74,27 @@ public class Tracker < T extends RealType< T > & NativeType< T > >
 					Logger.log( "Time point (one based): " + ( t + 1 ) );
 					Logger.log( "Object label: " + region.getLabel() );
 
-					final double currentIntensity = Measurements.measureBgCorrectedSumIntensity(
+					final double currentIntensity = bgCorrectedIntensities.get(
+							t,
 							currentLabeling,
-							region.getLabel(),
-							intensities.get( t ) );
+							t,
+							intensities.get( t ) ).getBgCorrectedSumIntensity( region.getLabel() );
 
 					Logger.log( "Object intensity: " + (long) currentIntensity );
 
 					final HashMap< Integer, Double > previousIntensities = new HashMap<>();
 
-					for ( int label : overlaps.keySet() )
+					final BackgroundCorrectedIntensities previousBgCorrectedIntensities =
+							bgCorrectedIntensities.get( t - 1, previousLabeling, t, intensities.get( t ) );
+
+					for ( int label : overlappingLabels )
 					{
-						final double intensity = Measurements.measureBgCorrectedSumIntensity(
-								previousLabeling,
-								label,
-								intensities.get( t ) );
+						final double intensity = previousBgCorrectedIntensities.getBgCorrectedSumIntensity( label );
 
 						previousIntensities.put( label , intensity );
 
 						Logger.log( "Previous object intensity: " + (long) intensity );
-						Logger.log( "Overlap pixel fraction: " + 1.0 * overlaps.get( label ).longValue() / region.size() );
+						Logger.log( "Overlap pixel fraction: " + overlapMatrix.getCurrentOverlapFraction( region.getLabel(), label ) );
 					}
 
 					double previousIntensitySum = getPreviousIntensitySum( previousIntensities );
@@ -100,7 +105,7 @@ public class Tracker < T extends RealType< T > & NativeType< T > >
 
 				}
 
-				int objectId = computeObjectId( overlaps );
+				int objectId = computeObjectId( overlapMatrix, region.getLabel() );
 
 				Utils.drawObject( updatedLabeling, region, objectId );
 			}
@@ -137,76 +142,18 @@ public class Tracker < T extends RealType< T > & NativeType< T > >
 		return updatedLabelings;
 	}
 
-	public int computeObjectId( HashMap< Integer, Long > overlaps )
+	public int computeObjectId( OverlapMatrix overlapMatrix, int currentLabel )
 	{
-		int objectId;
+		int objectId = overlapMatrix.getMaxOverlapLabel( currentLabel );
 
-		if( overlaps.size() == 0 )
+		if( objectId == 0 )
 		{
 			objectId = nextId++;
 		}
-		else
-		{
-			objectId = getMaxOverlapLabel( overlaps );
-		}
 
 		return objectId;
 	}
 
-	public int getMaxOverlapLabel( HashMap< Integer, Long > overlaps )
-	{
-		int maxOverlapLabel = 0;
-		long maxOverlapCount = Long.MIN_VALUE;
-
-		for ( Integer label : overlaps.keySet() )
-		{
-			final long overlapCount = overlaps.get( label ).longValue();
-
-			if ( overlapCount > maxOverlapCount )
-			{
-				maxOverlapCount = overlapCount;
-				maxOverlapLabel = label;
-			}
-		}
-		return maxOverlapLabel;
-	}
-
-	public HashMap< Integer, Long > computeOverlaps(
-			RandomAccessibleInterval< IntType > previousLabeling,
-			LabelRegion region )
-	{
-		final HashMap< Integer, Long > overlaps = new HashMap<>();
-
-		final RandomAccess< IntType > previousLabelsAccess = previousLabeling.randomAccess();
-		final LabelRegionCursor cursor = region.cursor();
-
-		while ( cursor.hasNext() )
-		{
-			cursor.fwd();
-			previousLabelsAccess.setPosition( cursor );
-
-			final int label = previousLabelsAccess.get().getInteger();
-
-			if ( label != 0 )
-			{
-				addOverlap( overlaps, label );
-			}
-		}
-		return overlaps;
-	}
-
-	public void addOverlap( HashMap< Integer, Long > overlaps, int integer )
-	{
-		if ( overlaps.keySet().contains( integer ) )
-		{
-			overlaps.put( integer,  overlaps.get( integer ).longValue() + 1 );
-		}
-		else
-		{
-			overlaps.put( integer,  1L );
-		}
-	}
-
 	public int getNumObjects( int t )
 	{
 		final LabelRegions labelRegions = new LabelRegions( imgLabelings.get( t ) );
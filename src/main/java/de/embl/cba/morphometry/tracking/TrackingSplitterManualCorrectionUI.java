@@ -4,17 +4,27 @@ import de.embl.cba.morphometry.SyncWindowsHack;
 import de.embl.cba.morphometry.Utils;
 import de.embl.cba.morphometry.regions.Regions;
 import ij.IJ;
+import ij.ImageListener;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.view.Views;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 public class TrackingSplitterManualCorrectionUI < T extends RealType< T > & NativeType< T > >
 		extends JPanel
@@ -22,14 +32,18 @@ public class TrackingSplitterManualCorrectionUI < T extends RealType< T > & Nati
 	private final long minimalObjectSizeInPixels;
 	private final Calibration calibration;
 	private JFrame frame;
-	private boolean isThisFrameFinished;
+	private final CompletableFuture< Boolean > frameFinished;
+	private BiConsumer< ArrayList< RandomAccessibleInterval< T > >, ArrayList< LabelSizeIndex > > labelsUpdateListener;
 	private ImagePlus editableLabelsImp;
 	private ArrayList< RandomAccessibleInterval< T > > labels;
+	private ArrayList< LabelSizeIndex > labelSizeIndices;
 	private SyncWindowsHack syncWindows;
 	private static Point frameLocation;
 	private static Point editedLabelsImpLocation;
-	private boolean isStopped;
 	private String outputLabelingsPath;
+	private final IncrementalMaximalOverlapTracker tracker;
+	private final BitSet editedFrames; // index: t
+	private final ImageListener editListener;
 
 	public TrackingSplitterManualCorrectionUI(
 			ArrayList< RandomAccessibleInterval< T > > labels,
@@ -37,8 +51,27 @@ public class TrackingSplitterManualCorrectionUI < T extends RealType< T > & Nati
 			String outputLabelingsPath,
 			Calibration calibration )
 	{
+		this( asTracker( labels ), minimalObjectSizeInPixels, outputLabelingsPath, calibration );
+	}
+
+	/**
+	 * @param tracker
+	 * 			holds the labels to be corrected; it is updated with the edits,
+	 * 			such that it can be passed on to the correction of the next frame
+	 */
+	public TrackingSplitterManualCorrectionUI(
+			IncrementalMaximalOverlapTracker tracker,
+			long minimalObjectSizeInPixels,
+			String outputLabelingsPath,
+			Calibration calibration )
+	{
+		this.tracker = tracker;
+		this.editedFrames = new BitSet();
+		this.editListener = editListener();
+		this.labels = ( ArrayList ) tracker.getLabelings();
+		this.labelSizeIndices = tracker.getLabelSizeIndices();
 		this.outputLabelingsPath = outputLabelingsPath;
-		this.isThisFrameFinished = false;
+		this.frameFinished = new CompletableFuture<>();
 		this.minimalObjectSizeInPixels = minimalObjectSizeInPixels;
 		this.calibration = calibration;
 
@@ -47,6 +80,17 @@ public class TrackingSplitterManualCorrectionUI < T extends RealType< T > & Nati
 		configureAndShowUI();
 	}
 
+	private static < T extends RealType< T > & NativeType< T > > IncrementalMaximalOverlapTracker asTracker(
+			ArrayList< RandomAccessibleInterval< T > > labels )
+	{
+		final IncrementalMaximalOverlapTracker tracker = new IncrementalMaximalOverlapTracker();
+
+		for ( int t = 0; t < labels.size(); ++t )
+			tracker.setLabeling( t, labels.get( t ), null );
+
+		return tracker;
+	}
+
 	public void configureAndShowUI()
 	{
 		add( updateLabelsButton() );
@@ -74,6 +118,36 @@ public class TrackingSplitterManualCorrectionUI < T extends RealType< T > & Nati
 
 		syncWindows = new SyncWindowsHack();
 		syncWindows.syncAll();
+
+		ImagePlus.addImageListener( editListener );
+	}
+
+	/**
+	 * Remembers the frame that is shown when the edited image is updated after a change,
+	 * such that only these frames need to be compared with the labels of the tracker.
+	 */
+	private ImageListener editListener()
+	{
+		return new ImageListener()
+		{
+			@Override
+			public void imageUpdated( ImagePlus imp )
+			{
+				if ( imp != editableLabelsImp || ! imp.changes ) return;
+
+				synchronized ( editedFrames )
+				{
+					editedFrames.set( imp.getT() - 1 );
+				}
+				imp.changes = false;
+			}
+
+			@Override
+			public void imageOpened( ImagePlus imp ) { }
+
+			@Override
+			public void imageClosed( ImagePlus imp ) { }
+		};
 	}
 
 	public JButton updateLabelsButton()
@@ -82,9 +156,8 @@ public class TrackingSplitterManualCorrectionUI < T extends RealType< T > & Nati
 		button.addActionListener( e -> {
 			labels = runMaximalOverlapTrackerOnEditedImagePlus();
 
-			closeCurrentEditedLabelsImagePlus();
-
-			showLabelsImageForEditing( labels );
+			if ( labelsUpdateListener != null )
+				labelsUpdateListener.accept( labels, labelSizeIndices );
 		} );
 
 		return button;
@@ -92,6 +165,7 @@ public class TrackingSplitterManualCorrectionUI < T extends RealType< T > & Nati
 
 	public void closeCurrentEditedLabelsImagePlus()
 	{
+		ImagePlus.removeImageListener( editListener );
 		editableLabelsImp.changes = false;
 		editedLabelsImpLocation = editableLabelsImp.getWindow().getLocation();
 		editableLabelsImp.close();
@@ -112,8 +186,7 @@ public class TrackingSplitterManualCorrectionUI < T extends RealType< T > & Nati
 				frameLocation = frame.getLocation();
 				frame.dispose();
 
-				isThisFrameFinished = true;
-				isStopped = false;
+				frameFinished.complete( false );
 			}
 		} );
 		return button;
@@ -127,8 +200,7 @@ public class TrackingSplitterManualCorrectionUI < T extends RealType< T > & Nati
 			closeCurrentEditedLabelsImagePlus();
 			frameLocation = frame.getLocation();
 			frame.dispose();
-			isThisFrameFinished = true;
-			isStopped = true;
+			frameFinished.complete( true );
 		} );
 		return button;
 	}
@@ -159,29 +231,113 @@ public class TrackingSplitterManualCorrectionUI < T extends RealType< T > & Nati
 
 	}
 
+	/**
+	 * Is notified, on the event dispatch thread, whenever the user has updated the labels.
+	 */
+	public void setLabelsUpdateListener(
+			BiConsumer< ArrayList< RandomAccessibleInterval< T > >, ArrayList< LabelSizeIndex > > labelsUpdateListener )
+	{
+		this.labelsUpdateListener = labelsUpdateListener;
+	}
+
+	/**
+	 * @return completes when the user is done with this frame, with true if the user has stopped.
+	 */
+	public CompletableFuture< Boolean > getFrameFinished()
+	{
+		return frameFinished;
+	}
+
 	public boolean isThisFrameFinished()
 	{
-		return isThisFrameFinished;
+		return frameFinished.isDone();
 	}
 
 	public boolean isStopped()
 	{
-		return isStopped;
+		return frameFinished.getNow( false );
 	}
 
+	/**
+	 * Only the edited frames are labeled again, and the following frames are re-linked as far as needed.
+	 * The re-linked frames are updated in the edited image.
+	 *
+	 * The edited frames are the frames that were shown when the image was changed, and the current frame,
+	 * as not all editing tools notify about changes.
+	 */
 	public ArrayList< RandomAccessibleInterval< T > > runMaximalOverlapTrackerOnEditedImagePlus()
 	{
-		final ArrayList< RandomAccessibleInterval< T > > labels =
-				Utils.get2DImagePlusMovieAsFrameList( editableLabelsImp, 1 );
+		final ImageStack stack = editableLabelsImp.getStack();
+
+		final BitSet frames;
+		synchronized ( editedFrames )
+		{
+			editedFrames.set( editableLabelsImp.getT() - 1 );
+			frames = ( BitSet ) editedFrames.clone();
+			editedFrames.clear();
+		}
+
+		for ( int t = frames.nextSetBit( 0 ); t >= 0 && t < tracker.numFrames(); t = frames.nextSetBit( t + 1 ) )
+		{
+			final ImageProcessor processor = getProcessor( stack, t );
+
+			if ( isEqual( processor, tracker.getLabeling( t ) ) ) continue;
+
+			final RandomAccessibleInterval< T > mask =
+					Utils.copyAsArrayImg( ImageJFunctions.wrap( new ImagePlus( "", processor ) ) );
 
-		// Due to the editing small unconnected regions of pixels may occur
-		Regions.removeSmallRegionsInMasks( labels, minimalObjectSizeInPixels );
+			// Due to the editing small unconnected regions of pixels may occur
+			Regions.removeSmallRegionsInMask( mask, minimalObjectSizeInPixels );
 
-		// TODO: if below turns out to be too slow, only do it for the last two frames
-		final MaximalOverlapTracker maximalOverlapTracker = new MaximalOverlapTracker( labels );
-		maximalOverlapTracker.run();
+			tracker.setEditedMask( t, mask );
+		}
 
-		return maximalOverlapTracker.getLabelings();
+		final ArrayList< Integer > relinkedFrames = tracker.relink();
+
+		for ( int t : relinkedFrames )
+			draw( tracker.getLabeling( t ), getProcessor( stack, t ) );
+
+		if ( ! relinkedFrames.isEmpty() )
+		{
+			IJ.run( editableLabelsImp, "Enhance Contrast", "saturated=0.00" );
+			editableLabelsImp.updateAndDraw();
+		}
+
+		labelSizeIndices = tracker.getLabelSizeIndices();
+
+		return ( ArrayList ) tracker.getLabelings();
+	}
+
+	private ImageProcessor getProcessor( ImageStack stack, int t )
+	{
+		return stack.getProcessor( editableLabelsImp.getStackIndex( 1, 1, t + 1 ) );
+	}
+
+	private static boolean isEqual( ImageProcessor processor, RandomAccessibleInterval< IntType > labeling )
+	{
+		final Cursor< IntType > cursor = Views.flatIterable( labeling ).cursor();
+
+		for ( int i = 0; cursor.hasNext(); ++i )
+			if ( ( int ) processor.getf( i ) != cursor.next().get() )
+				return false;
+
+		return true;
+	}
+
+	private static void draw( RandomAccessibleInterval< IntType > labeling, ImageProcessor processor )
+	{
+		final Cursor< IntType > cursor = Views.flatIterable( labeling ).cursor();
+
+		for ( int i = 0; cursor.hasNext(); ++i )
+			processor.setf( i, cursor.next().get() );
+	}
+
+	/**
+	 * @return the tracker, which holds the corrected labels.
+	 */
+	public IncrementalMaximalOverlapTracker getTracker()
+	{
+		return tracker;
 	}
 
 	public ArrayList< RandomAccessibleInterval< T > > getLabelings()
@@ -189,5 +345,13 @@ public class TrackingSplitterManualCorrectionUI < T extends RealType< T > & Nati
 		return labels;
 	}
 
+	/**
+	 * @return the size index of each labeling, in the same order as {@link #getLabelings()}.
+	 */
+	public ArrayList< LabelSizeIndex > getLabelSizeIndices()
+	{
+		return labelSizeIndices;
+	}
+
 
 }
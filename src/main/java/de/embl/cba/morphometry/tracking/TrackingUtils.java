@@ -2,133 +2,90 @@ package de.embl.cba.morphometry.tracking;
 
 import de.embl.cba.morphometry.Utils;
 import de.embl.cba.morphometry.regions.Regions;
-import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.labeling.ConnectedComponents;
 import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.roi.labeling.ImgLabeling;
 import net.imglib2.roi.labeling.LabelRegion;
-import net.imglib2.roi.labeling.LabelRegionCursor;
 import net.imglib2.roi.labeling.LabelRegions;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.util.Intervals;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
 
 public class TrackingUtils
 {
-	public static void addOverlap( HashMap< Integer, Long > overlaps, int integer )
+	public static < T extends RealType< T > & NativeType< T > >
+	LabelingAndMaxIndex getMaximalOverlapBasedLabeling(
+			RandomAccessibleInterval< IntType > referenceLabeling,
+			RandomAccessibleInterval< T > currentMask,
+			Integer maxIndex )
 	{
-		if ( overlaps.keySet().contains( integer ) )
-		{
-			overlaps.put( integer,  overlaps.get( integer ).longValue() + 1 );
-		}
-		else
-		{
-			overlaps.put( integer,  1L );
-		}
+		return getMaximalOverlapBasedLabeling( referenceLabeling, currentMask, maxIndex, null, 0 );
 	}
 
-
 	/**
-	 * TODO: maybe some area fraction overlap might be better?
-	 *
-	 *
-	 * @param overlaps
-	 * @return
+	 * @param lineage
+	 * 			if not null, the objects of frame t and their edges to frame t - 1
+	 * 			(the reference labeling) are added to the lineage
 	 */
-	public static int getMaxOverlapLabel( HashMap< Integer, Long > overlaps )
-	{
-		int maxOverlapLabel = 0;
-		long maxOverlap = Long.MIN_VALUE;
-
-		for ( Integer label : overlaps.keySet() )
-		{
-			final long overlap = overlaps.get( label ).longValue();
-
-			if ( overlap > maxOverlap )
-			{
-				maxOverlap = overlap;
-				maxOverlapLabel = label;
-			}
-		}
-		return maxOverlapLabel;
-	}
-
-	public static < T extends RealType< T > >
-	HashMap< Integer, Long > computeRegionOverlaps(
-			RandomAccessibleInterval< T > previousLabeling,
-			LabelRegion region )
-	{
-		final HashMap< Integer, Long > overlaps = new HashMap<>();
-
-		final RandomAccess< T > previousLabelsAccess = previousLabeling.randomAccess();
-		final LabelRegionCursor currentRegionCursor = region.cursor();
-
-		while ( currentRegionCursor.hasNext() )
-		{
-			currentRegionCursor.fwd();
-			previousLabelsAccess.setPosition( currentRegionCursor );
-
-			final int label = (int) previousLabelsAccess.get().getRealDouble();
-
-			if ( label != 0 )
-			{
-				addOverlap( overlaps, label );
-			}
-		}
-		return overlaps;
-	}
-
-
 	public static < T extends RealType< T > & NativeType< T > >
 	LabelingAndMaxIndex getMaximalOverlapBasedLabeling(
 			RandomAccessibleInterval< IntType > referenceLabeling,
 			RandomAccessibleInterval< T > currentMask,
-			Integer maxIndex )
+			Integer maxIndex,
+			LineageGraph lineage,
+			int t )
 	{
 		final HashSet< Integer > newObjectIds = new HashSet<>();
 
-		final LabelRegions< Integer > currentRegions = new LabelRegions(
+		final ImgLabeling< Integer, IntType > currentImgLabeling =
 				Regions.asImgLabeling(
 						currentMask,
-						ConnectedComponents.StructuringElement.FOUR_CONNECTED ) );
+						ConnectedComponents.StructuringElement.FOUR_CONNECTED );
+
+		final LabelRegions< Integer > currentRegions = new LabelRegions<>( currentImgLabeling );
+
+		final OverlapMatrix overlapMatrix =
+				new OverlapMatrix( currentImgLabeling, referenceLabeling );
 
 		final LabelingAndMaxIndex labelingAndMaxIndex = new LabelingAndMaxIndex();
 
 		labelingAndMaxIndex.labeling =
 				ArrayImgs.ints( Intervals.dimensionsAsLongArray( currentMask ) );
 
+		labelingAndMaxIndex.labelSizeIndex = new LabelSizeIndex( currentMask.numDimensions() );
+
+		int[] objectIds = new int[ 16 ]; // index: region label
+
 		for ( LabelRegion< Integer > region : currentRegions )
 		{
-			final HashMap< Integer, Long > overlaps =
-					computeRegionOverlaps( referenceLabeling, region );
+			int objectId = overlapMatrix.getMaxOverlapLabel( region.getLabel() );
 
-			int objectId;
-
-			if( overlaps.size() == 0 )
+			if( objectId == 0 || newObjectIds.contains( objectId ) )
 			{
 				objectId = ++maxIndex;
 			}
-			else
-			{
-				objectId = getMaxOverlapLabel( overlaps );
-
-				if ( newObjectIds.contains( objectId ) )
-				{
-					objectId = ++maxIndex;
-				}
-			}
 
 			newObjectIds.add( objectId );
 
+			if ( region.getLabel() >= objectIds.length )
+				objectIds = Arrays.copyOf( objectIds, Math.max( region.getLabel() + 1, 2 * objectIds.length ) );
+			objectIds[ region.getLabel() ] = objectId;
+
 			Utils.drawObject( labelingAndMaxIndex.labeling, region, objectId );
+
+			labelingAndMaxIndex.labelSizeIndex.add( objectId, region );
 		}
 
 		labelingAndMaxIndex.maxIndex = maxIndex;
 
+		if ( lineage != null )
+			lineage.addFrame( t, labelingAndMaxIndex.labelSizeIndex, overlapMatrix, objectIds );
+
 		return labelingAndMaxIndex;
 	}
 }
@@ -0,0 +1,183 @@
+package tests;
+
+import anisotropic_diffusion.Anisotropic_Diffusion_2D;
+import de.embl.cba.morphometry.AnisotropicDiffusion2D;
+import ij.ImagePlus;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the anisotropic diffusion with the Fiji plugin "Anisotropic Diffusion 2D",
+ * on noisy images of bright discs as in the microglia segmentation.
+ */
+public class TestAnisotropicDiffusion2D
+{
+	/**
+	 * The outputs are not identical, because
+	 * - the result of the plugin is read from the ImageJ processor of its last saved iteration,
+	 *   rounded if that has the integer bit depth of the input,
+	 *   whereas {@link AnisotropicDiffusion2D} returns the float intensities,
+	 * - the gradients, from which the diffusion tensors are computed, are central differences here,
+	 *   which may differ from the derivative masks of the plugin in noisy regions,
+	 * - the plugin computes the tensors via the eigen decomposition of the gradient tensor, which
+	 *   gives the same tensors as the closed form used here, but with different float rounding.
+	 * Since the adaptive time step moves the fastest pixel by 20 grey levels per iteration,
+	 * these differences accumulate at the edges of the discs.
+	 *
+	 * The comparison therefore bounds the root mean squared difference to 10 grey levels
+	 * (the noise has a standard deviation of 50, the discs a contrast of 800),
+	 * and checks that thresholding both outputs half way between background and discs,
+	 * as done by the segmentation, gives the same mask up to a few border pixels.
+	 */
+	@Test
+	public void smoothsLikeImageJPlugin()
+	{
+		final Img< UnsignedShortType > image = noisyDiscs( 128, 96, 42 );
+
+		final RandomAccessibleInterval< FloatType > expected = smoothWithPlugin( image );
+		final RandomAccessibleInterval< FloatType > smoothed = smooth( image, 1 );
+
+		final double difference = rootMeanSquaredDifference( smoothed, expected );
+		assertTrue( "RMS difference: " + difference, difference < 10.0 );
+
+		final long numDifferentMaskPixels = numDifferentMaskPixels( smoothed, expected, 600 );
+		assertTrue( "Different mask pixels: " + numDifferentMaskPixels, numDifferentMaskPixels <= 0.002 * 128 * 96 );
+	}
+
+	@Test
+	public void smoothsSameWithMultipleThreads()
+	{
+		final Img< UnsignedShortType > image = noisyDiscs( 67, 53, 7 );
+
+		assertEquals( 0.0, rootMeanSquaredDifference( smooth( image, 1 ), smooth( image, 4 ) ), 0.0 );
+	}
+
+	@Test
+	public void keepsConstantImages()
+	{
+		final Img< UnsignedShortType > image = ArrayImgs.unsignedShorts( 20, 10 );
+		for ( UnsignedShortType pixel : image )
+			pixel.set( 100 );
+
+		for ( FloatType pixel : Views.iterable( smooth( image, 2 ) ) )
+			assertEquals( 100.0f, pixel.get(), 0.0f );
+	}
+
+	private static RandomAccessibleInterval< FloatType > smooth( Img< UnsignedShortType > image, int numThreads )
+	{
+		final AnisotropicDiffusion2D< UnsignedShortType > diffusion = new AnisotropicDiffusion2D<>( image );
+		diffusion.setNumThreads( numThreads );
+		diffusion.run();
+		return diffusion.getSmoothed();
+	}
+
+	private static RandomAccessibleInterval< FloatType > smoothWithPlugin( Img< UnsignedShortType > image )
+	{
+		final ImagePlus wrap = ImageJFunctions.wrap( image, "" );
+		final Anisotropic_Diffusion_2D diffusion2D = new Anisotropic_Diffusion_2D();
+		diffusion2D.setup( "", wrap );
+		final ImagePlus smoothed = diffusion2D.runTD( wrap.getProcessor() );
+
+		// the last saved iteration
+		final ImagePlus last = new ImagePlus( "", smoothed.getStack().getProcessor( smoothed.getStackSize() ) );
+		return ImageJFunctions.convertFloat( last );
+	}
+
+	private static Img< UnsignedShortType > noisyDiscs( int width, int height, long seed )
+	{
+		final Img< UnsignedShortType > image = ArrayImgs.unsignedShorts( width, height );
+		final Random random = new Random( seed );
+
+		final double[][] discs = new double[ 8 ][];
+		for ( int i = 0; i < discs.length; ++i )
+			discs[ i ] = new double[]{ random.nextDouble() * width, random.nextDouble() * height, 4 + 6 * random.nextDouble() };
+
+		final Cursor< UnsignedShortType > cursor = image.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			double value = 200;
+			for ( double[] disc : discs )
+			{
+				final double dx = cursor.getDoublePosition( 0 ) - disc[ 0 ];
+				final double dy = cursor.getDoublePosition( 1 ) - disc[ 1 ];
+				if ( dx * dx + dy * dy <= disc[ 2 ] * disc[ 2 ] ) value = 1000;
+			}
+			cursor.get().set( ( int ) Math.max( 0, value + 50 * random.nextGaussian() ) );
+		}
+
+		return image;
+	}
+
+	private static long numDifferentMaskPixels(
+			RandomAccessibleInterval< FloatType > a,
+			RandomAccessibleInterval< FloatType > b,
+			double threshold )
+	{
+		final Cursor< FloatType > aCursor = Views.flatIterable( a ).cursor();
+		final Cursor< FloatType > bCursor = Views.flatIterable( b ).cursor();
+
+		long count = 0;
+		while ( aCursor.hasNext() )
+			if ( ( aCursor.next().get() > threshold ) != ( bCursor.next().get() > threshold ) )
+				count++;
+
+		return count;
+	}
+
+	private static < A extends RealType< A >, B extends RealType< B > > double rootMeanSquaredDifference(
+			RandomAccessibleInterval< A > a,
+			RandomAccessibleInterval< B > b )
+	{
+		final Cursor< A > aCursor = Views.flatIterable( a ).cursor();
+		final Cursor< B > bCursor = Views.flatIterable( b ).cursor();
+
+		double sum = 0;
+		long count = 0;
+		while ( aCursor.hasNext() )
+		{
+			final double difference = aCursor.next().getRealDouble() - bCursor.next().getRealDouble();
+			sum += difference * difference;
+			count++;
+		}
+
+		return Math.sqrt( sum / count );
+	}
+
+	public static void main( String[] args )
+	{
+		final int numFrames = 10;
+		final Img< UnsignedShortType > image = noisyDiscs( 512, 512, 1 );
+
+		long start = System.currentTimeMillis();
+		for ( int t = 0; t < numFrames; ++t )
+			smoothWithPlugin( image );
+		final long pluginDuration = ( System.currentTimeMillis() - start ) / numFrames;
+
+		System.out.println( "ImageJ plugin: " + pluginDuration + " ms per frame" );
+
+		for ( int numThreads = 1; numThreads <= Runtime.getRuntime().availableProcessors(); numThreads *= 2 )
+		{
+			start = System.currentTimeMillis();
+			for ( int t = 0; t < numFrames; ++t )
+				smooth( image, numThreads );
+			final long duration = ( System.currentTimeMillis() - start ) / numFrames;
+
+			System.out.println( numThreads + " threads: " + duration + " ms per frame, speed-up "
+					+ String.format( "%.1f", ( double ) pluginDuration / Math.max( 1, duration ) ) );
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package tests;
+
+import de.embl.cba.morphometry.measurements.BackgroundCorrectedIntensities;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class TestBackgroundCorrectedIntensities
+{
+	@Test
+	public void correctsByBackgroundMean()
+	{
+		final BackgroundCorrectedIntensities intensities =
+				new BackgroundCorrectedIntensities( labeling(), image() );
+
+		assertEquals( 2.0, intensities.getBackgroundMean(), 0.0 );
+		assertEquals( 6.0, intensities.getBgCorrectedSumIntensity( 1 ), 0.0 );
+		assertEquals( 8.0, intensities.getBgCorrectedSumIntensity( 2 ), 0.0 );
+		assertEquals( 0.0, intensities.getBgCorrectedSumIntensity( 3 ), 0.0 );
+	}
+
+	@Test
+	public void cachesResultsPerFrame()
+	{
+		final BackgroundCorrectedIntensities.Cache cache = new BackgroundCorrectedIntensities.Cache();
+		final Img< IntType > labeling = labeling();
+
+		final BackgroundCorrectedIntensities intensities = cache.get( 0, labeling, 0, image() );
+
+		// the image of the frame has been read again
+		assertSame( intensities, cache.get( 0, labeling, 0, image() ) );
+		assertEquals( 1, cache.size() );
+
+		// the same labeling with the image of another frame
+		assertNotSame( intensities, cache.get( 0, labeling, 1, image() ) );
+		assertEquals( 2, cache.size() );
+
+		// the labeling of the frame has been replaced
+		final Img< IntType > edited = ArrayImgs.ints( new int[]{ 0, 1, 1, 1 }, 4 );
+		final BackgroundCorrectedIntensities editedIntensities = cache.get( 0, edited, 0, image() );
+		assertNotSame( intensities, editedIntensities );
+		assertEquals( 14.0, editedIntensities.getBgCorrectedSumIntensity( 1 ), 0.0 );
+		assertSame( editedIntensities, cache.get( 0, edited, 0, image() ) );
+	}
+
+	@Test
+	public void invalidatesLabelingsOfFrame()
+	{
+		final BackgroundCorrectedIntensities.Cache cache = new BackgroundCorrectedIntensities.Cache();
+		final Img< IntType > labeling = labeling();
+		final Img< IntType > otherLabeling = labeling();
+
+		final BackgroundCorrectedIntensities intensities = cache.get( 0, labeling, 0, image() );
+		final BackgroundCorrectedIntensities otherIntensities = cache.get( 1, otherLabeling, 1, image() );
+
+		cache.invalidate( 0 );
+
+		assertEquals( 1, cache.size() );
+		assertNotSame( intensities, cache.get( 0, labeling, 0, image() ) );
+		assertSame( otherIntensities, cache.get( 1, otherLabeling, 1, image() ) );
+
+		cache.clear();
+		assertEquals( 0, cache.size() );
+	}
+
+	private static Img< IntType > labeling()
+	{
+		return ArrayImgs.ints( new int[]{ 0, 1, 1, 2 }, 4 );
+	}
+
+	private static Img< FloatType > image()
+	{
+		return ArrayImgs.floats( new float[]{ 2, 4, 6, 10 }, 4 );
+	}
+}
@@ -0,0 +1,102 @@
+package tests;
+
+import de.embl.cba.morphometry.BinaryMorphology;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.morphology.Dilation;
+import net.imglib2.algorithm.morphology.Erosion;
+import net.imglib2.algorithm.neighborhood.HyperSphereShape;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the distance transform based morphology on random masks
+ * with the neighborhood based imglib2 erosion and dilation.
+ */
+public class TestBinaryMorphology
+{
+	@Test
+	public void erodesAndDilatesLikeNeighborhoods()
+	{
+		for ( int radius = 1; radius <= 4; ++radius )
+		{
+			final RandomAccessibleInterval< BitType > mask = randomMask( radius, 0.7, 31, 23, 9 );
+			final HyperSphereShape shape = new HyperSphereShape( radius );
+
+			final RandomAccessibleInterval< BitType > eroded = emptyCopy( mask, 0 );
+			Erosion.erode( Views.extendBorder( mask ), Views.iterable( eroded ), shape, 1 );
+			assertEqualMasks( eroded, BinaryMorphology.erode( mask, radius ) );
+
+			final RandomAccessibleInterval< BitType > dilated = emptyCopy( mask, 0 );
+			Dilation.dilate( Views.extendBorder( mask ), Views.iterable( dilated ), shape, 1 );
+			assertEqualMasks( dilated, BinaryMorphology.dilate( mask, radius ) );
+		}
+	}
+
+	@Test
+	public void opensAndClosesLikeNeighborhoodsWithZeroExtension()
+	{
+		for ( int radius = 1; radius <= 4; ++radius )
+		{
+			final RandomAccessibleInterval< BitType > mask = randomMask( 10 + radius, 0.6, 37, 29 );
+			final HyperSphereShape shape = new HyperSphereShape( radius );
+
+			final RandomAccessibleInterval< BitType > eroded = emptyCopy( mask, 0 );
+			Erosion.erode( Views.extendZero( mask ), Views.iterable( eroded ), shape, 1 );
+			final RandomAccessibleInterval< BitType > opened = emptyCopy( mask, 0 );
+			Dilation.dilate( Views.extendZero( eroded ), Views.iterable( opened ), shape, 1 );
+			assertEqualMasks( opened, BinaryMorphology.open( mask, radius ) );
+
+			final RandomAccessibleInterval< BitType > dilated = emptyCopy( mask, radius );
+			Dilation.dilate( Views.extendZero( mask ), Views.iterable( dilated ), shape, 1 );
+			final RandomAccessibleInterval< BitType > closed = emptyCopy( mask, 0 );
+			Erosion.erode( Views.extendZero( dilated ), Views.iterable( closed ), shape, 1 );
+			assertEqualMasks( closed, BinaryMorphology.close( mask, radius ) );
+		}
+	}
+
+	private static RandomAccessibleInterval< BitType > randomMask( long seed, double probability, long... dimensions )
+	{
+		final RandomAccessibleInterval< BitType > mask = ArrayImgs.bits( dimensions );
+
+		final Random random = new Random( seed );
+		for ( BitType pixel : Views.iterable( mask ) )
+			pixel.set( random.nextDouble() < probability );
+
+		return mask;
+	}
+
+	private static RandomAccessibleInterval< BitType > emptyCopy( RandomAccessibleInterval< BitType > mask, long border )
+	{
+		final long[] min = Intervals.minAsLongArray( mask );
+		final long[] dimensions = Intervals.dimensionsAsLongArray( mask );
+		for ( int d = 0; d < min.length; ++d )
+		{
+			min[ d ] -= border;
+			dimensions[ d ] += 2 * border;
+		}
+
+		return Views.translate( ArrayImgs.bits( dimensions ), min );
+	}
+
+	private static void assertEqualMasks( RandomAccessibleInterval< BitType > expected, RandomAccessibleInterval< BitType > actual )
+	{
+		final Cursor< BitType > cursor = Views.iterable( expected ).localizingCursor();
+		final RandomAccess< BitType > access = actual.randomAccess();
+
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			access.setPosition( cursor );
+			assertEquals( cursor.get().get(), access.get().get() );
+		}
+	}
+}
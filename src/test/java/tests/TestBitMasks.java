@@ -0,0 +1,120 @@
+package tests;
+
+import de.embl.cba.morphometry.BitMasks;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the word-level operations on array images with the cursor fallback on cell images,
+ * for dimensions that are not a multiple of 64.
+ */
+public class TestBitMasks
+{
+	private static final long[] DIMENSIONS = new long[]{ 37, 11, 5 };
+	private static final long[] MIN = new long[]{ -3, 4, 10 };
+
+	@Test
+	public void combinesLikeCursors()
+	{
+		for ( int operation = 0; operation < 5; ++operation )
+		{
+			final RandomAccessibleInterval< BitType > words = randomArrayMask( 1 );
+			final RandomAccessibleInterval< BitType > cursors = asCellMask( words );
+			final RandomAccessibleInterval< BitType > other = randomArrayMask( 2 );
+
+			apply( operation, words, other );
+			apply( operation, cursors, asCellMask( other ) );
+
+			assertEqualMasks( cursors, words );
+			assertEquals( BitMasks.count( cursors ), BitMasks.count( words ) );
+		}
+	}
+
+	@Test
+	public void countsOnlyPixelsOfTheMask()
+	{
+		final RandomAccessibleInterval< BitType > mask = Views.translate( ArrayImgs.bits( DIMENSIONS ), MIN );
+		BitMasks.invert( mask );
+
+		assertEquals( 37 * 11 * 5, BitMasks.count( mask ) );
+	}
+
+	@Test
+	public void thresholdsAndDraws()
+	{
+		final RandomAccessibleInterval< FloatType > image = Views.translate( ArrayImgs.floats( DIMENSIONS ), MIN );
+		final Random random = new Random( 3 );
+		for ( FloatType pixel : Views.iterable( image ) )
+			pixel.set( random.nextFloat() );
+
+		final RandomAccessibleInterval< BitType > mask = BitMasks.threshold( image, 0.5 );
+		final Cursor< FloatType > cursor = Views.iterable( image ).localizingCursor();
+		final RandomAccess< BitType > access = mask.randomAccess();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			access.setPosition( cursor );
+			assertEquals( cursor.get().get() > 0.5, access.get().get() );
+		}
+
+		final RandomAccessibleInterval< BitType > drawn = Views.translate( ArrayImgs.bits( DIMENSIONS ), MIN );
+		final FinalInterval region = new FinalInterval( new long[]{ 0, 5, 11 }, new long[]{ 20, 9, 13 } );
+		BitMasks.draw( Views.interval( drawn, region ), drawn );
+
+		assertEquals( 21 * 5 * 3, BitMasks.count( drawn ) );
+	}
+
+	private static void apply( int operation, RandomAccessibleInterval< BitType > mask, RandomAccessibleInterval< BitType > other )
+	{
+		switch ( operation )
+		{
+			case 0: BitMasks.and( mask, other ); break;
+			case 1: BitMasks.or( mask, other ); break;
+			case 2: BitMasks.andNot( mask, other ); break;
+			case 3: BitMasks.copy( other, mask ); break;
+			default: BitMasks.invert( mask );
+		}
+	}
+
+	private static RandomAccessibleInterval< BitType > randomArrayMask( long seed )
+	{
+		final RandomAccessibleInterval< BitType > mask = Views.translate( ArrayImgs.bits( DIMENSIONS ), MIN );
+		final Random random = new Random( seed );
+		for ( BitType pixel : Views.iterable( mask ) )
+			pixel.set( random.nextBoolean() );
+		return mask;
+	}
+
+	private static RandomAccessibleInterval< BitType > asCellMask( RandomAccessibleInterval< BitType > mask )
+	{
+		final RandomAccessibleInterval< BitType > cellMask =
+				Views.translate( new CellImgFactory<>( new BitType(), 7 ).create( DIMENSIONS ), MIN );
+
+		final Cursor< BitType > cursor = Views.flatIterable( mask ).cursor();
+		final Cursor< BitType > cellCursor = Views.flatIterable( cellMask ).cursor();
+		while ( cursor.hasNext() )
+			cellCursor.next().set( cursor.next() );
+
+		return cellMask;
+	}
+
+	private static void assertEqualMasks( RandomAccessibleInterval< BitType > expected, RandomAccessibleInterval< BitType > actual )
+	{
+		final Cursor< BitType > cursor = Views.flatIterable( expected ).cursor();
+		final Cursor< BitType > actualCursor = Views.flatIterable( actual ).cursor();
+		while ( cursor.hasNext() )
+			assertEquals( cursor.next().get(), actualCursor.next().get() );
+	}
+}
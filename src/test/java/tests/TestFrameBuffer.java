@@ -0,0 +1,156 @@
+package tests;
+
+import de.embl.cba.morphometry.FrameSource;
+import de.embl.cba.morphometry.tracking.FrameBuffer;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TestFrameBuffer
+{
+	@Test
+	public void requestsFramesInAscendingOrder()
+	{
+		final RecordingSource source = new RecordingSource( 5 );
+		final FrameBuffer< IntType > buffer = new FrameBuffer<>( source, 0, 3 );
+
+		assertSame( source.frames.get( 2 ), buffer.getFrame( 2 ) );
+		assertSame( source.frames.get( 1 ), buffer.getFrame( 1 ) );
+		assertSame( source.frames.get( 0 ), buffer.getFrame( 0 ) );
+		assertEquals( Arrays.asList( 0, 1, 2 ), source.requested );
+
+		buffer.releaseFramesBefore( 2 );
+		assertEquals( 1, buffer.numBufferedFrames() );
+		assertSame( source.frames.get( 4 ), buffer.getFrame( 4 ) );
+		assertEquals( Arrays.asList( 0, 1, 2, 3, 4 ), source.requested );
+
+		try
+		{
+			buffer.getFrame( 1 );
+			fail( "Expected frame 1 to be released" );
+		}
+		catch ( IllegalStateException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void waitsForTrackingToProceed() throws Exception
+	{
+		final RecordingSource source = new RecordingSource( 5 );
+		final FrameBuffer< IntType > buffer = new FrameBuffer<>( source, 0, 2 );
+
+		final CompletableFuture< RandomAccessibleInterval< IntType > > ahead =
+				CompletableFuture.supplyAsync( () -> buffer.getFrame( 3 ) );
+
+		assertTimesOut( ahead );
+		assertEquals( Collections.emptyList(), source.requested );
+
+		buffer.releaseFramesBefore( 1 );
+		assertTimesOut( ahead );
+
+		buffer.releaseFramesBefore( 2 );
+		assertSame( source.frames.get( 3 ), ahead.get( 5, TimeUnit.SECONDS ) );
+		assertEquals( Arrays.asList( 0, 1, 2, 3 ), source.requested );
+		assertEquals( 2, buffer.numBufferedFrames() );
+	}
+
+	@Test
+	public void providesBufferedFramesWhileLoading() throws Exception
+	{
+		final CountDownLatch loading = new CountDownLatch( 1 );
+		final CountDownLatch release = new CountDownLatch( 1 );
+		final RecordingSource source = new RecordingSource( 3 )
+		{
+			@Override
+			public RandomAccessibleInterval< IntType > getFrame( int t )
+			{
+				if ( t == 1 )
+				{
+					loading.countDown();
+					await( release );
+				}
+				return super.getFrame( t );
+			}
+		};
+
+		final FrameBuffer< IntType > buffer = new FrameBuffer<>( source, 0, 3 );
+		buffer.getFrame( 0 );
+
+		final CompletableFuture< RandomAccessibleInterval< IntType > > ahead =
+				CompletableFuture.supplyAsync( () -> buffer.getFrame( 1 ) );
+		await( loading );
+
+		assertSame( source.frames.get( 0 ), buffer.getFrame( 0 ) );
+		assertFalse( ahead.isDone() );
+
+		release.countDown();
+		assertSame( source.frames.get( 1 ), ahead.get( 5, TimeUnit.SECONDS ) );
+	}
+
+	private static void assertTimesOut( CompletableFuture< ? > future ) throws Exception
+	{
+		try
+		{
+			future.get( 200, TimeUnit.MILLISECONDS );
+			fail( "Expected the request to wait" );
+		}
+		catch ( TimeoutException e )
+		{
+			// expected
+		}
+	}
+
+	private static void await( CountDownLatch latch )
+	{
+		try
+		{
+			if ( ! latch.await( 5, TimeUnit.SECONDS ) ) throw new IllegalStateException( "Timed out" );
+		}
+		catch ( InterruptedException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+
+	private static class RecordingSource implements FrameSource< IntType >
+	{
+		final List< RandomAccessibleInterval< IntType > > frames = new ArrayList<>();
+		final List< Integer > requested = Collections.synchronizedList( new ArrayList<>() );
+
+		RecordingSource( int numFrames )
+		{
+			for ( int t = 0; t < numFrames; ++t )
+				frames.add( ArrayImgs.ints( 1 ) );
+		}
+
+		@Override
+		public int numFrames()
+		{
+			return frames.size();
+		}
+
+		@Override
+		public RandomAccessibleInterval< IntType > getFrame( int t )
+		{
+			requested.add( t );
+			return frames.get( t );
+		}
+	}
+}
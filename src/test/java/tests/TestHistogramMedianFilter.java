@@ -0,0 +1,74 @@
+package tests;
+
+import de.embl.cba.morphometry.HistogramMedianFilter;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.neighborhood.HyperSphereShape;
+import net.imglib2.algorithm.neighborhood.Neighborhood;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the histogram based median filter with sorting the border extended hyper-sphere neighborhoods.
+ */
+public class TestHistogramMedianFilter
+{
+	@Test
+	public void filters8BitImagesLikeSortedNeighborhoods()
+	{
+		for ( int radius = 0; radius <= 5; ++radius )
+			assertSortedNeighborhoodMedians( random( ArrayImgs.unsignedBytes( 41, 27 ), 256, radius ), radius, 1 );
+	}
+
+	@Test
+	public void filters16BitVolumesLikeSortedNeighborhoods()
+	{
+		for ( int radius = 1; radius <= 3; ++radius )
+			assertSortedNeighborhoodMedians( random( ArrayImgs.unsignedShorts( 19, 13, 11 ), 65536, radius ), radius, 3 );
+	}
+
+	private static < R extends RealType< R > & NativeType< R > & IntegerType< R > >
+	void assertSortedNeighborhoodMedians( RandomAccessibleInterval< R > image, int radius, int numThreads )
+	{
+		final HistogramMedianFilter< R > filter = new HistogramMedianFilter<>( image, radius );
+		filter.setNumThreads( numThreads );
+		filter.run();
+		final RandomAccess< R > filteredAccess = filter.getFiltered().randomAccess();
+
+		final Cursor< Neighborhood< R > > cursor = Views.iterable( Views.interval(
+				new HyperSphereShape( radius ).neighborhoodsRandomAccessible( Views.extendBorder( image ) ),
+				image ) ).localizingCursor();
+
+		while ( cursor.hasNext() )
+		{
+			final Neighborhood< R > neighborhood = cursor.next();
+			final long[] values = new long[ ( int ) neighborhood.size() ];
+			int i = 0;
+			for ( R value : neighborhood )
+				values[ i++ ] = value.getIntegerLong();
+			Arrays.sort( values );
+
+			filteredAccess.setPosition( cursor );
+			assertEquals( values[ values.length / 2 ], filteredAccess.get().getIntegerLong() );
+		}
+	}
+
+	private static < R extends IntegerType< R > > RandomAccessibleInterval< R > random(
+			RandomAccessibleInterval< R > image, int numValues, long seed )
+	{
+		final Random random = new Random( seed );
+		for ( R pixel : Views.iterable( image ) )
+			pixel.setInteger( random.nextInt( numValues ) );
+		return image;
+	}
+}
@@ -0,0 +1,90 @@
+package tests;
+
+import de.embl.cba.morphometry.BitMasks;
+import de.embl.cba.morphometry.HoleFilling;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that only the cavities that are enclosed in 3D are filled, also across slabs.
+ */
+public class TestHoleFilling
+{
+	@Test
+	public void fillsEnclosedCavities()
+	{
+		final Img< BitType > mask = ArrayImgs.bits( 20, 20, 20 );
+		drawBox( mask, 5, 14, true );
+		drawBox( mask, 7, 12, false );
+
+		final RandomAccessibleInterval< BitType > filled = HoleFilling.fillHoles( mask, 3 );
+
+		assertEquals( 10 * 10 * 10, BitMasks.count( filled ) );
+	}
+
+	@Test
+	public void keepsTunnelsThatAreOpenIn3D()
+	{
+		// a tube along z: its lumen is a hole in each xy slice, but connected to the border in 3D
+		final Img< BitType > mask = ArrayImgs.bits( 15, 15, 10 );
+		final Cursor< BitType > cursor = mask.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			final long dx = Math.abs( cursor.getLongPosition( 0 ) - 7 );
+			final long dy = Math.abs( cursor.getLongPosition( 1 ) - 7 );
+			cursor.get().set( Math.max( dx, dy ) == 3 );
+		}
+
+		final RandomAccessibleInterval< BitType > filled = HoleFilling.fillHoles( mask, 2 );
+
+		assertEquals( BitMasks.count( mask ), BitMasks.count( filled ) );
+		final RandomAccess< BitType > access = filled.randomAccess();
+		access.setPosition( new long[]{ 7, 7, 5 } );
+		assertFalse( access.get().get() );
+	}
+
+	@Test
+	public void fillsSameWithMultipleThreads()
+	{
+		final Img< BitType > mask = ArrayImgs.bits( 31, 23, 17 );
+		final Random random = new Random( 42 );
+		for ( BitType pixel : mask )
+			pixel.set( random.nextDouble() < 0.6 );
+
+		final RandomAccessibleInterval< BitType > filled = HoleFilling.fillHoles( mask, 1 );
+		assertTrue( BitMasks.count( filled ) > BitMasks.count( mask ) );
+
+		for ( int numThreads = 2; numThreads <= 5; ++numThreads )
+		{
+			final Cursor< BitType > expected = Views.flatIterable( filled ).cursor();
+			for ( BitType pixel : Views.flatIterable( HoleFilling.fillHoles( mask, numThreads ) ) )
+				assertEquals( expected.next().get(), pixel.get() );
+		}
+	}
+
+	private static void drawBox( Img< BitType > mask, long min, long max, boolean value )
+	{
+		final Cursor< BitType > cursor = mask.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			boolean isInside = true;
+			for ( int d = 0; d < 3; ++d )
+				isInside &= cursor.getLongPosition( d ) >= min && cursor.getLongPosition( d ) <= max;
+			if ( isInside ) cursor.get().set( value );
+		}
+	}
+}
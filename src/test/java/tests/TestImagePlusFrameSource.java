@@ -0,0 +1,72 @@
+package tests;
+
+import de.embl.cba.morphometry.ImagePlusFrameSource;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ShortProcessor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Util;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class TestImagePlusFrameSource
+{
+	private static final int NUM_FRAMES = 10;
+
+	@Test
+	public void keepsMostRecentlyUsedFrames()
+	{
+		// as in the segmentation and tracking command: the masks in the pipeline plus the default cache
+		final int queueDepth = 2;
+		final int cacheSize = queueDepth + ImagePlusFrameSource.DEFAULT_CACHE_SIZE;
+
+		final ImagePlusFrameSource< UnsignedShortType > frames =
+				new ImagePlusFrameSource<>( createMovie(), 1, 1, NUM_FRAMES, cacheSize );
+
+		final RandomAccessibleInterval< UnsignedShortType > first = frames.getFrame( 0 );
+		final RandomAccessibleInterval< UnsignedShortType > second = frames.getFrame( 1 );
+		for ( int t = 2; t < cacheSize; ++t )
+			frames.getFrame( t );
+
+		// all frames fit into the cache
+		assertSame( first, frames.getFrame( 0 ) );
+
+		// the least recently used frame is evicted, which is the second one since the first has just been used
+		frames.getFrame( cacheSize );
+		assertSame( first, frames.getFrame( 0 ) );
+
+		final RandomAccessibleInterval< UnsignedShortType > secondAgain = frames.getFrame( 1 );
+		assertNotSame( second, secondAgain );
+		assertEquals( 1, Util.getTypeFromInterval( secondAgain ).get() );
+		assertEquals( NUM_FRAMES - 1, Util.getTypeFromInterval( frames.getFrame( NUM_FRAMES - 1 ) ).get() );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void rejectsFramesOutOfBounds()
+	{
+		new ImagePlusFrameSource< UnsignedShortType >( createMovie(), 1, 3, 5, 2 ).getFrame( 3 );
+	}
+
+	/**
+	 * All pixels of frame t have the value t.
+	 */
+	private static ImagePlus createMovie()
+	{
+		final ImageStack stack = new ImageStack( 4, 3 );
+		for ( int t = 0; t < NUM_FRAMES; ++t )
+		{
+			final ShortProcessor processor = new ShortProcessor( 4, 3 );
+			processor.setValue( t );
+			processor.fill();
+			stack.addSlice( processor );
+		}
+
+		final ImagePlus imagePlus = new ImagePlus( "movie", stack );
+		imagePlus.setDimensions( 1, 1, NUM_FRAMES );
+		return imagePlus;
+	}
+}
@@ -0,0 +1,122 @@
+package tests;
+
+import de.embl.cba.morphometry.tracking.IncrementalMaximalOverlapTracker;
+import de.embl.cba.morphometry.tracking.LineageGraph;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Three frames with two tracked objects; in the middle frame the left object is cut into two pieces.
+ */
+public class TestIncrementalMaximalOverlapTracker
+{
+	@Test
+	public void relinksAfterEdit()
+	{
+		final IncrementalMaximalOverlapTracker tracker = new IncrementalMaximalOverlapTracker();
+		for ( int t = 0; t < 3; ++t )
+			tracker.setLabeling( t, twoObjects(), null );
+
+		assertTrue( tracker.relink().isEmpty() );
+
+		final Img< IntType > edited = twoObjects();
+		for ( int y = 1; y <= 4; ++y )
+			set( edited, 3, y, 0 );
+		tracker.setEditedMask( 1, edited );
+
+		final ArrayList< Integer > relinkedFrames = tracker.relink();
+		assertEquals( Arrays.asList( 1, 2 ), relinkedFrames );
+
+		// the first piece continues the track, the second one starts a new track
+		assertEquals( 1, get( tracker.getLabeling( 1 ), 1, 2 ) );
+		assertEquals( 3, get( tracker.getLabeling( 1 ), 4, 2 ) );
+		assertEquals( 2, get( tracker.getLabeling( 1 ), 9, 2 ) );
+		assertEquals( 0, get( tracker.getLabeling( 1 ), 3, 2 ) );
+		assertEquals( 12, tracker.getLabelSizeIndex( 1 ).getSize( 1 ) );
+		assertEquals( 4, tracker.getLabelSizeIndex( 1 ).getSize( 3 ) );
+
+		// the following frame keeps its track ids
+		assertEquals( 1, get( tracker.getLabeling( 2 ), 0, 2 ) );
+		assertEquals( 1, get( tracker.getLabeling( 2 ), 4, 2 ) );
+		assertEquals( 2, get( tracker.getLabeling( 2 ), 9, 2 ) );
+		assertEquals( 1, get( tracker.getLabeling( 0 ), 0, 2 ) );
+
+		assertTrue( tracker.relink().isEmpty() );
+	}
+
+	@Test
+	public void updatesLineageAfterEdit()
+	{
+		final IncrementalMaximalOverlapTracker tracker = new IncrementalMaximalOverlapTracker();
+		for ( int t = 0; t < 3; ++t )
+			tracker.setLabeling( t, twoObjects(), null );
+
+		final LineageGraph lineage = new LineageGraph();
+		tracker.updateLineage( lineage );
+		assertEquals( 3, lineage.numFrames() );
+		assertEquals( 6, lineage.numNodes() );
+		assertEquals( 4, lineage.numEdges() );
+
+		final Img< IntType > edited = twoObjects();
+		for ( int y = 1; y <= 4; ++y )
+			set( edited, 3, y, 0 );
+		tracker.setEditedMask( 1, edited );
+		tracker.relink();
+		tracker.updateLineage( lineage );
+
+		// the second piece splits off track 1 and is merged back into it in the following frame
+		assertEquals( 7, lineage.numNodes() );
+		assertEquals( 6, lineage.numEdges() );
+		assertEquals( 3, lineage.getMaxTrackId() );
+		assertEquals( 1, lineage.getTrackLength( 3 ) );
+		assertEquals( 4, lineage.getSize( lineage.getNode( 1, 3 ) ) );
+
+		final int piece = lineage.getNode( 1, 3 );
+		assertArrayEquals( new int[]{ lineage.getNode( 0, 1 ) }, lineage.getPredecessors( piece, LineageGraph.SPLIT ) );
+		assertArrayEquals( new int[]{ piece }, lineage.getPredecessors( lineage.getNode( 2, 1 ), LineageGraph.MERGE ) );
+		assertArrayEquals( new int[]{ lineage.getNode( 1, 2 ) }, lineage.getPredecessors( lineage.getNode( 2, 2 ), LineageGraph.LINK ) );
+
+		// nothing has changed since the last update
+		tracker.updateLineage( lineage );
+		assertEquals( 7, lineage.numNodes() );
+		assertEquals( 6, lineage.numEdges() );
+	}
+
+	private static Img< IntType > twoObjects()
+	{
+		final Img< IntType > labeling = ArrayImgs.ints( 12, 6 );
+		for ( int y = 1; y <= 4; ++y )
+		{
+			for ( int x = 0; x <= 4; ++x )
+				set( labeling, x, y, 1 );
+			for ( int x = 8; x <= 10; ++x )
+				set( labeling, x, y, 2 );
+		}
+		return labeling;
+	}
+
+	private static void set( Img< IntType > labeling, int x, int y, int label )
+	{
+		final RandomAccess< IntType > access = labeling.randomAccess();
+		access.setPosition( new int[]{ x, y } );
+		access.get().set( label );
+	}
+
+	private static int get( RandomAccessibleInterval< IntType > labeling, int x, int y )
+	{
+		final RandomAccess< IntType > access = labeling.randomAccess();
+		access.setPosition( new int[]{ x, y } );
+		return access.get().get();
+	}
+}
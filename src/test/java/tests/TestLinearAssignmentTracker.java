@@ -0,0 +1,326 @@
+package tests;
+
+import de.embl.cba.morphometry.tracking.LineageGraph;
+import de.embl.cba.morphometry.tracking.LinearAssignmentTracker;
+import de.embl.cba.morphometry.tracking.LinearAssignmentTrackerSettings;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Synthetic time series of randomly moving blobs, on a grid or crowded, some of which are missed in single frames.
+ */
+public class TestLinearAssignmentTracker
+{
+	private static final int SPACING = 24;
+	private static final int RADIUS = 2;
+	private static final int MAX_SPEED = 2;
+
+	@Test
+	public void keepsTrackIdsAcrossGaps()
+	{
+		final MovingBlobs blobs = new MovingBlobs( 20, 6, 0.05, 42 );
+
+		final LinearAssignmentTracker< UnsignedByteType > tracker =
+				new LinearAssignmentTracker<>( blobs.masks, new LinearAssignmentTrackerSettings() );
+		tracker.run();
+
+		assertEquals( blobs.numBlobs, tracker.getNumTracks() );
+		assertTrackIdsAreConsistent( blobs, tracker.getLabelings() );
+	}
+
+	@Test
+	public void tracksCrowdedBlobsWithConflictingCandidates()
+	{
+		final MovingBlobs blobs = MovingBlobs.crowded( 120, 200, 6, 0.05, 3 );
+		final LinearAssignmentTrackerSettings settings = new LinearAssignmentTrackerSettings();
+
+		assertTrue( blobs.numCloserPairs( settings.maxLinkingDistance ) > blobs.numBlobs / 2 );
+
+		final LinearAssignmentTracker< UnsignedByteType > tracker = new LinearAssignmentTracker<>( blobs.masks, settings );
+		tracker.run();
+
+		assertEquals( blobs.numBlobs, tracker.getNumTracks() );
+		assertTrackIdsAreConsistent( blobs, tracker.getLabelings() );
+	}
+
+	@Test
+	public void fillsLineage() throws IOException
+	{
+		final MovingBlobs blobs = new MovingBlobs( 10, 6, 0.1, 7 );
+
+		final LinearAssignmentTracker< UnsignedByteType > tracker =
+				new LinearAssignmentTracker<>( blobs.masks, new LinearAssignmentTrackerSettings() );
+		tracker.run();
+
+		final LineageGraph lineage = tracker.getLineage();
+		assertEquals( blobs.numBlobs, lineage.getMaxTrackId() );
+		assertEquals( lineage.numNodes() - blobs.numBlobs, lineage.numEdges() );
+
+		for ( int trackId = 1; trackId <= lineage.getMaxTrackId(); ++trackId )
+		{
+			assertEquals( 0, lineage.getTrackStart( trackId ) );
+			assertEquals( blobs.numFrames - 1, lineage.getTrackEnd( trackId ) );
+		}
+
+		final File file = File.createTempFile( "lineage", LineageGraph.FILE_EXTENSION );
+		file.deleteOnExit();
+		lineage.write( file );
+		final LineageGraph read = LineageGraph.read( file );
+
+		assertEquals( lineage.numNodes(), read.numNodes() );
+		assertEquals( lineage.numEdges(), read.numEdges() );
+		for ( int edge = 0; edge < lineage.numEdges(); ++edge )
+		{
+			assertEquals( lineage.getEdgeSource( edge ), read.getEdgeSource( edge ) );
+			assertEquals( lineage.getEdgeTarget( edge ), read.getEdgeTarget( edge ) );
+		}
+
+		int numDetectedInSecondFrame = 0;
+		for ( int b = 0; b < blobs.numBlobs; ++b )
+			if ( ! blobs.missed[ 1 ][ b ] ) numDetectedInSecondFrame++;
+
+		lineage.truncate( 2 );
+		assertEquals( 2, lineage.numFrames() );
+		assertEquals( blobs.numBlobs + numDetectedInSecondFrame, lineage.numNodes() );
+		assertEquals( numDetectedInSecondFrame, lineage.numEdges() );
+		for ( int trackId = 1; trackId <= lineage.getMaxTrackId(); ++trackId )
+			assertTrue( lineage.getTrackEnd( trackId ) <= 1 );
+	}
+
+	private static void assertTrackIdsAreConsistent(
+			MovingBlobs blobs,
+			ArrayList< RandomAccessibleInterval< IntType > > labelings )
+	{
+		final HashSet< Integer > trackIds = new HashSet<>();
+
+		for ( int b = 0; b < blobs.numBlobs; ++b )
+		{
+			int trackId = 0;
+
+			for ( int t = 0; t < blobs.numFrames; ++t )
+			{
+				if ( blobs.missed[ t ][ b ] ) continue;
+
+				final RandomAccess< IntType > access = labelings.get( t ).randomAccess();
+				access.setPosition( blobs.positions[ t ][ b ] );
+				final int id = access.get().get();
+
+				assertTrue( id > 0 );
+				if ( trackId == 0 ) trackId = id;
+				assertEquals( "Blob " + b + ", frame " + t, trackId, id );
+			}
+
+			assertTrue( trackIds.add( trackId ) );
+		}
+	}
+
+	static class MovingBlobs
+	{
+		final int numBlobs;
+		final int numFrames;
+		final long[][][] positions;
+		final boolean[][] missed;
+		final ArrayList< RandomAccessibleInterval< UnsignedByteType > > masks;
+
+		/**
+		 * Blobs on a grid, which move so little that each object has a single link candidate.
+		 */
+		MovingBlobs( int blobsPerRow, int numFrames, double missedFraction, long seed )
+		{
+			this( blobsPerRow * SPACING, gridPositions( blobsPerRow, numFrames, new Random( seed ) ), missedFraction, new Random( seed + 1 ) );
+		}
+
+		/**
+		 * Blobs at random positions, closer to each other than the linking distance,
+		 * such that the link candidates of neighboring objects conflict.
+		 */
+		static MovingBlobs crowded( int size, int numBlobs, int numFrames, double missedFraction, long seed )
+		{
+			final Random random = new Random( seed );
+			return new MovingBlobs( size, crowdedPositions( size, numBlobs, numFrames, random ), missedFraction, random );
+		}
+
+		private MovingBlobs( int size, long[][][] positions, double missedFraction, Random random )
+		{
+			this.numFrames = positions.length;
+			this.numBlobs = positions[ 0 ].length;
+			this.positions = positions;
+			this.missed = new boolean[ numFrames ][ numBlobs ];
+			this.masks = new ArrayList<>();
+
+			for ( int b = 0; b < numBlobs; ++b )
+				for ( int t = 0; t < numFrames; ++t )
+				{
+					// never miss a blob in the first or last frame, or in consecutive frames
+					missed[ t ][ b ] = t > 0 && t < numFrames - 1 && ! missed[ t - 1 ][ b ]
+							&& random.nextDouble() < missedFraction;
+				}
+
+			for ( int t = 0; t < numFrames; ++t )
+			{
+				final RandomAccessibleInterval< UnsignedByteType > mask = ArrayImgs.unsignedBytes( size, size );
+				final RandomAccess< UnsignedByteType > access = mask.randomAccess();
+
+				for ( int b = 0; b < numBlobs; ++b )
+				{
+					if ( missed[ t ][ b ] ) continue;
+
+					for ( int dy = -RADIUS; dy <= RADIUS; ++dy )
+						for ( int dx = -RADIUS; dx <= RADIUS; ++dx )
+						{
+							if ( dx * dx + dy * dy > RADIUS * RADIUS ) continue;
+							access.setPosition( positions[ t ][ b ][ 0 ] + dx, 0 );
+							access.setPosition( positions[ t ][ b ][ 1 ] + dy, 1 );
+							access.get().set( 255 );
+						}
+				}
+
+				masks.add( mask );
+			}
+		}
+
+		private static long[][][] gridPositions( int blobsPerRow, int numFrames, Random random )
+		{
+			final int numBlobs = blobsPerRow * blobsPerRow;
+			final long[][][] positions = new long[ numFrames ][ numBlobs ][ 2 ];
+
+			// limit the drift such that blobs never touch
+			final int maxDrift = ( SPACING - 2 * RADIUS - 2 ) / 2;
+			final int speed = Math.min( MAX_SPEED, maxDrift / Math.max( 1, numFrames - 1 ) );
+
+			for ( int b = 0; b < numBlobs; ++b )
+			{
+				final long x = ( b % blobsPerRow ) * SPACING + SPACING / 2;
+				final long y = ( b / blobsPerRow ) * SPACING + SPACING / 2;
+				final int vx = random.nextInt( 2 * speed + 1 ) - speed;
+				final int vy = random.nextInt( 2 * speed + 1 ) - speed;
+
+				for ( int t = 0; t < numFrames; ++t )
+				{
+					positions[ t ][ b ][ 0 ] = x + t * vx;
+					positions[ t ][ b ][ 1 ] = y + t * vy;
+				}
+			}
+
+			return positions;
+		}
+
+		/**
+		 * Random walks with steps of at most one pixel per dimension, which keep a minimal distance
+		 * to all other blobs in every frame, such that the blobs never touch.
+		 * Walks that violate the distance are rejected, such that there may be less than numBlobs blobs.
+		 */
+		private static long[][][] crowdedPositions( int size, int numBlobs, int numFrames, Random random )
+		{
+			final int minDistance = 2 * RADIUS + 3;
+			final int cellSize = minDistance + 2 * numFrames; // blobs in non-adjacent cells never come close
+			final int numCells = size / cellSize + 1;
+			final ArrayList< ArrayList< long[][] > > cells = new ArrayList<>();
+			for ( int c = 0; c < numCells * numCells; ++c )
+				cells.add( new ArrayList<>() );
+
+			final ArrayList< long[][] > walks = new ArrayList<>();
+
+			for ( int attempt = 0; attempt < 100 * numBlobs && walks.size() < numBlobs; ++attempt )
+			{
+				final long[][] walk = new long[ numFrames ][ 2 ];
+				walk[ 0 ][ 0 ] = RADIUS + 1 + random.nextInt( size - 2 * RADIUS - 2 );
+				walk[ 0 ][ 1 ] = RADIUS + 1 + random.nextInt( size - 2 * RADIUS - 2 );
+
+				boolean isValid = true;
+				for ( int t = 1; t < numFrames; ++t )
+					for ( int d = 0; d < 2; ++d )
+					{
+						walk[ t ][ d ] = walk[ t - 1 ][ d ] + random.nextInt( 3 ) - 1;
+						isValid &= walk[ t ][ d ] > RADIUS && walk[ t ][ d ] < size - RADIUS - 1;
+					}
+
+				final int cellX = ( int ) ( walk[ 0 ][ 0 ] / cellSize );
+				final int cellY = ( int ) ( walk[ 0 ][ 1 ] / cellSize );
+
+				for ( int y = Math.max( 0, cellY - 1 ); isValid && y <= Math.min( numCells - 1, cellY + 1 ); ++y )
+					for ( int x = Math.max( 0, cellX - 1 ); isValid && x <= Math.min( numCells - 1, cellX + 1 ); ++x )
+						for ( long[][] other : cells.get( y * numCells + x ) )
+							for ( int t = 0; t < numFrames; ++t )
+							{
+								final long dx = walk[ t ][ 0 ] - other[ t ][ 0 ];
+								final long dy = walk[ t ][ 1 ] - other[ t ][ 1 ];
+								if ( dx * dx + dy * dy < minDistance * minDistance ) isValid = false;
+							}
+
+				if ( ! isValid ) continue;
+
+				walks.add( walk );
+				cells.get( cellY * numCells + cellX ).add( walk );
+			}
+
+			final long[][][] positions = new long[ numFrames ][ walks.size() ][];
+			for ( int b = 0; b < walks.size(); ++b )
+				for ( int t = 0; t < numFrames; ++t )
+					positions[ t ][ b ] = walks.get( b )[ t ];
+
+			return positions;
+		}
+
+		/**
+		 * @return the number of pairs of blobs which are closer than the distance in some frame
+		 */
+		int numCloserPairs( double distance )
+		{
+			int numPairs = 0;
+			for ( int a = 0; a < numBlobs; ++a )
+				for ( int b = 0; b < a; ++b )
+					for ( int t = 0; t < numFrames; ++t )
+					{
+						final long dx = positions[ t ][ a ][ 0 ] - positions[ t ][ b ][ 0 ];
+						final long dy = positions[ t ][ a ][ 1 ] - positions[ t ][ b ][ 1 ];
+						if ( dx * dx + dy * dy < distance * distance )
+						{
+							numPairs++;
+							break;
+						}
+					}
+			return numPairs;
+		}
+	}
+
+	/**
+	 * Benchmark with 10,000 crowded objects per frame.
+	 */
+	public static void main( String[] args )
+	{
+		final int numFrames = 5;
+		final MovingBlobs blobs = MovingBlobs.crowded( 1200, 10000, numFrames, 0.01, 1 );
+		System.out.println( blobs.numCloserPairs( new LinearAssignmentTrackerSettings().maxLinkingDistance )
+				+ " pairs of objects with conflicting link candidates" );
+
+		for ( int i = 0; i < 3; ++i ) // the first runs warm up the JIT
+		{
+			final LinearAssignmentTracker< UnsignedByteType > tracker =
+					new LinearAssignmentTracker<>( blobs.masks, new LinearAssignmentTrackerSettings() );
+
+			final long start = System.currentTimeMillis();
+			tracker.run();
+			final long duration = System.currentTimeMillis() - start;
+
+			System.out.println( blobs.numBlobs + " objects per frame: "
+					+ duration / ( numFrames - 1 ) + " ms per frame pair, "
+					+ tracker.getNumTracks() + " tracks" );
+		}
+
+		new TestLinearAssignmentTracker().keepsTrackIdsAcrossGaps();
+	}
+}
@@ -0,0 +1,169 @@
+package tests;
+
+import de.embl.cba.morphometry.measurements.MeasurementTable.ColumnType;
+import de.embl.cba.morphometry.measurements.MeasurementsBinaryReader;
+import de.embl.cba.morphometry.measurements.MeasurementsBinaryWriter;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestMeasurementsBinaryFormat
+{
+	@Test
+	public void readsWrittenColumns() throws IOException
+	{
+		final File file = writeTwoTimepoints();
+
+		try ( MeasurementsBinaryReader reader = new MeasurementsBinaryReader( file ) )
+		{
+			assertEquals( 4, reader.numRows() );
+			assertArrayEquals( new int[]{ 0, 1 }, reader.getTimepoints() );
+			assertArrayEquals( new long[]{ 1, 2, 1, 3 }, reader.getLongColumn( "Object_Label" ) );
+
+			assertEquals( ColumnType.Long, reader.getColumnType( "Count" ) );
+			assertArrayEquals( new long[]{ 10, MeasurementsBinaryWriter.MISSING_LONG, 12, 13 },
+					reader.getLongColumn( "Count" ) );
+
+			final String[] names = reader.getStringColumn( "Name" );
+			assertEquals( "a", names[ 0 ] );
+			assertNull( names[ 1 ] );
+			assertEquals( "c", names[ 2 ] );
+
+			assertEquals( ColumnType.Object, reader.getColumnType( "Image" ) );
+			assertEquals( "image.tif", reader.getStringColumn( "Image" )[ 3 ] );
+		}
+	}
+
+	@Test
+	public void widensColumnsWithLaterValuesOfOtherTypes() throws IOException
+	{
+		final File file = writeTwoTimepoints();
+
+		try ( MeasurementsBinaryReader reader = new MeasurementsBinaryReader( file ) )
+		{
+			// long in the first time point, double in the second
+			assertEquals( ColumnType.Double, reader.getColumnType( "Size" ) );
+			assertArrayEquals( new double[]{ 5, 6, 7.5, 8.25 }, reader.getDoubleColumn( "Size" ), 0.0 );
+
+			// double in the first time point, string in the second
+			assertEquals( ColumnType.Object, reader.getColumnType( "Value" ) );
+			assertArrayEquals( new String[]{ "1.5", null, "high", "2.0" }, reader.getStringColumn( "Value" ) );
+		}
+	}
+
+	@Test
+	public void ignoresIncompleteLastBlock() throws IOException
+	{
+		final File file = writeTwoTimepoints();
+
+		// as if the writing of the second time point was interrupted
+		try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+		{
+			raf.setLength( raf.length() - 5 );
+		}
+
+		try ( MeasurementsBinaryReader reader = new MeasurementsBinaryReader( file ) )
+		{
+			assertEquals( 2, reader.numRows() );
+			assertArrayEquals( new int[]{ 0 }, reader.getTimepoints() );
+			assertArrayEquals( new double[]{ 5, 6 }, reader.getDoubleColumn( "Size" ), 0.0 );
+		}
+	}
+
+	@Test
+	public void rejectsTruncatedColumn() throws IOException
+	{
+		final File file = writeOneTimepoint();
+
+		// shortens the compressed length of the first column, such that its data ends too early
+		try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+		{
+			final long firstColumnHeader = findFirstBlockHeader( file ) + 8;
+			raf.seek( firstColumnHeader + 1 );
+			final int compressedLength = raf.readInt();
+			raf.seek( firstColumnHeader + 1 );
+			raf.writeInt( compressedLength / 2 );
+		}
+
+		try ( MeasurementsBinaryReader reader = new MeasurementsBinaryReader( file ) )
+		{
+			reader.getLongColumn( "Object_Label" );
+			fail( "Expected a corrupt column" );
+		}
+		catch ( IllegalStateException e )
+		{
+			assertTrue( e.getMessage().startsWith( "Corrupt column Object_Label" ) );
+		}
+	}
+
+	private static long findFirstBlockHeader( File file )
+	{
+		try ( MeasurementsBinaryReader reader = new MeasurementsBinaryReader( file ) )
+		{
+			// magic, version, numColumns and per column the type byte and the UTF name
+			long position = 8 + 4 + 4;
+			for ( String name : reader.getColumnNames() )
+				position += 1 + 2 + name.length();
+			return position;
+		}
+	}
+
+	private static File writeOneTimepoint() throws IOException
+	{
+		final File file = File.createTempFile( "measurements", MeasurementsBinaryWriter.FILE_EXTENSION );
+		file.deleteOnExit();
+
+		final MeasurementsBinaryWriter writer = new MeasurementsBinaryWriter( file );
+		writer.addColumn( "Image", "image.tif" );
+		writer.write( firstTimepoint(), 0 );
+		writer.close();
+
+		return file;
+	}
+
+	private static File writeTwoTimepoints() throws IOException
+	{
+		final File file = File.createTempFile( "measurements", MeasurementsBinaryWriter.FILE_EXTENSION );
+		file.deleteOnExit();
+
+		final MeasurementsBinaryWriter writer = new MeasurementsBinaryWriter( file );
+		writer.addColumn( "Image", "image.tif" );
+		writer.write( firstTimepoint(), 0 );
+
+		final HashMap< Integer, Map< String, Object > > second = new HashMap<>();
+		second.put( 1, row( 7.5, 12L, "c", "high" ) );
+		second.put( 3, row( 8.25, 13, "d", 2.0 ) );
+		writer.write( second, 1 );
+		writer.close();
+
+		return file;
+	}
+
+	private static HashMap< Integer, Map< String, Object > > firstTimepoint()
+	{
+		final HashMap< Integer, Map< String, Object > > first = new HashMap<>();
+		first.put( 1, row( 5L, 10, "a", 1.5 ) );
+		first.put( 2, row( 6, null, null, null ) );
+		return first;
+	}
+
+	private static Map< String, Object > row( Object size, Object count, Object name, Object value )
+	{
+		final HashMap< String, Object > row = new HashMap<>();
+		row.put( "Size", size );
+		row.put( "Count", count );
+		row.put( "Name", name );
+		row.put( "Value", value );
+		return row;
+	}
+}
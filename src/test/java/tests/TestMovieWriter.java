@@ -0,0 +1,107 @@
+package tests;
+
+import de.embl.cba.morphometry.MovieWriter;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.measure.Calibration;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestMovieWriter
+{
+	private static final int WIDTH = 5;
+	private static final int HEIGHT = 4;
+
+	@Test
+	public void writesFramesAsTiff() throws IOException
+	{
+		final File directory = Files.createTempDirectory( "movie" ).toFile();
+		final File file = new File( directory, "movie.tif" );
+
+		final Calibration calibration = new Calibration();
+		calibration.pixelWidth = 0.5;
+		calibration.pixelHeight = 0.5;
+		calibration.setUnit( "micrometer" );
+
+		final MovieWriter writer = new MovieWriter( file, "movie", calibration );
+		for ( int t = 0; t < 3; ++t )
+			writer.add( frame( t ) );
+
+		assertEquals( 3, writer.getNumFrames() );
+		assertEquals( 1, rawFiles( directory ).length );
+
+		writer.close();
+
+		// the temporary raw file has been deleted
+		assertEquals( 0, rawFiles( directory ).length );
+
+		final ImagePlus imagePlus = IJ.openImage( file.getAbsolutePath() );
+		assertEquals( 3, imagePlus.getNFrames() );
+		assertEquals( 1, imagePlus.getNSlices() );
+		assertEquals( 16, imagePlus.getBitDepth() );
+		assertEquals( 0.5, imagePlus.getCalibration().pixelWidth, 0.0 );
+
+		for ( int t = 0; t < 3; ++t )
+		{
+			final short[] pixels = ( short[] ) imagePlus.getStack().getProcessor( t + 1 ).getPixels();
+			assertArrayEquals( pixels( t ), pixels );
+		}
+
+		file.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void discardDeletesTemporaryFile() throws IOException
+	{
+		final File directory = Files.createTempDirectory( "movie" ).toFile();
+		final File file = new File( directory, "movie.tif" );
+
+		final MovieWriter writer = new MovieWriter( file, "movie", null );
+		writer.add( frame( 0 ) );
+		assertEquals( 1, rawFiles( directory ).length );
+
+		writer.discard();
+
+		assertEquals( 0, rawFiles( directory ).length );
+		assertFalse( file.exists() );
+
+		// closing after discarding does not write anything
+		writer.close();
+		assertFalse( file.exists() );
+
+		assertTrue( directory.delete() );
+	}
+
+	private static File[] rawFiles( File directory )
+	{
+		return directory.listFiles( ( dir, name ) -> name.startsWith( "movie-" ) && name.endsWith( ".raw" ) );
+	}
+
+	private static Img< UnsignedShortType > frame( int t )
+	{
+		return ArrayImgs.unsignedShorts( pixels( t ), WIDTH, HEIGHT );
+	}
+
+	/**
+	 * Different values for each pixel and frame.
+	 */
+	private static short[] pixels( int t )
+	{
+		final short[] pixels = new short[ WIDTH * HEIGHT ];
+		for ( int i = 0; i < pixels.length; ++i )
+			pixels[ i ] = ( short ) ( 100 * t + i );
+		return pixels;
+	}
+}
@@ -0,0 +1,74 @@
+package tests;
+
+import de.embl.cba.morphometry.tracking.OverlapMatrix;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.roi.labeling.LabelingType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the rows of the overlap matrix of an ImgLabeling are its labels,
+ * not the values of its index image.
+ */
+public class TestOverlapMatrix
+{
+	@Test
+	public void usesLabelsOfImgLabeling()
+	{
+		final ImgLabeling< Integer, IntType > current = new ImgLabeling<>( ArrayImgs.ints( 4, 1 ) );
+		final RandomAccess< LabelingType< Integer > > access = current.randomAccess();
+
+		// label 7 is added first, such that it has the index 1 and label 3 the index 2
+		access.setPosition( new long[]{ 0, 0 } );
+		access.get().add( 7 );
+		access.setPosition( new long[]{ 1, 0 } );
+		access.get().add( 7 );
+		access.setPosition( new long[]{ 2, 0 } );
+		access.get().add( 3 );
+
+		final Img< IntType > previous = ArrayImgs.ints( new int[]{ 1, 2, 2, 2 }, 4, 1 );
+
+		final OverlapMatrix overlapMatrix = new OverlapMatrix( current, previous );
+
+		assertArrayEquals( new int[]{ 1, 2 }, overlapMatrix.getOverlappingLabels( 7 ) );
+		assertArrayEquals( new int[]{ 2 }, overlapMatrix.getOverlappingLabels( 3 ) );
+		assertEquals( 2, overlapMatrix.getCurrentSize( 7 ) );
+		assertEquals( 1, overlapMatrix.getCurrentSize( 3 ) );
+		assertEquals( 0, overlapMatrix.getCurrentSize( 1 ) );
+		assertEquals( 1.0, overlapMatrix.getCurrentOverlapFraction( 3, 2 ), 0.0 );
+	}
+
+	@Test
+	public void readsFloatLabelImages()
+	{
+		// saved label masks are read back as floats
+		final Img< FloatType > current = ArrayImgs.floats( new float[]{ 0, 5, 5, 6 }, 4, 1 );
+		final Img< FloatType > previous = ArrayImgs.floats( new float[]{ 1, 1, 2, 2 }, 4, 1 );
+
+		final OverlapMatrix overlapMatrix = new OverlapMatrix( current, previous );
+
+		assertArrayEquals( new int[]{ 1, 2 }, overlapMatrix.getOverlappingLabels( 5 ) );
+		assertArrayEquals( new int[]{ 2 }, overlapMatrix.getOverlappingLabels( 6 ) );
+		assertEquals( 2, overlapMatrix.getPreviousSize( 1 ) );
+		assertEquals( 2, overlapMatrix.getMaxOverlapLabel( 6 ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void rejectsPixelsWithSeveralLabels()
+	{
+		final ImgLabeling< Integer, IntType > current = new ImgLabeling<>( ArrayImgs.ints( 2, 1 ) );
+		final RandomAccess< LabelingType< Integer > > access = current.randomAccess();
+		access.setPosition( new long[]{ 0, 0 } );
+		access.get().add( 1 );
+		access.get().add( 2 );
+
+		new OverlapMatrix( current, ArrayImgs.ints( 2, 1 ) );
+	}
+}
@@ -0,0 +1,91 @@
+package tests;
+
+import de.embl.cba.morphometry.ParallelExecutor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestParallelExecutor
+{
+	@Test
+	public void returnsResultsInOrderOfElements()
+	{
+		final List< Integer > elements = new ArrayList<>();
+		for ( int i = 0; i < 50; ++i )
+			elements.add( i );
+
+		final ParallelExecutor executor = new ParallelExecutor( 4 );
+		try
+		{
+			// the first elements take longest, such that they finish last
+			final List< Integer > results = executor.map( elements, i -> {
+				sleep( ( 50 - i ) / 10 );
+				return i * i;
+			} );
+
+			assertEquals( elements.size(), results.size() );
+			for ( int i = 0; i < elements.size(); ++i )
+				assertEquals( i * i, ( int ) results.get( i ) );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void runsInCallingThreadWithOneThread()
+	{
+		final Set< Thread > threads = Collections.synchronizedSet( new HashSet<>() );
+
+		final List< Integer > results = new ParallelExecutor( 1 ).map( new int[]{ 3, 1, 2 }, label -> {
+			threads.add( Thread.currentThread() );
+			return label;
+		} );
+
+		assertEquals( 3, ( int ) results.get( 0 ) );
+		assertEquals( 2, ( int ) results.get( 2 ) );
+		assertEquals( Collections.singleton( Thread.currentThread() ), threads );
+	}
+
+	@Test
+	public void sharesExecutorsWithSameNumberOfThreads()
+	{
+		final ParallelExecutor executor = ParallelExecutor.shared( 3 );
+		assertSame( executor, ParallelExecutor.shared( 3 ) );
+		assertEquals( 2, ParallelExecutor.shared( 2 ).getNumThreads() );
+
+		// shutting down a shared executor must not break the other callers
+		executor.shutdown();
+		assertTrue( executor.map( new int[]{ 1, 2, 3 }, label -> label ).contains( 3 ) );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void rethrowsExceptionsOfTasks()
+	{
+		ParallelExecutor.shared( 2 ).map( new int[]{ 1, 2 }, label -> {
+			if ( label == 2 ) throw new IllegalStateException( "Failed" );
+			return label;
+		} );
+	}
+
+	private static void sleep( long milliseconds )
+	{
+		try
+		{
+			Thread.sleep( milliseconds );
+		}
+		catch ( InterruptedException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package tests;
+
+import de.embl.cba.morphometry.Algorithms;
+import de.embl.cba.morphometry.regions.Regions;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.algorithm.labeling.ConnectedComponents;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.roi.labeling.LabelRegion;
+import net.imglib2.roi.labeling.LabelRegions;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.DoubleType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pairs of touching discs, with different distances between the discs, are split
+ * with one and with several threads; the split masks must be identical.
+ */
+public class TestParallelObjectSplitting
+{
+	private static final int NUM_PAIRS = 6;
+	private static final int PAIR_WIDTH = 70;
+	private static final int HEIGHT = 40;
+	private static final int RADIUS = 14;
+
+	@Test
+	public void splitsTouchingObjectsIndependentOfNumThreads()
+	{
+		final Img< BitType > sequential = splitTouchingObjects( 1 );
+		final Img< BitType > parallel = splitTouchingObjects( 4 );
+
+		assertTrue( count( sequential ) < count( createMask() ) );
+		assertEqual( sequential, parallel );
+	}
+
+	@Test
+	public void splitsBasedOnOverlapIndependentOfNumThreads()
+	{
+		final Img< BitType > sequential = splitBasedOnOverlap( 1 );
+		final Img< BitType > parallel = splitBasedOnOverlap( 4 );
+
+		assertTrue( count( sequential ) < count( createMask() ) );
+		assertEqual( sequential, parallel );
+	}
+
+	private static Img< BitType > splitTouchingObjects( int numThreads )
+	{
+		final Img< BitType > mask = createMask();
+		final ImgLabeling< Integer, IntType > imgLabeling =
+				Regions.asImgLabeling( mask, ConnectedComponents.StructuringElement.FOUR_CONNECTED );
+
+		final HashMap< Integer, Integer > numObjectsPerRegion = new HashMap<>();
+		for ( LabelRegion< Integer > region : new LabelRegions<>( imgLabeling ) )
+			numObjectsPerRegion.put( region.getLabel(), 2 );
+
+		assertEquals( NUM_PAIRS, numObjectsPerRegion.size() );
+
+		Algorithms.splitTouchingObjects(
+				imgLabeling,
+				createIntensities(),
+				mask,
+				numObjectsPerRegion,
+				5,
+				10,
+				2 * RADIUS,
+				null,
+				true,
+				false,
+				numThreads );
+
+		return mask;
+	}
+
+	private static Img< BitType > splitBasedOnOverlap( int numThreads )
+	{
+		final Img< BitType > mask = createMask();
+		final ImgLabeling< Integer, IntType > imgLabeling =
+				Regions.asImgLabeling( mask, ConnectedComponents.StructuringElement.FOUR_CONNECTED );
+		final Img< IntType > previousLabeling = createPreviousLabeling();
+
+		final HashMap< Integer, ArrayList< Integer > > overlappingObjectsLabelsMap = new HashMap<>();
+		final RandomAccess< IntType > previousAccess = previousLabeling.randomAccess();
+		for ( LabelRegion< Integer > region : new LabelRegions<>( imgLabeling ) )
+		{
+			final TreeSet< Integer > previousLabels = new TreeSet<>();
+			final Cursor< Void > cursor = region.cursor();
+			while ( cursor.hasNext() )
+			{
+				cursor.fwd();
+				previousAccess.setPosition( cursor );
+				if ( previousAccess.get().get() > 0 ) previousLabels.add( previousAccess.get().get() );
+			}
+			overlappingObjectsLabelsMap.put( region.getLabel(), new ArrayList<>( previousLabels ) );
+		}
+
+		Algorithms.splitCurrentObjectsBasedOnOverlapWithPreviousObjects(
+				mask,
+				overlappingObjectsLabelsMap,
+				imgLabeling,
+				createIntensities(),
+				previousLabeling,
+				10,
+				5,
+				null,
+				false,
+				numThreads );
+
+		return mask;
+	}
+
+	private static Img< BitType > createMask()
+	{
+		final Img< BitType > mask = ArrayImgs.bits( NUM_PAIRS * PAIR_WIDTH, HEIGHT );
+		final Cursor< BitType > cursor = mask.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.get().set( distance( cursor.getIntPosition( 0 ), cursor.getIntPosition( 1 ) ) <= RADIUS );
+		}
+		return mask;
+	}
+
+	private static Img< DoubleType > createIntensities()
+	{
+		final Img< DoubleType > intensities = ArrayImgs.doubles( NUM_PAIRS * PAIR_WIDTH, HEIGHT );
+		final Cursor< DoubleType > cursor = intensities.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			final double distance = distance( cursor.getIntPosition( 0 ), cursor.getIntPosition( 1 ) );
+			cursor.get().set( Math.max( 0, 100 * ( RADIUS - distance ) ) );
+		}
+		return intensities;
+	}
+
+	/**
+	 * Each disc of the previous frame has its own label.
+	 */
+	private static Img< IntType > createPreviousLabeling()
+	{
+		final Img< IntType > labeling = ArrayImgs.ints( NUM_PAIRS * PAIR_WIDTH, HEIGHT );
+		final Cursor< IntType > cursor = labeling.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			final int x = cursor.getIntPosition( 0 );
+			final int y = cursor.getIntPosition( 1 );
+			final int pair = x / PAIR_WIDTH;
+			final double left = Math.hypot( x - leftCentre( pair ), y - HEIGHT / 2 );
+			final double right = Math.hypot( x - rightCentre( pair ), y - HEIGHT / 2 );
+			if ( Math.min( left, right ) <= RADIUS )
+				cursor.get().set( 2 * pair + ( left <= right ? 1 : 2 ) );
+		}
+		return labeling;
+	}
+
+	/**
+	 * @return the distance to the closest disc centre
+	 */
+	private static double distance( int x, int y )
+	{
+		final int pair = x / PAIR_WIDTH;
+		return Math.min(
+				Math.hypot( x - leftCentre( pair ), y - HEIGHT / 2 ),
+				Math.hypot( x - rightCentre( pair ), y - HEIGHT / 2 ) );
+	}
+
+	private static int leftCentre( int pair )
+	{
+		return pair * PAIR_WIDTH + 18;
+	}
+
+	private static int rightCentre( int pair )
+	{
+		// the discs overlap more and more
+		return leftCentre( pair ) + 27 - pair;
+	}
+
+	private static long count( Img< BitType > mask )
+	{
+		long count = 0;
+		for ( BitType pixel : mask )
+			if ( pixel.get() ) count++;
+		return count;
+	}
+
+	private static void assertEqual( Img< BitType > expected, Img< BitType > actual )
+	{
+		final Cursor< BitType > expectedCursor = expected.cursor();
+		final Cursor< BitType > actualCursor = actual.cursor();
+		while ( expectedCursor.hasNext() )
+			assertEquals( expectedCursor.next().get(), actualCursor.next().get() );
+	}
+}
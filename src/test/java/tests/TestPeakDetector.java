@@ -0,0 +1,123 @@
+package tests;
+
+import de.embl.cba.morphometry.Algorithms;
+import de.embl.cba.morphometry.PeakDetector;
+import de.embl.cba.morphometry.PositionAndValue;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.neighborhood.HyperSphereShape;
+import net.imglib2.algorithm.neighborhood.Neighborhood;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the peak detection on random images, which have many plateaus,
+ * with a brute force evaluation of the hyper-sphere neighborhoods.
+ */
+public class TestPeakDetector
+{
+	@Test
+	public void findsSameMaximaAsHyperSphereNeighborhoods()
+	{
+		for ( long radius = 0; radius <= 4; ++radius )
+		{
+			assertSameMaxima( randomImage( 42 + radius, 37, 23 ), radius );
+			assertSameMaxima( randomImage( 7 + radius, 13, 11, 9 ), radius );
+		}
+	}
+
+	@Test
+	public void keepsLargerPeaksAtMinimalDistance()
+	{
+		final Img< UnsignedByteType > image = randomImage( 3, 64, 64 );
+
+		final PeakDetector< UnsignedByteType > peakDetector = new PeakDetector<>( image, 2 );
+		peakDetector.setMinimalDistance( 5.0 );
+		peakDetector.run();
+		final ArrayList< PositionAndValue > peaks = peakDetector.getPeaks();
+
+		assertTrue( peaks.size() > 1 );
+
+		for ( int i = 0; i < peaks.size(); ++i )
+		{
+			if ( i > 0 ) assertTrue( peaks.get( i - 1 ).getValue() >= peaks.get( i ).getValue() );
+
+			for ( int j = 0; j < i; ++j )
+				assertTrue( distance( peaks.get( i ).getPosition(), peaks.get( j ).getPosition() ) >= 5.0 );
+		}
+	}
+
+	@Test
+	public void findsSameMaximaWithMultipleThreads()
+	{
+		final Img< UnsignedByteType > image = randomImage( 5, 41, 29, 7 );
+		final HyperSphereShape shape = new HyperSphereShape( 3 );
+
+		final long[] positions = Algorithms.findLocalMaximumPositions( image, shape, 1 );
+
+		assertTrue( positions.length > 0 );
+		assertArrayEquals( positions, Algorithms.findLocalMaximumPositions( image, shape, 4 ) );
+		assertEquals( positions.length / 3, Algorithms.findLocalMaximumValues( image, shape ).size() );
+	}
+
+	private static void assertSameMaxima( Img< UnsignedByteType > image, long radius )
+	{
+		final PeakDetector< UnsignedByteType > peakDetector = new PeakDetector<>( image, radius );
+		peakDetector.setThreshold( 10 );
+		peakDetector.run();
+		final RandomAccess< BitType > maximaAccess = peakDetector.getMaximaMask().randomAccess();
+
+		final RandomAccessibleInterval< Neighborhood< UnsignedByteType > > neighborhoods = Views.interval(
+				new HyperSphereShape( radius ).neighborhoodsRandomAccessible( Views.extendBorder( image ) ), image );
+
+		final Cursor< Neighborhood< UnsignedByteType > > cursor = Views.iterable( neighborhoods ).localizingCursor();
+		final RandomAccess< UnsignedByteType > imageAccess = image.randomAccess();
+
+		int numMaxima = 0;
+		while ( cursor.hasNext() )
+		{
+			final Neighborhood< UnsignedByteType > neighborhood = cursor.next();
+			imageAccess.setPosition( cursor );
+			final int center = imageAccess.get().get();
+
+			boolean isMaximum = center > 10;
+			for ( UnsignedByteType neighbor : neighborhood )
+				if ( neighbor.get() > center ) isMaximum = false;
+
+			maximaAccess.setPosition( cursor );
+			assertEquals( isMaximum, maximaAccess.get().get() );
+			if ( isMaximum ) numMaxima++;
+		}
+
+		assertEquals( numMaxima, peakDetector.getPeaks().size() );
+	}
+
+	private static Img< UnsignedByteType > randomImage( long seed, long... dimensions )
+	{
+		final Img< UnsignedByteType > image = ArrayImgs.unsignedBytes( dimensions );
+		final Random random = new Random( seed );
+		for ( UnsignedByteType pixel : image )
+			pixel.set( random.nextInt( 32 ) );
+		return image;
+	}
+
+	private static double distance( double[] a, double[] b )
+	{
+		double sum = 0;
+		for ( int d = 0; d < a.length; ++d )
+			sum += ( a[ d ] - b[ d ] ) * ( a[ d ] - b[ d ] );
+		return Math.sqrt( sum );
+	}
+}
@@ -0,0 +1,84 @@
+package tests;
+
+import de.embl.cba.morphometry.Utils;
+import de.embl.cba.morphometry.microglia.MicrogliaSettings;
+import de.embl.cba.morphometry.tracking.LabelSizeIndex;
+import de.embl.cba.morphometry.tracking.SemiAutomatedTrackingSplitter;
+import ij.ImagePlus;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Proceeding from an existing segmentation reads the labelings from a saved label mask movie,
+ * in which the labels are stored as floats.
+ */
+public class TestResumeFromSavedLabelings
+{
+	@Test
+	public void resumesFromSavedFloatLabelings()
+	{
+		final ArrayList< RandomAccessibleInterval< IntType > > labelings = new ArrayList<>();
+		labelings.add( twoSquares( 3, 7 ) );
+		labelings.add( twoSquares( 3, 12 ) );
+
+		// as saved by the segmentation and read by "Proceed from existing segmentation"
+		final ImagePlus saved = Utils.labelingsAsImagePlus( labelings );
+		final ArrayList< RandomAccessibleInterval< FloatType > > loaded = Utils.get2DImagePlusMovieAsFrameList( saved, 1 );
+		assertTrue( Util.getTypeFromInterval( loaded.get( 0 ) ) instanceof FloatType );
+
+		final ArrayList< RandomAccessibleInterval< BitType > > masks = new ArrayList<>();
+		final ArrayList< RandomAccessibleInterval< UnsignedShortType > > intensities = new ArrayList<>();
+		for ( int t = 0; t < 3; ++t )
+		{
+			masks.add( ArrayImgs.bits( 20, 20 ) );
+			intensities.add( ArrayImgs.unsignedShorts( 20, 20 ) );
+		}
+
+		final SemiAutomatedTrackingSplitter< UnsignedShortType > splitter =
+				new SemiAutomatedTrackingSplitter<>( masks, intensities, new MicrogliaSettings() );
+		splitter.setLabelings( loaded );
+
+		for ( int t = 0; t < labelings.size(); ++t )
+		{
+			final LabelSizeIndex index = splitter.getLabelSizeIndex( t );
+			final LabelSizeIndex expected = LabelSizeIndex.of( labelings.get( t ) );
+
+			assertEquals( expected.getNumLabels(), index.getNumLabels() );
+			for ( int label = 1; label <= expected.getMaxLabel(); ++label )
+				assertEquals( expected.getSize( label ), index.getSize( label ) );
+
+			final Cursor< IntType > expectedLabels = Views.flatIterable( labelings.get( t ) ).cursor();
+			for ( IntType label : Views.flatIterable( splitter.getLabelings().get( t ) ) )
+				assertEquals( expectedLabels.next().get(), label.get() );
+		}
+	}
+
+	private static Img< IntType > twoSquares( int firstLabel, int secondLabel )
+	{
+		final Img< IntType > labeling = ArrayImgs.ints( 20, 20 );
+		final Cursor< IntType > cursor = labeling.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			final long x = cursor.getLongPosition( 0 );
+			final long y = cursor.getLongPosition( 1 );
+			if ( y >= 2 && y < 8 && x >= 2 && x < 8 ) cursor.get().set( firstLabel );
+			if ( y >= 10 && y < 18 && x >= 10 && x < 18 ) cursor.get().set( secondLabel );
+		}
+		return labeling;
+	}
+}
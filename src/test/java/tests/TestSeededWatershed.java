@@ -0,0 +1,135 @@
+package tests;
+
+import de.embl.cba.morphometry.Algorithms;
+import de.embl.cba.morphometry.splitting.SeededWatershed;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.DoubleType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Two touching discs, flooded from seeds that lie on the border of the mask.
+ */
+public class TestSeededWatershed
+{
+	private static final int WIDTH = 60;
+	private static final int HEIGHT = 30;
+	private static final int RADIUS = 14;
+
+	@Test
+	public void separatesTouchingDiscsFromBorderSeeds()
+	{
+		final Img< DoubleType > image = ArrayImgs.doubles( WIDTH, HEIGHT );
+		final Img< BitType > mask = ArrayImgs.bits( WIDTH, HEIGHT );
+		final Img< IntType > seeds = ArrayImgs.ints( WIDTH, HEIGHT );
+
+		final Cursor< DoubleType > cursor = image.localizingCursor();
+		final RandomAccess< BitType > maskAccess = mask.randomAccess();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			final double distance = Math.min( distance( cursor, 15 ), distance( cursor, 44 ) );
+			cursor.get().set( distance ); // flooded from the disc centres towards the neck
+			maskAccess.setPosition( cursor );
+			maskAccess.get().set( distance <= RADIUS );
+		}
+
+		// seeds on the left and right border of the mask
+		setSeed( seeds, 1, HEIGHT / 2, 1 );
+		setSeed( seeds, WIDTH - 2, HEIGHT / 2, 2 );
+
+		final SeededWatershed< DoubleType, IntType > watershed = new SeededWatershed<>( image, seeds );
+		watershed.setMask( mask );
+		watershed.setDrawWatersheds( true );
+		watershed.setEightConnected( true );
+		watershed.run();
+
+		final Img< IntType > labeling = watershed.getLabeling();
+
+		assertTrue( watershed.getNumWatershedPixels() > 0 );
+		assertEquals( 1, get( labeling, 15, HEIGHT / 2 ) );
+		assertEquals( 2, get( labeling, 44, HEIGHT / 2 ) );
+		assertTrue( get( labeling, 29, HEIGHT / 2 ) == Algorithms.WATERSHED
+				|| get( labeling, 30, HEIGHT / 2 ) == Algorithms.WATERSHED );
+
+		// different labels never touch, thus the objects are separated
+		for ( int y = 1; y < HEIGHT - 1; ++y )
+			for ( int x = 1; x < WIDTH - 1; ++x )
+			{
+				final int label = get( labeling, x, y );
+				if ( label <= 0 ) continue;
+				for ( int dy = -1; dy <= 1; ++dy )
+					for ( int dx = -1; dx <= 1; ++dx )
+					{
+						final int neighbor = get( labeling, x + dx, y + dy );
+						assertTrue( neighbor <= 0 || neighbor == label );
+					}
+			}
+	}
+
+	@Test
+	public void separatesTouchingSeeds()
+	{
+		final Img< DoubleType > image = ArrayImgs.doubles( 10, 10 );
+		final Img< IntType > seeds = ArrayImgs.ints( 10, 10 );
+		for ( int x = 2; x <= 4; ++x )
+			for ( int y = 4; y <= 6; ++y )
+				setSeed( seeds, x, y, 1 );
+		setSeed( seeds, 5, 5, 2 );
+
+		final SeededWatershed< DoubleType, IntType > watershed = new SeededWatershed<>( image, seeds );
+		watershed.setDrawWatersheds( true );
+		watershed.run();
+
+		// the pixel of the larger seed becomes a watershed, such that the smaller seed survives
+		assertEquals( Algorithms.WATERSHED, get( watershed.getLabeling(), 4, 5 ) );
+		assertEquals( 1, get( watershed.getLabeling(), 3, 5 ) );
+		assertEquals( 2, get( watershed.getLabeling(), 5, 5 ) );
+		assertEquals( 1, get( watershed.getLabeling(), 0, 0 ) );
+		assertEquals( 2, get( watershed.getLabeling(), 9, 5 ) );
+	}
+
+	@Test
+	public void keepsTouchingSinglePixelSeeds()
+	{
+		final Img< DoubleType > image = ArrayImgs.doubles( 10, 10 );
+		final Img< IntType > seeds = ArrayImgs.ints( 10, 10 );
+		setSeed( seeds, 4, 5, 1 );
+		setSeed( seeds, 5, 5, 2 );
+
+		final SeededWatershed< DoubleType, IntType > watershed = new SeededWatershed<>( image, seeds );
+		watershed.setDrawWatersheds( true );
+		watershed.run();
+
+		assertEquals( 1, get( watershed.getLabeling(), 4, 5 ) );
+		assertEquals( 2, get( watershed.getLabeling(), 5, 5 ) );
+	}
+
+	private static double distance( Cursor< DoubleType > cursor, int centreX )
+	{
+		final double dx = cursor.getDoublePosition( 0 ) - centreX;
+		final double dy = cursor.getDoublePosition( 1 ) - HEIGHT / 2;
+		return Math.sqrt( dx * dx + dy * dy );
+	}
+
+	private static void setSeed( Img< IntType > seeds, int x, int y, int label )
+	{
+		final RandomAccess< IntType > access = seeds.randomAccess();
+		access.setPosition( new int[]{ x, y } );
+		access.get().set( label );
+	}
+
+	private static int get( Img< IntType > labeling, int x, int y )
+	{
+		final RandomAccess< IntType > access = labeling.randomAccess();
+		access.setPosition( new int[]{ x, y } );
+		return access.get().get();
+	}
+}
@@ -0,0 +1,219 @@
+package tests;
+
+import de.embl.cba.morphometry.Utils;
+import de.embl.cba.morphometry.measurements.ShapeDescriptors2D;
+import de.embl.cba.morphometry.regions.Regions;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.geometry.Ellipse;
+import inra.ijpb.measure.region2d.Convexity;
+import inra.ijpb.measure.region2d.GeodesicDiameter;
+import inra.ijpb.measure.region2d.InertiaEllipse;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.roi.labeling.LabelRegion;
+import net.imglib2.roi.labeling.LabelRegions;
+import net.imglib2.type.numeric.integer.IntType;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link ShapeDescriptors2D} with the MorphoLibJ features it replaces.
+ */
+public class TestShapeDescriptors2D
+{
+	private static final int SIZE = 100;
+
+	@Test
+	public void compareWithMorphoLibJ()
+	{
+		compare( "disk", disk( 50, 50, 20 ) );
+		compare( "ellipse", ellipse( 50, 50, 35, 12 ) );
+		compare( "rectangle", rectangle( 20, 30, 50, 40 ) );
+		compare( "u-shape", uShape() );
+		compare( "random blob", randomBlob( 42 ) );
+	}
+
+	/**
+	 * Compares the descriptors of label regions with MorphoLibJ on the region masks,
+	 * as they were measured before, i.e. within the bounding box of each region.
+	 */
+	@Test
+	public void compareLabelRegionsWithMorphoLibJ()
+	{
+		compareRegion( "disk", disk( 50, 50, 20 ) );
+		compareRegion( "u-shape", uShape() );
+		compareRegion( "random blob", randomBlob( 7 ) );
+
+		// a single pixel, a line and a diagonal pair of pixels
+		compareRegion( "single pixel", rectangle( 10, 20, 11, 21 ) );
+		compareRegion( "line", rectangle( 10, 20, 11, 30 ) );
+		final boolean[] diagonal = rectangle( 10, 20, 11, 21 );
+		diagonal[ 21 * SIZE + 11 ] = true;
+		compareRegion( "diagonal", diagonal );
+	}
+
+	/**
+	 * Regions that fill their bounding box have no background, such that the
+	 * largest inscribed circle is infinite, as in MorphoLibJ.
+	 */
+	@Test
+	public void compareFullBoundingBoxesWithMorphoLibJ()
+	{
+		compareRegion( "rectangle", rectangle( 20, 30, 50, 40 ) );
+		compareRegion( "square", rectangle( 5, 5, 8, 8 ) );
+
+		final ShapeDescriptors2D descriptors = new ShapeDescriptors2D( getRegion( rectangle( 20, 30, 50, 40 ) ) );
+		assertEquals( Double.POSITIVE_INFINITY, descriptors.getLargestInscribedCircleRadius(), 0.0 );
+	}
+
+	/**
+	 * The bounding box of a region may contain pixels of other regions, which are background.
+	 */
+	@Test
+	public void compareTouchingRegionsWithMorphoLibJ()
+	{
+		final int[] labelMap = new int[ SIZE * SIZE ];
+		final boolean[] disk = disk( 50, 50, 20 );
+		final boolean[] rectangle = rectangle( 30, 30, 70, 50 );
+		for ( int i = 0; i < labelMap.length; ++i )
+		{
+			if ( disk[ i ] ) labelMap[ i ] = 1;
+			if ( rectangle[ i ] ) labelMap[ i ] = 2;
+		}
+
+		final LabelRegions< Integer > regions = new LabelRegions<>( asImgLabeling( labelMap ) );
+		for ( int label = 1; label <= 2; ++label )
+		{
+			final LabelRegion< Integer > region = regions.getLabelRegion( label );
+			assertTrue( region.min( 0 ) > 0 );
+			compare( "touching region " + label, new ShapeDescriptors2D( region ), asMaskProcessor( region ) );
+		}
+	}
+
+	private static void compareRegion( String name, boolean[] mask )
+	{
+		final LabelRegion< Integer > region = getRegion( mask );
+		compare( name, new ShapeDescriptors2D( region ), asMaskProcessor( region ) );
+	}
+
+	private static LabelRegion< Integer > getRegion( boolean[] mask )
+	{
+		final int[] labelMap = new int[ mask.length ];
+		for ( int i = 0; i < mask.length; ++i )
+			if ( mask[ i ] ) labelMap[ i ] = 1;
+
+		return new LabelRegions<>( asImgLabeling( labelMap ) ).getLabelRegion( 1 );
+	}
+
+	private static ImgLabeling< Integer, IntType > asImgLabeling( int[] labelMap )
+	{
+		return Utils.labelMapAsImgLabelingRobert( ArrayImgs.ints( labelMap, SIZE, SIZE ) );
+	}
+
+	/**
+	 * The region mask as it was passed to MorphoLibJ by the measurements.
+	 */
+	private static ImageProcessor asMaskProcessor( LabelRegion< Integer > region )
+	{
+		return ImageJFunctions.wrap( Regions.asMask( region ), "" ).getProcessor();
+	}
+
+	private static void compare( String name, boolean[] mask )
+	{
+		final ImageProcessor processor = new ByteProcessor( SIZE, SIZE );
+		for ( int i = 0; i < mask.length; ++i )
+			if ( mask[ i ] ) processor.set( i, 255 );
+
+		compare( name, new ShapeDescriptors2D( mask, SIZE, SIZE ), processor );
+	}
+
+	private static void compare( String name, ShapeDescriptors2D descriptors, ImageProcessor processor )
+	{
+		final int[] labels = { 255 };
+		final Calibration calibration = new Calibration();
+
+		final GeodesicDiameter.Result geodesicDiameter =
+				GeodesicDiameter.geodesicDiameters( processor, labels, calibration )[ 0 ];
+		final Convexity.Result convexity =
+				new Convexity().analyzeRegions( processor, labels, calibration )[ 0 ];
+		final Ellipse ellipse =
+				new InertiaEllipse().analyzeRegions( processor, labels, calibration )[ 0 ];
+
+		assertEquals( name, geodesicDiameter.diameter, descriptors.getGeodesicDiameter(), 1E-4 );
+		assertEquals( name, geodesicDiameter.innerRadius, descriptors.getLargestInscribedCircleRadius(), 1E-4 );
+		assertEquals( name, convexity.convexArea, descriptors.getConvexArea(), 1E-6 );
+		assertEquals( name, ellipse.radius1(), descriptors.getEllipseLongestAxisRadius(), 1E-6 );
+		assertEquals( name, ellipse.radius2(), descriptors.getEllipseShortestAxisRadius(), 1E-6 );
+	}
+
+	private static boolean[] disk( int cx, int cy, int r )
+	{
+		return ellipse( cx, cy, r, r );
+	}
+
+	private static boolean[] ellipse( int cx, int cy, int rx, int ry )
+	{
+		final boolean[] mask = new boolean[ SIZE * SIZE ];
+		for ( int y = 0; y < SIZE; ++y )
+			for ( int x = 0; x < SIZE; ++x )
+			{
+				final double dx = ( x - cx ) / ( double ) rx;
+				final double dy = ( y - cy ) / ( double ) ry;
+				mask[ y * SIZE + x ] = dx * dx + dy * dy <= 1;
+			}
+		return mask;
+	}
+
+	private static boolean[] rectangle( int minX, int minY, int maxX, int maxY )
+	{
+		final boolean[] mask = new boolean[ SIZE * SIZE ];
+		for ( int y = minY; y < maxY; ++y )
+			for ( int x = minX; x < maxX; ++x )
+				mask[ y * SIZE + x ] = true;
+		return mask;
+	}
+
+	private static boolean[] uShape()
+	{
+		final boolean[] mask = rectangle( 20, 20, 80, 80 );
+		final boolean[] hole = rectangle( 35, 20, 65, 65 );
+		for ( int i = 0; i < mask.length; ++i )
+			mask[ i ] &= ! hole[ i ];
+		return mask;
+	}
+
+	private static boolean[] randomBlob( long seed )
+	{
+		final Random random = new Random( seed );
+		final boolean[] mask = disk( 50, 50, 10 );
+
+		// grow random protrusions from the disk
+		for ( int i = 0; i < 20; ++i )
+		{
+			final double angle = random.nextDouble() * 2 * Math.PI;
+			final int length = 10 + random.nextInt( 30 );
+			for ( int step = 0; step < length; ++step )
+			{
+				final int x = ( int ) Math.round( 50 + ( 10 + step ) * Math.cos( angle ) );
+				final int y = ( int ) Math.round( 50 + ( 10 + step ) * Math.sin( angle ) );
+				if ( x < 1 || y < 1 || x >= SIZE - 1 || y >= SIZE - 1 ) break;
+				mask[ y * SIZE + x ] = true;
+				mask[ y * SIZE + x + 1 ] = true;
+			}
+		}
+
+		return mask;
+	}
+
+	public static void main( String[] args )
+	{
+		new TestShapeDescriptors2D().compareWithMorphoLibJ();
+	}
+}
@@ -0,0 +1,177 @@
+package tests;
+
+import de.embl.cba.morphometry.tracking.SparseLinearAssignment;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the assignments with brute force optima on small random matrices.
+ */
+public class TestSparseLinearAssignment
+{
+	private static final double ALTERNATIVE_COST = 0.6;
+
+	@Test
+	public void hungarianFindsMinimalCost()
+	{
+		final Random random = new Random( 42 );
+
+		for ( int test = 0; test < 200; ++test )
+		{
+			final int n = 1 + random.nextInt( 4 );
+			final int m = n + random.nextInt( 3 );
+			final double[] costs = new double[ n * m ];
+			for ( int i = 0; i < costs.length; ++i )
+				costs[ i ] = random.nextInt( 4 ) == 0 ? random.nextInt( 3 ) : random.nextDouble() * 10; // with ties
+
+			final int[] assignment = SparseLinearAssignment.hungarian( costs, n, m );
+
+			final boolean[] isUsed = new boolean[ m ];
+			double cost = 0;
+			for ( int r = 0; r < n; ++r )
+			{
+				assertTrue( ! isUsed[ assignment[ r ] ] );
+				isUsed[ assignment[ r ] ] = true;
+				cost += costs[ r * m + assignment[ r ] ];
+			}
+
+			assertEquals( minimalDenseCost( costs, n, m, 0, new boolean[ m ] ), cost, 1e-9 );
+		}
+	}
+
+	@Test
+	public void sparseAssignmentFindsMinimalCost()
+	{
+		final Random random = new Random( 7 );
+
+		for ( int test = 0; test < 200; ++test )
+		{
+			final double[][] costs = randomSparseCosts( random, 1 + random.nextInt( 5 ), 1 + random.nextInt( 5 ) );
+			final SparseLinearAssignment assignment = createAssignment( costs );
+			assignment.run();
+
+			assertEquals( minimalSparseCost( costs, 0, new boolean[ costs[ 0 ].length ] ),
+					cost( costs, assignment.getRowAssignments() ), 1e-9 );
+		}
+	}
+
+	@Test
+	public void greedyFallbackAssignsConsistently()
+	{
+		final Random random = new Random( 3 );
+
+		for ( int test = 0; test < 50; ++test )
+		{
+			final double[][] costs = randomSparseCosts( random, 2 + random.nextInt( 4 ), 2 + random.nextInt( 4 ) );
+			final SparseLinearAssignment assignment = createAssignment( costs );
+			assignment.setMaxNumDenseEntries( 0 );
+			assignment.run();
+
+			final int[] rowAssignments = assignment.getRowAssignments();
+			final int[] columnAssignments = assignment.getColumnAssignments();
+
+			for ( int r = 0; r < rowAssignments.length; ++r )
+				if ( rowAssignments[ r ] != -1 )
+				{
+					assertEquals( r, columnAssignments[ rowAssignments[ r ] ] );
+					assertTrue( costs[ r ][ rowAssignments[ r ] ] < 2 * ALTERNATIVE_COST );
+				}
+
+			for ( int c = 0; c < columnAssignments.length; ++c )
+				if ( columnAssignments[ c ] != -1 )
+					assertEquals( c, rowAssignments[ columnAssignments[ c ] ] );
+		}
+	}
+
+	/**
+	 * @return costs[ row ][ column ], where NaN marks the missing links
+	 */
+	private static double[][] randomSparseCosts( Random random, int numRows, int numColumns )
+	{
+		final double[][] costs = new double[ numRows ][ numColumns ];
+		for ( int r = 0; r < numRows; ++r )
+			for ( int c = 0; c < numColumns; ++c )
+				costs[ r ][ c ] = random.nextDouble() < 0.6 ? random.nextDouble() * 2 : Double.NaN;
+		return costs;
+	}
+
+	private static SparseLinearAssignment createAssignment( double[][] costs )
+	{
+		final int numRows = costs.length;
+		final int numColumns = costs[ 0 ].length;
+		final int[] rows = new int[ numRows * numColumns ];
+		final int[] columns = new int[ numRows * numColumns ];
+		final double[] edgeCosts = new double[ numRows * numColumns ];
+
+		int numEdges = 0;
+		for ( int r = 0; r < numRows; ++r )
+			for ( int c = 0; c < numColumns; ++c )
+				if ( ! Double.isNaN( costs[ r ][ c ] ) )
+				{
+					rows[ numEdges ] = r;
+					columns[ numEdges ] = c;
+					edgeCosts[ numEdges++ ] = costs[ r ][ c ];
+				}
+
+		return new SparseLinearAssignment(
+				numRows, numColumns, rows, columns, edgeCosts, numEdges, ALTERNATIVE_COST, ALTERNATIVE_COST );
+	}
+
+	private static double cost( double[][] costs, int[] rowAssignments )
+	{
+		final int numColumns = costs[ 0 ].length;
+		int numAssigned = 0;
+		double cost = 0;
+		for ( int r = 0; r < costs.length; ++r )
+		{
+			if ( rowAssignments[ r ] == -1 ) continue;
+			cost += costs[ r ][ rowAssignments[ r ] ];
+			numAssigned++;
+		}
+
+		return cost + ( costs.length + numColumns - 2 * numAssigned ) * ALTERNATIVE_COST;
+	}
+
+	private static double minimalDenseCost( double[] costs, int n, int m, int row, boolean[] isUsed )
+	{
+		if ( row == n ) return 0;
+
+		double minimum = Double.POSITIVE_INFINITY;
+		for ( int c = 0; c < m; ++c )
+		{
+			if ( isUsed[ c ] ) continue;
+			isUsed[ c ] = true;
+			minimum = Math.min( minimum, costs[ row * m + c ] + minimalDenseCost( costs, n, m, row + 1, isUsed ) );
+			isUsed[ c ] = false;
+		}
+		return minimum;
+	}
+
+	/**
+	 * @return the minimal total cost, including the alternative costs of the rows and columns that are not assigned
+	 */
+	private static double minimalSparseCost( double[][] costs, int row, boolean[] isUsed )
+	{
+		if ( row == costs.length )
+		{
+			int numUnusedColumns = 0;
+			for ( boolean used : isUsed )
+				if ( ! used ) numUnusedColumns++;
+			return numUnusedColumns * ALTERNATIVE_COST;
+		}
+
+		double minimum = ALTERNATIVE_COST + minimalSparseCost( costs, row + 1, isUsed );
+		for ( int c = 0; c < isUsed.length; ++c )
+		{
+			if ( isUsed[ c ] || Double.isNaN( costs[ row ][ c ] ) ) continue;
+			isUsed[ c ] = true;
+			minimum = Math.min( minimum, costs[ row ][ c ] + minimalSparseCost( costs, row + 1, isUsed ) );
+			isUsed[ c ] = false;
+		}
+		return minimum;
+	}
+}
@@ -0,0 +1,117 @@
+package tests;
+
+import de.embl.cba.morphometry.measurements.MeasurementTable;
+import de.embl.cba.morphometry.measurements.TableBackedObjectMeasurements;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestTableBackedObjectMeasurements
+{
+	@Test
+	public void behavesLikeHashMap()
+	{
+		final TableBackedObjectMeasurements measurements = new MeasurementTable().getObjectMeasurements( 0 );
+		final HashMap< Integer, Map< String, Object > > expected = new HashMap<>();
+
+		for ( HashMap< Integer, Map< String, Object > > map : Arrays.asList( measurements, expected ) )
+		{
+			map.put( 3, row( "Volume", 10L ) );
+			map.put( 1, row( "Volume", 20L ) );
+			map.computeIfAbsent( 2, label -> new HashMap<>() ).put( "Volume", 30L );
+			map.merge( 1, row( "Unit", "um" ), ( a, b ) -> { a.putAll( b ); return a; } );
+		}
+
+		assertEquals( expected, measurements );
+		assertEquals( expected.hashCode(), measurements.hashCode() );
+		assertEquals( expected.keySet(), measurements.keySet() );
+		assertEquals( new ArrayList<>( expected.values() ), new ArrayList<>( measurements.values() ) );
+		assertTrue( measurements.containsValue( row( "Volume", 30L ) ) );
+		assertEquals( "um", measurements.get( 1 ).get( "Unit" ) );
+		assertEquals( expected, measurements.clone() );
+	}
+
+	@Test
+	public void putReplacesAllMeasurementsOfObject()
+	{
+		final TableBackedObjectMeasurements measurements = new MeasurementTable().getObjectMeasurements( 0 );
+		measurements.put( 1, row( "Volume", 10L ) );
+		measurements.get( 1 ).put( "Unit", "um" );
+
+		final Map< String, Object > previous = measurements.put( 1, row( "Volume", 11L ) );
+
+		assertEquals( 10L, previous.get( "Volume" ) );
+		assertEquals( "um", previous.get( "Unit" ) );
+		assertEquals( row( "Volume", 11L ), measurements.get( 1 ) );
+
+		// putting the own row view does not change it
+		measurements.put( 1, measurements.get( 1 ) );
+		assertEquals( row( "Volume", 11L ), measurements.get( 1 ) );
+	}
+
+	@Test
+	public void removesObjects()
+	{
+		final MeasurementTable table = new MeasurementTable();
+		final TableBackedObjectMeasurements measurements = table.getObjectMeasurements( 0 );
+		for ( int label = 1; label <= 4; ++label )
+			measurements.put( label, row( "Volume", ( long ) label ) );
+
+		assertEquals( row( "Volume", 2L ), measurements.remove( 2 ) );
+		assertNull( measurements.remove( 2 ) );
+		assertFalse( measurements.remove( 3, row( "Volume", 1L ) ) );
+		assertTrue( measurements.remove( 3, row( "Volume", 3L ) ) );
+
+		final Iterator< Integer > labels = measurements.keySet().iterator();
+		assertEquals( 1, ( int ) labels.next() );
+		labels.remove();
+
+		assertEquals( 1, measurements.size() );
+		assertEquals( 4, ( int ) measurements.keySet().iterator().next() );
+		assertEquals( -1, table.getRow( 0, 2 ) );
+		assertEquals( MeasurementTable.MISSING_LONG, table.getLong( 1, table.findColumnId( "Volume" ) ) );
+
+		// removed objects can be added again
+		measurements.put( 2, row( "Volume", 5L ) );
+		assertEquals( 5L, measurements.get( 2 ).get( "Volume" ) );
+
+		measurements.clear();
+		assertTrue( measurements.isEmpty() );
+		assertFalse( measurements.containsKey( 4 ) );
+	}
+
+	@Test
+	public void widensLongColumnsToDouble()
+	{
+		final MeasurementTable table = new MeasurementTable();
+		final TableBackedObjectMeasurements measurements = table.getObjectMeasurements( 0 );
+		measurements.setLong( 1, "Size", 3 );
+		measurements.setDouble( 2, "Size", 2.5 );
+
+		final int columnId = table.findColumnId( "Size" );
+		assertEquals( MeasurementTable.ColumnType.Double, table.getColumnType( columnId ) );
+		assertEquals( 3.0, measurements.get( 1 ).get( "Size" ) );
+		assertEquals( 2.5, measurements.get( 2 ).get( "Size" ) );
+
+		measurements.setValue( 3, "Size", "n.a." );
+		assertEquals( MeasurementTable.ColumnType.Object, table.getColumnType( columnId ) );
+		assertEquals( MeasurementTable.MISSING_LONG, table.getLong( table.getRow( 0, 3 ), columnId ) );
+		assertEquals( 3L, table.getLong( table.getRow( 0, 1 ), columnId ) );
+	}
+
+	private static Map< String, Object > row( String name, Object value )
+	{
+		final HashMap< String, Object > row = new HashMap<>();
+		row.put( name, value );
+		return row;
+	}
+}